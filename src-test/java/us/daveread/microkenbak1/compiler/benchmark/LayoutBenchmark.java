@@ -0,0 +1,138 @@
+package us.daveread.microkenbak1.compiler.benchmark;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import us.daveread.microkenbak1.compiler.Program;
+import us.daveread.microkenbak1.compiler.SourceEdit;
+import us.daveread.microkenbak1.compiler.Statement;
+import us.daveread.microkenbak1.compiler.StatementNode;
+import us.daveread.microkenbak1.compiler.Tokenizer;
+
+/**
+ * Measures laying out programs of increasing size, all crossing the LED
+ * display address, and editing them. The layout rate should not fall as the
+ * programs grow.
+ *
+ * @author readda
+ *
+ */
+public class LayoutBenchmark {
+  /**
+   * Number of statements in each program laid out.
+   */
+  private static final int[] SIZES = {1_000, 10_000, 100_000 };
+
+  /**
+   * Number of statements laid out for each size (after the same number of
+   * warm-up statements).
+   */
+  private static final int STATEMENTS = 2_000_000;
+
+  /**
+   * Number of edits timed for each size.
+   */
+  private static final int EDITS = 2_000;
+
+  /**
+   * Hide constructor - benchmark entry point only.
+   */
+  private LayoutBenchmark() {
+
+  }
+
+  /**
+   * Create the statements of a program: blocks of a label, arithmetic, and
+   * jumps backward and forward.
+   *
+   * @param size
+   *          The number of statements
+   * @return The parsed statements
+   */
+  private static StatementNode[] nodes(int size) {
+    Tokenizer tokenizer = new Tokenizer();
+    int blocks = size / 5;
+    StatementNode[] nodes = new StatementNode[blocks * 5];
+    for (int block = 0; block < blocks; ++block) {
+      String[] lines = {"LABEL L" + block, "LET A = " + block % 0400,
+        "ADD 1 TO A", "IF A ISZERO GOTO L" + block / 2,
+        "GOTO L" + (block * 7 + 1) % blocks };
+      for (int line = 0; line < lines.length; ++line) {
+        nodes[block * 5 + line] = new Statement(
+            tokenizer.tokenize(lines[line])).getNode();
+      }
+    }
+    return nodes;
+  }
+
+  /**
+   * Create a program from parsed statements, one per source line. It is laid
+   * out when its statements are first read. The larger programs do not fit in
+   * memory, so the error is recorded rather than thrown.
+   *
+   * @param nodes
+   *          The parsed statements
+   * @return The program
+   */
+  private static Program program(StatementNode[] nodes) {
+    Program program = new Program();
+    program.setRecovering(true);
+    for (int index = 0; index < nodes.length; ++index) {
+      Statement stmt = new Statement(nodes[index]);
+      stmt.setSource(index + 1, 0);
+      program.addStatement(stmt);
+    }
+    return program;
+  }
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *          Not used
+   */
+  public static void main(String[] args) {
+    Logger.getRootLogger().setLevel(Level.WARN);
+    long sink = 0;
+
+    System.out.println("Layout benchmark: " + STATEMENTS
+        + " statements per size");
+
+    for (int size : SIZES) {
+      StatementNode[] nodes = nodes(size);
+      int runs = STATEMENTS / nodes.length;
+      if (program(nodes).getStatements().length == nodes.length) {
+        throw new IllegalStateException(
+            "Program should jump around the display address");
+      }
+
+      for (int pass = 0; pass < 2; ++pass) {
+        boolean timed = pass == 1;
+
+        long start = System.nanoTime();
+        for (int run = 0; run < runs; ++run) {
+          sink += program(nodes).getStatements().length;
+        }
+        if (timed) {
+          SampleSource.report("Layout of " + nodes.length + " statements",
+              (long) nodes.length * runs, System.nanoTime() - start);
+        }
+
+        // Editing the last line lays out only that statement again
+        Program program = program(nodes);
+        program.getStatements();
+        start = System.nanoTime();
+        for (int edit = 0; edit < EDITS; ++edit) {
+          sink += program.edit(SourceEdit.replaceLine(nodes.length,
+              "LET B = " + edit % 0400)).size();
+        }
+        if (timed) {
+          SampleSource.report("Edit last of " + nodes.length + " statements",
+              EDITS, System.nanoTime() - start);
+        }
+      }
+    }
+
+    System.out.println("(checksum " + sink + ")");
+  }
+}
@@ -0,0 +1,127 @@
+package us.daveread.microkenbak1.compiler.benchmark;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import us.daveread.microkenbak1.compiler.Lexemes;
+import us.daveread.microkenbak1.compiler.Operand;
+import us.daveread.microkenbak1.compiler.Statement;
+import us.daveread.microkenbak1.compiler.Tokenizer;
+
+/**
+ * Compares classifying ADD/SUBTRACT sources by catching an exception (the
+ * original approach) with the Operand classifier, and measures statement
+ * construction on a literal-heavy source.
+ * 
+ * @author readda
+ *
+ */
+public class OperandBenchmark {
+  /**
+   * Number of source lines per run.
+   */
+  private static final int LINES = 200_000;
+
+  /**
+   * Number of timed runs for each approach (after the same number of warm-up
+   * runs).
+   */
+  private static final int RUNS = 10;
+
+  /**
+   * Literal-heavy statements typical of counting and display loops.
+   */
+  private static final String[] STATEMENTS = { "add 1 to x",
+      "subtract 1 from a", "add 010 to b", "let a = 0222", "and 017",
+      "add x to a", "or 0x80", "memcopy x to display", "subtract 2 from b",
+      "bytes 0360 0300 0" };
+
+  /**
+   * Hide constructor - benchmark entry point only.
+   */
+  private OperandBenchmark() {
+
+  }
+
+  /**
+   * The original ADD/SUBTRACT source check: try the source as a variable and
+   * fall back to a literal when that throws.
+   * 
+   * @param source
+   *          The source lexeme
+   * @return The memory location or literal value
+   */
+  private static int exceptionClassify(String source) {
+    try {
+      if (source.length() != 1 || "ABX".indexOf(source.toUpperCase()) == -1) {
+        throw new IllegalStateException("Variable name must be A, B, or X");
+      }
+      return "ABX".indexOf(source.toUpperCase());
+    } catch (IllegalStateException ise) {
+      Logger.getLogger(OperandBenchmark.class).debug(
+          "Expected exception in ADD, not a variable, now expecting literal");
+    }
+    return Integer.decode(source);
+  }
+
+  /**
+   * Run the benchmark.
+   * 
+   * @param args
+   *          Not used
+   */
+  public static void main(String[] args) {
+    Logger.getRootLogger().setLevel(Level.WARN);
+    Tokenizer tokenizer = new Tokenizer();
+    Lexemes[] lines = new Lexemes[LINES];
+    for (int line = 0; line < LINES; ++line) {
+      lines[line] = tokenizer.tokenize(STATEMENTS[line % STATEMENTS.length]);
+    }
+    long sink = 0;
+
+    System.out.println("Operand benchmark: " + LINES + " lines");
+
+    for (int pass = 0; pass < 2; ++pass) {
+      boolean timed = pass == 1;
+
+      long start = System.nanoTime();
+      for (int run = 0; run < RUNS; ++run) {
+        for (Lexemes lexemes : lines) {
+          if (lexemes.size() == 4) {
+            sink += exceptionClassify(lexemes.get(1));
+          }
+        }
+      }
+      if (timed) {
+        SampleSource.report("Exception-based source check",
+            (long) LINES * RUNS, System.nanoTime() - start);
+      }
+
+      start = System.nanoTime();
+      for (int run = 0; run < RUNS; ++run) {
+        for (Lexemes lexemes : lines) {
+          if (lexemes.size() == 4) {
+            sink += Operand.classify(lexemes, 1).getValue();
+          }
+        }
+      }
+      if (timed) {
+        SampleSource.report("Operand.classify source check",
+            (long) LINES * RUNS, System.nanoTime() - start);
+      }
+
+      start = System.nanoTime();
+      for (int run = 0; run < RUNS; ++run) {
+        for (Lexemes lexemes : lines) {
+          sink += new Statement(lexemes).getOpCodes().length;
+        }
+      }
+      if (timed) {
+        SampleSource.report("Statement construction",
+            (long) LINES * RUNS, System.nanoTime() - start);
+      }
+    }
+
+    System.out.println("(checksum " + sink + ")");
+  }
+}
@@ -0,0 +1,93 @@
+package us.daveread.microkenbak1.compiler.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import us.daveread.microkenbak1.compiler.Compiler;
+import us.daveread.microkenbak1.compiler.ParallelParser;
+import us.daveread.microkenbak1.compiler.Program;
+import us.daveread.microkenbak1.compiler.SourceText;
+
+/**
+ * Compares sequential statement construction with the fork/join front end on
+ * a large source built from the sample programs, and checks that both produce
+ * the same program.
+ *
+ * @author readda
+ *
+ */
+public class ParallelBenchmark {
+  /**
+   * Number of source lines per run.
+   */
+  private static final int LINES = 200_000;
+
+  /**
+   * Number of timed runs for each approach (after the same number of warm-up
+   * runs).
+   */
+  private static final int RUNS = 10;
+
+  /**
+   * Hide constructor - benchmark entry point only.
+   */
+  private ParallelBenchmark() {
+
+  }
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *          Optional samples directory
+   * @throws IOException
+   *           If the samples cannot be read
+   */
+  public static void main(String[] args) throws IOException {
+    String[] lines = SampleSource.load(
+        args.length > 0 ? args[0] : SampleSource.DEFAULT_SAMPLES_DIR, LINES);
+    SourceText source = SourceText.fromString("benchmark",
+        String.join("\n", lines));
+    ParallelParser parallelParser = new ParallelParser();
+    Compiler compiler = new Compiler();
+    long sink = 0;
+
+    System.out.println("Parallel benchmark: " + lines.length + " lines, "
+        + ForkJoinPool.commonPool().getParallelism() + " workers");
+
+    // The repeated samples redefine their labels, so recover from the errors
+    String sequential = compiler.compile(source, true).getInstructions(true);
+    String parallel = compiler.compile(source, true, parallelParser)
+        .getInstructions(true);
+    if (!sequential.equals(parallel)) {
+      throw new IllegalStateException(
+          "Parallel instructions differ from sequential instructions");
+    }
+
+    for (int pass = 0; pass < 2; ++pass) {
+      boolean timed = pass == 1;
+
+      long start = System.nanoTime();
+      for (int run = 0; run < RUNS; ++run) {
+        Program program = compiler.compile(source, true);
+        sink += program.hashCode();
+      }
+      if (timed) {
+        SampleSource.report("Sequential statements",
+            (long) lines.length * RUNS, System.nanoTime() - start);
+      }
+
+      start = System.nanoTime();
+      for (int run = 0; run < RUNS; ++run) {
+        Program program = compiler.compile(source, true, parallelParser);
+        sink += program.hashCode();
+      }
+      if (timed) {
+        SampleSource.report("Fork/join statements",
+            (long) lines.length * RUNS, System.nanoTime() - start);
+      }
+    }
+
+    System.out.println("(checksum " + sink + ")");
+  }
+}
@@ -0,0 +1,125 @@
+package us.daveread.microkenbak1.compiler.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import us.daveread.microkenbak1.compiler.Lexemes;
+import us.daveread.microkenbak1.compiler.Parser;
+import us.daveread.microkenbak1.compiler.Tokenizer;
+
+/**
+ * Compares the throughput of the original String.split based tokenizing with
+ * the span tokenizer, using the sample programs scaled up.
+ * 
+ * @author readda
+ *
+ */
+public class ParserBenchmark {
+  /**
+   * Number of source lines per run.
+   */
+  private static final int LINES = 200_000;
+
+  /**
+   * Number of timed runs for each approach (after the same number of warm-up
+   * runs).
+   */
+  private static final int RUNS = 10;
+
+  /**
+   * Hide constructor - benchmark entry point only.
+   */
+  private ParserBenchmark() {
+
+  }
+
+  /**
+   * The tokenizing previously done in Parser.parse, kept for comparison.
+   * 
+   * @param statement
+   *          A single source line
+   * @return The lexemes, or null if there are none
+   */
+  private static String[] splitTokenize(String statement) {
+    statement = statement.trim();
+    String[] splitStatement = statement.split(" ");
+
+    List<String> packedStatement = new ArrayList<>();
+
+    for (String s : splitStatement) {
+      if (s.trim().startsWith("#")) {
+        break;
+      }
+
+      if (s.trim().length() > 0) {
+        packedStatement.add(s);
+      }
+    }
+
+    if (packedStatement.size() > 0) {
+      return packedStatement.toArray(new String[packedStatement.size()]);
+    }
+    return null;
+  }
+
+  /**
+   * Run the benchmark.
+   * 
+   * @param args
+   *          Optional samples directory
+   * @throws IOException
+   *           If the samples cannot be read
+   */
+  public static void main(String[] args) throws IOException {
+    String[] lines = SampleSource.load(
+        args.length > 0 ? args[0] : SampleSource.DEFAULT_SAMPLES_DIR, LINES);
+    long sink = 0;
+
+    System.out.println("Parser benchmark: " + lines.length + " lines");
+
+    for (int pass = 0; pass < 2; ++pass) {
+      boolean timed = pass == 1;
+
+      long start = System.nanoTime();
+      for (int run = 0; run < RUNS; ++run) {
+        for (String line : lines) {
+          String[] lexemes = splitTokenize(line);
+          sink += lexemes == null ? 0 : lexemes.length;
+        }
+      }
+      if (timed) {
+        SampleSource.report("String.split tokenize", (long) lines.length * RUNS,
+            System.nanoTime() - start);
+      }
+
+      Tokenizer tokenizer = new Tokenizer();
+      start = System.nanoTime();
+      for (int run = 0; run < RUNS; ++run) {
+        for (String line : lines) {
+          Lexemes lexemes = tokenizer.tokenize(line);
+          sink += lexemes == null ? 0 : lexemes.size();
+        }
+      }
+      if (timed) {
+        SampleSource.report("Span tokenize", (long) lines.length * RUNS,
+            System.nanoTime() - start);
+      }
+
+      start = System.nanoTime();
+      for (int run = 0; run < RUNS; ++run) {
+        Parser parser = new Parser();
+        for (String line : lines) {
+          parser.parse(line);
+        }
+        sink += parser.getProgram().hashCode();
+      }
+      if (timed) {
+        SampleSource.report("Parser.parse (tokenize and encode)",
+            (long) lines.length * RUNS, System.nanoTime() - start);
+      }
+    }
+
+    System.out.println("(checksum " + sink + ")");
+  }
+}
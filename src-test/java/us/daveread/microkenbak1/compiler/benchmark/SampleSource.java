@@ -0,0 +1,87 @@
+package us.daveread.microkenbak1.compiler.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Source lines for benchmarking, built by repeating the sample programs until
+ * the requested size is reached.
+ * 
+ * @author readda
+ *
+ */
+public class SampleSource {
+  /**
+   * Default directory holding the sample programs.
+   */
+  public static final String DEFAULT_SAMPLES_DIR = "samples";
+
+  /**
+   * Hide constructor - utility class.
+   */
+  private SampleSource() {
+
+  }
+
+  /**
+   * Load the sample programs, repeated until at least the requested number of
+   * lines is reached. Logging is reduced to warnings so that it does not
+   * dominate the timings.
+   * 
+   * @param samplesDir
+   *          The directory holding the .kb1 sample programs
+   * @param minimumLines
+   *          The minimum number of lines to return
+   * @return The source lines
+   * @throws IOException
+   *           If the samples cannot be read
+   */
+  public static String[] load(String samplesDir, int minimumLines)
+      throws IOException {
+    // Benchmark the compiler, not the console appender
+    Logger.getRootLogger().setLevel(Level.WARN);
+
+    File[] files = new File(samplesDir)
+        .listFiles((dir, name) -> name.endsWith(".kb1"));
+    if (files == null || files.length == 0) {
+      throw new IOException("No .kb1 samples found in " + samplesDir);
+    }
+    Arrays.sort(files);
+
+    List<String> sampleLines = new ArrayList<>();
+    for (File file : files) {
+      sampleLines.addAll(
+          Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+    }
+
+    List<String> lines = new ArrayList<>(minimumLines + sampleLines.size());
+    while (lines.size() < minimumLines) {
+      lines.addAll(sampleLines);
+    }
+
+    return lines.toArray(new String[lines.size()]);
+  }
+
+  /**
+   * Report the throughput for a timed run.
+   * 
+   * @param name
+   *          The name of the run
+   * @param lines
+   *          The number of lines processed
+   * @param nanos
+   *          The elapsed time in nanoseconds
+   */
+  public static void report(String name, long lines, long nanos) {
+    System.out.println(String.format("%-40s %,14.0f lines/sec", name,
+        lines / (nanos / 1_000_000_000.0)));
+  }
+}
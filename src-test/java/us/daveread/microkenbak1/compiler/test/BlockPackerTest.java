@@ -0,0 +1,165 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.Compiler;
+import us.daveread.microkenbak1.compiler.Diagnostic;
+import us.daveread.microkenbak1.compiler.MemoryImage;
+import us.daveread.microkenbak1.compiler.Program;
+import us.daveread.microkenbak1.compiler.SourceEdit;
+import us.daveread.microkenbak1.compiler.SourceText;
+
+/**
+ * Unit tests for the BlockPacker class.
+ *
+ * @author readda
+ *
+ */
+public class BlockPackerTest {
+  /**
+   * Test that a chain that fits the room left below the display is moved
+   * there, with the chains between them after the display.
+   */
+  @Test
+  public void testPacked() {
+    Program program = compile(source(), true);
+    MemoryImage memory = program.freeze().getMemory();
+
+    assertFalse("Program should compile", program.hasErrors());
+    assertEquals("Incorrect bytes saved", 2, program.getSavedBytes());
+    assertEquals("Incorrect moved chain", 0023, memory.get(0152));
+    assertEquals("Incorrect jump to the moved chain", 0204,
+        memory.get(0151));
+    assertEquals("Incorrect jump back", 4, memory.get(0177));
+    assertEquals("Incorrect end", 0236, program.freeze().getEnd());
+    assertFalse("Display should be free", memory.isOccupied(0200));
+  }
+
+  /**
+   * Test that a program packing does not shorten is laid out contiguously.
+   */
+  @Test
+  public void testNotShorter() {
+    StringBuilder source = new StringBuilder();
+    for (int index = 0; index < 70; ++index) {
+      source.append("LET A = 1\n");
+    }
+
+    Program program = compile(source.toString(), true);
+
+    assertEquals("Nothing should be saved", 0, program.getSavedBytes());
+    assertEquals("Layout should be contiguous",
+        compile(source.toString(), false).getInstructions(false),
+        program.getInstructions(false));
+  }
+
+  /**
+   * Test that a program reading a cell of its own code by address is laid
+   * out contiguously with a warning, while one reading a cell past its code
+   * is packed.
+   */
+  @Test
+  public void testAddressDependent() {
+    String source = source().replace("LABEL End\nLET A = 1\n",
+        "LABEL End\nLET A = VALUEIN 0152\n");
+    Program program = compile(source, true);
+
+    assertEquals("Nothing should be saved", 0, program.getSavedBytes());
+    assertEquals("Layout should be contiguous",
+        compile(source, false).getInstructions(false),
+        program.getInstructions(false));
+    List<Diagnostic> diagnostics = program.getDiagnostics();
+    assertEquals("Incorrect number of diagnostics", 1, diagnostics.size());
+    assertEquals("Incorrect warning", Diagnostic.Code.ADDRESS_DEPENDENT,
+        diagnostics.get(0).getCode());
+    assertEquals("Incorrect warning line", 68, diagnostics.get(0).getLine());
+
+    program = compile(source.replace("0152", "0370"), true);
+    assertEquals("Incorrect bytes saved", 2, program.getSavedBytes());
+    assertTrue("Packed program should have no diagnostics",
+        program.getDiagnostics().isEmpty());
+  }
+
+  /**
+   * Test that editing a packed program packs it again, and that turning
+   * packing off restores the contiguous layout.
+   */
+  @Test
+  public void testEdit() {
+    Program program = compile(source(), true);
+    program.getInstructions(false);
+
+    program.edit(new SourceEdit(2, 12, ""));
+    assertEquals("Incorrect edited program",
+        compile(edited(), true).getInstructions(false),
+        program.getInstructions(false));
+
+    program.edit(new SourceEdit(2, 2, repeat("LET A = 1\n", 10)));
+    program.setPacking(false);
+    assertEquals("Incorrect contiguous program",
+        compile(source(), false).getInstructions(false),
+        program.getInstructions(false));
+  }
+
+  /**
+   * Create a program of three chains, the first two of which do not fit
+   * below the display, but the first and third do.
+   *
+   * @return The source code
+   */
+  private static String source() {
+    return "LABEL Start\n" + repeat("LET A = 1\n", 50) + "GOTO Mid\n"
+        + "LABEL Mid\n" + repeat("LET B = 2\n", 12) + "GOTO End\n"
+        + "LABEL End\n" + repeat("LET A = 1\n", 10) + "GOTO Start\n";
+  }
+
+  /**
+   * Create the program with ten statements removed from the first chain.
+   *
+   * @return The source code
+   */
+  private static String edited() {
+    return "LABEL Start\n" + repeat("LET A = 1\n", 40) + "GOTO Mid\n"
+        + "LABEL Mid\n" + repeat("LET B = 2\n", 12) + "GOTO End\n"
+        + "LABEL End\n" + repeat("LET A = 1\n", 10) + "GOTO Start\n";
+  }
+
+  /**
+   * Repeat a line.
+   *
+   * @param line
+   *          The line
+   * @param count
+   *          The number of times
+   * @return The lines
+   */
+  private static String repeat(String line, int count) {
+    StringBuilder text = new StringBuilder();
+    for (int index = 0; index < count; ++index) {
+      text.append(line);
+    }
+    return text.toString();
+  }
+
+  /**
+   * Compile a program.
+   *
+   * @param text
+   *          The source code
+   * @param packing
+   *          True to pack the program
+   * @return The program
+   */
+  private static Program compile(String text, boolean packing) {
+    Program program = new Compiler().compile(SourceText.fromString("test",
+        text), false);
+    program.setPacking(packing);
+    return program;
+  }
+}
@@ -0,0 +1,134 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.ControlFlowGraph;
+import us.daveread.microkenbak1.compiler.Statement;
+
+/**
+ * Unit tests for the ControlFlowGraph class.
+ *
+ * @author readda
+ *
+ */
+public class ControlFlowGraphTest {
+  /**
+   * Test the blocks and edges of jumps, conditional jumps, HALT, which the
+   * program can be run on from, and running past the last statement.
+   */
+  @Test
+  public void testBlocks() {
+    ControlFlowGraph cfg = new ControlFlowGraph(statements("LET A = 1",
+        "LABEL Top", "ADD 1 TO A", "IF A ISZERO GOTO Done", "GOTO Top",
+        "LABEL Done", "HALT", "LET B = 2"));
+
+    assertEquals("Incorrect number of blocks", 7, cfg.size());
+    assertEquals("Incorrect block", 1, cfg.getBlock(3));
+    assertEquals("Incorrect block start", 1, cfg.getFirst(1));
+    assertEquals("Incorrect block end", 4, cfg.getEnd(1));
+    assertFalse("Program should not jump to computed addresses",
+        cfg.hasComputedJumps());
+
+    assertSuccessors(cfg, 0, 1);
+    assertSuccessors(cfg, 1, 3, 2);
+    assertSuccessors(cfg, 2, 1);
+    assertSuccessors(cfg, 3, 4, cfg.getExit());
+    assertSuccessors(cfg, 4, cfg.getExit());
+    assertEquals("Incorrect number of predecessors", 2,
+        cfg.getPredecessorCount(1));
+    assertEquals("Incorrect number of exit predecessors", 2,
+        cfg.getPredecessorCount(cfg.getExit()));
+    assertEquals("Incorrect first block in order", 0, cfg.getOrdered(0));
+  }
+
+  /**
+   * Test that statements which may jump to a computed address pass control
+   * to every block through the unknown block.
+   */
+  @Test
+  public void testComputedJumps() {
+    ControlFlowGraph cfg = new ControlFlowGraph(statements("LET A = 4",
+        "MEMCOPY A TO P", "LABEL Next", "BYTES 0360", "HALT"));
+
+    assertTrue("Program should jump to computed addresses",
+        cfg.hasComputedJumps());
+    assertSuccessors(cfg, 0, cfg.getUnknown());
+    assertSuccessors(cfg, 1, 2, cfg.getUnknown());
+    assertSuccessors(cfg, cfg.getUnknown(), 0, 1, 2);
+  }
+
+  /**
+   * Test that a program of thousands of labels is built without recursion,
+   * with one edge per jump.
+   */
+  @Test
+  public void testManyLabels() {
+    List<String> lines = new ArrayList<>();
+    for (int label = 0; label < 5000; ++label) {
+      lines.add("LABEL L" + label);
+      lines.add("IF A ISZERO GOTO L" + (label + 1));
+    }
+    lines.add("LABEL L5000");
+    ControlFlowGraph cfg = new ControlFlowGraph(
+        statements(lines.toArray(new String[lines.size()])));
+
+    assertEquals("Incorrect number of blocks", 5003, cfg.size());
+    assertSuccessors(cfg, 4999, 5000);
+    assertEquals("Incorrect last block in order", 5000,
+        cfg.getOrdered(5000));
+  }
+
+  /**
+   * Test a program without statements.
+   */
+  @Test
+  public void testEmpty() {
+    ControlFlowGraph cfg = new ControlFlowGraph(statements());
+
+    assertEquals("Incorrect number of blocks", 2, cfg.size());
+    assertEquals("Control should start at the exit", cfg.getExit(),
+        cfg.getStart());
+  }
+
+  /**
+   * Check the successors of a block.
+   *
+   * @param cfg
+   *          The graph
+   * @param block
+   *          The block
+   * @param expected
+   *          The successors expected, in order
+   */
+  private static void assertSuccessors(ControlFlowGraph cfg, int block,
+      int... expected) {
+    assertEquals("Incorrect number of successors of block " + block,
+        expected.length, cfg.getSuccessorCount(block));
+    for (int index = 0; index < expected.length; ++index) {
+      assertEquals("Incorrect successor of block " + block, expected[index],
+          cfg.getSuccessor(block, index));
+    }
+  }
+
+  /**
+   * Parse statements.
+   *
+   * @param lines
+   *          The statements, with lexemes separated by a space
+   * @return The statements
+   */
+  static List<Statement> statements(String... lines) {
+    List<Statement> statements = new ArrayList<>();
+    for (String line : lines) {
+      statements.add(new Statement(line.split(" ")));
+    }
+    return statements;
+  }
+}
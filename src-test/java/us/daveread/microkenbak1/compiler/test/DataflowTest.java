@@ -0,0 +1,112 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.BitMatrix;
+import us.daveread.microkenbak1.compiler.ControlFlowGraph;
+import us.daveread.microkenbak1.compiler.Dataflow;
+
+/**
+ * Unit tests for the Dataflow class.
+ *
+ * @author readda
+ *
+ */
+public class DataflowTest {
+  /**
+   * Test that the blocks after a HALT or GOTO cannot be reached unless
+   * jumped to.
+   */
+  @Test
+  public void testReachability() {
+    ControlFlowGraph cfg = new ControlFlowGraph(ControlFlowGraphTest
+        .statements("LABEL Top", "GOTO Top", "LET A = 1", "LABEL Used",
+            "HALT", "LET B = 1"));
+    BitMatrix reached = Dataflow.reachability(cfg).getIn();
+
+    assertTrue("Start should be reached", reached.get(0, 0));
+    assertFalse("Statement after GOTO should not be reached",
+        reached.get(cfg.getBlock(2), 0));
+    assertFalse("Label never jumped to should not be reached",
+        reached.get(cfg.getBlock(3), 0));
+    assertFalse("Unknown block should not be reached",
+        reached.get(cfg.getUnknown(), 0));
+  }
+
+  /**
+   * Test which registers and flags are live around a loop.
+   */
+  @Test
+  public void testLiveness() {
+    ControlFlowGraph cfg = new ControlFlowGraph(ControlFlowGraphTest
+        .statements("LET A = 1", "LET B = 2", "LET X = 3", "LABEL Top",
+            "ADD B TO A", "IF A OVERFLOW GOTO Done", "GOTO Top", "LABEL Done",
+            "LET A = 0", "LET B = 0", "LET X = 0", "HALT"));
+    Dataflow live = Dataflow.liveness(cfg);
+    BitMatrix in = live.getIn();
+
+    assertFalse("A should be dead before it is set",
+        in.get(cfg.getStart(), 0));
+    assertTrue("A should be live in the loop", in.get(cfg.getBlock(3), 0));
+    assertTrue("B should be live in the loop", in.get(cfg.getBlock(3), 1));
+    assertFalse("X should be dead in the loop", in.get(cfg.getBlock(3), 2));
+    assertTrue("Flag should be live after the loop", in.get(cfg.getBlock(7),
+        Dataflow.FIRST_FLAG));
+    assertFalse("Flag of A should be dead in the loop",
+        in.get(cfg.getBlock(3), Dataflow.FIRST_FLAG));
+    assertEquals("Incorrect variables live at the exit",
+        Dataflow.VARIABLE_COUNT, live.getOut().cardinality(cfg.getExit()));
+  }
+
+  /**
+   * Test which definitions reach a loop, and that a statement which may set
+   * any variable kills no definitions.
+   */
+  @Test
+  public void testReachingDefinitions() {
+    ControlFlowGraph cfg = new ControlFlowGraph(ControlFlowGraphTest
+        .statements("LET A = 1", "LET A = 2", "SYSCALL", "LABEL Top",
+            "ADD 1 TO A", "IF A NOTZERO GOTO Top", "HALT"));
+    Dataflow reaching = Dataflow.reachingDefinitions(cfg);
+    BitMatrix in = reaching.getIn();
+    int loop = cfg.getBlock(3);
+
+    List<String> reached = new ArrayList<>();
+    for (int definition = in.nextSetBit(loop, 0); definition >= 0;
+        definition = in.nextSetBit(loop, definition + 1)) {
+      if (reaching.getDefinitionVariable(definition) == 0) {
+        reached.add(Integer.toString(
+            reaching.getDefinitionStatement(definition)));
+      }
+    }
+    assertEquals("Incorrect definitions of A reaching the loop", "[1, 2, 4]",
+        reached.toString());
+  }
+
+  /**
+   * Test that liveness across a long chain of labels is solved.
+   */
+  @Test
+  public void testManyLabels() {
+    List<String> lines = new ArrayList<>();
+    lines.add("LET B = 1");
+    for (int label = 0; label < 5000; ++label) {
+      lines.add("LABEL L" + label);
+      lines.add("IF A ISZERO GOTO L" + (label + 1));
+    }
+    lines.add("LABEL L5000");
+    lines.add("ADD B TO A");
+    ControlFlowGraph cfg = new ControlFlowGraph(ControlFlowGraphTest
+        .statements(lines.toArray(new String[lines.size()])));
+
+    assertTrue("B should be live along the chain",
+        Dataflow.liveness(cfg).getIn().get(cfg.getBlock(1), 1));
+  }
+}
@@ -0,0 +1,91 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.Compiler;
+import us.daveread.microkenbak1.compiler.DeadCodeElimination;
+import us.daveread.microkenbak1.compiler.Diagnostic;
+import us.daveread.microkenbak1.compiler.OptimizationLevel;
+import us.daveread.microkenbak1.compiler.Program;
+import us.daveread.microkenbak1.compiler.SourceText;
+import us.daveread.microkenbak1.compiler.Statement;
+
+/**
+ * Unit tests for the DeadCodeElimination class.
+ *
+ * @author readda
+ *
+ */
+public class DeadCodeEliminationTest {
+  /**
+   * Test that the statements after a GOTO are removed up to the label it
+   * jumps to, with a remark giving the line of each.
+   */
+  @Test
+  public void testUnreachable() {
+    Compiler compiler = new Compiler();
+    compiler.setOptimizationLevel(OptimizationLevel.O2);
+    Program program = compile(compiler, "LET A = 1\nGOTO End\nLET B = 2\n"
+        + "LABEL Unused\nLET X = 3\nLABEL End\nHALT\n");
+
+    assertEquals("Incorrect instructions",
+        compile(new Compiler(), "LET A = 1\nGOTO End\nLABEL End\nHALT\n")
+            .getInstructions(false),
+        program.getInstructions(false));
+    List<String> remarks = new ArrayList<>();
+    for (Diagnostic diagnostic : program.getDiagnostics()) {
+      remarks.add(diagnostic.getLine() + " " + diagnostic.getMessage());
+    }
+    assertEquals("Incorrect remarks", "[0 Pass jump-threading saved 0 bytes, "
+        + "0 Pass tail-duplication saved 0 bytes, "
+        + "0 Pass dead-code saved 4 bytes, 0 Pass peephole saved 0 bytes, "
+        + "3 Unreachable statement removed: LET B = 2, "
+        + "4 Unreachable statement removed: LABEL Unused, "
+        + "5 Unreachable statement removed: LET X = 3]", remarks.toString());
+  }
+
+  /**
+   * Test that BYTES are kept after a GOTO, that statements after a HALT are
+   * kept, and that nothing is removed from a program that may jump to a
+   * computed address.
+   */
+  @Test
+  public void testKept() {
+    List<Diagnostic> remarks = new ArrayList<>();
+    List<Statement> kept = new DeadCodeElimination().run(
+        ControlFlowGraphTest.statements("LABEL Top", "GOTO Top", "BYTES 1 2",
+            "LET A = 1"), remarks);
+    assertEquals("BYTES should be kept", 3, kept.size());
+    assertEquals("Incorrect number of remarks", 1, remarks.size());
+
+    remarks.clear();
+    kept = new DeadCodeElimination().run(ControlFlowGraphTest.statements(
+        "HALT", "LET A = 1", "HALT"), remarks);
+    assertEquals("Statements after HALT should be kept", 3, kept.size());
+
+    remarks.clear();
+    kept = new DeadCodeElimination().run(ControlFlowGraphTest.statements(
+        "MEMCOPY A TO P", "LET A = 1", "HALT"), remarks);
+    assertEquals("Computed jumps should keep every statement", 3,
+        kept.size());
+    assertEquals("Incorrect number of remarks", 0, remarks.size());
+  }
+
+  /**
+   * Compile a program.
+   *
+   * @param compiler
+   *          The compiler
+   * @param text
+   *          The source code
+   * @return The program
+   */
+  private Program compile(Compiler compiler, String text) {
+    return compiler.compile(SourceText.fromString("test", text), true);
+  }
+}
@@ -0,0 +1,138 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.Compiler;
+import us.daveread.microkenbak1.compiler.EncodingCache;
+import us.daveread.microkenbak1.compiler.Lexemes;
+import us.daveread.microkenbak1.compiler.Program;
+import us.daveread.microkenbak1.compiler.SourceText;
+import us.daveread.microkenbak1.compiler.Statement;
+import us.daveread.microkenbak1.compiler.StatementNode;
+
+/**
+ * Unit tests for the EncodingCache class.
+ *
+ * @author readda
+ *
+ */
+public class EncodingCacheTest {
+  /**
+   * Start each test with empty caches.
+   */
+  @Before
+  public void setUp() {
+    EncodingCache.clear();
+  }
+
+  /**
+   * Test that statements with the same tokens share a node and template, in
+   * the same and in different programs, while their labels are laid out for
+   * each program.
+   */
+  @Test
+  public void testShared() {
+    Program first = compile("LET A = 0222\nSYSCALL\nGOTO End\nSYSCALL\n"
+        + "LABEL End\n");
+    Program second = compile("SYSCALL\nLABEL End\nGOTO End\n");
+    Statement[] firstStmts = first.getStatements();
+    Statement[] secondStmts = second.getStatements();
+
+    assertEquals("Incorrect number of statements cached", 4,
+        EncodingCache.size());
+    assertSame("Statements should share a node", firstStmts[1].getNode(),
+        firstStmts[3].getNode());
+    assertSame("Programs should share a node", firstStmts[1].getNode(),
+        secondStmts[0].getNode());
+    assertSame("Programs should share a template",
+        EncodingCache.encode(firstStmts[2].getNode()),
+        EncodingCache.encode(secondStmts[2].getNode()));
+    assertEquals("Incorrect first destination", "0007: 0344\n0012",
+        firstStmts[2].getOpCode(0).toString());
+    assertEquals("Incorrect second destination", "0005: 0344\n0005",
+        secondStmts[2].getOpCode(0).toString());
+  }
+
+  /**
+   * Test that label names are kept as written.
+   */
+  @Test
+  public void testCaseSensitiveLabels() {
+    StatementNode upper = EncodingCache.parse(Lexemes.of("GOTO", "A"));
+    StatementNode lower = EncodingCache.parse(Lexemes.of("GOTO", "a"));
+
+    assertNotSame("Labels should not share a node", upper, lower);
+    assertEquals("Incorrect label", "a", lower.getLabel());
+  }
+
+  /**
+   * Test that spellings of a statement differing in the case of keywords or
+   * the base of numbers share one entry.
+   */
+  @Test
+  public void testNormalized() {
+    StatementNode octal = EncodingCache.parse(
+        Lexemes.of("LET", "A", "=", "0222"));
+
+    assertSame("Lower case should share a node", octal,
+        EncodingCache.parse(Lexemes.of("let", "a", "=", "0222")));
+    assertSame("Decimal should share a node", octal,
+        EncodingCache.parse(Lexemes.of("let", "a", "=", "146")));
+    assertEquals("Incorrect number of statements cached", 1,
+        EncodingCache.size());
+  }
+
+  /**
+   * Test that a statement in error is not cached and is reported each time.
+   */
+  @Test
+  public void testErrorNotCached() {
+    for (int attempt = 0; attempt < 2; ++attempt) {
+      try {
+        EncodingCache.parse(Lexemes.of("LET", "A", "=", "0400"));
+        fail("Out of range value should be rejected");
+      } catch (IllegalStateException ise) {
+        assertEquals("Nothing should be cached", 0, EncodingCache.size());
+      }
+    }
+  }
+
+  /**
+   * Test that the cache never holds more than its maximum number of entries,
+   * and that a full cache removes the entry used least recently.
+   */
+  @Test
+  public void testBounded() {
+    StatementNode first = EncodingCache.parse(Lexemes.of("GOTO", "L0"));
+    StatementNode second = EncodingCache.parse(Lexemes.of("GOTO", "L1"));
+    for (int index = 2; index < EncodingCache.MAX_ENTRIES; ++index) {
+      EncodingCache.parse(Lexemes.of("GOTO", "L" + index));
+    }
+    EncodingCache.parse(Lexemes.of("GOTO", "L0"));
+    EncodingCache.parse(Lexemes.of("GOTO", "Extra"));
+
+    assertEquals("Incorrect number of entries cached",
+        EncodingCache.MAX_ENTRIES, EncodingCache.size());
+    assertSame("Recently used entry should be kept", first,
+        EncodingCache.parse(Lexemes.of("GOTO", "L0")));
+    assertNotSame("Least recently used entry should be removed", second,
+        EncodingCache.parse(Lexemes.of("GOTO", "L1")));
+  }
+
+  /**
+   * Compile a program.
+   *
+   * @param text
+   *          The source code
+   * @return The program
+   */
+  private Program compile(String text) {
+    return new Compiler().compile(SourceText.fromString("test", text), true);
+  }
+}
@@ -0,0 +1,141 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.Grammar;
+import us.daveread.microkenbak1.compiler.Lexemes;
+import us.daveread.microkenbak1.compiler.StatementException;
+import us.daveread.microkenbak1.compiler.StatementNode;
+
+/**
+ * Unit tests for the Grammar class.
+ *
+ * @author readda
+ *
+ */
+public class GrammarTest {
+  /**
+   * Test that every statement form parses, and that its canonical text parses
+   * to the same statement.
+   */
+  @Test
+  public void testRoundTrip() {
+    String[] statements = {"LABEL Top", "LET A = 5", "LET X = VALUEIN 0200",
+      "GOTO Top", "SYSCALL", "MEMCOPY B TO DISPLAY", "MEMCOPY A TO ADDRESSIN X",
+      "AND 017", "OR 0x10", "ADD X TO A", "ADD 3 TO B", "SUBTRACT A FROM X",
+      "SUBTRACT 1 FROM A", "IF B OVERFLOW GOTO Top", "HALT",
+      "BITSHIFT A LEFT", "BITSHIFT B RIGHT 4", "NOOP", "BYTES 1 2 0377",
+      "INCLUDE lib.kb1" };
+
+    for (String text : statements) {
+      StatementNode node = parse(text);
+      assertEquals("Incorrect round trip of " + text, node,
+          parse(node.toString()));
+    }
+  }
+
+  /**
+   * Test that the optional forms select the right statement.
+   */
+  @Test
+  public void testOptionalForms() {
+    StatementNode let = parse("LET A = VALUEIN B");
+    assertEquals("Incorrect operand", 1, let.getOperand());
+    assertEquals("Should be indirect", true, let.isIndirect());
+
+    StatementNode shift = parse("BITSHIFT A LEFT");
+    assertEquals("Incorrect default count", 1, shift.getCount());
+
+    assertFalse("Should not be indirect",
+        parse("MEMCOPY A TO 0100").isIndirect());
+    assertEquals("Incorrect values", 3, parse("BYTES 1 2 3").getValueCount());
+    assertEquals("Extra lexemes should be ignored", StatementNode.halt(),
+        parse("HALT now"));
+  }
+
+  /**
+   * Test the errors for statements with the wrong shape.
+   */
+  @Test
+  public void testUsage() {
+    assertError("LET A 5", "LET requires variable, =, optional VALUEIN, "
+        + "and value", -1);
+    assertError("LET A = VALUEOF 5", "LET requires variable, =, optional "
+        + "VALUEIN, and value", -1);
+    assertError("MEMCOPY A FROM 5", "MEMCOPY requires variable, TO, optional "
+        + "ADDRESSIN, and memory_location", -1);
+    assertError("AND", "AND requires a value", -1);
+    assertError("SUBTRACT 1 TO A", "SUBTRACT requires value, FROM, and "
+        + "variable", -1);
+    assertError("BYTES", "BYTE requires at least one numeric value (0-255)",
+        -1);
+    assertError("GOTO", "GOTO requires a label name", -1);
+    assertError("LABEL Two Words", "Label names may not contain spaces", 2);
+    assertError("INCLUDE my file", "File names may not contain spaces", 2);
+    assertError("PRINT A", "Undefined keyword: PRINT", 0);
+    assertError("TO A", "Undefined keyword: TO", 0);
+  }
+
+  /**
+   * Test the errors for operands, reported at the first operand in error.
+   */
+  @Test
+  public void testOperands() {
+    assertError("LET Q = Z", "Variable name must be A, B, or X", 1);
+    assertError("ADD Q TO Z", "Value must be a decimal, octal (leading 0), or "
+        + "hexadecimal (leading 0x) integer (found: Q)", 1);
+    assertError("ADD 1 TO 2", "Variable name must be A, B, or X", 3);
+    assertError("BYTES 1 2 0400", "Byte value must be in range 0-255 "
+        + "(decimal), 0-377 (octal), 0xFF (hexadecimal)", 3);
+    assertError("IF A ZERO GOTO End", "Undefined IF test (expected NOTZERO, "
+        + "ISZERO, or OVERFLOW): ZERO", 2);
+    assertError("BITSHIFT X LEFT", "Unsupported variable value [X] in "
+        + "BITSHIFT - only variables A and B are supported", 1);
+    assertError("BITSHIFT A UP", "Unsupported direction [UP] in BITSHIFT - "
+        + "must be LEFT or RIGHT", 2);
+    assertError("BITSHIFT A LEFT 5", "Unsupported bit count [5] in BITSHIFT "
+        + "- limited to 1 to 4 bits", 3);
+    assertError("BITSHIFT A LEFT two", "Unsupported bit count [two] in "
+        + "BITSHIFT - must be a number in the range 1 to 4", 3);
+  }
+
+  /**
+   * Parse a statement.
+   *
+   * @param text
+   *          The statement, lexemes separated by single spaces
+   * @return The parsed statement
+   */
+  private StatementNode parse(String text) {
+    return Grammar.parse(Lexemes.of(text.split(" ")));
+  }
+
+  /**
+   * Check the error for a statement.
+   *
+   * @param text
+   *          The statement, lexemes separated by single spaces
+   * @param message
+   *          The expected message
+   * @param lexeme
+   *          The expected lexeme index, -1 if the error is for the whole
+   *          statement
+   */
+  private void assertError(String text, String message, int lexeme) {
+    try {
+      parse(text);
+      fail("Error expected for " + text);
+    } catch (StatementException e) {
+      assertEquals("Incorrect message for " + text, message, e.getMessage());
+      assertEquals("Incorrect lexeme for " + text, lexeme, e.getLexeme());
+    } catch (IllegalStateException e) {
+      assertEquals("Incorrect message for " + text, message, e.getMessage());
+      assertEquals("Error should be for the whole statement: " + text, -1,
+          lexeme);
+    }
+  }
+}
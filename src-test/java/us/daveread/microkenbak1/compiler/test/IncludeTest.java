@@ -0,0 +1,213 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import us.daveread.microkenbak1.compiler.CompilationUnit;
+import us.daveread.microkenbak1.compiler.Compiler;
+import us.daveread.microkenbak1.compiler.Diagnostic;
+import us.daveread.microkenbak1.compiler.IncludeCache;
+import us.daveread.microkenbak1.compiler.Program;
+import us.daveread.microkenbak1.compiler.SourceEdit;
+
+/**
+ * Unit tests for the INCLUDE statement.
+ *
+ * @author readda
+ *
+ */
+public class IncludeTest {
+  /**
+   * The directory holding the source files.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Test that an included file's statements are placed in the program once,
+   * however many times it is included.
+   *
+   * @throws IOException
+   *           If a source file cannot be written
+   */
+  @Test
+  public void testIncludedOnce() throws IOException {
+    write("delay.kb1", "LET A = 0222\nLET B = 0377\nSYSCALL\n");
+    File main = write("main.kb1",
+        "LET X = 1\nINCLUDE delay.kb1\nINCLUDE delay.kb1\nHALT\n");
+
+    Program program = new Compiler().compile(main.getPath());
+
+    assertEquals("Incorrect instructions",
+        instructions(
+            "LET X = 1\nLET A = 0222\nLET B = 0377\nSYSCALL\nHALT\n"),
+        program.getInstructions(false));
+  }
+
+  /**
+   * Test that nested files are found relative to the including file, and that
+   * a file including the program adds nothing.
+   *
+   * @throws IOException
+   *           If a source file cannot be written
+   */
+  @Test
+  public void testNestedAndCyclic() throws IOException {
+    folder.newFolder("lib");
+    write("lib/leds.kb1", "INCLUDE pattern.kb1\nMEMCOPY A TO DISPLAY\n");
+    write("lib/pattern.kb1", "LET A = 0252\nINCLUDE ../main.kb1\n");
+    File main = write("main.kb1", "INCLUDE lib/leds.kb1\nHALT\n");
+
+    Program program = new Compiler().compile(main.getPath());
+
+    assertEquals("Incorrect instructions",
+        instructions("LET A = 0252\nMEMCOPY A TO DISPLAY\nHALT\n"),
+        program.getInstructions(false));
+  }
+
+  /**
+   * Test that a file is parsed once, and again only when it changes.
+   *
+   * @throws IOException
+   *           If a source file cannot be written
+   */
+  @Test
+  public void testCache() throws IOException {
+    File library = write("library.kb1", "NOOP\n");
+
+    CompilationUnit first = IncludeCache.get(library);
+    assertSame("Unchanged file should not be parsed again", first,
+        IncludeCache.get(new File(folder.getRoot(), "./library.kb1")));
+
+    write("library.kb1", "NOOP\nNOOP\n");
+    library.setLastModified(first.getFile().lastModified() + 2000);
+    CompilationUnit second = IncludeCache.get(library);
+
+    assertNotSame("Changed file should be parsed again", first, second);
+    assertEquals("Incorrect number of statements", 2,
+        second.getNodes().size());
+  }
+
+  /**
+   * Test that an error in an included file is reported at the INCLUDE.
+   *
+   * @throws IOException
+   *           If a source file cannot be written
+   */
+  @Test
+  public void testErrorInIncludedFile() throws IOException {
+    File library = write("broken.kb1", "NOOP\nLET Q = 1\n");
+    File main = write("main.kb1", "NOOP\nINCLUDE broken.kb1\nINCLUDE gone\n");
+
+    assertNull("Program should not be returned",
+        new Compiler().compile(main.getPath()));
+
+    List<Diagnostic> diagnostics = new Compiler().compile(main.getPath(), true)
+        .getDiagnostics();
+    assertEquals("Incorrect number of diagnostics", 2, diagnostics.size());
+    assertEquals("Incorrect message",
+        "Error in included file " + library.getCanonicalFile()
+            + " at line 2: Variable name must be A, B, or X",
+        diagnostics.get(0).getMessage());
+    assertEquals("Incorrect line", 2, diagnostics.get(0).getLine());
+    assertEquals("Incorrect missing file message", "Included file not found: "
+        + new File(folder.getRoot().getCanonicalFile(), "gone"),
+        diagnostics.get(1).getMessage());
+  }
+
+  /**
+   * Test that editing an INCLUDE line replaces the included statements.
+   *
+   * @throws IOException
+   *           If a source file cannot be written
+   */
+  @Test
+  public void testEditInclude() throws IOException {
+    write("one.kb1", "LET A = 1\n");
+    write("two.kb1", "LET A = 2\nLET B = 2\n");
+    File main = write("main.kb1", "INCLUDE one.kb1\nHALT\n");
+    Program program = new Compiler().compile(main.getPath());
+    program.getInstructions(false);
+
+    program.edit(
+        SourceEdit.replaceLine(1, "INCLUDE two.kb1\nINCLUDE one.kb1"));
+
+    assertEquals("Incorrect instructions",
+        instructions("LET A = 2\nLET B = 2\nLET A = 1\nHALT\n"),
+        program.getInstructions(false));
+  }
+
+  /**
+   * Test that deleting the first INCLUDE of a file moves its statements to
+   * the next INCLUDE of it, and that inserting an INCLUDE above the first
+   * moves them up, as compiling the edited source does.
+   *
+   * @throws IOException
+   *           If a source file cannot be written
+   */
+  @Test
+  public void testEditFirstInclude() throws IOException {
+    write("lib.kb1", "LET A = 1\n");
+    File main = write("main.kb1",
+        "INCLUDE lib.kb1\nLET B = 2\nINCLUDE lib.kb1\nLET X = 3\nHALT\n");
+    Program program = new Compiler().compile(main.getPath());
+    program.getInstructions(false);
+
+    program.edit(new SourceEdit(1, 2, ""));
+
+    assertEquals("Incorrect instructions after deleting",
+        instructions("LET B = 2\nINCLUDE lib.kb1\nLET X = 3\nHALT\n"),
+        program.getInstructions(false));
+
+    program.edit(new SourceEdit(1, 1, "INCLUDE lib.kb1\n"));
+
+    assertEquals("Incorrect instructions after inserting", instructions(
+        "INCLUDE lib.kb1\nLET B = 2\nINCLUDE lib.kb1\nLET X = 3\nHALT\n"),
+        program.getInstructions(false));
+  }
+
+  /**
+   * Write a source file.
+   *
+   * @param name
+   *          The file name, relative to the folder
+   * @param text
+   *          The source code
+   * @return The file
+   *
+   * @throws IOException
+   *           If a source file cannot be written
+   */
+  private File write(String name, String text) throws IOException {
+    File file = new File(folder.getRoot(), name);
+    Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  /**
+   * Compile source code in a file and get its instructions.
+   *
+   * @param text
+   *          The source code
+   * @return The instructions
+   *
+   * @throws IOException
+   *           If a source file cannot be written
+   */
+  private String instructions(String text) throws IOException {
+    File file = write("expected.kb1", text);
+    return new Compiler().compile(file.getPath()).getInstructions(false);
+  }
+}
@@ -0,0 +1,100 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.InstructionSet;
+import us.daveread.microkenbak1.compiler.Keyword;
+import us.daveread.microkenbak1.compiler.Operation;
+
+/**
+ * Unit tests for the InstructionSet class.
+ *
+ * @author readda
+ *
+ */
+public class InstructionSetTest {
+  /**
+   * Test the operating codes of operations with an operand.
+   */
+  @Test
+  public void testOperations() {
+    assertEquals("Incorrect LET", 0023, InstructionSet.opCode(Operation.LET,
+        Keyword.A, InstructionSet.Mode.IMMEDIATE));
+    assertEquals("Incorrect LET from memory", 0224, InstructionSet.opCode(
+        Operation.LET, Keyword.X, InstructionSet.Mode.MEMORY));
+    assertEquals("Incorrect MEMCOPY", 0135, InstructionSet.opCode(
+        Operation.MEMCOPY, Keyword.B, InstructionSet.Mode.INDIRECT));
+    assertEquals("Incorrect SUBTRACT", 0013, InstructionSet.opCode(
+        Operation.SUBTRACT, Keyword.A, InstructionSet.Mode.IMMEDIATE));
+    assertEquals("Incorrect AND", 0323, InstructionSet.opCode(Operation.AND,
+        null, InstructionSet.Mode.IMMEDIATE));
+    assertEquals("Incorrect OR", 0303, InstructionSet.opCode(Operation.OR,
+        null, InstructionSet.Mode.IMMEDIATE));
+    assertEquals("Incorrect HALT", 0000, InstructionSet.opCode(
+        Operation.HALT, null, InstructionSet.Mode.IMPLIED));
+  }
+
+  /**
+   * Test the operating codes of jumps, skips and shifts.
+   */
+  @Test
+  public void testJumpsAndShifts() {
+    assertEquals("Incorrect GOTO", 0344, InstructionSet.opCode(
+        Operation.GOTO, null, InstructionSet.Mode.IMPLIED));
+    assertEquals("Incorrect jump", 0144,
+        InstructionSet.jump(Keyword.B, Keyword.ISZERO));
+    assertEquals("Incorrect jump on X", 0243,
+        InstructionSet.jump(Keyword.X, Keyword.NOTZERO));
+    assertEquals("Incorrect skip", 0212, InstructionSet.skip(1, 0));
+    assertEquals("Incorrect shift", 0251,
+        InstructionSet.shift(Keyword.B, Keyword.LEFT, 1));
+    assertEquals("Incorrect shift by 4", 0041,
+        InstructionSet.shift(Keyword.B, Keyword.RIGHT, 4));
+  }
+
+  /**
+   * Test the size, cost and name of operating codes.
+   */
+  @Test
+  public void testDecode() {
+    assertEquals("Incorrect cells", 2, InstructionSet.cells(0023));
+    assertEquals("Incorrect jump cells", InstructionSet.JUMP_CELLS,
+        InstructionSet.cells(0344));
+    assertEquals("Incorrect shift cells", 1, InstructionSet.cells(0201));
+    assertEquals("Incorrect cycles", 4, InstructionSet.cycles(0035));
+    assertEquals("Incorrect name", "ADD B MEMORY", InstructionSet.name(0104));
+    assertEquals("Incorrect jump name", "IF A ISZERO GOTO",
+        InstructionSet.name(0044));
+    assertNull("Operating code not generated should have no name",
+        InstructionSet.name(0002));
+    assertEquals("Operating code not generated should have no cells", 0,
+        InstructionSet.cells(0002));
+  }
+
+  /**
+   * Test that forms the microKENBAK-1 does not have are rejected.
+   */
+  @Test
+  public void testUndefined() {
+    try {
+      InstructionSet.opCode(Operation.LET, null,
+          InstructionSet.Mode.IMMEDIATE);
+      fail("LET without a variable should be rejected");
+    } catch (IllegalStateException ise) {
+      assertEquals("Incorrect error", "Undefined operation: LET IMMEDIATE",
+          ise.getMessage());
+    }
+    try {
+      InstructionSet.jump(Keyword.A, Keyword.OVERFLOW);
+      fail("Jump on overflow should be rejected");
+    } catch (IllegalStateException ise) {
+      assertEquals("Incorrect error",
+          "Undefined jump test (expected NOTZERO or ISZERO): OVERFLOW",
+          ise.getMessage());
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.Compiler;
+import us.daveread.microkenbak1.compiler.Diagnostic;
+import us.daveread.microkenbak1.compiler.JumpThreading;
+import us.daveread.microkenbak1.compiler.OptimizationLevel;
+import us.daveread.microkenbak1.compiler.Program;
+import us.daveread.microkenbak1.compiler.SourceText;
+import us.daveread.microkenbak1.compiler.Statement;
+
+/**
+ * Unit tests for the JumpThreading class.
+ *
+ * @author readda
+ *
+ */
+public class JumpThreadingTest {
+  /**
+   * Test that jumps to a chain of GOTOs go straight to its end, and that a
+   * chain looping back on itself is left alone.
+   */
+  @Test
+  public void testThreading() {
+    List<Diagnostic> remarks = new ArrayList<>();
+    List<String> threaded = run(remarks, "LABEL Top", "IF A ISZERO GOTO One",
+        "GOTO Two", "LET B = 1", "LABEL One", "GOTO Two", "LABEL Two",
+        "LABEL Three", "GOTO Top", "LABEL Loop", "GOTO Spin", "LET A = 1",
+        "LABEL Spin", "GOTO Loop");
+
+    assertEquals("Incorrect statements", "[LABEL Top, IF A ISZERO GOTO Top, "
+        + "GOTO Top, LET B = 1, LABEL One, LABEL Two, LABEL Three, GOTO Top, "
+        + "LABEL Loop, GOTO Spin, LET A = 1, LABEL Spin, GOTO Loop]",
+        threaded.toString());
+    assertEquals("Incorrect remark", "Jump threaded: IF A ISZERO GOTO One "
+        + "replaced by IF A ISZERO GOTO Top", remarks.get(0).getMessage());
+  }
+
+  /**
+   * Test that an IF jumping past a GOTO is inverted, that IF OVERFLOW is
+   * threaded but not inverted, and that jumps to the next statement are
+   * removed.
+   */
+  @Test
+  public void testInversion() {
+    List<Diagnostic> remarks = new ArrayList<>();
+    List<String> inverted = run(remarks, "LABEL Top", "IF B NOTZERO GOTO On",
+        "GOTO Top", "LABEL On", "IF A OVERFLOW GOTO Skip", "GOTO Top",
+        "LABEL Skip", "GOTO Next", "LABEL Next", "HALT");
+
+    assertEquals("Incorrect statements", "[LABEL Top, IF B ISZERO GOTO Top, "
+        + "LABEL On, IF A OVERFLOW GOTO Next, GOTO Top, LABEL Skip, "
+        + "LABEL Next, HALT]", inverted.toString());
+    assertEquals("Incorrect remark", "Branch inverted: IF B NOTZERO GOTO On; "
+        + "GOTO Top replaced by IF B ISZERO GOTO Top",
+        remarks.get(0).getMessage());
+    assertEquals("Incorrect remark", "Jump to the next statement removed: "
+        + "GOTO Next", remarks.get(2).getMessage());
+  }
+
+  /**
+   * Test that a program that may jump to a computed address is left
+   * unchanged.
+   */
+  @Test
+  public void testComputedJump() {
+    List<Diagnostic> remarks = new ArrayList<>();
+    List<String> kept = run(remarks, "MEMCOPY A TO P", "GOTO One",
+        "LABEL One", "GOTO Two", "LABEL Two", "HALT");
+
+    assertEquals("Incorrect statements", "[MEMCOPY A TO P, GOTO One, "
+        + "LABEL One, GOTO Two, LABEL Two, HALT]", kept.toString());
+    assertEquals("Incorrect number of remarks", 0, remarks.size());
+  }
+
+  /**
+   * Test that threading with dead code elimination shrinks a compiled
+   * program.
+   */
+  @Test
+  public void testCompiled() {
+    Compiler compiler = new Compiler();
+    compiler.setOptimizationLevel(OptimizationLevel.O2);
+    Program program = compiler.compile(SourceText.fromString("test",
+        "LABEL Top\nIF A ISZERO GOTO Zero\nGOTO Top\nLABEL Zero\n"
+            + "GOTO Done\nLABEL Done\nHALT\n"), true);
+    Program expected = new Compiler().compile(SourceText.fromString("test",
+        "LABEL Top\nIF A NOTZERO GOTO Top\nLABEL Zero\nLABEL Done\nHALT\n"),
+        true);
+
+    assertEquals("Incorrect instructions", expected.getInstructions(false),
+        program.getInstructions(false));
+  }
+
+  /**
+   * Run the pass over statements.
+   *
+   * @param remarks
+   *          Collects the remarks
+   * @param lines
+   *          The statements, with lexemes separated by a space
+   * @return The formatted statements after the pass
+   */
+  private static List<String> run(List<Diagnostic> remarks,
+      String... lines) {
+    List<String> formatted = new ArrayList<>();
+    for (Statement stmt : new JumpThreading().run(
+        ControlFlowGraphTest.statements(lines), remarks)) {
+      formatted.add(stmt.getFormattedStatement().trim());
+    }
+    return formatted;
+  }
+}
@@ -0,0 +1,73 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.Keyword;
+
+/**
+ * Unit tests for the Keyword class.
+ * 
+ * @author readda
+ *
+ */
+public class KeywordTest {
+  /**
+   * Test that every keyword is found in upper, lower, and mixed case.
+   */
+  @Test
+  public void testLookupAllKeywords() {
+    for (Keyword keyword : Keyword.values()) {
+      String text = keyword.getText();
+      assertSame("Upper case lookup failed for " + text, keyword,
+          Keyword.lookup(text));
+      assertSame("Lower case lookup failed for " + text, keyword,
+          Keyword.lookup(text.toLowerCase()));
+      assertSame("Mixed case lookup failed for " + text, keyword,
+          Keyword.lookup(text.substring(0, 1)
+              + text.substring(1).toLowerCase()));
+    }
+  }
+
+  /**
+   * Test that non-keywords are not found.
+   */
+  @Test
+  public void testLookupNonKeywords() {
+    assertNull("Label name found as keyword", Keyword.lookup("top"));
+    assertNull("Number found as keyword", Keyword.lookup("0377"));
+    assertNull("Prefix found as keyword", Keyword.lookup("MEM"));
+    assertNull("Extended keyword found", Keyword.lookup("LABELS"));
+    assertNull("Empty text found as keyword", Keyword.lookup(""));
+  }
+
+  /**
+   * Test a lookup within a larger buffer.
+   */
+  @Test
+  public void testLookupInBuffer() {
+    char[] buffer = "memcopy b to display".toCharArray();
+
+    assertSame("Incorrect keyword", Keyword.DISPLAY,
+        Keyword.lookup(buffer, 13, 7));
+  }
+
+  /**
+   * Test the memory locations of the variables and mnemonic names.
+   */
+  @Test
+  public void testMemoryLocations() {
+    assertEquals("Incorrect location for A", 0, Keyword.A.getMemoryLocation());
+    assertEquals("Incorrect location for P", 03,
+        Keyword.P.getMemoryLocation());
+    assertEquals("Incorrect location for DISPLAY", 0200,
+        Keyword.DISPLAY.getMemoryLocation());
+    assertEquals("Incorrect location for INPUT", 0377,
+        Keyword.INPUT.getMemoryLocation());
+    assertEquals("Keyword should not have a location", -1,
+        Keyword.LET.getMemoryLocation());
+  }
+}
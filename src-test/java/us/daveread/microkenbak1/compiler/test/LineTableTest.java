@@ -0,0 +1,82 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.Compiler;
+import us.daveread.microkenbak1.compiler.LineTable;
+import us.daveread.microkenbak1.compiler.Program;
+import us.daveread.microkenbak1.compiler.SourceEdit;
+import us.daveread.microkenbak1.compiler.SourceText;
+
+/**
+ * Unit tests for the LineTable class.
+ *
+ * @author readda
+ *
+ */
+public class LineTableTest {
+  /**
+   * Test that each address is mapped to its source line, with a run for each
+   * statement holding operating codes.
+   */
+  @Test
+  public void testLines() {
+    LineTable table = compile("LET A = 1\n\nLABEL Top\nLET B = 2\n"
+        + "GOTO Top\n").freeze().getLineTable();
+
+    assertEquals("Incorrect number of runs", 4, table.size());
+    assertEquals("Registers should not have a line", 0, table.getLine(2));
+    assertEquals("Incorrect line", 1, table.getLine(5));
+    assertEquals("Incorrect line for a jump destination", 5,
+        table.getLine(011));
+    assertEquals("Incorrect run start", 6, table.getRunStart(2));
+    assertEquals("Incorrect run line", 4, table.getRunLine(2));
+    assertEquals("Cells past the program should not have a line", 0,
+        table.getLine(012));
+    assertEquals("Cells before memory should not have a line", 0,
+        table.getLine(-1));
+    assertEquals("Incorrect format", "0000 0\n0004 1\n0006 4\n0010 5\n0012\n",
+        table.format());
+  }
+
+  /**
+   * Test that the jump around the display address has no line, and that the
+   * table follows the source as it is edited.
+   */
+  @Test
+  public void testDisplayJump() {
+    StringBuilder source = new StringBuilder("LABEL Top\n");
+    for (int index = 0; index < 075; ++index) {
+      source.append("LET A = 1\n");
+    }
+    source.append("GOTO Top\n");
+    Program program = compile(source.toString());
+    LineTable table = program.freeze().getLineTable();
+
+    assertEquals("Incorrect line before the display", 076,
+        table.getLine(0175));
+    assertEquals("Jump around the display should not have a line", 0,
+        table.getLine(0177));
+    assertEquals("Display should not have a line", 0, table.getLine(0203));
+    assertEquals("Incorrect line after the display", 077,
+        table.getLine(0204));
+
+    program.edit(new SourceEdit(1, 1, "\n\n"));
+    assertEquals("Incorrect line after editing", 0101,
+        program.freeze().getLineTable().getLine(0204));
+    assertEquals("Table should not change", 077, table.getLine(0204));
+  }
+
+  /**
+   * Compile a program.
+   *
+   * @param text
+   *          The source code
+   * @return The program
+   */
+  private Program compile(String text) {
+    return new Compiler().compile(SourceText.fromString("test", text), true);
+  }
+}
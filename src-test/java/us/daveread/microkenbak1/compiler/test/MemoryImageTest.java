@@ -0,0 +1,122 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.Compiler;
+import us.daveread.microkenbak1.compiler.Diagnostic;
+import us.daveread.microkenbak1.compiler.MemoryImage;
+import us.daveread.microkenbak1.compiler.Program;
+import us.daveread.microkenbak1.compiler.SourceEdit;
+import us.daveread.microkenbak1.compiler.SourceText;
+
+/**
+ * Unit tests for the MemoryImage class.
+ *
+ * @author readda
+ *
+ */
+public class MemoryImageTest {
+  /**
+   * Test that each reserved cell is found in its region.
+   */
+  @Test
+  public void testRegions() {
+    assertEquals("Incorrect region for X", MemoryImage.Region.REGISTERS,
+        MemoryImage.Region.at(2));
+    assertEquals("Incorrect region for P",
+        MemoryImage.Region.PROGRAM_COUNTER, MemoryImage.Region.at(3));
+    assertNull("Program cells should not be reserved",
+        MemoryImage.Region.at(MemoryImage.PROGRAM_START));
+    assertEquals("Incorrect region for the display",
+        MemoryImage.Region.DISPLAY, MemoryImage.Region.at(0200));
+    assertEquals("Incorrect region for the flags",
+        MemoryImage.Region.OVERFLOW_FLAGS, MemoryImage.Region.at(0203));
+    assertNull("Cells past the flags should not be reserved",
+        MemoryImage.Region.at(0204));
+    assertEquals("Incorrect region for the input",
+        MemoryImage.Region.INPUT, MemoryImage.Region.at(0377));
+    assertNull("Cells past memory should not be reserved",
+        MemoryImage.Region.at(0400));
+  }
+
+  /**
+   * Test that an empty program has only the registers and program counter.
+   */
+  @Test
+  public void testEmpty() {
+    MemoryImage memory = new MemoryImage();
+
+    assertTrue("Registers should be occupied", memory.isOccupied(0));
+    assertEquals("Incorrect program counter", MemoryImage.PROGRAM_START,
+        memory.get(MemoryImage.PROGRAM_COUNTER_ADDRESS));
+    assertFalse("Program cells should be free",
+        memory.isOccupied(MemoryImage.PROGRAM_START));
+    assertFalse("Cells past memory should be free",
+        memory.isOccupied(MemoryImage.SIZE));
+  }
+
+  /**
+   * Test that the layout stores the program in the image, jumping around the
+   * display, and frees the cells a shorter program no longer uses.
+   */
+  @Test
+  public void testLayout() {
+    StringBuilder source = new StringBuilder("LABEL Top\n");
+    for (int index = 0; index < 075; ++index) {
+      source.append("LET A = 1\n");
+    }
+    source.append("GOTO Top\n");
+    Program program = compile(source.toString());
+    MemoryImage memory = program.freeze().getMemory();
+
+    assertEquals("Incorrect operation", 0023, memory.get(4));
+    assertEquals("Incorrect jump around the display", 0344,
+        memory.get(0176));
+    assertEquals("Incorrect jump destination", 0204, memory.get(0177));
+    assertTrue("Display should be padded", memory.isOccupied(0200));
+    assertEquals("Incorrect last destination", 4, memory.get(0205));
+    assertFalse("Cells past the program should be free",
+        memory.isOccupied(0206));
+
+    program.edit(new SourceEdit(3, 077, ""));
+    memory = program.freeze().getMemory();
+    assertEquals("Incorrect jump", 0344, memory.get(6));
+    assertFalse("Cells past the shorter program should be free",
+        memory.isOccupied(010));
+    assertFalse("Display should be free", memory.isOccupied(0200));
+  }
+
+  /**
+   * Test that a program running into the data buttons address is an error.
+   */
+  @Test
+  public void testFull() {
+    StringBuilder source = new StringBuilder();
+    for (int index = 0; index < 0175; ++index) {
+      source.append("LET A = 1\n");
+    }
+    Program program = compile(source.toString());
+
+    assertEquals("Incorrect error", Diagnostic.Code.LAYOUT_ERROR,
+        program.getDiagnostics().get(0).getCode());
+    assertEquals("Instructions should stop at the end of memory",
+        MemoryImage.SIZE,
+        program.getInstructions(false).split("\n").length);
+  }
+
+  /**
+   * Compile a program.
+   *
+   * @param text
+   *          The source code
+   * @return The program
+   */
+  private Program compile(String text) {
+    return new Compiler().compile(SourceText.fromString("test", text), true);
+  }
+}
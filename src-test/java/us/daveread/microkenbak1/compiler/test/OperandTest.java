@@ -0,0 +1,107 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.ByteLiteral;
+import us.daveread.microkenbak1.compiler.Keyword;
+import us.daveread.microkenbak1.compiler.Lexemes;
+import us.daveread.microkenbak1.compiler.Operand;
+
+/**
+ * Unit tests for the Operand and ByteLiteral classes.
+ * 
+ * @author readda
+ *
+ */
+public class OperandTest {
+  /**
+   * Test classification of the variables.
+   */
+  @Test
+  public void testRegister() {
+    Operand operand = Operand.classify(Lexemes.of("add", "x", "to", "a"), 1);
+
+    assertEquals("Incorrect kind", Operand.Kind.REGISTER, operand.getKind());
+    assertEquals("Incorrect variable", Keyword.X, operand.getKeyword());
+    assertEquals("Incorrect memory location", 2, operand.getValue());
+    assertNull("Valid operand should have no reason", operand.getReason());
+  }
+
+  /**
+   * Test classification of the mnemonic location names.
+   */
+  @Test
+  public void testMnemonic() {
+    Operand operand = Operand.classify(Lexemes.of("Display"), 0);
+
+    assertEquals("Incorrect kind", Operand.Kind.MNEMONIC, operand.getKind());
+    assertEquals("Incorrect memory location", 0200, operand.getValue());
+  }
+
+  /**
+   * Test classification of literals, which are shared instances.
+   */
+  @Test
+  public void testLiteral() {
+    Operand operand = Operand.classify(Lexemes.of("0x1F"), 0);
+
+    assertEquals("Incorrect kind", Operand.Kind.LITERAL, operand.getKind());
+    assertEquals("Incorrect value", 037, operand.getValue());
+    assertSame("Literal operands should be shared", Operand.literal(037),
+        operand);
+  }
+
+  /**
+   * Test that invalid operands carry a reason rather than throwing.
+   */
+  @Test
+  public void testInvalid() {
+    Operand notNumber = Operand.classify(Lexemes.of("twelve"), 0);
+    Operand outOfRange = Operand.classify(Lexemes.of("0400"), 0);
+    Operand keyword = Operand.classify(Lexemes.of("TO"), 0);
+
+    assertEquals("Incorrect kind", Operand.Kind.INVALID, notNumber.getKind());
+    assertNotNull("Missing reason", notNumber.getReason());
+    assertEquals("Incorrect reason", Operand.OUT_OF_RANGE_REASON,
+        outOfRange.getReason());
+    assertEquals("Keyword is not an operand", Operand.Kind.INVALID,
+        keyword.getKind());
+  }
+
+  /**
+   * Test that literals are parsed as Integer.decode would.
+   */
+  @Test
+  public void testByteLiteralMatchesDecode() {
+    String[] values = { "0", "00", "7", "010", "0377", "255", "0xFF", "0Xa",
+        "+12", "-0" };
+
+    for (String value : values) {
+      assertEquals("Incorrect value for " + value,
+          Integer.decode(value).intValue(), ByteLiteral.parse(value));
+    }
+  }
+
+  /**
+   * Test literals that are not byte values.
+   */
+  @Test
+  public void testByteLiteralErrors() {
+    String[] notNumbers = { "", "0x", "08", "1a", "-", "0xG", "99999999999" };
+    String[] outOfRange = { "256", "0400", "0x100", "-1" };
+
+    for (String value : notNumbers) {
+      assertEquals("Should not be a number: " + value,
+          ByteLiteral.NOT_A_NUMBER, ByteLiteral.parse(value));
+    }
+    for (String value : outOfRange) {
+      assertEquals("Should be out of range: " + value,
+          ByteLiteral.OUT_OF_RANGE, ByteLiteral.parse(value));
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.Compiler;
+import us.daveread.microkenbak1.compiler.PackedCode;
+import us.daveread.microkenbak1.compiler.Program;
+import us.daveread.microkenbak1.compiler.SourceText;
+import us.daveread.microkenbak1.compiler.Statement;
+import us.daveread.microkenbak1.compiler.instruction.ByteContent;
+import us.daveread.microkenbak1.compiler.instruction.JumpInstruction;
+import us.daveread.microkenbak1.compiler.instruction.Label;
+
+/**
+ * Unit tests for the PackedCode class.
+ *
+ * @author readda
+ *
+ */
+public class PackedCodeTest {
+  /**
+   * Test that the entries of a laid out program have their kinds, addresses,
+   * and resolved jumps.
+   */
+  @Test
+  public void testLayout() {
+    PackedCode code = compile("LABEL Top\nIF A OVERFLOW GOTO Top\n"
+        + "BYTES 1 2\nGOTO Top\n");
+
+    assertEquals("Incorrect number of entries", 7, code.size());
+    assertEquals("Incorrect label kind", PackedCode.LABEL, code.getKind(0));
+    assertEquals("Incorrect label name", "Top", code.getName(0));
+    assertTrue("Label should be used", code.isUsed(0));
+    assertEquals("Incorrect skip", 0212, code.getOpCode(1));
+    assertNull("Operation should have no name", code.getName(1));
+    assertEquals("Incorrect jump kind", PackedCode.JUMP, code.getKind(3));
+    assertEquals("Incorrect jump address", 6, code.getAddress(3));
+    assertEquals("Incorrect jump cells", 2, code.getCells(3));
+    assertEquals("Incorrect destination", 4, code.getDestination(3));
+    assertEquals("Incorrect address after jump", 010, code.getAddress(4));
+    assertEquals("Incorrect byte", 2, code.getOpCode(5));
+    assertEquals("Incorrect last jump address", 012, code.getAddress(6));
+  }
+
+  /**
+   * Test that the operating codes of a statement are views of the entries as
+   * laid out.
+   */
+  @Test
+  public void testViews() {
+    Program program = new Compiler().compile(SourceText.fromString("test",
+        "GOTO End\nLABEL Unused\nLABEL End\nHALT\n"), true);
+    Statement[] stmts = program.getStatements();
+
+    JumpInstruction jump = (JumpInstruction) stmts[0].getOpCodes()[0];
+    assertEquals("Incorrect jump location", 4, jump.getMemoryLocation());
+    assertEquals("Incorrect destination", 6, jump.getDestinationAddress());
+    assertEquals("Incorrect name", "End", jump.getName());
+    assertFalse("Label should be unused",
+        ((Label) stmts[1].getOpCode(0)).isUsed());
+    ByteContent halt = stmts[3].getOpCode(0);
+    assertEquals("Incorrect halt", "0006: 0000", halt.toString());
+
+    halt.setLocation(077);
+    assertEquals("Changing a view should not change the program", 6,
+        stmts[3].getOpCode(0).getMemoryLocation());
+  }
+
+  /**
+   * Test that a statement that is not laid out has its operating codes at
+   * location 0.
+   */
+  @Test
+  public void testNotLaidOut() {
+    ByteContent[] opCodes = new Statement("ADD 1 TO B".split(" "))
+        .getOpCodes();
+
+    assertEquals("Incorrect number of operating codes", 2, opCodes.length);
+    assertEquals("Incorrect operation", "0000: 0103", opCodes[0].toString());
+    assertEquals("Incorrect value", "0000: 0001", opCodes[1].toString());
+  }
+
+  /**
+   * Compile a program and get its code.
+   *
+   * @param text
+   *          The source code
+   * @return The laid out code
+   */
+  private PackedCode compile(String text) {
+    return new Compiler().compile(SourceText.fromString("test", text), true)
+        .getCode();
+  }
+}
@@ -0,0 +1,140 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.Compiler;
+import us.daveread.microkenbak1.compiler.ParallelParser;
+import us.daveread.microkenbak1.compiler.Program;
+import us.daveread.microkenbak1.compiler.SourceText;
+import us.daveread.microkenbak1.compiler.Statement;
+
+/**
+ * Unit tests for the ParallelParser class.
+ *
+ * @author readda
+ *
+ */
+public class ParallelParserTest {
+  /**
+   * The pool used by the tests.
+   */
+  private static ForkJoinPool pool;
+
+  /**
+   * Create the pool.
+   */
+  @BeforeClass
+  public static void createPool() {
+    pool = new ForkJoinPool(4);
+  }
+
+  /**
+   * Shut down the pool.
+   */
+  @AfterClass
+  public static void shutdownPool() {
+    pool.shutdown();
+  }
+
+  /**
+   * Test that statements are returned by line, with no statement for blank
+   * and comment lines.
+   */
+  @Test
+  public void testStatementsByLine() {
+    SourceText source = SourceText.fromString("test",
+        "LET A = 1\n\n# comment\nHALT\n");
+
+    Statement[] statements = new ParallelParser(pool, 1).parse(source);
+
+    assertEquals("Incorrect number of lines", 4, statements.length);
+    assertEquals("Incorrect first statement", "LET A = 1",
+        statements[0].getFormattedStatement());
+    assertNull("Blank line should have no statement", statements[1]);
+    assertNull("Comment line should have no statement", statements[2]);
+    assertEquals("Incorrect line recorded", 4, statements[3].getLine());
+  }
+
+  /**
+   * Test that the parallel path produces the same program as the sequential
+   * path, including across the LED display address. The program does not fit
+   * in memory, so it is compiled with recovery.
+   */
+  @Test
+  public void testSameAsSequential() {
+    SourceText source = SourceText.fromString("test", generate(600, false));
+
+    Program sequential = new Compiler().compile(source, true);
+    Program parallel = new Compiler().compile(source, true,
+        new ParallelParser(pool, 7));
+
+    assertEquals("Instructions should be identical",
+        sequential.getInstructions(true), parallel.getInstructions(true));
+    assertEquals("Listings should be identical",
+        new Compiler().getHtml("test", sequential),
+        new Compiler().getHtml("test", parallel));
+  }
+
+  /**
+   * Test that recovering produces the same diagnostics as the sequential path.
+   */
+  @Test
+  public void testSameDiagnostics() {
+    SourceText source = SourceText.fromString("test", generate(300, true));
+
+    Program sequential = new Compiler().compile(source, true);
+    Program parallel = new Compiler().compile(source, true,
+        new ParallelParser(pool, 5));
+
+    assertTrue("Source should have errors", sequential.hasErrors());
+    assertEquals("Diagnostics should be identical",
+        sequential.getDiagnostics().toString(),
+        parallel.getDiagnostics().toString());
+  }
+
+  /**
+   * Test that without recovery no program is returned for a source in error.
+   */
+  @Test
+  public void testNoRecovery() {
+    SourceText source = SourceText.fromString("test", generate(100, true));
+
+    assertNull("Program should not be returned", new Compiler()
+        .compile(source, false, new ParallelParser(pool, 3)));
+  }
+
+  /**
+   * Generate a program.
+   *
+   * @param blocks
+   *          The number of repeated blocks of statements
+   * @param withErrors
+   *          Whether some blocks contain errors
+   * @return The source code
+   */
+  private String generate(int blocks, boolean withErrors) {
+    StringBuilder source = new StringBuilder();
+    for (int block = 0; block < blocks; ++block) {
+      source.append("LABEL L").append(block).append('\n');
+      source.append("  LET A = ").append(block % 0400).append(" # value\n");
+      source.append('\n');
+      source.append("ADD B TO A\n");
+      source.append("IF A ISZERO GOTO L").append((block + 1) % blocks)
+          .append('\n');
+      if (withErrors && block % 17 == 0) {
+        source.append("LET Q = ").append(block).append('\n');
+        source.append("GOTO Nowhere").append(block).append('\n');
+      }
+      source.append("BITSHIFT A LEFT ").append(block % 4 + 1).append('\n');
+    }
+    return source.toString();
+  }
+}
@@ -43,4 +43,19 @@ public class ParserTest {
 
     assertEquals("Incorrect instructions with syscall", expected, instructions);
   }
+
+  /**
+   * Test the parser with tab-indented statements.
+   */
+  @Test
+  public void testParseTabSeparated() {
+    parser.parse("\tLET\tB\t=\t0252");
+    parser.parse("\tMEMCOPY\tB\tTO\tDISPLAY\t# Update the LEDs");
+
+    String instructions = parser.getProgram().getInstructions(false);
+
+    String expected = "0000\n0000\n0000\n0004\n0123\n0252\n0134\n0200\n";
+
+    assertEquals("Incorrect instructions with tabs", expected, instructions);
+  }
 }
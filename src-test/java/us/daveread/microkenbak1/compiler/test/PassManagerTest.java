@@ -0,0 +1,185 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.Compiler;
+import us.daveread.microkenbak1.compiler.Diagnostic;
+import us.daveread.microkenbak1.compiler.OptimizationLevel;
+import us.daveread.microkenbak1.compiler.OptimizationPass;
+import us.daveread.microkenbak1.compiler.Operation;
+import us.daveread.microkenbak1.compiler.PassManager;
+import us.daveread.microkenbak1.compiler.Program;
+import us.daveread.microkenbak1.compiler.SourceText;
+import us.daveread.microkenbak1.compiler.Statement;
+
+/**
+ * Unit tests for the PassManager class.
+ *
+ * @author readda
+ *
+ */
+public class PassManagerTest {
+  /**
+   * A pass removing NOOP statements, with a remark for each.
+   */
+  private static final OptimizationPass REMOVE_NOOPS = new OptimizationPass() {
+    @Override
+    public String getName() {
+      return "remove-noops";
+    }
+
+    @Override
+    public List<Statement> run(List<Statement> statements,
+        List<Diagnostic> remarks) {
+      List<Statement> kept = new ArrayList<>();
+      for (Statement stmt : statements) {
+        if (stmt.getNode().getOperation() == Operation.NOOP) {
+          remarks.add(Diagnostic.of(Diagnostic.Code.OPTIMIZATION_REMARK,
+              stmt, -1, "NOOP removed"));
+        } else {
+          kept.add(stmt);
+        }
+      }
+      return kept;
+    }
+  };
+
+  /**
+   * Test that the passes replace the program's statements, and that the
+   * bytes each saves and its remarks are recorded.
+   */
+  @Test
+  public void testRun() {
+    Program program = compile("LET A = 1\nNOOP\nNOOP\nHALT\n");
+    PassManager passes = new PassManager(
+        Collections.singletonList(REMOVE_NOOPS), false);
+    passes.run(program);
+
+    assertEquals("Incorrect instructions",
+        "0000\n0000\n0000\n0004\n0023\n0001\n0000\n",
+        program.getInstructions(false));
+    assertEquals("Incorrect number of results", 1,
+        passes.getResults().size());
+    PassManager.Result result = passes.getResults().get(0);
+    assertEquals("Incorrect pass", "remove-noops", result.getName());
+    assertEquals("Incorrect bytes saved", 2, result.getSavedBytes());
+    assertTrue("Time should be recorded", result.getNanos() >= 0);
+
+    List<Diagnostic> diagnostics = program.getDiagnostics();
+    assertEquals("Incorrect number of remarks", 3, diagnostics.size());
+    assertEquals("Incorrect summary", "Pass remove-noops saved 2 bytes",
+        diagnostics.get(0).getMessage());
+    assertEquals("Incorrect remark line", 2, diagnostics.get(1).getLine());
+    assertFalse("Remarks should not be errors", program.hasErrors());
+
+    String html = new Compiler().getHtml("test", program);
+    assertTrue("Missing remark", html.contains(
+        "<tr><td>3</td><td>NOOP removed</td></tr>"));
+  }
+
+  /**
+   * Test that each level's flag is recognized, that only -Os packs the
+   * program around the display address, and that only -O2 duplicates tails.
+   */
+  @Test
+  public void testLevels() {
+    assertEquals("Incorrect level", OptimizationLevel.OS,
+        OptimizationLevel.fromFlag("-Os"));
+    assertNull("File names should not be levels",
+        OptimizationLevel.fromFlag("Cylon.kb1"));
+
+    Compiler compiler = new Compiler();
+    assertEquals("Incorrect default level", OptimizationLevel.O0,
+        compiler.getOptimizationLevel());
+    assertFalse("Default level should not pack",
+        compile(compiler, "HALT\n").isPacking());
+    compiler.setOptimizationLevel(OptimizationLevel.OS);
+    assertTrue("-Os should pack", compile(compiler, "HALT\n").isPacking());
+    compiler.setOptimizationLevel(OptimizationLevel.O2);
+    assertFalse("-O2 should not pack",
+        compile(compiler, "HALT\n").isPacking());
+
+    assertEquals("Incorrect -Os passes", "[jump-threading, dead-code, "
+        + "peephole]", names(PassManager.forLevel(OptimizationLevel.OS)));
+    assertEquals("Incorrect -O2 passes", "[jump-threading, tail-duplication, "
+        + "dead-code, peephole]",
+        names(PassManager.forLevel(OptimizationLevel.O2)));
+  }
+
+  /**
+   * Test that a program reading its own code by address, or jumping to a
+   * computed address, is left as written, with a warning.
+   */
+  @Test
+  public void testAddressDependent() {
+    Compiler compiler = new Compiler();
+    compiler.setOptimizationLevel(OptimizationLevel.OS);
+
+    for (String source : new String[] {"LET A = VALUEIN 6\nNOOP\nHALT\n",
+      "NOOP\nMEMCOPY A TO P\nHALT\n" }) {
+      Program program = compile(compiler, source);
+      assertEquals("Program should not be optimized",
+          compile(source).getInstructions(false),
+          program.getInstructions(false));
+      assertFalse("Program should not be packed", program.isPacking());
+      List<Diagnostic> diagnostics = program.getDiagnostics();
+      assertEquals("Incorrect number of diagnostics", 1, diagnostics.size());
+      assertEquals("Incorrect warning", Diagnostic.Code.ADDRESS_DEPENDENT,
+          diagnostics.get(0).getCode());
+    }
+
+    assertEquals("A cell past the code should not be a dependence",
+        compile(compiler, "LET A = VALUEIN 0150\nHALT\n")
+            .getInstructions(false),
+        compile(compiler, "LET A = VALUEIN 0150\nNOOP\nHALT\n")
+            .getInstructions(false));
+  }
+
+  /**
+   * Compile a program without optimizing it.
+   *
+   * @param text
+   *          The source code
+   * @return The program
+   */
+  private Program compile(String text) {
+    return compile(new Compiler(), text);
+  }
+
+  /**
+   * Compile a program.
+   *
+   * @param compiler
+   *          The compiler
+   * @param text
+   *          The source code
+   * @return The program
+   */
+  private Program compile(Compiler compiler, String text) {
+    return compiler.compile(SourceText.fromString("test", text), true);
+  }
+
+  /**
+   * Get the names of a pass manager's passes.
+   *
+   * @param manager
+   *          The pass manager
+   * @return The names, in the order the passes run
+   */
+  private static String names(PassManager manager) {
+    List<String> names = new ArrayList<>();
+    for (OptimizationPass pass : manager.getPasses()) {
+      names.add(pass.getName());
+    }
+    return names.toString();
+  }
+}
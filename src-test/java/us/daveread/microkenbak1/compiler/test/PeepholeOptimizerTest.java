@@ -0,0 +1,141 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.Compiler;
+import us.daveread.microkenbak1.compiler.Diagnostic;
+import us.daveread.microkenbak1.compiler.OptimizationLevel;
+import us.daveread.microkenbak1.compiler.PeepholeOptimizer;
+import us.daveread.microkenbak1.compiler.Program;
+import us.daveread.microkenbak1.compiler.SourceText;
+import us.daveread.microkenbak1.compiler.Statement;
+
+/**
+ * Unit tests for the PeepholeOptimizer class.
+ *
+ * @author readda
+ *
+ */
+public class PeepholeOptimizerTest {
+  /**
+   * Test each rule, and that rules keep matching until none does.
+   */
+  @Test
+  public void testRules() {
+    List<Diagnostic> remarks = new ArrayList<>();
+    List<Statement> optimized = new PeepholeOptimizer().run(
+        ControlFlowGraphTest.statements("NOOP", "LET A = 0", "NOOP",
+            "ADD 1 TO A", "ADD 2 TO A", "AND 0377", "OR 0",
+            "MEMCOPY A TO DISPLAY", "MEMCOPY A TO DISPLAY",
+            "BITSHIFT A LEFT 1", "BITSHIFT A LEFT 2", "BITSHIFT A RIGHT 1",
+            "LET B = 1", "LET B = 2", "HALT"), remarks);
+
+    assertEquals("Incorrect statements", "[LET A = 0001, ADD 2 TO A, "
+        + "MEMCOPY A TO DISPLAY, BITSHIFT A LEFT 3, BITSHIFT A RIGHT 1, "
+        + "LET B = 2, HALT]", format(optimized).toString());
+    assertEquals("Incorrect number of remarks", 8, remarks.size());
+    assertEquals("Incorrect remark", "Peephole rule let-add: LET A = 0; "
+        + "ADD 1 TO A replaced by LET A = 0001",
+        remarks.get(remarks.size() - 1).getMessage());
+  }
+
+  /**
+   * Test that ADD and SUBTRACT are kept where their overflow flag is read,
+   * and that statements reading the variable set are kept.
+   */
+  @Test
+  public void testKept() {
+    List<String> kept = format(new PeepholeOptimizer().run(
+        ControlFlowGraphTest.statements("LABEL Top", "LET A = 1",
+            "SUBTRACT 0 FROM A", "IF A OVERFLOW GOTO Top", "LET B = 1",
+            "LET B = VALUEIN B", "LET X = 1", "LABEL Next", "ADD 1 TO X",
+            "GOTO Top"), new ArrayList<>()));
+
+    assertEquals("Incorrect statements", "[LABEL Top, LET A = 1, "
+        + "SUBTRACT 0 FROM A, IF A OVERFLOW GOTO Top, LET B = 1, "
+        + "LET B = VALUEIN B, LET X = 1, LABEL Next, ADD 1 TO X, GOTO Top]",
+        kept.toString());
+  }
+
+  /**
+   * Test that a program that may jump to a computed address is left
+   * unchanged.
+   */
+  @Test
+  public void testComputedJump() {
+    List<Diagnostic> remarks = new ArrayList<>();
+    List<String> kept = format(new PeepholeOptimizer().run(
+        ControlFlowGraphTest.statements("MEMCOPY A TO P", "NOOP",
+            "LET B = 1", "LET B = 2", "HALT"), remarks));
+
+    assertEquals("Incorrect statements", "[MEMCOPY A TO P, NOOP, LET B = 1, "
+        + "LET B = 2, HALT]", kept.toString());
+    assertEquals("Incorrect number of remarks", 0, remarks.size());
+  }
+
+  /**
+   * Test that the optimizer shrinks a compiled program at -Os.
+   */
+  @Test
+  public void testCompiled() {
+    String source = "LABEL Top\nLET A = 0\nADD 1 TO A\nNOOP\n"
+        + "MEMCOPY A TO DISPLAY\nLET A = 0\nGOTO Top\n";
+    Program plain = compile(new Compiler(), source);
+    Compiler compiler = new Compiler();
+    compiler.setOptimizationLevel(OptimizationLevel.OS);
+    Program optimized = compile(compiler, source);
+
+    assertEquals("Incorrect bytes saved", 3, size(plain) - size(optimized));
+    assertTrue("Missing remark", compiler.getHtml("test", optimized)
+        .contains("Peephole rule noop: NOOP removed"));
+  }
+
+  /**
+   * Format statements.
+   *
+   * @param statements
+   *          The statements
+   * @return The formatted statements
+   */
+  private static List<String> format(List<Statement> statements) {
+    List<String> formatted = new ArrayList<>();
+    for (Statement stmt : statements) {
+      formatted.add(stmt.getFormattedStatement().trim());
+    }
+    return formatted;
+  }
+
+  /**
+   * Count the memory cells of a program's statements.
+   *
+   * @param program
+   *          The program
+   * @return The number of memory cells
+   */
+  private static int size(Program program) {
+    int cells = 0;
+    for (Statement stmt : program.getStatements()) {
+      cells += stmt.getMemoryCells();
+    }
+    return cells;
+  }
+
+  /**
+   * Compile a program.
+   *
+   * @param compiler
+   *          The compiler
+   * @param text
+   *          The source code
+   * @return The program
+   */
+  private Program compile(Compiler compiler, String text) {
+    return compiler.compile(SourceText.fromString("test", text), true);
+  }
+}
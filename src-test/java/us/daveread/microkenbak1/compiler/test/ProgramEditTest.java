@@ -0,0 +1,311 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.Compiler;
+import us.daveread.microkenbak1.compiler.LayoutChange;
+import us.daveread.microkenbak1.compiler.Program;
+import us.daveread.microkenbak1.compiler.SourceEdit;
+import us.daveread.microkenbak1.compiler.SourceText;
+import us.daveread.microkenbak1.compiler.Statement;
+import us.daveread.microkenbak1.compiler.instruction.ByteContent;
+import us.daveread.microkenbak1.compiler.instruction.JumpInstruction;
+import us.daveread.microkenbak1.compiler.instruction.OperationInstruction;
+
+/**
+ * Unit tests for editing a compiled program.
+ *
+ * @author readda
+ *
+ */
+public class ProgramEditTest {
+  /**
+   * Test that changing a value reports only the changed cell.
+   */
+  @Test
+  public void testChangeValue() {
+    Program program = compile("LET A = 1\nLET B = 2\nHALT\n", false);
+    program.getInstructions(false);
+
+    LayoutChange change = program.edit(SourceEdit.replaceLine(2,
+        "LET B = 3"));
+
+    assertEquals("Incorrect first address", 6, change.getFirstAddress());
+    assertEquals("Incorrect changes", "[0007=0003]", change.toString());
+  }
+
+  /**
+   * Test that moving a label updates the jumps to it that were not moved.
+   */
+  @Test
+  public void testMovedLabel() {
+    Program program = compile("GOTO End\nNOOP\nLABEL End\nHALT\n", false);
+    program.getInstructions(false);
+
+    LayoutChange change = program.edit(new SourceEdit(2, 2, "NOOP"));
+
+    assertEquals("Incorrect changes", "[0005=0010, 0007=0300, 0010=0000]",
+        change.toString());
+    assertEquals("Incorrect instructions",
+        instructions("GOTO End\nNOOP\nNOOP\nLABEL End\nHALT\n"),
+        program.getInstructions(false));
+  }
+
+  /**
+   * Test that deleting lines renumbers the statements after them.
+   */
+  @Test
+  public void testDeleteLines() {
+    Program program = compile(
+        "LABEL Top\nNOOP\nNOOP\nLABEL Unused\nGOTO Top\n", true);
+
+    program.edit(new SourceEdit(2, 4, ""));
+
+    assertEquals("Incorrect diagnostics",
+        compile("LABEL Top\nLABEL Unused\nGOTO Top\n", true).getDiagnostics()
+            .toString(),
+        program.getDiagnostics().toString());
+  }
+
+  /**
+   * Test that without recovery a syntax error leaves the program unchanged.
+   */
+  @Test
+  public void testSyntaxErrorLeavesProgram() {
+    Program program = compile("LET A = 1\nHALT\n", false);
+    String before = program.getInstructions(false);
+
+    try {
+      program.edit(SourceEdit.replaceLine(2, "NOOP"),
+          SourceEdit.replaceLine(1, "LET Q = 1"));
+      fail("Syntax error should be thrown");
+    } catch (IllegalStateException e) {
+      assertEquals("Incorrect message", "Variable name must be A, B, or X",
+          e.getMessage());
+    }
+    assertEquals("Program should be unchanged", before,
+        program.getInstructions(false));
+  }
+
+  /**
+   * Test that an edit removing labels reports the first jump in the program
+   * to a label no longer defined, and that defining it again clears the
+   * error.
+   */
+  @Test
+  public void testUndefinedAfterEdit() {
+    Program program = compile("GOTO Two\nGOTO One\nLABEL One\nLABEL Two\n",
+        false);
+    program.getInstructions(false);
+
+    try {
+      program.edit(new SourceEdit(3, 5, "NOOP"));
+      fail("Undefined label should be thrown");
+    } catch (IllegalStateException e) {
+      assertEquals("Incorrect message", "Label Two is not defined",
+          e.getMessage());
+    }
+
+    program.edit(SourceEdit.replaceLine(3, "LABEL One\nLABEL Two"));
+    assertEquals("Incorrect instructions",
+        instructions("GOTO Two\nGOTO One\nLABEL One\nLABEL Two\n"),
+        program.getInstructions(false));
+  }
+
+  /**
+   * Test that random edits, including ones that move the jump around the LED
+   * display address, give the same program as compiling the edited source,
+   * and that applying the reported changes gives the new memory contents.
+   */
+  @Test
+  public void testMatchesRecompile() {
+    Random random = new Random(17);
+    List<String> lines = new ArrayList<>();
+    for (int block = 0; block < 40; ++block) {
+      lines.addAll(block(random, block));
+    }
+    Program program = compile(String.join("\n", lines), true);
+
+    for (int step = 0; step < 200; ++step) {
+      List<Integer> before = cells(program);
+
+      int start = random.nextInt(lines.size() + 1);
+      int end = Math.min(lines.size(), start + random.nextInt(4));
+      List<String> replacement = new ArrayList<>();
+      StringBuilder text = new StringBuilder();
+      int count = random.nextInt(lines.size() > 250 ? 3 : 6);
+      for (int line = 0; line < count; ++line) {
+        replacement.add(line(random, step * 10 + line));
+        text.append(replacement.get(line)).append('\n');
+      }
+      LayoutChange change = program.edit(new SourceEdit(start + 1, end + 1,
+          text.toString()));
+      lines.subList(start, end).clear();
+      lines.addAll(start, replacement);
+
+      Program expected = compile(String.join("\n", lines), true);
+      assertEquals("Instructions differ at step " + step,
+          expected.getInstructions(false), program.getInstructions(false));
+      assertEquals("Diagnostics differ at step " + step,
+          expected.getDiagnostics().toString(),
+          program.getDiagnostics().toString());
+      assertEquals("Changes do not patch memory at step " + step,
+          cells(program), patch(before, change));
+    }
+  }
+
+  /**
+   * Test that the generated programs cross the LED display address.
+   */
+  @Test
+  public void testCrossesDisplay() {
+    Random random = new Random(17);
+    List<String> lines = new ArrayList<>();
+    for (int block = 0; block < 40; ++block) {
+      lines.addAll(block(random, block));
+    }
+
+    assertTrue("Program should be larger than the display address",
+        cells(compile(String.join("\n", lines), true)).size() > 0200);
+  }
+
+  /**
+   * Create a block of statements with a label.
+   *
+   * @param random
+   *          The source of values
+   * @param block
+   *          The block number
+   * @return The lines
+   */
+  private List<String> block(Random random, int block) {
+    List<String> lines = new ArrayList<>();
+    lines.add("LABEL B" + block);
+    for (int line = 0; line < 3; ++line) {
+      lines.add(line(random, block * 3 + line));
+    }
+    return lines;
+  }
+
+  /**
+   * Create a random line.
+   *
+   * @param random
+   *          The source of values
+   * @param seed
+   *          A number used for label names
+   * @return The line
+   */
+  private String line(Random random, int seed) {
+    switch (random.nextInt(7)) {
+      case 0:
+        return "LABEL L" + seed;
+      case 1:
+        return "GOTO B" + random.nextInt(45);
+      case 2:
+        return "IF A ISZERO GOTO L" + random.nextInt(seed + 1);
+      case 3:
+        return "";
+      case 4:
+        return "LET Q = 1";
+      default:
+        return "LET A = " + random.nextInt(0400);
+    }
+  }
+
+  /**
+   * Compile source code.
+   *
+   * @param text
+   *          The source code
+   * @param recover
+   *          Whether to recover from errors
+   * @return The program
+   */
+  private Program compile(String text, boolean recover) {
+    return new Compiler().compile(SourceText.fromString("test", text),
+        recover);
+  }
+
+  /**
+   * Compile source code and get its instructions.
+   *
+   * @param text
+   *          The source code
+   * @return The instructions
+   */
+  private String instructions(String text) {
+    return compile(text, false).getInstructions(false);
+  }
+
+  /**
+   * Get the memory contents after the registers, as laid out in the program.
+   *
+   * @param program
+   *          The program
+   * @return The cell values from address 4
+   */
+  private List<Integer> cells(Program program) {
+    List<Integer> cells = new ArrayList<>();
+    for (Statement stmt : program.getStatements()) {
+      for (ByteContent opCode : stmt.getOpCodes()) {
+        if (opCode instanceof OperationInstruction) {
+          set(cells, opCode.getMemoryLocation(),
+              ((OperationInstruction) opCode).getOperationCode());
+        } else if (opCode instanceof JumpInstruction) {
+          JumpInstruction jump = (JumpInstruction) opCode;
+          set(cells, jump.getMemoryLocation(), jump.getType().getOpCode());
+          set(cells, jump.getMemoryLocation() + 1,
+              jump.getDestinationAddress());
+        }
+      }
+    }
+    return cells;
+  }
+
+  /**
+   * Set the contents of a memory cell.
+   *
+   * @param cells
+   *          The cell values from address 4
+   * @param address
+   *          The address
+   * @param value
+   *          The value
+   */
+  private void set(List<Integer> cells, int address, int value) {
+    while (cells.size() <= address - 4) {
+      cells.add(LayoutChange.UNUSED);
+    }
+    cells.set(address - 4, value);
+  }
+
+  /**
+   * Apply changes to memory contents.
+   *
+   * @param cells
+   *          The cell values from address 4
+   * @param change
+   *          The changes
+   * @return The patched cell values, without trailing unused cells
+   */
+  private List<Integer> patch(List<Integer> cells, LayoutChange change) {
+    List<Integer> patched = new ArrayList<>(cells);
+    for (int index = 0; index < change.size(); ++index) {
+      set(patched, change.getAddress(index), change.getValue(index));
+    }
+    while (!patched.isEmpty()
+        && patched.get(patched.size() - 1) == LayoutChange.UNUSED) {
+      patched.remove(patched.size() - 1);
+    }
+    return patched;
+  }
+}
@@ -0,0 +1,205 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.Compiler;
+import us.daveread.microkenbak1.compiler.Program;
+import us.daveread.microkenbak1.compiler.ProgramSnapshot;
+import us.daveread.microkenbak1.compiler.SourceEdit;
+import us.daveread.microkenbak1.compiler.SourceText;
+import us.daveread.microkenbak1.compiler.Statement;
+
+/**
+ * Unit tests for the ProgramSnapshot class.
+ *
+ * @author readda
+ *
+ */
+public class ProgramSnapshotTest {
+  /**
+   * A program with a label jumped to twice and a label never jumped to.
+   */
+  private static final String XREF_SOURCE = "LABEL Top\nLET A = 1\n"
+      + "IF A ISZERO GOTO Top\nGOTO Top\nLABEL Unused\n";
+
+  /**
+   * Test that a snapshot has the statements, addresses, memory image and
+   * instructions of the program as laid out.
+   */
+  @Test
+  public void testViews() {
+    ProgramSnapshot snapshot = compile("LABEL Top\nLET A = 1\nGOTO Top\n")
+        .freeze();
+
+    assertEquals("Incorrect number of statements", 3,
+        snapshot.getStatements().size());
+    assertEquals("Incorrect statement", "LET A = 1",
+        snapshot.getFormattedStatement(1));
+    assertEquals("Incorrect line", 3, snapshot.getLine(2));
+    assertEquals("Incorrect address", 6, snapshot.getAddress(2));
+    assertEquals("Incorrect operating codes", "0006: 0344\n0004",
+        snapshot.getOpCodes(2)[0].toString());
+    assertEquals("Incorrect end", 010, snapshot.getEnd());
+    assertEquals("Incorrect program counter", 4,
+        snapshot.getMemory().get(3));
+    assertEquals("Incorrect destination", 4, snapshot.getMemory().get(7));
+    assertEquals("Incorrect instructions",
+        "0000\n0000\n0000\n0004\n0023\n0001\n0344\n0004\ns\n",
+        snapshot.getInstructions(true));
+  }
+
+  /**
+   * Test that the snapshot is shared until the program changes, and is not
+   * changed by editing the program.
+   */
+  @Test
+  public void testFrozen() {
+    Program program = compile("LET A = 1\nHALT\n");
+    ProgramSnapshot snapshot = program.freeze();
+    assertSame("Snapshot should be shared", snapshot, program.freeze());
+
+    program.edit(new SourceEdit(2, 2, "LET B = 2\n"));
+
+    ProgramSnapshot edited = program.freeze();
+    assertNotSame("Edited program should have a new snapshot", snapshot,
+        edited);
+    assertEquals("Snapshot should not change",
+        "0000\n0000\n0000\n0004\n0023\n0001\n0000\n",
+        snapshot.getInstructions(false));
+    assertEquals("Incorrect line", 2, snapshot.getLine(1));
+    assertEquals("Incorrect edited instructions",
+        "0000\n0000\n0000\n0004\n0023\n0001\n0123\n0002\n0000\n",
+        edited.getInstructions(false));
+    assertEquals("Incorrect edited line", 3, edited.getLine(2));
+  }
+
+  /**
+   * Test that the statements of a snapshot keep their addresses, operating code
+   * and lines when statements are inserted above them.
+   */
+  @Test
+  public void testFrozenStatements() {
+    Program program = compile("LABEL Top\nLET A = 1\nGOTO Top\n");
+    ProgramSnapshot snapshot = program.freeze();
+    Statement jump = snapshot.getStatements().get(2);
+    String opCode = jump.getOpCode(0).toString();
+
+    program.edit(new SourceEdit(2, 2, "LET B = 2\nLET X = 3\n"));
+
+    assertEquals("Incorrect edited address", 012,
+        program.getStatements()[4].getOpCode(0).getMemoryLocation());
+    assertEquals("Snapshot address should not change", 6,
+        jump.getOpCode(0).getMemoryLocation());
+    assertEquals("Snapshot operating codes should not change", opCode,
+        jump.getOpCode(0).toString());
+    assertEquals("Snapshot line should not change", 3, jump.getLine());
+  }
+
+  /**
+   * Test that every reader of a snapshot sees the same HTML listing as the
+   * program.
+   *
+   * @throws InterruptedException
+   *           If interrupted waiting for the readers
+   */
+  @Test
+  public void testHtml() throws InterruptedException {
+    Program program = compile("LABEL Top\nLET A = 1\nGOTO Top\n");
+    ProgramSnapshot snapshot = program.freeze();
+    String expected = new Compiler().getHtml("test", program);
+    String[] listings = new String[4];
+    Thread[] readers = new Thread[listings.length];
+    for (int index = 0; index < readers.length; ++index) {
+      final int reader = index;
+      readers[index] = new Thread(() -> listings[reader] = new Compiler()
+          .getHtml("test", snapshot));
+      readers[index].start();
+    }
+    for (Thread reader : readers) {
+      reader.join();
+    }
+
+    for (String listing : listings) {
+      assertEquals("Incorrect listing", expected, listing);
+    }
+  }
+
+  /**
+   * Test that each memory cell is found in the statement holding it, with its
+   * offset in the statement.
+   */
+  @Test
+  public void testAddressIndex() {
+    Program program = compile(XREF_SOURCE);
+    ProgramSnapshot snapshot = program.freeze();
+
+    assertEquals("Incorrect statement", 1, snapshot.getStatementAt(5));
+    assertEquals("Incorrect offset", 1, snapshot.getOffsetAt(5));
+    assertEquals("Incorrect jump statement", 2, snapshot.getStatementAt(6));
+    assertEquals("Incorrect jump offset", 0, snapshot.getOffsetAt(6));
+    assertEquals("Registers should not have a statement", -1,
+        snapshot.getStatementAt(0));
+    assertEquals("Cells past the program should not have a statement", -1,
+        snapshot.getStatementAt(012));
+    assertEquals("Cells past the program should not have an offset", -1,
+        snapshot.getOffsetAt(012));
+
+    program.edit(new SourceEdit(2, 3, "LET A = 1\nLET B = 2\n"));
+    assertEquals("Incorrect edited statement", "LET B = 2",
+        program.getStatementAt(6).getFormattedStatement());
+    assertEquals("Incorrect edited offset", 1, program.getOffsetAt(011));
+    assertNull("Cells past the program should not have a statement",
+        program.getStatementAt(014));
+    assertEquals("Snapshot should not change", 2,
+        snapshot.getStatementAt(6));
+  }
+
+  /**
+   * Test that the statements jumping to each label are found, and listed in
+   * the HTML.
+   */
+  @Test
+  public void testCrossReference() {
+    Program program = compile(XREF_SOURCE);
+    ProgramSnapshot snapshot = program.freeze();
+
+    assertArrayEquals("Incorrect referrers", new int[] {2, 3 },
+        snapshot.getReferrers("Top"));
+    assertArrayEquals("Unused label should have no referrers", new int[0],
+        snapshot.getReferrers("Unused"));
+    assertArrayEquals("Unknown label should have no referrers", new int[0],
+        snapshot.getReferrers("Missing"));
+
+    List<Statement> referrers = program.getReferrers("Top");
+    assertEquals("Incorrect number of referrers", 2, referrers.size());
+    assertEquals("Incorrect referrer", "GOTO Top",
+        referrers.get(1).getFormattedStatement());
+
+    String html = new Compiler().getHtml("test", snapshot);
+    assertTrue("Missing cross reference", html.contains(
+        "<tr><td>Top</td><td>0004</td><td>Statement 3 (0006)<br>"
+            + "Statement 4 (0010)</td></tr>"));
+    assertTrue("Missing unused label", html.contains(
+        "<tr><td>Unused</td><td>0012</td><td>(none)</td></tr>"));
+  }
+
+  /**
+   * Compile a program.
+   *
+   * @param text
+   *          The source code
+   * @return The program
+   */
+  private Program compile(String text) {
+    return new Compiler().compile(SourceText.fromString("test", text), true);
+  }
+}
@@ -0,0 +1,156 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.Compiler;
+import us.daveread.microkenbak1.compiler.Diagnostic;
+import us.daveread.microkenbak1.compiler.Program;
+import us.daveread.microkenbak1.compiler.SourceText;
+import us.daveread.microkenbak1.compiler.Statement;
+
+/**
+ * Unit tests for compiling with error recovery.
+ *
+ * @author readda
+ *
+ */
+public class RecoveryTest {
+  /**
+   * Test that every syntax error is reported, located by line and column.
+   */
+  @Test
+  public void testMultipleSyntaxErrors() {
+    Program program = compile("LET A = 1\n" + "LET Q = 2\n" + "NOOP\n"
+        + "  AND 0400\n" + "FROB\n" + "HALT\n");
+
+    List<Diagnostic> diagnostics = program.getDiagnostics();
+
+    assertEquals("Incorrect number of diagnostics", 3, diagnostics.size());
+    assertDiagnostic(diagnostics.get(0), Diagnostic.Code.SYNTAX_ERROR, 2, 5,
+        6);
+    assertEquals("Incorrect message", "Variable name must be A, B, or X",
+        diagnostics.get(0).getMessage());
+    assertDiagnostic(diagnostics.get(1), Diagnostic.Code.SYNTAX_ERROR, 4, 7,
+        11);
+    assertDiagnostic(diagnostics.get(2), Diagnostic.Code.SYNTAX_ERROR, 5, 1,
+        5);
+    assertTrue("Program should have errors", program.hasErrors());
+  }
+
+  /**
+   * Test that statements in error are replaced by placeholders without
+   * OpCodes and the rest of the program is laid out.
+   */
+  @Test
+  public void testPlaceholders() {
+    Program program = compile("LET A = 1\n" + "LET Q = 2\n" + "HALT\n");
+
+    Statement[] stmts = program.getStatements();
+
+    assertEquals("Incorrect number of statements", 3, stmts.length);
+    assertTrue("Statement in error should be a placeholder",
+        stmts[1].isPlaceholder());
+    assertNull("Placeholder should have no node", stmts[1].getNode());
+    assertEquals("Placeholder should have no OpCodes", 0,
+        stmts[1].getOpCodes().length);
+    assertEquals("Placeholder should keep its source", "LET Q = 2",
+        stmts[1].getFormattedStatement());
+    assertEquals("Incorrect address after placeholder", 6,
+        stmts[2].getOpCodes()[0].getMemoryLocation());
+  }
+
+  /**
+   * Test that label errors and warnings are all returned in line order.
+   */
+  @Test
+  public void testLabelDiagnostics() {
+    Program program = compile("LABEL Top\n" + "GOTO Missing\n"
+        + "LABEL Top\n" + "LABEL Unused\n" + "IF A ISZERO GOTO Gone\n"
+        + "GOTO Top\n");
+
+    List<Diagnostic> diagnostics = program.getDiagnostics();
+
+    assertEquals("Incorrect number of diagnostics", 4, diagnostics.size());
+    assertDiagnostic(diagnostics.get(0), Diagnostic.Code.UNDEFINED_LABEL, 2,
+        6, 13);
+    assertDiagnostic(diagnostics.get(1), Diagnostic.Code.DUPLICATE_LABEL, 3,
+        7, 10);
+    assertDiagnostic(diagnostics.get(2), Diagnostic.Code.UNUSED_LABEL, 4, 7,
+        13);
+    assertEquals("Incorrect warning", "Label Unused is never used",
+        diagnostics.get(2).getMessage());
+    assertDiagnostic(diagnostics.get(3), Diagnostic.Code.UNDEFINED_LABEL, 5,
+        18, 22);
+  }
+
+  /**
+   * Test that a program without errors returns its warnings.
+   */
+  @Test
+  public void testWarningsOnly() {
+    Program program = compile("LABEL Unused\n" + "HALT\n");
+
+    List<Diagnostic> diagnostics = program.getDiagnostics();
+
+    assertEquals("Incorrect number of diagnostics", 1, diagnostics.size());
+    assertFalse("Unused label should be a warning",
+        diagnostics.get(0).isError());
+    assertFalse("Program should not have errors", program.hasErrors());
+    assertEquals("Incorrect text",
+        "WARNING KB300 at line 1, columns 7-12: Label Unused is never used",
+        diagnostics.get(0).toString());
+  }
+
+  /**
+   * Test that the default compile still stops at the first error.
+   */
+  @Test
+  public void testNoRecovery() {
+    Program program = new Compiler()
+        .compile(SourceText.fromString("test", "LET Q = 2\nFROB\n"));
+
+    assertNull("Program should not be returned", program);
+  }
+
+  /**
+   * Compile source code, recovering from errors.
+   *
+   * @param text
+   *          The source code
+   * @return The program
+   */
+  private Program compile(String text) {
+    return new Compiler().compile(SourceText.fromString("test", text), true);
+  }
+
+  /**
+   * Check the code and location of a diagnostic.
+   *
+   * @param diagnostic
+   *          The diagnostic
+   * @param code
+   *          The expected code
+   * @param line
+   *          The expected line
+   * @param startColumn
+   *          The expected first column
+   * @param endColumn
+   *          The expected column past the end
+   */
+  private void assertDiagnostic(Diagnostic diagnostic, Diagnostic.Code code,
+      int line, int startColumn, int endColumn) {
+    assertEquals("Incorrect code: " + diagnostic, code, diagnostic.getCode());
+    assertEquals("Incorrect line: " + diagnostic, line, diagnostic.getLine());
+    assertEquals("Incorrect start column: " + diagnostic, startColumn,
+        diagnostic.getStartColumn());
+    assertEquals("Incorrect end column: " + diagnostic, endColumn,
+        diagnostic.getEndColumn());
+  }
+}
@@ -0,0 +1,128 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.Compiler;
+import us.daveread.microkenbak1.compiler.Program;
+import us.daveread.microkenbak1.compiler.SourceText;
+
+/**
+ * Unit tests for the SourceText class.
+ * 
+ * @author readda
+ *
+ */
+public class SourceTextTest {
+  /**
+   * A short program with mixed line terminators and no final terminator.
+   */
+  private static final String PROGRAM = "# Display 0252\nLET B = 0252\r\n\r\n"
+      + "MEMCOPY B TO DISPLAY";
+
+  /**
+   * Test the line index.
+   */
+  @Test
+  public void testLineIndex() {
+    SourceText source = SourceText.fromString("test", PROGRAM);
+
+    assertEquals("Incorrect number of lines", 4, source.getLineCount());
+    assertEquals("Incorrect first line", "# Display 0252", source.getLine(0));
+    assertEquals("Incorrect CRLF terminated line", "LET B = 0252",
+        source.getLine(1));
+    assertEquals("Incorrect blank line", "", source.getLine(2));
+    assertEquals("Incorrect unterminated line", "MEMCOPY B TO DISPLAY",
+        source.getLine(3));
+  }
+
+  /**
+   * Test finding the line for a character offset.
+   */
+  @Test
+  public void testLineOf() {
+    SourceText source = SourceText.fromString("test", PROGRAM);
+
+    assertEquals("Incorrect line for first offset", 0, source.lineOf(0));
+    assertEquals("Incorrect line for start of line", 1,
+        source.lineOf(source.lineStart(1)));
+    assertEquals("Incorrect line for middle of line", 3,
+        source.lineOf(source.lineStart(3) + 5));
+  }
+
+  /**
+   * Test that ASCII and UTF-8 bytes decode to the same lines.
+   */
+  @Test
+  public void testFromBytes() {
+    SourceText ascii = SourceText.fromBytes("ascii",
+        "let a = 1\n".getBytes(StandardCharsets.US_ASCII));
+    SourceText utf8 = SourceText.fromBytes("utf8",
+        "\uFEFFlet a = 1 # caf\u00e9\n".getBytes(StandardCharsets.UTF_8));
+
+    assertEquals("Incorrect ASCII line", "let a = 1", ascii.getLine(0));
+    assertEquals("Incorrect UTF-8 line", "let a = 1 # caf\u00e9",
+        utf8.getLine(0));
+  }
+
+  /**
+   * Test reading from a reader and a stream.
+   */
+  @Test
+  public void testFromReaderAndStream() throws IOException {
+    SourceText fromReader = SourceText.fromReader("reader",
+        new StringReader(PROGRAM));
+    SourceText fromStream = SourceText.fromStream("stream",
+        new ByteArrayInputStream(PROGRAM.getBytes(StandardCharsets.UTF_8)));
+
+    assertEquals("Incorrect reader line count", 4,
+        fromReader.getLineCount());
+    assertEquals("Incorrect stream line", "LET B = 0252",
+        fromStream.getLine(1));
+  }
+
+  /**
+   * Test reading a file large enough to be memory mapped.
+   */
+  @Test
+  public void testMappedFile() throws IOException {
+    StringBuilder program = new StringBuilder();
+    while (program.length() < SourceText.MAP_THRESHOLD) {
+      program.append("add 1 to a\n");
+    }
+    File file = File.createTempFile("mapped", ".kb1");
+    file.deleteOnExit();
+    Files.write(file.toPath(),
+        program.toString().getBytes(StandardCharsets.UTF_8));
+
+    SourceText source = SourceText.fromFile(file.getPath());
+
+    assertEquals("Incorrect number of lines",
+        program.length() / "add 1 to a\n".length(), source.getLineCount());
+    assertEquals("Incorrect last line", "add 1 to a",
+        source.getLine(source.getLineCount() - 1));
+  }
+
+  /**
+   * Test compiling source that is not in a file.
+   */
+  @Test
+  public void testCompileFromSourceText() {
+    Program program = new Compiler()
+        .compile(SourceText.fromString("test", PROGRAM));
+
+    assertNotNull("Program was not compiled", program);
+    assertEquals("Incorrect instructions",
+        "0000\n0000\n0000\n0004\n0123\n0252\n0134\n0200\n",
+        program.getInstructions(false));
+  }
+}
@@ -0,0 +1,150 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.Keyword;
+import us.daveread.microkenbak1.compiler.Lexemes;
+import us.daveread.microkenbak1.compiler.Operation;
+import us.daveread.microkenbak1.compiler.Statement;
+import us.daveread.microkenbak1.compiler.StatementNode;
+import us.daveread.microkenbak1.compiler.instruction.ByteContent;
+
+/**
+ * Unit tests for the StatementNode class.
+ *
+ * @author readda
+ *
+ */
+public class StatementNodeTest {
+  /**
+   * Test that operands are decoded when the statement is parsed.
+   */
+  @Test
+  public void testDecodedOperands() {
+    StatementNode node = new Statement("LET x = VALUEIN display".split(" "))
+        .getNode();
+
+    assertEquals("Incorrect operation", Operation.LET, node.getOperation());
+    assertEquals("Incorrect variable", Keyword.X, node.getVariable());
+    assertEquals("Incorrect memory location", 0200, node.getOperand());
+    assertTrue("VALUEIN should be indirect", node.isIndirect());
+  }
+
+  /**
+   * Test that a variable source is recorded by its memory location.
+   */
+  @Test
+  public void testVariableSource() {
+    StatementNode node = new Statement("SUBTRACT B FROM A".split(" "))
+        .getNode();
+
+    assertEquals("Incorrect operation", Operation.SUBTRACT,
+        node.getOperation());
+    assertEquals("Incorrect variable", Keyword.A, node.getVariable());
+    assertEquals("Incorrect source location", 1, node.getOperand());
+    assertTrue("Variable source should be indirect", node.isIndirect());
+    assertEquals("Incorrect canonical text", "SUBTRACT B FROM A",
+        node.toString());
+  }
+
+  /**
+   * Test the IF test and jump target.
+   */
+  @Test
+  public void testIf() {
+    StatementNode node = new Statement("if b overflow goto Done".split(" "))
+        .getNode();
+
+    assertEquals("Incorrect test", Keyword.OVERFLOW, node.getCondition());
+    assertEquals("Incorrect label", "Done", node.getLabel());
+    assertEquals("Incorrect canonical text", "IF B OVERFLOW GOTO Done",
+        node.toString());
+  }
+
+  /**
+   * Test that BYTES values are decoded and the node does not share the
+   * caller's array.
+   */
+  @Test
+  public void testBytes() {
+    int[] values = { 1, 0x20, 0377 };
+    StatementNode node = StatementNode.bytes(values);
+    values[0] = 2;
+
+    assertEquals("Incorrect value count", 3, node.getValueCount());
+    assertEquals("Node should not share values", 1, node.getValue(0));
+    assertEquals("Incorrect canonical text", "BYTES 0001 0040 0377",
+        node.toString());
+    assertEquals("Parsed statement should equal built node", node,
+        new Statement("BYTES 1 0x20 255".split(" ")).getNode());
+  }
+
+  /**
+   * Test that statements without operands share a node.
+   */
+  @Test
+  public void testSharedNodes() {
+    assertSame("HALT nodes should be shared", StatementNode.halt(),
+        new Statement(Lexemes.of("halt")).getNode());
+    assertFalse("Different operations should differ",
+        StatementNode.noOp().equals(StatementNode.halt()));
+  }
+
+  /**
+   * Test that the canonical text compiles to the same node and OpCodes.
+   */
+  @Test
+  public void testCanonicalRoundTrip() {
+    String[] sources = { "LABEL Top", "LET A = 0x10", "GOTO Top", "SYSCALL",
+        "MEMCOPY B TO ADDRESSIN X", "AND 7", "OR 010", "ADD X TO B",
+        "SUBTRACT 3 FROM X", "IF A ISZERO GOTO Top", "HALT",
+        "BITSHIFT B RIGHT 4", "NOOP", "BYTES 0 1 2" };
+
+    for (String source : sources) {
+      Statement original = new Statement(source.split(" "));
+      Statement canonical = new Statement(original.getNode());
+
+      assertEquals("Canonical text should parse to the same node: " + source,
+          original.getNode(),
+          new Statement(original.getNode().toString().split(" ")).getNode());
+      assertArrayEquals("Incorrect OpCodes from node: " + source,
+          formatted(original.getOpCodes()),
+          formatted(canonical.getOpCodes()));
+    }
+  }
+
+  /**
+   * Test that a statement created from a node is formatted canonically.
+   */
+  @Test
+  public void testStatementFromNode() {
+    Statement stmt = new Statement(StatementNode.memCopy(Keyword.A, 0200,
+        false));
+
+    assertEquals("Incorrect formatted statement", "MEMCOPY A TO 0200",
+        stmt.getFormattedStatement());
+    assertArrayEquals("Incorrect lexemes",
+        new String[] { "MEMCOPY", "A", "TO", "0200" }, stmt.getLexemes());
+  }
+
+  /**
+   * Get the formatted bytes of OpCodes.
+   *
+   * @param opCodes
+   *          The OpCodes
+   * @return The formatted bytes
+   */
+  private String[] formatted(ByteContent[] opCodes) {
+    String[] result = new String[opCodes.length];
+    for (int index = 0; index < opCodes.length; ++index) {
+      result[index] = opCodes[index].getFormattedByte();
+    }
+    return result;
+  }
+}
@@ -0,0 +1,76 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.Compiler;
+import us.daveread.microkenbak1.compiler.PackedCode;
+import us.daveread.microkenbak1.compiler.Program;
+import us.daveread.microkenbak1.compiler.SourceEdit;
+import us.daveread.microkenbak1.compiler.SourceText;
+import us.daveread.microkenbak1.compiler.SymbolTable;
+
+/**
+ * Unit tests for the SymbolTable class.
+ *
+ * @author readda
+ *
+ */
+public class SymbolTableTest {
+  /**
+   * Test that names are interned to dense ids, surviving the table growing.
+   */
+  @Test
+  public void testIntern() {
+    SymbolTable symbols = new SymbolTable();
+    for (int index = 0; index < 1000; ++index) {
+      assertEquals("Incorrect new id", index, symbols.intern("L" + index));
+    }
+
+    assertEquals("Incorrect size", 1000, symbols.size());
+    for (int index = 0; index < 1000; ++index) {
+      assertEquals("Incorrect existing id", index,
+          symbols.intern("L" + index));
+      assertEquals("Incorrect found id", index, symbols.find("L" + index));
+      assertEquals("Incorrect name", "L" + index, symbols.getName(index));
+    }
+    assertEquals("Unknown name should not be found", -1,
+        symbols.find("Missing"));
+    assertEquals("Names should be case sensitive", -1, symbols.find("l1"));
+  }
+
+  /**
+   * Test that the layout records each label's definition and jump sites, and
+   * finds the undefined and unused labels.
+   */
+  @Test
+  public void testLayout() {
+    Program program = new Compiler().compile(SourceText.fromString("test",
+        "LABEL Top\nGOTO Next\nLABEL Unused\nGOTO Top\nGOTO Next\n"), true);
+    PackedCode code = program.getCode();
+    SymbolTable symbols = code.getSymbols();
+    int top = symbols.find("Top");
+    int next = symbols.find("Next");
+
+    assertEquals("Incorrect definition", 0, symbols.getDefinition(top));
+    assertEquals("Undefined label should have no definition", -1,
+        symbols.getDefinition(next));
+    assertEquals("Incorrect number of jumps", 2, symbols.getFixupCount(next));
+    assertEquals("Incorrect first jump", 1, symbols.getFixup(next, 0));
+    assertEquals("Incorrect second jump", 4, symbols.getFixup(next, 1));
+    assertEquals("Incorrect undefined label", next,
+        symbols.nextUndefined(0));
+    assertEquals("Incorrect unused label", symbols.find("Unused"),
+        symbols.nextUnused(0));
+    assertEquals("Only one label should be unused", -1,
+        symbols.nextUnused(symbols.find("Unused") + 1));
+
+    program.edit(SourceEdit.replaceLine(3, "LABEL Next"));
+
+    assertEquals("Label should be defined", 2, symbols.getDefinition(next));
+    assertEquals("No label should be undefined", -1,
+        symbols.nextUndefined(0));
+    assertEquals("No label should be unused", -1, symbols.nextUnused(0));
+  }
+}
@@ -0,0 +1,134 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.Compiler;
+import us.daveread.microkenbak1.compiler.Diagnostic;
+import us.daveread.microkenbak1.compiler.OptimizationLevel;
+import us.daveread.microkenbak1.compiler.Program;
+import us.daveread.microkenbak1.compiler.SourceText;
+import us.daveread.microkenbak1.compiler.Statement;
+import us.daveread.microkenbak1.compiler.TailDuplication;
+
+/**
+ * Unit tests for the TailDuplication class.
+ *
+ * @author readda
+ *
+ */
+public class TailDuplicationTest {
+  /**
+   * Test that a GOTO to a short block ending with a GOTO is replaced by a copy
+   * of the block, and that the label left without jumps is removed.
+   */
+  @Test
+  public void testDuplication() {
+    List<Diagnostic> remarks = new ArrayList<>();
+    List<String> duplicated = run(remarks, "LABEL Top", "GOTO Step",
+        "LABEL Step", "LET A = 1", "GOTO Top");
+
+    assertEquals("Incorrect statements", "[LABEL Top, LET A = 0001, GOTO Top, "
+        + "LET A = 1, GOTO Top]", duplicated.toString());
+    assertEquals("Incorrect number of remarks", 1, remarks.size());
+    assertEquals("Incorrect remark", "Tail duplicated: GOTO Step replaced by "
+        + "LET A = 1; GOTO Top", remarks.get(0).getMessage());
+  }
+
+  /**
+   * Test that blocks ending with a HALT, blocks too long to copy, and loops
+   * back to their own label are not copied.
+   */
+  @Test
+  public void testNotDuplicated() {
+    List<Diagnostic> remarks = new ArrayList<>();
+    List<String> lines = Arrays.asList("GOTO End", "GOTO Long", "LABEL Loop",
+        "LET A = 1", "GOTO Loop", "LABEL Long", "LET A = 1", "LET B = 2",
+        "LET X = 3", "LET A = 4", "GOTO End", "LABEL End", "LET A = 1",
+        "HALT");
+
+    assertEquals("Incorrect statements", lines.toString(),
+        run(remarks, lines.toArray(new String[0])).toString());
+    assertEquals("Incorrect number of remarks", 0, remarks.size());
+  }
+
+  /**
+   * Test that a block is not copied when the program would reach the display
+   * address, and that a label still jumped to is kept.
+   */
+  @Test
+  public void testDisplayAddress() {
+    List<String> lines = new ArrayList<>();
+    for (int index = 0; index < 57; ++index) {
+      lines.add("LET A = 1");
+    }
+    lines.addAll(Arrays.asList("GOTO Step", "LABEL Step", "LET A = 1",
+        "LET B = 2", "GOTO Step"));
+    List<Diagnostic> remarks = new ArrayList<>();
+
+    assertEquals("Incorrect statements", lines.toString(),
+        run(remarks, lines.toArray(new String[0])).toString());
+
+    lines.subList(0, 2).clear();
+    assertEquals("Incorrect statements", lines.subList(0, 55).toString()
+        .replace("]", ", LET A = 0001, LET B = 0002, GOTO Step, LABEL Step, "
+            + "LET A = 1, LET B = 2, GOTO Step]"),
+        run(remarks, lines.toArray(new String[0])).toString());
+  }
+
+  /**
+   * Test that a program that may jump to a computed address is left
+   * unchanged.
+   */
+  @Test
+  public void testComputedJump() {
+    List<Diagnostic> remarks = new ArrayList<>();
+    List<String> kept = run(remarks, "MEMCOPY A TO P", "GOTO One",
+        "LABEL One", "LET A = 1", "GOTO One");
+
+    assertEquals("Incorrect statements", "[MEMCOPY A TO P, GOTO One, "
+        + "LABEL One, LET A = 1, GOTO One]", kept.toString());
+    assertEquals("Incorrect number of remarks", 0, remarks.size());
+  }
+
+  /**
+   * Test that -O2 copies the block and removes the code left unreachable.
+   */
+  @Test
+  public void testCompiled() {
+    Compiler compiler = new Compiler();
+    compiler.setOptimizationLevel(OptimizationLevel.O2);
+    Program program = compiler.compile(SourceText.fromString("test",
+        "LABEL Top\nLET A = 1\nGOTO Step\nLET B = 2\nLABEL Step\n"
+            + "LET X = 3\nGOTO Top\n"), true);
+    Program expected = new Compiler().compile(SourceText.fromString("test",
+        "LABEL Top\nLET A = 1\nLET X = 3\nGOTO Top\n"), true);
+
+    assertEquals("Incorrect instructions", expected.getInstructions(false),
+        program.getInstructions(false));
+  }
+
+  /**
+   * Run the pass over statements.
+   *
+   * @param remarks
+   *          Collects the remarks
+   * @param lines
+   *          The statements, with lexemes separated by a space
+   * @return The formatted statements after the pass
+   */
+  private static List<String> run(List<Diagnostic> remarks,
+      String... lines) {
+    List<String> formatted = new ArrayList<>();
+    for (Statement stmt : new TailDuplication().run(
+        ControlFlowGraphTest.statements(lines), remarks)) {
+      formatted.add(stmt.getFormattedStatement().trim());
+    }
+    return formatted;
+  }
+}
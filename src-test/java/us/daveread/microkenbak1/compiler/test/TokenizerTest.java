@@ -0,0 +1,111 @@
+package us.daveread.microkenbak1.compiler.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import us.daveread.microkenbak1.compiler.Keyword;
+import us.daveread.microkenbak1.compiler.Lexemes;
+import us.daveread.microkenbak1.compiler.Tokenizer;
+
+/**
+ * Unit tests for the Tokenizer and Lexemes classes.
+ * 
+ * @author readda
+ *
+ */
+public class TokenizerTest {
+  /**
+   * The tokenizer.
+   */
+  private Tokenizer tokenizer;
+
+  /**
+   * Create the tokenizer object.
+   */
+  @Before
+  public void setup() {
+    tokenizer = new Tokenizer();
+  }
+
+  /**
+   * Test splitting on runs of spaces.
+   */
+  @Test
+  public void testSpaceSeparated() {
+    Lexemes lexemes = tokenizer.tokenize("  LET  B =   0252  ");
+
+    assertArrayEquals("Incorrect lexemes",
+        new String[] { "LET", "B", "=", "0252" }, lexemes.toArray());
+  }
+
+  /**
+   * Test that tabs and other whitespace separate lexemes.
+   */
+  @Test
+  public void testTabSeparated() {
+    Lexemes lexemes = tokenizer.tokenize("\tmemcopy\ta\tto\r\tdisplay\t");
+
+    assertArrayEquals("Incorrect lexemes",
+        new String[] { "memcopy", "a", "to", "display" }, lexemes.toArray());
+  }
+
+  /**
+   * Test that a comment ends the statement, even without a preceding space.
+   */
+  @Test
+  public void testTrailingComment() {
+    Lexemes lexemes = tokenizer.tokenize("and 017# keep lower 4 bits");
+
+    assertArrayEquals("Incorrect lexemes", new String[] { "and", "017" },
+        lexemes.toArray());
+  }
+
+  /**
+   * Test that blank and comment-only lines have no lexemes.
+   */
+  @Test
+  public void testNoLexemes() {
+    assertNull("Blank line should have no lexemes", tokenizer.tokenize(""));
+    assertNull("Whitespace line should have no lexemes",
+        tokenizer.tokenize(" \t "));
+    assertNull("Comment line should have no lexemes",
+        tokenizer.tokenize("  # Top of loop"));
+  }
+
+  /**
+   * Test that spans refer to the supplied buffer.
+   */
+  @Test
+  public void testSpansOverBuffer() {
+    char[] buffer = "label top\ngoto top\n".toCharArray();
+
+    Lexemes lexemes = tokenizer.tokenize(buffer, 10, 18);
+
+    assertSame("Lexemes should share the source buffer", buffer,
+        lexemes.getBuffer());
+    assertEquals("Incorrect number of lexemes", 2, lexemes.size());
+    assertEquals("Incorrect offset", 15, lexemes.offset(1));
+    assertEquals("Incorrect length", 3, lexemes.length(1));
+    assertEquals("Incorrect text", "top", lexemes.get(1));
+  }
+
+  /**
+   * Test that lexemes are classified as keywords ignoring case.
+   */
+  @Test
+  public void testKeywords() {
+    Lexemes lexemes = tokenizer.tokenize("Memcopy x To addressIn top");
+
+    assertTrue("MEMCOPY should match", lexemes.is(0, Keyword.MEMCOPY));
+    assertEquals("Incorrect variable", Keyword.X, lexemes.keyword(1));
+    assertTrue("TO should match", lexemes.is(2, Keyword.TO));
+    assertTrue("ADDRESSIN should match", lexemes.is(3, Keyword.ADDRESSIN));
+    assertNull("Label name is not a keyword", lexemes.keyword(4));
+  }
+}
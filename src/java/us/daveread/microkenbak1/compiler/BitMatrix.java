@@ -0,0 +1,227 @@
+package us.daveread.microkenbak1.compiler;
+
+import java.util.Arrays;
+
+/**
+ * A fixed number of rows of bits, all held in one array of longs, for the
+ * dataflow sets of each basic block. Rows are combined a word at a time.
+ *
+ * @author readda
+ *
+ */
+public final class BitMatrix {
+  /**
+   * The number of rows.
+   */
+  private final int rows;
+
+  /**
+   * The number of bits in each row.
+   */
+  private final int bits;
+
+  /**
+   * The number of longs in each row.
+   */
+  private final int words;
+
+  /**
+   * The rows, one after another.
+   */
+  private final long[] data;
+
+  /**
+   * Create a matrix with every bit clear.
+   *
+   * @param rows
+   *          The number of rows
+   * @param bits
+   *          The number of bits in each row
+   */
+  public BitMatrix(int rows, int bits) {
+    this.rows = rows;
+    this.bits = bits;
+    words = (bits + Long.SIZE - 1) / Long.SIZE;
+    data = new long[rows * words];
+  }
+
+  /**
+   * Get the number of rows.
+   *
+   * @return The number of rows
+   */
+  public int getRows() {
+    return rows;
+  }
+
+  /**
+   * Get the number of bits in each row.
+   *
+   * @return The number of bits
+   */
+  public int getBits() {
+    return bits;
+  }
+
+  /**
+   * Check whether a bit is set.
+   *
+   * @param row
+   *          The row
+   * @param bit
+   *          The bit
+   * @return True if the bit is set
+   */
+  public boolean get(int row, int bit) {
+    return (data[row * words + (bit >>> 6)] & 1L << bit) != 0;
+  }
+
+  /**
+   * Set a bit.
+   *
+   * @param row
+   *          The row
+   * @param bit
+   *          The bit
+   */
+  public void set(int row, int bit) {
+    data[row * words + (bit >>> 6)] |= 1L << bit;
+  }
+
+  /**
+   * Clear a bit.
+   *
+   * @param row
+   *          The row
+   * @param bit
+   *          The bit
+   */
+  public void clear(int row, int bit) {
+    data[row * words + (bit >>> 6)] &= ~(1L << bit);
+  }
+
+  /**
+   * Set every bit of a row.
+   *
+   * @param row
+   *          The row
+   */
+  public void setAll(int row) {
+    Arrays.fill(data, row * words, (row + 1) * words, -1L);
+    int extra = words * Long.SIZE - bits;
+    if (extra > 0) {
+      data[(row + 1) * words - 1] >>>= extra;
+    }
+  }
+
+  /**
+   * Find the next set bit of a row.
+   *
+   * @param row
+   *          The row
+   * @param from
+   *          The first bit to check
+   * @return The bit, -1 if no bit from there is set
+   */
+  public int nextSetBit(int row, int from) {
+    if (from >= bits) {
+      return -1;
+    }
+    int word = from >>> 6;
+    long value = data[row * words + word] & -1L << from;
+    while (true) {
+      if (value != 0) {
+        return word * Long.SIZE + Long.numberOfTrailingZeros(value);
+      }
+      if (++word == words) {
+        return -1;
+      }
+      value = data[row * words + word];
+    }
+  }
+
+  /**
+   * Count the set bits of a row.
+   *
+   * @param row
+   *          The row
+   * @return The number of bits set
+   */
+  public int cardinality(int row) {
+    int count = 0;
+    for (int word = row * words; word < (row + 1) * words; ++word) {
+      count += Long.bitCount(data[word]);
+    }
+    return count;
+  }
+
+  /**
+   * Set the bits of a row that are set in a row of another matrix with as
+   * many bits.
+   *
+   * @param row
+   *          The row
+   * @param other
+   *          The other matrix
+   * @param otherRow
+   *          The row of the other matrix
+   * @return True if the row changed
+   */
+  public boolean or(int row, BitMatrix other, int otherRow) {
+    boolean changed = false;
+    for (int word = 0; word < words; ++word) {
+      long old = data[row * words + word];
+      long value = old | other.data[otherRow * other.words + word];
+      data[row * words + word] = value;
+      changed |= value != old;
+    }
+    return changed;
+  }
+
+  /**
+   * Clear the bits of a row that are set in a row of another matrix with as
+   * many bits.
+   *
+   * @param row
+   *          The row
+   * @param other
+   *          The other matrix
+   * @param otherRow
+   *          The row of the other matrix
+   */
+  public void andNot(int row, BitMatrix other, int otherRow) {
+    for (int word = 0; word < words; ++word) {
+      data[row * words + word] &= ~other.data[otherRow * other.words + word];
+    }
+  }
+
+  /**
+   * Set a row to the transfer function of a dataflow problem:
+   * gen | (in &amp; ~kill).
+   *
+   * @param row
+   *          The row
+   * @param gen
+   *          The bits generated, by row
+   * @param in
+   *          The bits flowing in, by row
+   * @param kill
+   *          The bits killed, by row
+   * @param source
+   *          The row of gen, in and kill
+   * @return True if the row changed
+   */
+  public boolean transfer(int row, BitMatrix gen, BitMatrix in,
+      BitMatrix kill, int source) {
+    boolean changed = false;
+    int offset = source * words;
+    for (int word = 0; word < words; ++word) {
+      long old = data[row * words + word];
+      long value = gen.data[offset + word]
+          | in.data[offset + word] & ~kill.data[offset + word];
+      data[row * words + word] = value;
+      changed |= value != old;
+    }
+    return changed;
+  }
+}
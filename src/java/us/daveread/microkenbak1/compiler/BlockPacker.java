@@ -0,0 +1,523 @@
+package us.daveread.microkenbak1.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Places a program that does not fit below the LED display address into the
+ * two free fragments of memory (0004-0177 and 0204-0376), rather than laying
+ * it out contiguously with a jump around the display.
+ *
+ * The program is split into chains: runs of basic blocks that fall through
+ * into each other, each ending with a GOTO. A chain must stay contiguous, but
+ * chains can be placed in any order. The first chain starts the program at
+ * 0004, and the low fragment is filled with the chains that use the most of
+ * it (a knapsack). The room left is filled with the start of one more chain,
+ * stitched to its remainder at 0204 by a jump. The other chains follow in the
+ * high fragment in program order; a last chain that falls off the end of the
+ * program stays last.
+ *
+ * Chains reached only by address, such as BYTES data read by LET ... VALUEIN,
+ * would move with the packing, so packing is only for programs that reach
+ * their code through labels: {@link #findAddressDependence(List)} finds the
+ * statements that keep a program from being packed.
+ *
+ * @author readda
+ *
+ */
+public final class BlockPacker {
+  /**
+   * Entry of the placement order for the jump that stitches a split chain.
+   */
+  public static final int STITCH_JUMP = -1;
+
+  /**
+   * Entry of the placement order for the label the stitching jump goes to.
+   */
+  public static final int STITCH_LABEL = -2;
+
+  /**
+   * The first address of the low fragment.
+   */
+  private static final int LOW_START = MemoryImage.PROGRAM_START;
+
+  /**
+   * The address just past the low fragment.
+   */
+  private static final int LOW_END = MemoryImage.Region.DISPLAY.getStart();
+
+  /**
+   * The first address of the high fragment.
+   */
+  private static final int HIGH_START = MemoryImage.Region.OVERFLOW_FLAGS
+      .getEnd();
+
+  /**
+   * The address just past the high fragment.
+   */
+  private static final int HIGH_END = MemoryImage.Region.INPUT.getStart();
+
+  /**
+   * The program statements, in source order.
+   */
+  private final List<Statement> statements;
+
+  /**
+   * The index of the first statement of each chain, followed by the number
+   * of statements.
+   */
+  private int[] chainStarts;
+
+  /**
+   * The number of memory cells of each chain.
+   */
+  private int[] chainCells;
+
+  /**
+   * The statement indexes, {@link #STITCH_JUMP} and {@link #STITCH_LABEL}, in
+   * address order.
+   */
+  private int[] order;
+
+  /**
+   * The address of each entry of the order.
+   */
+  private int[] starts;
+
+  /**
+   * The number of entries in the order.
+   */
+  private int size;
+
+  /**
+   * The address just past the packed program.
+   */
+  private int end;
+
+  /**
+   * The address just past the program laid out contiguously, or
+   * {@link Integer#MAX_VALUE} if it cannot jump around the display.
+   */
+  private final int contiguousEnd;
+
+  /**
+   * Whether packing ends the program earlier than laying it out
+   * contiguously.
+   */
+  private boolean packed;
+
+  /**
+   * Place a program's statements.
+   *
+   * @param statements
+   *          The program statements, in source order
+   */
+  public BlockPacker(List<Statement> statements) {
+    this.statements = statements;
+    contiguousEnd = contiguousEnd();
+    pack();
+  }
+
+  /**
+   * Check whether the program is packed. A program that fits below the
+   * display address, or that packing does not shorten, is laid out
+   * contiguously.
+   *
+   * @return True if the placement order is to be used
+   */
+  public boolean isPacked() {
+    return packed;
+  }
+
+  /**
+   * Get the number of entries in the placement order.
+   *
+   * @return The number of entries
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get an entry of the placement order.
+   *
+   * @param index
+   *          The index, in address order
+   * @return The index of a program statement, {@link #STITCH_JUMP} or
+   *         {@link #STITCH_LABEL}
+   */
+  public int getStatement(int index) {
+    return order[index];
+  }
+
+  /**
+   * Get the address of an entry of the placement order.
+   *
+   * @param index
+   *          The index, in address order
+   * @return The address
+   */
+  public int getAddress(int index) {
+    return starts[index];
+  }
+
+  /**
+   * Get the address just past the packed program.
+   *
+   * @return The address
+   */
+  public int getEnd() {
+    return end;
+  }
+
+  /**
+   * Get the number of bytes packing saves over the contiguous layout.
+   *
+   * @return The bytes saved, 0 if the program is not packed
+   */
+  public int getSavedBytes() {
+    if (!packed) {
+      return 0;
+    }
+    return contiguousEnd == Integer.MAX_VALUE ? 0 : contiguousEnd - end;
+  }
+
+  /**
+   * Find a statement that depends on where the program's code is placed, so
+   * the code must be neither moved nor shortened: one after which control
+   * may go to a computed address, such as a MEMCOPY to P, or one reading or
+   * writing a memory cell the program's own code may occupy.
+   *
+   * @param statements
+   *          The program statements, in source order
+   * @return The index of the first such statement, -1 if none
+   */
+  public static int findAddressDependence(List<Statement> statements) {
+    int found = statements.size();
+    ControlFlowGraph cfg = new ControlFlowGraph(statements);
+    if (cfg.hasComputedJumps()) {
+      for (int block = 0; block < cfg.getUnknown(); ++block) {
+        for (int index = 0; index < cfg.getSuccessorCount(block); ++index) {
+          if (cfg.getSuccessor(block, index) == cfg.getUnknown()) {
+            found = Math.min(found, cfg.getEnd(block) - 1);
+          }
+        }
+      }
+    }
+
+    int codeEnd = LOW_START;
+    for (Statement stmt : statements) {
+      codeEnd += stmt.getMemoryCells();
+    }
+    if (codeEnd > LOW_END) {
+      codeEnd = Math.min(HIGH_END,
+          codeEnd + HIGH_START - LOW_END + InstructionSet.JUMP_CELLS);
+    }
+    for (int index = 0; index < found; ++index) {
+      int address = addressUsed(statements.get(index).getNode());
+      if (address >= LOW_START && address < codeEnd
+          && MemoryImage.Region.at(address) == null) {
+        found = index;
+      }
+    }
+    return found == statements.size() ? -1 : found;
+  }
+
+  /**
+   * Get the memory cell a statement reads or writes by address.
+   *
+   * @param node
+   *          The statement, null if it did not parse
+   * @return The address, -1 if the statement does not name one
+   */
+  private static int addressUsed(StatementNode node) {
+    if (node == null) {
+      return -1;
+    }
+    switch (node.getOperation()) {
+      case LET:
+        return node.isIndirect() ? node.getOperand() : -1;
+      case MEMCOPY:
+        return node.getOperand();
+      default:
+        return -1;
+    }
+  }
+
+  /**
+   * Find where the contiguous layout ends, jumping around the display after
+   * the last statement with room for the jump.
+   *
+   * @return The address just past the program
+   */
+  private int contiguousEnd() {
+    int address = LOW_START;
+    int candidateEnd = -1;
+    for (Statement stmt : statements) {
+      if (Program.fitsBeforeDisplay(stmt, address)) {
+        candidateEnd = address + stmt.getMemoryCells();
+      }
+      address += stmt.getMemoryCells();
+    }
+    if (address < LOW_END) {
+      return address;
+    }
+    return candidateEnd < 0 ? Integer.MAX_VALUE
+        : HIGH_START + address - candidateEnd;
+  }
+
+  /**
+   * Split the program into chains and place them.
+   */
+  private void pack() {
+    if (contiguousEnd <= LOW_END) {
+      return;
+    }
+    findChains();
+    int chains = chainCells.length;
+    int lowRoom = LOW_END - LOW_START;
+    int tail = chains > 1 && !endsWithGoto(chains - 1) ? chains - 1 : -1;
+
+    boolean[] low = new boolean[chains];
+    int split = -1;
+    int splitAt = -1;
+    if (chainCells[0] > lowRoom) {
+      split = 0;
+      splitAt = prefixEnd(0, lowRoom - InstructionSet.JUMP_CELLS);
+      if (splitAt == chainStarts[0]) {
+        return;
+      }
+    } else {
+      low[0] = true;
+      int used = chainCells[0] + fill(low, tail, lowRoom - chainCells[0]);
+      int room = lowRoom - used - InstructionSet.JUMP_CELLS;
+      int best = 0;
+      for (int chain = 1; chain < chains && room > 0; ++chain) {
+        if (low[chain] || chain == tail && countHigh(low) > 1) {
+          continue;
+        }
+        int at = prefixEnd(chain, room);
+        int cells = cells(chainStarts[chain], at);
+        if (cells > best) {
+          best = cells;
+          split = chain;
+          splitAt = at;
+        }
+      }
+    }
+
+    order = new int[statements.size() + 2];
+    starts = new int[order.length];
+    int address = LOW_START;
+    for (int chain = 0; chain < chains; ++chain) {
+      if (low[chain]) {
+        address = add(chainStarts[chain], chainStarts[chain + 1], address);
+      }
+    }
+    if (split >= 0) {
+      address = add(chainStarts[split], splitAt, address);
+      address = addEntry(STITCH_JUMP, address, InstructionSet.JUMP_CELLS);
+    }
+
+    int lowEnd = address;
+    int lowSize = size;
+    address = HIGH_START;
+    if (split >= 0) {
+      address = addEntry(STITCH_LABEL, address, 0);
+      address = add(splitAt, chainStarts[split + 1], address);
+    }
+    for (int chain = 0; chain < chains; ++chain) {
+      if (!low[chain] && chain != split && chain != tail) {
+        address = add(chainStarts[chain], chainStarts[chain + 1], address);
+      }
+    }
+    if (tail >= 0 && !low[tail] && tail != split) {
+      address = add(chainStarts[tail], chainStarts[tail + 1], address);
+    }
+    end = size == lowSize ? lowEnd : address;
+    packed = end < contiguousEnd && end <= HIGH_END;
+  }
+
+  /**
+   * Split the program into chains, each ending with a GOTO or at the end of
+   * the program.
+   */
+  private void findChains() {
+    List<Integer> starts = new ArrayList<>();
+    starts.add(0);
+    for (int index = 0; index < statements.size() - 1; ++index) {
+      if (isGoto(statements.get(index))) {
+        starts.add(index + 1);
+      }
+    }
+    chainStarts = new int[starts.size() + 1];
+    chainCells = new int[starts.size()];
+    for (int chain = 0; chain < chainCells.length; ++chain) {
+      chainStarts[chain] = starts.get(chain);
+    }
+    chainStarts[chainCells.length] = statements.size();
+    for (int chain = 0; chain < chainCells.length; ++chain) {
+      chainCells[chain] = cells(chainStarts[chain], chainStarts[chain + 1]);
+    }
+  }
+
+  /**
+   * Choose the chains, other than the first and the tail, that use the most
+   * of the room in the low fragment.
+   *
+   * @param low
+   *          Set for each chain chosen
+   * @param tail
+   *          The chain that must be placed last, -1 if none
+   * @param room
+   *          The number of memory cells available
+   * @return The number of memory cells used
+   */
+  private int fill(boolean[] low, int tail, int room) {
+    int chains = chainCells.length;
+    // reached[chain][cells]: the first chains can use exactly that many cells
+    boolean[][] reached = new boolean[chains][room + 1];
+    reached[0][0] = true;
+    for (int chain = 1; chain < chains; ++chain) {
+      int cells = chain == tail ? room + 1 : chainCells[chain];
+      for (int total = 0; total <= room; ++total) {
+        reached[chain][total] = reached[chain - 1][total]
+            || total >= cells && reached[chain - 1][total - cells];
+      }
+    }
+
+    int best = room;
+    while (!reached[chains - 1][best]) {
+      --best;
+    }
+    int total = best;
+    for (int chain = chains - 1; chain > 0; --chain) {
+      if (!reached[chain - 1][total]) {
+        low[chain] = true;
+        total -= chainCells[chain];
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Count the chains not placed in the low fragment.
+   *
+   * @param low
+   *          Set for each chain in the low fragment
+   * @return The number of chains
+   */
+  private static int countHigh(boolean[] low) {
+    int count = 0;
+    for (boolean placed : low) {
+      if (!placed) {
+        ++count;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Find the longest start of a chain that fits in a number of memory cells,
+   * leaving the labels after it with the rest of the chain.
+   *
+   * @param chain
+   *          The chain
+   * @param room
+   *          The number of memory cells
+   * @return The index of the first statement not in the start
+   */
+  private int prefixEnd(int chain, int room) {
+    int at = chainStarts[chain];
+    int cells = 0;
+    for (int index = at; index < chainStarts[chain + 1]; ++index) {
+      int stmtCells = statements.get(index).getMemoryCells();
+      if (cells + stmtCells > room) {
+        break;
+      }
+      cells += stmtCells;
+      if (stmtCells > 0) {
+        at = index + 1;
+      }
+    }
+    return at;
+  }
+
+  /**
+   * Count the memory cells of a range of statements.
+   *
+   * @param from
+   *          The index of the first statement
+   * @param to
+   *          The index just past the last statement
+   * @return The number of memory cells
+   */
+  private int cells(int from, int to) {
+    int cells = 0;
+    for (int index = from; index < to; ++index) {
+      cells += statements.get(index).getMemoryCells();
+    }
+    return cells;
+  }
+
+  /**
+   * Add a range of statements to the placement order.
+   *
+   * @param from
+   *          The index of the first statement
+   * @param to
+   *          The index just past the last statement
+   * @param address
+   *          The address of the first statement
+   * @return The address just past the statements
+   */
+  private int add(int from, int to, int address) {
+    for (int index = from; index < to; ++index) {
+      address = addEntry(index, address,
+          statements.get(index).getMemoryCells());
+    }
+    return address;
+  }
+
+  /**
+   * Add an entry to the placement order.
+   *
+   * @param statement
+   *          The statement index, {@link #STITCH_JUMP} or
+   *          {@link #STITCH_LABEL}
+   * @param address
+   *          The address of the entry
+   * @param cells
+   *          The number of memory cells of the entry
+   * @return The address just past the entry
+   */
+  private int addEntry(int statement, int address, int cells) {
+    order[size] = statement;
+    starts[size++] = address;
+    return address + cells;
+  }
+
+  /**
+   * Check whether a chain ends with a GOTO, rather than falling off the end
+   * of the program.
+   *
+   * @param chain
+   *          The chain
+   * @return True if control never passes its end
+   */
+  private boolean endsWithGoto(int chain) {
+    return isGoto(statements.get(chainStarts[chain + 1] - 1));
+  }
+
+  /**
+   * Check whether a statement always jumps.
+   *
+   * @param stmt
+   *          The statement
+   * @return True for a GOTO
+   */
+  private static boolean isGoto(Statement stmt) {
+    return stmt.getNode() != null
+        && stmt.getNode().getOperation() == Operation.GOTO;
+  }
+}
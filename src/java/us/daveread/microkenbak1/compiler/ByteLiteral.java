@@ -0,0 +1,117 @@
+package us.daveread.microkenbak1.compiler;
+
+/**
+ * Parses numeric literals without creating objects or throwing exceptions.
+ * Literals follow the rules of Integer.decode: decimal, octal (leading 0), or
+ * hexadecimal (leading 0x), with an optional sign.
+ *
+ * @author readda
+ *
+ */
+public final class ByteLiteral {
+  /**
+   * Result when the characters are not a decimal, octal, or hexadecimal
+   * integer.
+   */
+  public static final int NOT_A_NUMBER = -1;
+
+  /**
+   * Result when the characters are an integer outside the range 0-255.
+   */
+  public static final int OUT_OF_RANGE = -2;
+
+  /**
+   * The largest byte value.
+   */
+  public static final int MAX_VALUE = 0377;
+
+  /**
+   * Hide constructor - utility class.
+   */
+  private ByteLiteral() {
+
+  }
+
+  /**
+   * Parse a byte value.
+   *
+   * @param buffer
+   *          The characters
+   * @param offset
+   *          The offset of the first character
+   * @param length
+   *          The number of characters
+   * @return The value (0-255), {@link #NOT_A_NUMBER} or {@link #OUT_OF_RANGE}
+   */
+  public static int parse(char[] buffer, int offset, int length) {
+    int position = offset;
+    int end = offset + length;
+    boolean negative = false;
+
+    if (position < end
+        && (buffer[position] == '-' || buffer[position] == '+')) {
+      negative = buffer[position] == '-';
+      ++position;
+    }
+
+    int radix = 10;
+    if (position + 1 < end && buffer[position] == '0'
+        && (buffer[position + 1] == 'x' || buffer[position + 1] == 'X')) {
+      radix = 16;
+      position += 2;
+    } else if (position + 1 < end && buffer[position] == '0') {
+      radix = 8;
+      ++position;
+    }
+
+    if (position == end) {
+      return NOT_A_NUMBER;
+    }
+
+    long value = 0;
+    for (; position < end; ++position) {
+      int digit = Character.digit(buffer[position], radix);
+      if (digit < 0) {
+        return NOT_A_NUMBER;
+      }
+      value = value * radix + digit;
+      if (value > Integer.MAX_VALUE + 1L) {
+        return NOT_A_NUMBER;
+      }
+    }
+
+    if (negative) {
+      return value == 0 ? 0 : OUT_OF_RANGE;
+    }
+    if (value > Integer.MAX_VALUE) {
+      return NOT_A_NUMBER;
+    }
+
+    return value > MAX_VALUE ? OUT_OF_RANGE : (int) value;
+  }
+
+  /**
+   * Parse a byte value from a lexeme.
+   *
+   * @param lexemes
+   *          The lexemes of a statement
+   * @param index
+   *          The index of the literal
+   * @return The value (0-255), {@link #NOT_A_NUMBER} or {@link #OUT_OF_RANGE}
+   */
+  public static int parse(Lexemes lexemes, int index) {
+    return parse(lexemes.getBuffer(), lexemes.offset(index),
+        lexemes.length(index));
+  }
+
+  /**
+   * Parse a byte value from a string.
+   *
+   * @param value
+   *          The literal
+   * @return The value (0-255), {@link #NOT_A_NUMBER} or {@link #OUT_OF_RANGE}
+   */
+  public static int parse(String value) {
+    return parse(value.toCharArray(), 0, value.length());
+  }
+}
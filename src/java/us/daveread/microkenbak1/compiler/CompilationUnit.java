@@ -0,0 +1,144 @@
+package us.daveread.microkenbak1.compiler;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A source file parsed into statement nodes, as included by other programs.
+ * The nodes are immutable, so a unit is shared by every program including the
+ * file; each program creates its own statements from them.
+ *
+ * @author readda
+ *
+ */
+public final class CompilationUnit {
+  /**
+   * The source file.
+   */
+  private final File file;
+
+  /**
+   * The modification time of the file when it was parsed.
+   */
+  private final long modified;
+
+  /**
+   * The length of the file when it was parsed.
+   */
+  private final long length;
+
+  /**
+   * The parsed statements, in source order.
+   */
+  private final List<StatementNode> nodes;
+
+  /**
+   * The error that stopped the file being parsed, null if none.
+   */
+  private final String error;
+
+  /**
+   * Create the unit.
+   *
+   * @param file
+   *          The source file
+   * @param modified
+   *          The modification time of the file when it was parsed
+   * @param length
+   *          The length of the file when it was parsed
+   * @param nodes
+   *          The parsed statements
+   * @param error
+   *          The error that stopped the file being parsed, null if none
+   */
+  private CompilationUnit(File file, long modified, long length,
+      List<StatementNode> nodes, String error) {
+    this.file = file;
+    this.modified = modified;
+    this.length = length;
+    this.nodes = Collections.unmodifiableList(nodes);
+    this.error = error;
+  }
+
+  /**
+   * Read and parse a source file. An error reading or parsing the file is
+   * recorded in the unit rather than thrown, so it is only found once.
+   *
+   * @param file
+   *          The source file
+   * @return The unit
+   */
+  static CompilationUnit parse(File file) {
+    long modified = file.lastModified();
+    long length = file.length();
+    List<StatementNode> nodes = new ArrayList<>();
+    String error = null;
+
+    try {
+      SourceText source = SourceText.fromFile(file.getPath());
+      Tokenizer tokenizer = new Tokenizer();
+      char[] buffer = source.getBuffer();
+      for (int line = 0; line < source.getLineCount(); ++line) {
+        Lexemes lexemes = tokenizer.tokenize(buffer, source.lineStart(line),
+            source.lineEnd(line));
+        if (lexemes == null) {
+          continue;
+        }
+
+        try {
+          nodes.add(new Statement(lexemes).getNode());
+        } catch (IllegalStateException ise) {
+          error = "Error in included file " + file + " at line " + (line + 1)
+              + ": " + ise.getMessage();
+          break;
+        }
+      }
+    } catch (FileNotFoundException fnfe) {
+      error = "Included file not found: " + file;
+    } catch (IOException ioe) {
+      error = "Error reading included file " + file + ": " + ioe.getMessage();
+    }
+
+    return new CompilationUnit(file, modified, length, nodes, error);
+  }
+
+  /**
+   * Check whether the file has not changed since it was parsed.
+   *
+   * @return True if the unit matches the file
+   */
+  boolean isCurrent() {
+    return file.lastModified() == modified && file.length() == length;
+  }
+
+  /**
+   * Get the source file.
+   *
+   * @return The file
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Get the parsed statements.
+   *
+   * @return The statements, in source order
+   */
+  public List<StatementNode> getNodes() {
+    return nodes;
+  }
+
+  /**
+   * Get the error that stopped the file being parsed.
+   *
+   * @return The error, null if the file was parsed
+   */
+  public String getError() {
+    return error;
+  }
+}
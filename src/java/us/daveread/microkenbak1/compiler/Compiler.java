@@ -1,17 +1,14 @@
 package us.daveread.microkenbak1.compiler;
 
+import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.LineNumberReader;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 
-import us.daveread.microkenbak1.compiler.instruction.JumpInstruction;
-import us.daveread.microkenbak1.compiler.instruction.ByteContent;
-import us.daveread.microkenbak1.compiler.instruction.OperationInstruction;
-
 /**
  * compiler to convert the high-level syntax to the microKenbek-1 operating
  * codes.
@@ -20,6 +17,24 @@ import us.daveread.microkenbak1.compiler.instruction.OperationInstruction;
  *
  */
 public class Compiler {
+  /**
+   * The suffix added to the operating codes file name for the file holding
+   * the source line of each address.
+   */
+  public static final String LINE_TABLE_SUFFIX = ".lines";
+
+  /**
+   * The command line flag compiling with recovery, so that every error is
+   * reported.
+   */
+  public static final String RECOVER_FLAG = "--recover";
+
+  /**
+   * The command line flag writing the line table next to the operating codes
+   * file.
+   */
+  public static final String LINE_TABLE_FLAG = "--lines";
+
   /**
    * The logger.
    */
@@ -32,6 +47,52 @@ public class Compiler {
     LOG = Logger.getLogger(Compiler.class);
   }
 
+  /**
+   * How much compiled programs are optimized.
+   */
+  private OptimizationLevel optimizationLevel = OptimizationLevel.O0;
+
+  /**
+   * Whether every diagnostic has been printed, so warnings are not printed
+   * again with the output.
+   */
+  private boolean diagnosticsPrinted;
+
+  /**
+   * Whether the line table is written next to the operating codes file.
+   */
+  private boolean lineTableWritten;
+
+  /**
+   * Set how much compiled programs are optimized.
+   * 
+   * @param optimizationLevel
+   *          The optimization level
+   */
+  public void setOptimizationLevel(OptimizationLevel optimizationLevel) {
+    this.optimizationLevel = optimizationLevel;
+  }
+
+  /**
+   * Set whether the source line of each address is written to a file next to
+   * the operating codes file, for debuggers.
+   * 
+   * @param lineTableWritten
+   *          True to write the line table
+   */
+  public void setLineTableWritten(boolean lineTableWritten) {
+    this.lineTableWritten = lineTableWritten;
+  }
+
+  /**
+   * Get how much compiled programs are optimized.
+   * 
+   * @return The optimization level
+   */
+  public OptimizationLevel getOptimizationLevel() {
+    return optimizationLevel;
+  }
+
   /**
    * perform the compilation process, reading the input source code and
    * returning a program object.
@@ -41,27 +102,27 @@ public class Compiler {
    * @return The program obtained by parsing and analyzing the source code
    */
   public Program compile(String filename) {
-    LineNumberReader lnr = null;
-    String statement = null;
-    Parser parser = new Parser();
+    return compile(filename, false);
+  }
 
+  /**
+   * perform the compilation process, reading the input source code and
+   * returning a program object. When recovering, every error and warning is
+   * returned by {@link Program#getDiagnostics()} instead of compilation
+   * stopping at the first error.
+   * 
+   * @param filename
+   *          The source file
+   * @param recover
+   *          True to continue past errors
+   * @return The program obtained by parsing and analyzing the source code,
+   *         null if the file cannot be read
+   */
+  public Program compile(String filename, boolean recover) {
     LOG.info("Compile " + filename);
 
     try {
-      lnr = new LineNumberReader(new FileReader(filename));
-      while ((statement = lnr.readLine()) != null) {
-        LOG.debug(
-            "Statement read at line " + lnr.getLineNumber() + ": " + statement);
-        parser.parse(statement);
-      }
-      return parser.getProgram();
-    } catch (IllegalStateException ise) {
-      System.out.println("Syntax Error at line " + lnr.getLineNumber());
-      System.out.println("Statement: " + statement);
-      System.out.println("Error: " + ise.getMessage());
-      System.out.println();
-      LOG.error("Syntax error at line " + lnr.getLineNumber() + ": " + statement
-          + " [" + ise.getMessage() + "]", ise);
+      return compile(SourceText.fromFile(filename), recover);
     } catch (FileNotFoundException fnfe) {
       System.out.println("File not found: " + filename);
       LOG.error("File not found: " + filename, fnfe);
@@ -69,21 +130,149 @@ public class Compiler {
       System.out.println("Error reading file: " + filename);
       System.out.println("Error: " + ioe.getMessage());
       LOG.error("Error reading file: " + filename, ioe);
-    } finally {
-      if (lnr != null) {
-        try {
-          lnr.close();
-        } catch (IOException e) {
+    }
+
+    return null;
+  }
+
+  /**
+   * perform the compilation process on source code that has already been read
+   * and return a program object.
+   * 
+   * @param source
+   *          The source code
+   * @return The program obtained by parsing and analyzing the source code
+   */
+  public Program compile(SourceText source) {
+    return compile(source, false);
+  }
 
+  /**
+   * perform the compilation process on source code that has already been read
+   * and return a program object. When recovering, statements in error are
+   * replaced by placeholders and every error and warning is returned by
+   * {@link Program#getDiagnostics()}; the program is never null.
+   * 
+   * @param source
+   *          The source code
+   * @param recover
+   *          True to continue past errors
+   * @return The program obtained by parsing and analyzing the source code
+   */
+  public Program compile(SourceText source, boolean recover) {
+    Parser parser = new Parser();
+    parser.setRecovering(recover);
+    parser.setSourceFile(new File(source.getName()));
+    char[] buffer = source.getBuffer();
+    int line = 0;
+
+    try {
+      for (; line < source.getLineCount(); ++line) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Statement read at line " + (line + 1) + ": "
+              + source.getLine(line));
         }
+        parser.parse(buffer, source.lineStart(line), source.lineEnd(line),
+            line + 1);
       }
+    } catch (IllegalStateException ise) {
+      reportSyntaxError(source, line, ise.getMessage(), ise);
+      return null;
     }
 
-    return null;
+    return optimize(parser.getProgram());
   }
 
   /**
-   * Write the operating codes for a program to a file.
+   * perform the compilation process on source code that has already been
+   * read, creating the statements in parallel, and return a program object.
+   * The program is identical to the one created by
+   * {@link #compile(SourceText, boolean)}.
+   * 
+   * @param source
+   *          The source code
+   * @param recover
+   *          True to continue past errors
+   * @param parallelParser
+   *          Creates the statements for the source lines
+   * @return The program obtained by parsing and analyzing the source code
+   */
+  public Program compile(SourceText source, boolean recover,
+      ParallelParser parallelParser) {
+    Parser parser = new Parser();
+    parser.setRecovering(recover);
+    parser.setSourceFile(new File(source.getName()));
+    Statement[] statements = parallelParser.parse(source);
+
+    for (int line = 0; line < statements.length; ++line) {
+      Statement stmt = statements[line];
+      if (stmt == null) {
+        continue;
+      }
+
+      if (stmt.isPlaceholder() && !recover) {
+        reportSyntaxError(source, line, stmt.getError().getMessage(), null);
+        return null;
+      }
+
+      try {
+        parser.add(stmt);
+      } catch (IllegalStateException ise) {
+        // An included file cannot be parsed
+        reportSyntaxError(source, line, ise.getMessage(), ise);
+        return null;
+      }
+    }
+
+    return optimize(parser.getProgram());
+  }
+
+  /**
+   * Run the optimization passes of the optimization level over a program.
+   * 
+   * @param program
+   *          The parsed program
+   * @return The program, optimized
+   */
+  private Program optimize(Program program) {
+    if (optimizationLevel != OptimizationLevel.O0) {
+      PassManager passes = PassManager.forLevel(optimizationLevel);
+      passes.run(program);
+      for (PassManager.Result result : passes.getResults()) {
+        LOG.info(optimizationLevel.getFlag() + " pass " + result.getName()
+            + ": " + result.getSavedBytes() + " bytes saved in "
+            + result.getNanos() / 1000 + " microseconds");
+      }
+    }
+    return program;
+  }
+
+  /**
+   * Report the statement that stopped compilation.
+   * 
+   * @param source
+   *          The source code
+   * @param line
+   *          The line of the statement (0-based)
+   * @param message
+   *          The description of the error
+   * @param cause
+   *          The exception thrown for the error, null if none
+   */
+  private void reportSyntaxError(SourceText source, int line, String message,
+      Throwable cause) {
+    String statement = source.getLine(line);
+    System.out.println("Syntax Error at line " + (line + 1));
+    System.out.println("Statement: " + statement);
+    System.out.println("Error: " + message);
+    System.out.println();
+    LOG.error("Syntax error at line " + (line + 1) + ": " + statement
+        + " [" + message + "]", cause);
+  }
+
+  /**
+   * Write the operating codes for a program to a file, and if asked for, the
+   * source line of each address to a file next to it.
    * 
    * @param filename
    *          The output file for the operating codes
@@ -96,7 +285,12 @@ public class Compiler {
 
     try {
       writer = new FileWriter(filename);
-      writer.write(program.getInstructions(true));
+      ProgramSnapshot snapshot = program.freeze();
+      writer.write(snapshot.getInstructions(true));
+      printWarnings(snapshot);
+      if (lineTableWritten) {
+        writeLineTableFile(filename + LINE_TABLE_SUFFIX, snapshot);
+      }
     } catch (IllegalStateException ise) {
       System.out.println("Error formatting instructions: " + ise.getMessage());
       LOG.error("Error formatting instructions", ise);
@@ -115,6 +309,35 @@ public class Compiler {
     }
   }
 
+  /**
+   * Write the source line of each address of a program to a file.
+   * 
+   * @param filename
+   *          The output file for the line table
+   * @param snapshot
+   *          The compiled program
+   */
+  private void writeLineTableFile(String filename, ProgramSnapshot snapshot) {
+    FileWriter writer = null;
+
+    try {
+      writer = new FileWriter(filename);
+      writer.write(snapshot.getLineTable().format());
+    } catch (IOException ioe) {
+      System.out.println(
+          "Error writing file: " + filename + " [" + ioe.getMessage() + "]");
+      LOG.error("Error writing file: " + filename, ioe);
+    } finally {
+      if (writer != null) {
+        try {
+          writer.close();
+        } catch (IOException ioe) {
+          LOG.error("Error closing line table file: " + filename, ioe);
+        }
+      }
+    }
+  }
+
   /**
    * Write the operating codes as an HTML file.
    * 
@@ -132,7 +355,9 @@ public class Compiler {
 
     try {
       writer = new FileWriter(destinationFilename);
-      writer.write(getHtml(sourceFilename, program));
+      ProgramSnapshot snapshot = program.freeze();
+      writer.write(getHtml(sourceFilename, snapshot));
+      printWarnings(snapshot);
     } catch (IllegalStateException ise) {
       System.out.println("Error formatting instructions: " + ise.getMessage());
       LOG.error("Error formatting instructions", ise);
@@ -152,6 +377,37 @@ public class Compiler {
     }
   }
 
+  /**
+   * Print the warnings found while compiling a program.
+   * 
+   * @param snapshot
+   *          The compiled program
+   */
+  private void printWarnings(ProgramSnapshot snapshot) {
+    if (diagnosticsPrinted) {
+      return;
+    }
+    for (Diagnostic diagnostic : snapshot.getDiagnostics()) {
+      if (diagnostic.getSeverity() == Diagnostic.Severity.WARNING) {
+        System.out.println("WARNING: " + diagnostic.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Print every error, warning and remark found while compiling a program,
+   * ordered by source line.
+   * 
+   * @param program
+   *          The program, compiled with recovery
+   */
+  private void printDiagnostics(Program program) {
+    for (Diagnostic diagnostic : program.getDiagnostics()) {
+      System.out.println(diagnostic);
+    }
+    diagnosticsPrinted = true;
+  }
+
   /**
    * Get an HTML string containing the program listing.
    * 
@@ -162,6 +418,19 @@ public class Compiler {
    * @return The HTML string
    */
   public String getHtml(String name, Program program) {
+    return getHtml(name, program.freeze());
+  }
+
+  /**
+   * Get an HTML string containing the listing of a program snapshot.
+   * 
+   * @param name
+   *          The name of the program to compile
+   * @param snapshot
+   *          The compiled program, as laid out
+   * @return The HTML string
+   */
+  public String getHtml(String name, ProgramSnapshot snapshot) {
     StringBuffer page = new StringBuffer();
     String greenBackground = "#d0f0d0";
     boolean isGreenBackground = true;
@@ -175,41 +444,48 @@ public class Compiler {
     page.append(
         "    <tr><th>Statement Number</th><th>Statement</th><th>Memory Location, Op Codes, and Values</th></tr>\n");
 
-    int statementCount = 1;
-    for (Statement stmt : program.getStatements()) {
+    PackedCode code = snapshot.getCode();
+    int statementCount = snapshot.getStatements().size();
+    for (int stmt = 0; stmt < statementCount; ++stmt) {
       cellBgColor = isGreenBackground ? greenBackground : "#ffffff";
       isGreenBackground = !isGreenBackground;
       page.append("    <tr>\n");
-      page.append("      <td bgcolor=\"" + cellBgColor + "\">" + statementCount
+      page.append("      <td bgcolor=\"" + cellBgColor + "\">" + (stmt + 1)
           + "</td>\n");
       page.append("      <td bgcolor=\"" + cellBgColor + "\">"
-          + stmt.getFormattedStatement() + "</td>\n");
+          + snapshot.getFormattedStatement(stmt) + "</td>\n");
       page.append("      <td bgcolor=\"" + cellBgColor + "\">");
       page.append("        <table border=\"0\">\n");
-      ByteContent[] opCodes = stmt.getOpCodes();
-      for (ByteContent opCode : opCodes) {
+      // BYTES are data, so their operating codes are not named
+      StatementNode node = snapshot.getStatements().get(stmt).getNode();
+      boolean data = node == null || node.getOperation() == Operation.BYTES;
+      int operands = 0;
+      int end = snapshot.getCodeEnd(stmt);
+      for (int index = snapshot.getCodeStart(stmt); index < end; ++index) {
         page.append("        <tr><td  bgcolor=\"" + cellBgColor + "\">"
-            + String.format("%04o", opCode.getMemoryLocation()) + ": ");
-        if (opCode.getFormattedByte() == null) {
-          page.append(opCode.toString());
-        } else if (opCode instanceof JumpInstruction) {
-          String instructionAndMemAddress = opCode.getFormattedByte();
-          String[] splitInstAndMem = instructionAndMemAddress.split("\n");
-          int op = ((JumpInstruction) opCode).getType().getOpCode();
-          int address = ((JumpInstruction) opCode).getDestinationAddress();
-          page.append(splitInstAndMem[0]);
+            + String.format("%04o", code.getAddress(index)) + ": ");
+        int op = code.getOpCode(index);
+        if (code.getKind(index) == PackedCode.LABEL) {
+          page.append("(label " + code.getName(index) + ")");
+        } else if (code.getKind(index) == PackedCode.JUMP) {
+          int address = code.getDestination(index);
+          page.append(String.format("%04o", op));
           page.append(formatAsBinaryHtml(op));
+          page.append(formatInstructionHtml(op));
           page.append("</td></tr>\n");
           page.append("        <tr><td bgcolor=\"" + cellBgColor + "\">"
-              + String.format("%04o", opCode.getMemoryLocation() + 1) + ": ");
-          page.append(splitInstAndMem[1]);
+              + String.format("%04o", code.getAddress(index) + 1) + ": ");
+          page.append(String.format("%04o", address));
           page.append(formatAsBinaryHtml(address));
         } else {
-          page.append(opCode.getFormattedByte());
+          page.append(String.format("%04o", op));
           // Display op code in binary as well
-          if (opCode instanceof OperationInstruction) {
-            int op = ((OperationInstruction) opCode).getOperationCode();
-            page.append(formatAsBinaryHtml(op));
+          page.append(formatAsBinaryHtml(op));
+          if (operands > 0) {
+            --operands;
+          } else if (!data) {
+            page.append(formatInstructionHtml(op));
+            operands = Math.max(0, InstructionSet.cells(op) - 1);
           }
         }
         page.append("</td></tr>\n");
@@ -217,14 +493,113 @@ public class Compiler {
       page.append("        </table>\n");
       page.append("      </td>\n");
       page.append("    </tr>\n");
-      ++statementCount;
     }
     page.append("  </table>\n");
+    appendCrossReference(page, snapshot);
+    appendRemarks(page, snapshot);
     page.append("</body>\n");
 
     return page.toString();
   }
 
+  /**
+   * Add a table of the program's labels to the listing, each with its memory
+   * location and the statements that jump to it.
+   * 
+   * @param page
+   *          The HTML listing
+   * @param snapshot
+   *          The compiled program, as laid out
+   */
+  private void appendCrossReference(StringBuffer page,
+      ProgramSnapshot snapshot) {
+    PackedCode code = snapshot.getCode();
+    SymbolTable symbols = code.getSymbols();
+    StringBuffer rows = new StringBuffer();
+    for (int id = 0; id < symbols.size(); ++id) {
+      int definition = symbols.getDefinition(id);
+      int jumps = symbols.getFixupCount(id);
+      // Labels whose statements were edited away are still interned
+      if (definition < 0 && jumps == 0) {
+        continue;
+      }
+      String name = symbols.getName(id);
+      rows.append("    <tr><td>" + name + "</td><td>");
+      rows.append(definition < 0 ? "(undefined)"
+          : String.format("%04o", code.getAddress(definition)));
+      rows.append("</td><td>");
+      int[] referrers = snapshot.getReferrers(name);
+      for (int index = 0; index < referrers.length; ++index) {
+        if (index > 0) {
+          rows.append("<br>");
+        }
+        rows.append("Statement " + (referrers[index] + 1) + " ("
+            + String.format("%04o",
+                code.getAddress(symbols.getFixup(id, index)))
+            + ")");
+      }
+      if (referrers.length == 0) {
+        rows.append("(none)");
+      }
+      rows.append("</td></tr>\n");
+    }
+
+    if (rows.length() > 0) {
+      page.append("<h2>Cross Reference</h2>\n");
+      page.append("  <table border=\"1\">\n");
+      page.append("    <tr><th>Label</th><th>Memory Location</th>"
+          + "<th>Jumped To From</th></tr>\n");
+      page.append(rows);
+      page.append("  </table>\n");
+    }
+  }
+
+  /**
+   * Add the optimization remarks to the listing: why the optimization passes
+   * changed the program.
+   * 
+   * @param page
+   *          The HTML listing
+   * @param snapshot
+   *          The compiled program, as laid out
+   */
+  private void appendRemarks(StringBuffer page, ProgramSnapshot snapshot) {
+    StringBuffer rows = new StringBuffer();
+    for (Diagnostic diagnostic : snapshot.getDiagnostics()) {
+      if (diagnostic.getSeverity() == Diagnostic.Severity.REMARK) {
+        rows.append("    <tr><td>"
+            + (diagnostic.getLine() > 0 ? diagnostic.getLine() : "")
+            + "</td><td>" + diagnostic.getMessage() + "</td></tr>\n");
+      }
+    }
+
+    if (rows.length() > 0) {
+      page.append("<h2>Optimization Remarks</h2>\n");
+      page.append("  <table border=\"1\">\n");
+      page.append("    <tr><th>Line</th><th>Remark</th></tr>\n");
+      page.append(rows);
+      page.append("  </table>\n");
+    }
+  }
+
+  /**
+   * Create the HTML naming the instruction of an operating code, with its
+   * cost.
+   * 
+   * @param opCode
+   *          The operating code
+   * @return The HTML string, empty for an operating code the compiler does
+   *         not generate
+   */
+  String formatInstructionHtml(int opCode) {
+    String name = InstructionSet.name(opCode);
+    if (name == null) {
+      return "";
+    }
+    return " <i>" + name + "</i> (" + InstructionSet.cycles(opCode)
+        + " cycles)";
+  }
+
   /**
    * Create a HTML formatted binary number color-coded by the octal components.
    * 
@@ -265,26 +640,58 @@ public class Compiler {
    *          code file name. The second argument is optional, the output file
    *          name for the operating codes. If no output filename is provided,
    *          the resulting operating codes will be written to the standard
-   *          output.
+   *          output. The source line of each address is written next to the
+   *          output file, with the suffix {@link #LINE_TABLE_SUFFIX}. An
+   *          optimization flag (-O0, -Os or -O2) may be given anywhere.
    */
   public static void main(String[] args) {
-    if (args.length < 1 || args.length > 2) {
+    Compiler compiler = new Compiler();
+    List<String> files = new ArrayList<>();
+    boolean recover = false;
+    for (String arg : args) {
+      OptimizationLevel level = OptimizationLevel.fromFlag(arg);
+      if (level != null) {
+        compiler.setOptimizationLevel(level);
+      } else if (arg.equalsIgnoreCase(RECOVER_FLAG)) {
+        recover = true;
+      } else if (arg.equalsIgnoreCase(LINE_TABLE_FLAG)) {
+        compiler.setLineTableWritten(true);
+      } else {
+        files.add(arg);
+      }
+    }
+
+    if (files.size() < 1 || files.size() > 2) {
       System.out.println(
           "An input program file name must be provided. An optional output file name or --AsHTML are supported");
+      System.out.println(
+          "An optimization level of -O0 (the default), -Os or -O2 may also be given");
+      System.out.println(
+          "With --recover, every error is reported and the exit status is 1 if there are any");
+      System.out.println(
+          "With --lines, the source line of each address is written to the output file name plus .lines");
       System.exit(1);
     }
 
-    Compiler compiler = new Compiler();
-    Program program = compiler.compile(args[0]);
+    Program program = compiler.compile(files.get(0), recover);
+
+    if (program != null && recover) {
+      compiler.printDiagnostics(program);
+      if (program.hasErrors()) {
+        System.exit(1);
+      }
+    }
 
     if (program != null) {
-      if (args.length == 2 && args[1].equalsIgnoreCase("--ASHTML")) {
-        compiler.writeHtmlFile(args[0], args[0] + ".html", program);
-      } else if (args.length == 2) {
-        compiler.writeProgramFile(args[1], program);
+      if (files.size() == 2 && files.get(1).equalsIgnoreCase("--ASHTML")) {
+        compiler.writeHtmlFile(files.get(0), files.get(0) + ".html", program);
+      } else if (files.size() == 2) {
+        compiler.writeProgramFile(files.get(1), program);
       } else {
         System.out.println("Resulting operating codes:");
-        System.out.println(program.getInstructions(false));
+        ProgramSnapshot snapshot = program.freeze();
+        compiler.printWarnings(snapshot);
+        System.out.println(snapshot.getInstructions(false));
       }
     }
 
@@ -0,0 +1,453 @@
+package us.daveread.microkenbak1.compiler;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The basic blocks of a program's statements and the ways control passes
+ * between them. A block starts at the first statement, at each LABEL, and
+ * after each statement that can transfer control: GOTO, IF, HALT, and the
+ * statements that may jump to an address computed at run time.
+ *
+ * Two blocks hold no statements. Control leaves the program through the exit
+ * block, from a HALT or by running past the last statement; since the
+ * operator can run the program on from a HALT, it also passes to the next
+ * block. Statements that may jump to a computed address (a MEMCOPY to P or
+ * through a pointer, raw BYTES, or a statement that did not parse) pass
+ * control to the unknown block, which passes it on to every block; a program
+ * with many of them has one edge each rather than one per block.
+ *
+ * The edges are held as arrays indexed by block, so building the graph and
+ * walking it take time linear in the number of statements and labels.
+ *
+ * @author readda
+ *
+ */
+public final class ControlFlowGraph {
+  /**
+   * The statements, in program order.
+   */
+  private final List<Statement> statements;
+
+  /**
+   * The number of blocks holding statements.
+   */
+  private final int blockCount;
+
+  /**
+   * The first statement of each block, then the number of statements.
+   */
+  private final int[] firsts;
+
+  /**
+   * The block of each statement.
+   */
+  private final int[] blocks;
+
+  /**
+   * The first index into {@link #successors} of each block, then the number
+   * of edges.
+   */
+  private final int[] successorStarts;
+
+  /**
+   * The successors of each block, one after another.
+   */
+  private final int[] successors;
+
+  /**
+   * The first index into {@link #predecessors} of each block, then the number
+   * of edges.
+   */
+  private final int[] predecessorStarts;
+
+  /**
+   * The predecessors of each block, one after another.
+   */
+  private final int[] predecessors;
+
+  /**
+   * Whether any statement may jump to a computed address.
+   */
+  private final boolean computedJumps;
+
+  /**
+   * The blocks in reverse postorder from the start, then the blocks that
+   * cannot be reached in program order.
+   */
+  private final int[] order;
+
+  /**
+   * Build the graph of a program's statements.
+   *
+   * @param statements
+   *          The statements, in program order
+   */
+  public ControlFlowGraph(List<Statement> statements) {
+    this.statements = statements;
+    int size = statements.size();
+    blocks = new int[size];
+
+    // Find the blocks and the block each label starts
+    Map<String, Integer> labels = new HashMap<>();
+    int[] starts = new int[size + 1];
+    int count = 0;
+    boolean leader = true;
+    for (int stmt = 0; stmt < size; ++stmt) {
+      StatementNode node = statements.get(stmt).getNode();
+      boolean label = node != null && node.getOperation() == Operation.LABEL;
+      if (leader || label && stmt > starts[count - 1]) {
+        starts[count++] = stmt;
+      }
+      if (label) {
+        labels.put(node.getLabel(), count - 1);
+      }
+      blocks[stmt] = count - 1;
+      leader = endsBlock(node);
+    }
+    starts[count] = size;
+    blockCount = count;
+    firsts = Arrays.copyOf(starts, count + 1);
+
+    // Collect the edges leaving each block, in block order
+    int[] from = new int[count * 2 + 2];
+    int[] to = new int[from.length];
+    int edges = 0;
+    boolean computed = false;
+    for (int block = 0; block < count; ++block) {
+      StatementNode node = statements.get(firsts[block + 1] - 1).getNode();
+      int[] targets = targets(node, labels, block);
+      for (int target : targets) {
+        if (target == getUnknown()) {
+          computed = true;
+        }
+        if (edges > 0 && from[edges - 1] == block && to[edges - 1] == target) {
+          continue;
+        }
+        if (edges == from.length) {
+          from = Arrays.copyOf(from, edges * 2);
+          to = Arrays.copyOf(to, edges * 2);
+        }
+        from[edges] = block;
+        to[edges++] = target;
+      }
+    }
+    computedJumps = computed;
+    if (computed) {
+      from = Arrays.copyOf(from, edges + count);
+      to = Arrays.copyOf(to, edges + count);
+      for (int block = 0; block < count; ++block) {
+        from[edges] = getUnknown();
+        to[edges++] = block;
+      }
+    }
+
+    successorStarts = new int[size() + 1];
+    successors = new int[edges];
+    predecessorStarts = new int[size() + 1];
+    predecessors = new int[edges];
+    index(from, to, edges, successorStarts, successors);
+    index(to, from, edges, predecessorStarts, predecessors);
+    order = order();
+  }
+
+  /**
+   * Get the number of blocks, including the unknown and exit blocks.
+   *
+   * @return The number of blocks
+   */
+  public int size() {
+    return blockCount + 2;
+  }
+
+  /**
+   * Get the block control starts in.
+   *
+   * @return The block of the first statement, or the exit block for a program
+   *         without statements
+   */
+  public int getStart() {
+    return blockCount == 0 ? getExit() : 0;
+  }
+
+  /**
+   * Get the block that passes control to every block, reached from the
+   * statements that may jump to a computed address.
+   *
+   * @return The unknown block
+   */
+  public int getUnknown() {
+    return blockCount;
+  }
+
+  /**
+   * Get the block control leaves the program through.
+   *
+   * @return The exit block
+   */
+  public int getExit() {
+    return blockCount + 1;
+  }
+
+  /**
+   * Check whether any statement may jump to a computed address.
+   *
+   * @return True if the unknown block can be reached
+   */
+  public boolean hasComputedJumps() {
+    return computedJumps;
+  }
+
+  /**
+   * Get the statements the graph was built from.
+   *
+   * @return The statements, in program order
+   */
+  public List<Statement> getStatements() {
+    return statements;
+  }
+
+  /**
+   * Get the block of a statement.
+   *
+   * @param stmt
+   *          The statement index
+   * @return The block
+   */
+  public int getBlock(int stmt) {
+    return blocks[stmt];
+  }
+
+  /**
+   * Get the first statement of a block.
+   *
+   * @param block
+   *          The block
+   * @return The statement index; the unknown and exit blocks hold none
+   */
+  public int getFirst(int block) {
+    return block < blockCount ? firsts[block] : statements.size();
+  }
+
+  /**
+   * Get the statement just past the end of a block.
+   *
+   * @param block
+   *          The block
+   * @return The statement index
+   */
+  public int getEnd(int block) {
+    return block < blockCount ? firsts[block + 1] : statements.size();
+  }
+
+  /**
+   * Get the number of blocks control may pass to from a block.
+   *
+   * @param block
+   *          The block
+   * @return The number of successors
+   */
+  public int getSuccessorCount(int block) {
+    return successorStarts[block + 1] - successorStarts[block];
+  }
+
+  /**
+   * Get a block control may pass to from a block.
+   *
+   * @param block
+   *          The block
+   * @param index
+   *          The successor index
+   * @return The successor block
+   */
+  public int getSuccessor(int block, int index) {
+    return successors[successorStarts[block] + index];
+  }
+
+  /**
+   * Get the number of blocks control may pass to a block from.
+   *
+   * @param block
+   *          The block
+   * @return The number of predecessors
+   */
+  public int getPredecessorCount(int block) {
+    return predecessorStarts[block + 1] - predecessorStarts[block];
+  }
+
+  /**
+   * Get a block control may pass to a block from.
+   *
+   * @param block
+   *          The block
+   * @param index
+   *          The predecessor index
+   * @return The predecessor block
+   */
+  public int getPredecessor(int block, int index) {
+    return predecessors[predecessorStarts[block] + index];
+  }
+
+  /**
+   * Get a block in reverse postorder: each block comes before the blocks it
+   * passes control to, except around loops. Blocks that cannot be reached
+   * from the start come last.
+   *
+   * @param index
+   *          The position, from 0 to {@link #size()} - 1
+   * @return The block
+   */
+  public int getOrdered(int index) {
+    return order[index];
+  }
+
+  /**
+   * Check whether a statement ends its block.
+   *
+   * @param node
+   *          The statement, null if it did not parse
+   * @return True if control may leave the statement other than to the next
+   */
+  private static boolean endsBlock(StatementNode node) {
+    if (node == null) {
+      return true;
+    }
+    switch (node.getOperation()) {
+      case GOTO:
+      case IF:
+      case HALT:
+      case BYTES:
+        return true;
+      case MEMCOPY:
+        return node.isIndirect()
+            || node.getOperand() == MemoryImage.PROGRAM_COUNTER_ADDRESS;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Get the blocks control may pass to at the end of a block.
+   *
+   * @param node
+   *          The last statement of the block, null if it did not parse
+   * @param labels
+   *          The block each label starts
+   * @param block
+   *          The block
+   * @return The successor blocks
+   */
+  private int[] targets(StatementNode node, Map<String, Integer> labels,
+      int block) {
+    int next = block + 1 < blockCount ? block + 1 : getExit();
+    if (node == null) {
+      return new int[] { next, getUnknown() };
+    }
+    switch (node.getOperation()) {
+      case GOTO:
+        return new int[] { label(node, labels) };
+      case IF:
+        return new int[] { label(node, labels), next };
+      case HALT:
+        return new int[] { next, getExit() };
+      case BYTES:
+        return new int[] { next, getUnknown() };
+      case MEMCOPY:
+        if (node.isIndirect()) {
+          return new int[] { next, getUnknown() };
+        }
+        if (node.getOperand() == MemoryImage.PROGRAM_COUNTER_ADDRESS) {
+          return new int[] { getUnknown() };
+        }
+        return new int[] { next };
+      default:
+        return new int[] { next };
+    }
+  }
+
+  /**
+   * Get the block a jump goes to.
+   *
+   * @param node
+   *          The GOTO or IF statement
+   * @param labels
+   *          The block each label starts
+   * @return The block, the unknown block if the label is not defined
+   */
+  private int label(StatementNode node, Map<String, Integer> labels) {
+    Integer target = labels.get(node.getLabel());
+    return target == null ? getUnknown() : target;
+  }
+
+  /**
+   * Index edges by the block they leave.
+   *
+   * @param from
+   *          The block each edge leaves
+   * @param to
+   *          The block each edge enters
+   * @param edges
+   *          The number of edges
+   * @param starts
+   *          Receives the first edge of each block, then the number of edges
+   * @param targets
+   *          Receives the blocks entered, grouped by the block left
+   */
+  private static void index(int[] from, int[] to, int edges, int[] starts,
+      int[] targets) {
+    for (int edge = 0; edge < edges; ++edge) {
+      ++starts[from[edge] + 1];
+    }
+    for (int block = 1; block < starts.length; ++block) {
+      starts[block] += starts[block - 1];
+    }
+    int[] next = Arrays.copyOf(starts, starts.length - 1);
+    for (int edge = 0; edge < edges; ++edge) {
+      targets[next[from[edge]]++] = to[edge];
+    }
+  }
+
+  /**
+   * Order the blocks in reverse postorder from the start, without recursion
+   * so long chains of blocks cannot overflow the stack.
+   *
+   * @return The blocks in order
+   */
+  private int[] order() {
+    int size = size();
+    int[] postorder = new int[size];
+    int count = 0;
+    boolean[] seen = new boolean[size];
+    int[] stack = new int[size];
+    int[] edge = new int[size];
+    int depth = 0;
+    stack[depth++] = getStart();
+    seen[getStart()] = true;
+    while (depth > 0) {
+      int block = stack[depth - 1];
+      if (edge[block] < getSuccessorCount(block)) {
+        int successor = getSuccessor(block, edge[block]++);
+        if (!seen[successor]) {
+          seen[successor] = true;
+          stack[depth++] = successor;
+        }
+      } else {
+        postorder[count++] = block;
+        --depth;
+      }
+    }
+
+    int[] ordered = new int[size];
+    for (int index = 0; index < count; ++index) {
+      ordered[index] = postorder[count - 1 - index];
+    }
+    for (int block = 0; block < size; ++block) {
+      if (!seen[block]) {
+        ordered[count++] = block;
+      }
+    }
+    return ordered;
+  }
+}
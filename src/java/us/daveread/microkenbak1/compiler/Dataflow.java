@@ -0,0 +1,497 @@
+package us.daveread.microkenbak1.compiler;
+
+import java.util.List;
+
+/**
+ * A dataflow problem over a {@link ControlFlowGraph}, solved with a worklist.
+ * Each block has a set of bits generated and a set killed; the bits flowing
+ * into a block are the union of those flowing out of its neighbours, and
+ * those flowing out are gen | (in &amp; ~kill). Sets are rows of a
+ * {@link BitMatrix}, so a block is updated a word at a time.
+ *
+ * Factory methods set up the problems the optimization passes use:
+ * reachability, liveness of the registers and overflow flags, and reaching
+ * definitions of them.
+ *
+ * @author readda
+ *
+ */
+public final class Dataflow {
+  /**
+   * The direction facts flow in.
+   */
+  public enum Direction {
+    /**
+     * From a block to the blocks it passes control to.
+     */
+    FORWARD,
+
+    /**
+     * From a block to the blocks that pass control to it.
+     */
+    BACKWARD
+  }
+
+  /**
+   * The number of variables tracked: registers A, B, and X, then their
+   * overflow flags.
+   */
+  public static final int VARIABLE_COUNT = 6;
+
+  /**
+   * The variable bit of the first overflow flag.
+   */
+  public static final int FIRST_FLAG = 3;
+
+  /**
+   * Every variable.
+   */
+  public static final int ALL_VARIABLES = (1 << VARIABLE_COUNT) - 1;
+
+  /**
+   * The address of the first overflow flag, that of A.
+   */
+  private static final int FLAG_ADDRESS = MemoryImage.DISPLAY_ADDRESS + 1;
+
+  /**
+   * The graph the problem is over.
+   */
+  private final ControlFlowGraph cfg;
+
+  /**
+   * The direction facts flow in.
+   */
+  private final Direction direction;
+
+  /**
+   * The bits each block generates.
+   */
+  private final BitMatrix gen;
+
+  /**
+   * The bits each block kills.
+   */
+  private final BitMatrix kill;
+
+  /**
+   * The bits at the start of each block.
+   */
+  private final BitMatrix in;
+
+  /**
+   * The bits at the end of each block.
+   */
+  private final BitMatrix out;
+
+  /**
+   * The statement of each definition, for reaching definitions.
+   */
+  private int[] definitionStatements;
+
+  /**
+   * The variable of each definition, for reaching definitions.
+   */
+  private int[] definitionVariables;
+
+  /**
+   * Create a problem with nothing generated or killed.
+   *
+   * @param cfg
+   *          The graph
+   * @param direction
+   *          The direction facts flow in
+   * @param bits
+   *          The number of facts
+   */
+  public Dataflow(ControlFlowGraph cfg, Direction direction, int bits) {
+    this.cfg = cfg;
+    this.direction = direction;
+    gen = new BitMatrix(cfg.size(), bits);
+    kill = new BitMatrix(cfg.size(), bits);
+    in = new BitMatrix(cfg.size(), bits);
+    out = new BitMatrix(cfg.size(), bits);
+  }
+
+  /**
+   * Get the bits each block generates, to be filled in before solving.
+   *
+   * @return The bits, a row per block
+   */
+  public BitMatrix getGen() {
+    return gen;
+  }
+
+  /**
+   * Get the bits each block kills, to be filled in before solving.
+   *
+   * @return The bits, a row per block
+   */
+  public BitMatrix getKill() {
+    return kill;
+  }
+
+  /**
+   * Get the bits at the start of each block. Before solving a forward
+   * problem, the row of the start block holds the bits entering the program.
+   *
+   * @return The bits, a row per block
+   */
+  public BitMatrix getIn() {
+    return in;
+  }
+
+  /**
+   * Get the bits at the end of each block. Before solving a backward problem,
+   * the row of the exit block holds the bits leaving the program.
+   *
+   * @return The bits, a row per block
+   */
+  public BitMatrix getOut() {
+    return out;
+  }
+
+  /**
+   * Solve the problem. Blocks are visited in reverse postorder for a forward
+   * problem and in postorder for a backward one, and a block is visited again
+   * only when the bits flowing into it change.
+   *
+   * @return This problem
+   */
+  public Dataflow solve() {
+    boolean forward = direction == Direction.FORWARD;
+    BitMatrix meet = forward ? in : out;
+    BitMatrix result = forward ? out : in;
+    int size = cfg.size();
+
+    int[] queue = new int[size];
+    boolean[] queued = new boolean[size];
+    for (int index = 0; index < size; ++index) {
+      queue[index] = cfg.getOrdered(forward ? index : size - 1 - index);
+      queued[queue[index]] = true;
+    }
+    int head = 0;
+    int count = size;
+    while (count > 0) {
+      int block = queue[head];
+      head = (head + 1) % size;
+      --count;
+      queued[block] = false;
+
+      int neighbours = forward ? cfg.getPredecessorCount(block)
+          : cfg.getSuccessorCount(block);
+      for (int index = 0; index < neighbours; ++index) {
+        meet.or(block, result, forward ? cfg.getPredecessor(block, index)
+            : cfg.getSuccessor(block, index));
+      }
+      if (!result.transfer(block, gen, meet, kill, block)) {
+        continue;
+      }
+
+      int dependents = forward ? cfg.getSuccessorCount(block)
+          : cfg.getPredecessorCount(block);
+      for (int index = 0; index < dependents; ++index) {
+        int dependent = forward ? cfg.getSuccessor(block, index)
+            : cfg.getPredecessor(block, index);
+        if (!queued[dependent]) {
+          queued[dependent] = true;
+          queue[(head + count++) % size] = dependent;
+        }
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Get the statement of a definition, for reaching definitions.
+   *
+   * @param definition
+   *          The definition bit
+   * @return The statement index
+   */
+  public int getDefinitionStatement(int definition) {
+    return definitionStatements[definition];
+  }
+
+  /**
+   * Get the variable of a definition, for reaching definitions.
+   *
+   * @param definition
+   *          The definition bit
+   * @return The variable bit
+   */
+  public int getDefinitionVariable(int definition) {
+    return definitionVariables[definition];
+  }
+
+  /**
+   * Find the blocks control can reach from the start: bit 0 is set in the in
+   * row of each.
+   *
+   * @param cfg
+   *          The graph
+   * @return The solved problem
+   */
+  public static Dataflow reachability(ControlFlowGraph cfg) {
+    Dataflow problem = new Dataflow(cfg, Direction.FORWARD, 1);
+    problem.in.set(cfg.getStart(), 0);
+    return problem.solve();
+  }
+
+  /**
+   * Find the variables live at the start and end of each block: those that
+   * may be used before they are next set. Every variable is live when the
+   * program leaves, since the registers can be read from the front panel.
+   *
+   * @param cfg
+   *          The graph
+   * @return The solved problem, with a bit per variable
+   */
+  public static Dataflow liveness(ControlFlowGraph cfg) {
+    Dataflow problem = new Dataflow(cfg, Direction.BACKWARD, VARIABLE_COUNT);
+    List<Statement> statements = cfg.getStatements();
+    for (int block = 0; block < cfg.size(); ++block) {
+      int used = 0;
+      int killed = 0;
+      for (int stmt = cfg.getEnd(block) - 1; stmt >= cfg.getFirst(block);
+          --stmt) {
+        StatementNode node = statements.get(stmt).getNode();
+        used = used & ~kills(node) | uses(node);
+        killed |= kills(node);
+      }
+      setBits(problem.gen, block, used);
+      setBits(problem.kill, block, killed);
+    }
+    setBits(problem.out, cfg.getExit(), ALL_VARIABLES);
+    return problem.solve();
+  }
+
+  /**
+   * Find the variables live just after each statement.
+   *
+   * @param cfg
+   *          The graph
+   * @return A bit per variable, for each statement
+   */
+  public static int[] liveAfter(ControlFlowGraph cfg) {
+    BitMatrix out = liveness(cfg).getOut();
+    List<Statement> statements = cfg.getStatements();
+    int[] live = new int[statements.size()];
+    for (int block = 0; block < cfg.size(); ++block) {
+      int mask = 0;
+      for (int variable = out.nextSetBit(block, 0); variable >= 0;
+          variable = out.nextSetBit(block, variable + 1)) {
+        mask |= 1 << variable;
+      }
+      for (int stmt = cfg.getEnd(block) - 1; stmt >= cfg.getFirst(block);
+          --stmt) {
+        live[stmt] = mask;
+        StatementNode node = statements.get(stmt).getNode();
+        mask = mask & ~kills(node) | uses(node);
+      }
+    }
+    return live;
+  }
+
+  /**
+   * Find the definitions of each variable that reach the start and end of
+   * each block. Each statement setting a variable is a definition of it;
+   * only statements certain to set a variable kill its other definitions.
+   *
+   * @param cfg
+   *          The graph
+   * @return The solved problem, with a bit per definition
+   */
+  public static Dataflow reachingDefinitions(ControlFlowGraph cfg) {
+    List<Statement> statements = cfg.getStatements();
+    int count = 0;
+    for (Statement stmt : statements) {
+      count += Integer.bitCount(defines(stmt.getNode()));
+    }
+    int[] stmts = new int[count];
+    int[] variables = new int[count];
+    BitMatrix byVariable = new BitMatrix(VARIABLE_COUNT, count);
+    int definition = 0;
+    for (int stmt = 0; stmt < statements.size(); ++stmt) {
+      int defined = defines(statements.get(stmt).getNode());
+      for (int variable = 0; variable < VARIABLE_COUNT; ++variable) {
+        if ((defined & 1 << variable) != 0) {
+          stmts[definition] = stmt;
+          variables[definition] = variable;
+          byVariable.set(variable, definition++);
+        }
+      }
+    }
+
+    Dataflow problem = new Dataflow(cfg, Direction.FORWARD, count);
+    problem.definitionStatements = stmts;
+    problem.definitionVariables = variables;
+    definition = 0;
+    for (int block = 0; block < cfg.size(); ++block) {
+      for (int stmt = cfg.getFirst(block); stmt < cfg.getEnd(block); ++stmt) {
+        StatementNode node = statements.get(stmt).getNode();
+        int killed = kills(node);
+        for (int variable = 0; variable < VARIABLE_COUNT; ++variable) {
+          if ((killed & 1 << variable) != 0) {
+            problem.gen.andNot(block, byVariable, variable);
+            problem.kill.or(block, byVariable, variable);
+          }
+        }
+        int defined = defines(node);
+        for (; defined != 0; defined &= defined - 1) {
+          problem.gen.set(block, definition++);
+        }
+      }
+    }
+    return problem.solve();
+  }
+
+  /**
+   * Get the variable held at an address.
+   *
+   * @param address
+   *          The address
+   * @return The variable bit, -1 if the address is not a tracked variable
+   */
+  public static int variable(int address) {
+    if (address >= 0 && address < FIRST_FLAG) {
+      return address;
+    }
+    if (address >= FLAG_ADDRESS && address < FLAG_ADDRESS + FIRST_FLAG) {
+      return address - FLAG_ADDRESS + FIRST_FLAG;
+    }
+    return -1;
+  }
+
+  /**
+   * Get the variables a statement reads.
+   *
+   * @param node
+   *          The statement, null if it did not parse
+   * @return A bit per variable
+   */
+  public static int uses(StatementNode node) {
+    if (node == null) {
+      return ALL_VARIABLES;
+    }
+    switch (node.getOperation()) {
+      case LET:
+        return node.isIndirect() ? mask(node.getOperand()) : 0;
+      case ADD:
+      case SUBTRACT:
+      case MEMCOPY:
+        return bit(node.getVariable())
+            | (node.isIndirect() ? mask(node.getOperand()) : 0);
+      case AND:
+      case OR:
+      case BITSHIFT:
+        return bit(node.getVariable());
+      case IF:
+        return node.getCondition() == Keyword.OVERFLOW
+            ? flag(node.getVariable()) : bit(node.getVariable());
+      case SYSCALL:
+      case BYTES:
+        return ALL_VARIABLES;
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * Get the variables a statement is certain to set.
+   *
+   * @param node
+   *          The statement, null if it did not parse
+   * @return A bit per variable
+   */
+  public static int kills(StatementNode node) {
+    if (node == null) {
+      return 0;
+    }
+    switch (node.getOperation()) {
+      case LET:
+      case AND:
+      case OR:
+      case BITSHIFT:
+        return bit(node.getVariable());
+      case ADD:
+      case SUBTRACT:
+        return bit(node.getVariable()) | flag(node.getVariable());
+      case MEMCOPY:
+        return node.isIndirect() ? 0 : mask(node.getOperand());
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * Get the variables a statement may set.
+   *
+   * @param node
+   *          The statement, null if it did not parse
+   * @return A bit per variable
+   */
+  public static int defines(StatementNode node) {
+    if (node == null) {
+      return ALL_VARIABLES;
+    }
+    switch (node.getOperation()) {
+      case SYSCALL:
+      case BYTES:
+        return ALL_VARIABLES;
+      case MEMCOPY:
+        return node.isIndirect() ? ALL_VARIABLES : kills(node);
+      default:
+        return kills(node);
+    }
+  }
+
+  /**
+   * Get the mask of a variable.
+   *
+   * @param variable
+   *          A, B, or X
+   * @return The mask
+   */
+  private static int bit(Keyword variable) {
+    return 1 << variable.getMemoryLocation();
+  }
+
+  /**
+   * Get the mask of a variable's overflow flag.
+   *
+   * @param variable
+   *          A, B, or X
+   * @return The mask
+   */
+  private static int flag(Keyword variable) {
+    return 1 << variable.getMemoryLocation() + FIRST_FLAG;
+  }
+
+  /**
+   * Get the mask of the variable held at an address.
+   *
+   * @param address
+   *          The address
+   * @return The mask, 0 if the address is not a tracked variable
+   */
+  private static int mask(int address) {
+    int variable = variable(address);
+    return variable < 0 ? 0 : 1 << variable;
+  }
+
+  /**
+   * Set the bits of a mask in a row.
+   *
+   * @param matrix
+   *          The matrix
+   * @param row
+   *          The row
+   * @param mask
+   *          A bit per variable
+   */
+  private static void setBits(BitMatrix matrix, int row, int mask) {
+    for (; mask != 0; mask &= mask - 1) {
+      matrix.set(row, Integer.numberOfTrailingZeros(mask));
+    }
+  }
+}
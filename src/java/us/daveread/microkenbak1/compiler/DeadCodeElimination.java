@@ -0,0 +1,57 @@
+package us.daveread.microkenbak1.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An optimization pass removing the statements control can never reach: those
+ * after a GOTO up to the next label that is jumped to from reachable code,
+ * with any labels only jumped to from code that is itself removed. The
+ * program can be run on from a HALT, so the statements after one are kept.
+ *
+ * BYTES statements are kept, since unreachable values are usually data read
+ * by the program, as are statements that did not parse so their errors are
+ * still reported. A program that may jump to a computed address keeps every
+ * statement.
+ *
+ * @author readda
+ *
+ */
+public final class DeadCodeElimination implements OptimizationPass {
+  @Override
+  public String getName() {
+    return "dead-code";
+  }
+
+  @Override
+  public List<Statement> run(List<Statement> statements,
+      List<Diagnostic> remarks) {
+    ControlFlowGraph cfg = new ControlFlowGraph(statements);
+    BitMatrix reached = Dataflow.reachability(cfg).getIn();
+
+    List<Statement> kept = new ArrayList<>(statements.size());
+    for (int index = 0; index < statements.size(); ++index) {
+      Statement stmt = statements.get(index);
+      if (reached.get(cfg.getBlock(index), 0) || !isRemovable(stmt)) {
+        kept.add(stmt);
+      } else {
+        remarks.add(Diagnostic.of(Diagnostic.Code.OPTIMIZATION_REMARK, stmt,
+            -1, "Unreachable statement removed: "
+                + stmt.getFormattedStatement().trim()));
+      }
+    }
+    return kept;
+  }
+
+  /**
+   * Check whether an unreachable statement can be removed.
+   *
+   * @param stmt
+   *          The statement
+   * @return False for BYTES and for statements that did not parse
+   */
+  private static boolean isRemovable(Statement stmt) {
+    return stmt.getNode() != null
+        && stmt.getNode().getOperation() != Operation.BYTES;
+  }
+}
@@ -0,0 +1,274 @@
+package us.daveread.microkenbak1.compiler;
+
+/**
+ * An error, warning or optimization remark found while compiling, located by
+ * source line and a span of columns within the line.
+ *
+ * @author readda
+ *
+ */
+public final class Diagnostic implements Comparable<Diagnostic> {
+  /**
+   * How serious a diagnostic is.
+   */
+  public enum Severity {
+    /**
+     * The program cannot be uploaded.
+     */
+    ERROR,
+
+    /**
+     * The program can be uploaded, but may not do what was intended.
+     */
+    WARNING,
+
+    /**
+     * How the program was optimized.
+     */
+    REMARK
+  }
+
+  /**
+   * The kinds of diagnostic.
+   */
+  public enum Code {
+    /**
+     * A statement could not be parsed.
+     */
+    SYNTAX_ERROR("KB100", Severity.ERROR),
+
+    /**
+     * A label is defined more than once.
+     */
+    DUPLICATE_LABEL("KB200", Severity.ERROR),
+
+    /**
+     * A GOTO or IF refers to a label that is not defined.
+     */
+    UNDEFINED_LABEL("KB201", Severity.ERROR),
+
+    /**
+     * The program cannot be laid out around the LED display address.
+     */
+    LAYOUT_ERROR("KB202", Severity.ERROR),
+
+    /**
+     * A label is never the target of a GOTO or IF.
+     */
+    UNUSED_LABEL("KB300", Severity.WARNING),
+
+    /**
+     * The program uses its code or data by address, so it is not optimized
+     * or packed.
+     */
+    ADDRESS_DEPENDENT("KB301", Severity.WARNING),
+
+    /**
+     * An optimization pass changed the program.
+     */
+    OPTIMIZATION_REMARK("KB400", Severity.REMARK);
+
+    /**
+     * The identifier reported for the code.
+     */
+    private final String id;
+
+    /**
+     * The severity of diagnostics with the code.
+     */
+    private final Severity severity;
+
+    /**
+     * Create the code.
+     *
+     * @param id
+     *          The identifier reported for the code
+     * @param severity
+     *          The severity of diagnostics with the code
+     */
+    Code(String id, Severity severity) {
+      this.id = id;
+      this.severity = severity;
+    }
+
+    /**
+     * Get the identifier reported for the code.
+     *
+     * @return The identifier (e.g. KB100)
+     */
+    public String getId() {
+      return id;
+    }
+
+    /**
+     * Get the severity of diagnostics with the code.
+     *
+     * @return The severity
+     */
+    public Severity getSeverity() {
+      return severity;
+    }
+  }
+
+  /**
+   * The kind of diagnostic.
+   */
+  private final Code code;
+
+  /**
+   * The source line (1-based), 0 if unknown.
+   */
+  private final int line;
+
+  /**
+   * The first column of the span (1-based), 0 if unknown.
+   */
+  private final int startColumn;
+
+  /**
+   * The column just past the end of the span, 0 if unknown.
+   */
+  private final int endColumn;
+
+  /**
+   * The description of the problem.
+   */
+  private final String message;
+
+  /**
+   * Create a diagnostic.
+   *
+   * @param code
+   *          The kind of diagnostic
+   * @param line
+   *          The source line (1-based), 0 if unknown
+   * @param startColumn
+   *          The first column of the span (1-based), 0 if unknown
+   * @param endColumn
+   *          The column just past the end of the span, 0 if unknown
+   * @param message
+   *          The description of the problem
+   */
+  public Diagnostic(Code code, int line, int startColumn, int endColumn,
+      String message) {
+    this.code = code;
+    this.line = line;
+    this.startColumn = startColumn;
+    this.endColumn = endColumn;
+    this.message = message;
+  }
+
+  /**
+   * Create a diagnostic for a lexeme of a statement, or for the whole
+   * statement.
+   *
+   * @param code
+   *          The kind of diagnostic
+   * @param stmt
+   *          The statement
+   * @param lexeme
+   *          The index of the lexeme, -1 for the whole statement
+   * @param message
+   *          The description of the problem
+   * @return The diagnostic
+   */
+  public static Diagnostic of(Code code, Statement stmt, int lexeme,
+      String message) {
+    return new Diagnostic(code, stmt.getLine(), stmt.getStartColumn(lexeme),
+        stmt.getEndColumn(lexeme), message);
+  }
+
+  /**
+   * Get the kind of diagnostic.
+   *
+   * @return The code
+   */
+  public Code getCode() {
+    return code;
+  }
+
+  /**
+   * Get the severity of the diagnostic.
+   *
+   * @return The severity
+   */
+  public Severity getSeverity() {
+    return code.getSeverity();
+  }
+
+  /**
+   * Check whether the diagnostic is an error.
+   *
+   * @return True for an error, false for a warning or remark
+   */
+  public boolean isError() {
+    return code.getSeverity() == Severity.ERROR;
+  }
+
+  /**
+   * Get the source line.
+   *
+   * @return The line (1-based), 0 if unknown
+   */
+  public int getLine() {
+    return line;
+  }
+
+  /**
+   * Get the first column of the span.
+   *
+   * @return The column (1-based), 0 if unknown
+   */
+  public int getStartColumn() {
+    return startColumn;
+  }
+
+  /**
+   * Get the column just past the end of the span.
+   *
+   * @return The column, 0 if unknown
+   */
+  public int getEndColumn() {
+    return endColumn;
+  }
+
+  /**
+   * Get the description of the problem.
+   *
+   * @return The message
+   */
+  public String getMessage() {
+    return message;
+  }
+
+  /**
+   * Order diagnostics by line, then column.
+   *
+   * @param other
+   *          Another diagnostic
+   * @return Negative, zero, or positive as this diagnostic comes before, with,
+   *         or after the other
+   */
+  @Override
+  public int compareTo(Diagnostic other) {
+    if (line != other.line) {
+      return Integer.compare(line, other.line);
+    }
+    return Integer.compare(startColumn, other.startColumn);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder();
+    text.append(getSeverity()).append(' ').append(code.getId());
+    if (line > 0) {
+      text.append(" at line ").append(line);
+      if (startColumn > 0) {
+        text.append(", columns ").append(startColumn).append('-')
+            .append(endColumn - 1);
+      }
+    }
+    text.append(": ").append(message);
+    return text.toString();
+  }
+}
@@ -0,0 +1,163 @@
+package us.daveread.microkenbak1.compiler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The statements parsed and encoded by the process, each kept once. The same
+ * statements recur across programs and files, so equal parsed statements
+ * share one {@link StatementNode}, and a node is encoded into a shared
+ * {@link PackedCode} template only the first time it is seen. Statements are
+ * kept by their parsed node, so spellings that differ only in the case of
+ * keywords or the base of numbers, such as LET A = 0222 and let a = 146,
+ * share one entry. The label id and addresses of each use are bound when it
+ * is laid out.
+ *
+ * Each cache holds at most {@link #MAX_ENTRIES} entries; when a full cache
+ * gains an entry, the one used least recently is removed. Statements that
+ * cannot be parsed are not cached.
+ *
+ * @author readda
+ *
+ */
+public final class EncodingCache {
+  /**
+   * The largest number of entries in each cache.
+   */
+  public static final int MAX_ENTRIES = 4096;
+
+  /**
+   * A cache removing its least recently used entry when it grows past
+   * {@link #MAX_ENTRIES}. Callers synchronize on the cache.
+   *
+   * @param <K>
+   *          The type of key
+   * @param <V>
+   *          The type of value
+   */
+  private static final class LruCache<K, V> extends LinkedHashMap<K, V> {
+    /**
+     * The serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Create an empty cache, ordered by use.
+     */
+    LruCache() {
+      super(16, 0.75f, true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+      return size() > MAX_ENTRIES;
+    }
+  }
+
+  /**
+   * The parsed statements, each keyed by itself so equal statements share it.
+   */
+  private static final LruCache<StatementNode, StatementNode> NODES;
+
+  /**
+   * The templates of the parsed statements.
+   */
+  private static final LruCache<StatementNode, int[]> TEMPLATES;
+
+  /**
+   * Set up the caches.
+   */
+  static {
+    NODES = new LruCache<>();
+    TEMPLATES = new LruCache<>();
+  }
+
+  /**
+   * Hide constructor - static methods only.
+   */
+  private EncodingCache() {
+
+  }
+
+  /**
+   * Parse a statement, sharing the node of an equal statement parsed already.
+   *
+   * @param lexemes
+   *          The lexemes making up one statement
+   * @return The shared parsed statement
+   */
+  public static StatementNode parse(Lexemes lexemes) {
+    // Parse outside the lock, so threads parsing statements do not wait for
+    // each other
+    StatementNode node = Grammar.parse(lexemes);
+    return put(NODES, node, node);
+  }
+
+  /**
+   * Encode a parsed statement, unless an equal statement has been encoded
+   * already.
+   *
+   * @param node
+   *          The parsed statement, null for a placeholder
+   * @return The shared template; not to be changed
+   */
+  public static int[] encode(StatementNode node) {
+    if (node == null) {
+      return PackedCode.NO_ENTRIES;
+    }
+
+    int[] template;
+    synchronized (TEMPLATES) {
+      template = TEMPLATES.get(node);
+    }
+    if (template == null) {
+      template = put(TEMPLATES, node, PackedCode.encode(node));
+    }
+    return template;
+  }
+
+  /**
+   * Get the number of statements parsed.
+   *
+   * @return The number of distinct statements cached
+   */
+  public static int size() {
+    synchronized (NODES) {
+      return NODES.size();
+    }
+  }
+
+  /**
+   * Remove every statement from the caches.
+   */
+  public static void clear() {
+    synchronized (NODES) {
+      NODES.clear();
+    }
+    synchronized (TEMPLATES) {
+      TEMPLATES.clear();
+    }
+  }
+
+  /**
+   * Add an entry to a cache, unless the key already has one.
+   *
+   * @param cache
+   *          The cache
+   * @param key
+   *          The key
+   * @param value
+   *          The value
+   * @param <K>
+   *          The type of key
+   * @param <V>
+   *          The type of value
+   * @return The value cached for the key
+   */
+  private static <K, V> V put(LruCache<K, V> cache, K key, V value) {
+    synchronized (cache) {
+      V existing = cache.putIfAbsent(key, value);
+      return existing == null ? value : existing;
+    }
+  }
+}
@@ -0,0 +1,540 @@
+package us.daveread.microkenbak1.compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The grammar of KBlang statements, as a table of statement forms. Each form
+ * lists the slots following the statement keyword: either a keyword that must
+ * appear, or the kind of operand accepted. One matcher checks any statement
+ * against the table, which is built once when the class is loaded; matching
+ * creates no objects unless the statement is in error.
+ *
+ * A statement is matched in two steps. Its shape (the number of lexemes and
+ * the required keywords) selects a form, or fails with the statement's usage
+ * message. The operands are then checked from left to right, and the first
+ * operand in error is reported with its lexeme index.
+ *
+ * @author readda
+ *
+ */
+public final class Grammar {
+  /**
+   * The kinds of lexeme accepted by a slot of a statement form.
+   */
+  enum Slot {
+    /**
+     * A required keyword.
+     */
+    KEYWORD,
+
+    /**
+     * A label or file name: any single lexeme.
+     */
+    NAME,
+
+    /**
+     * A variable: A, B, or X.
+     */
+    VARIABLE,
+
+    /**
+     * A literal byte value.
+     */
+    VALUE,
+
+    /**
+     * A variable, or a literal byte value.
+     */
+    SOURCE,
+
+    /**
+     * A memory location: a literal address or a convenience name.
+     */
+    LOCATION,
+
+    /**
+     * An IF test: ISZERO, NOTZERO, or OVERFLOW.
+     */
+    TEST,
+
+    /**
+     * A variable that can be shifted: A or B.
+     */
+    SHIFT_VARIABLE,
+
+    /**
+     * A shift direction: LEFT or RIGHT.
+     */
+    DIRECTION,
+
+    /**
+     * A number of bits to shift: 1 to 4.
+     */
+    COUNT,
+
+    /**
+     * One or more literal byte values, to the end of the statement.
+     */
+    VALUES
+  }
+
+  /**
+   * Creates the statement node for a statement matching a form.
+   */
+  @FunctionalInterface
+  interface Builder {
+    /**
+     * Create the node.
+     *
+     * @param lexemes
+     *          The lexemes of the statement, already checked against the form
+     * @return The node
+     */
+    StatementNode build(Lexemes lexemes);
+  }
+
+  /**
+   * The forms of each statement, indexed by the ordinal of the statement
+   * keyword; null for keywords that do not start a statement.
+   */
+  private static final Form[][] FORMS;
+
+  /**
+   * Build the table.
+   */
+  static {
+    List<Form> forms = new ArrayList<>();
+
+    String usage = "LET requires variable, =, optional VALUEIN, and value";
+    forms.add(form(Keyword.LET, usage,
+        l -> StatementNode.let(variable(l, 1), value(l, 3), false),
+        Slot.VARIABLE, Keyword.EQUALS, Slot.VALUE));
+    forms.add(form(Keyword.LET, usage,
+        l -> StatementNode.let(variable(l, 1), value(l, 4), true),
+        Slot.VARIABLE, Keyword.EQUALS, Keyword.VALUEIN, Slot.LOCATION));
+
+    forms.add(form(Keyword.LABEL, "LABEL requires a label name",
+        l -> StatementNode.label(l.get(1)), Slot.NAME)
+            .withExtra("Label names may not contain spaces"));
+    forms.add(form(Keyword.GOTO, "GOTO requires a label name",
+        l -> StatementNode.jump(l.get(1)), Slot.NAME)
+            .withExtra("Label names may not contain spaces"));
+    forms.add(form(Keyword.INCLUDE, "INCLUDE requires a file name",
+        l -> StatementNode.include(l.get(1)), Slot.NAME)
+            .withExtra("File names may not contain spaces"));
+
+    usage = "MEMCOPY requires variable, TO, optional ADDRESSIN, and "
+        + "memory_location";
+    forms.add(form(Keyword.MEMCOPY, usage,
+        l -> StatementNode.memCopy(variable(l, 1), value(l, 3), false),
+        Slot.VARIABLE, Keyword.TO, Slot.LOCATION));
+    forms.add(form(Keyword.MEMCOPY, usage,
+        l -> StatementNode.memCopy(variable(l, 1), value(l, 4), true),
+        Slot.VARIABLE, Keyword.TO, Keyword.ADDRESSIN, Slot.LOCATION));
+
+    forms.add(form(Keyword.AND, "AND requires a value",
+        l -> StatementNode.logical(Operation.AND, value(l, 1)), Slot.VALUE));
+    forms.add(form(Keyword.OR, "OR requires a value",
+        l -> StatementNode.logical(Operation.OR, value(l, 1)), Slot.VALUE));
+
+    forms.add(form(Keyword.ADD, "ADD requires source, TO, and variable",
+        l -> StatementNode.add(value(l, 1), isRegister(l, 1), variable(l, 3)),
+        Slot.SOURCE, Keyword.TO, Slot.VARIABLE));
+    forms.add(form(Keyword.SUBTRACT,
+        "SUBTRACT requires value, FROM, and variable",
+        l -> StatementNode.subtract(value(l, 1), isRegister(l, 1),
+            variable(l, 3)),
+        Slot.SOURCE, Keyword.FROM, Slot.VARIABLE));
+
+    forms.add(form(Keyword.IF, "IF requires test, variable, GOTO, and label",
+        l -> StatementNode.ifJump(variable(l, 1), l.keyword(2), l.get(4)),
+        Slot.VARIABLE, Slot.TEST, Keyword.GOTO, Slot.NAME));
+
+    usage = "BITSHIFT requires variable, direction, and optional bit_count "
+        + "(1 is the default)";
+    forms.add(form(Keyword.BITSHIFT, usage,
+        l -> StatementNode.bitshift(l.keyword(1), l.keyword(2), 1),
+        Slot.SHIFT_VARIABLE, Slot.DIRECTION));
+    forms.add(form(Keyword.BITSHIFT, usage,
+        l -> StatementNode.bitshift(l.keyword(1), l.keyword(2),
+            ByteLiteral.parse(l, 3)),
+        Slot.SHIFT_VARIABLE, Slot.DIRECTION, Slot.COUNT));
+
+    forms.add(form(Keyword.BYTES,
+        "BYTE requires at least one numeric value (0-255)", Grammar::bytes,
+        Slot.VALUES));
+
+    // Statements without operands have always ignored anything after the
+    // keyword
+    forms.add(form(Keyword.SYSCALL, null, l -> StatementNode.sysCall())
+        .ignoringExtra());
+    forms.add(form(Keyword.HALT, null, l -> StatementNode.halt())
+        .ignoringExtra());
+    forms.add(form(Keyword.NOOP, null, l -> StatementNode.noOp())
+        .ignoringExtra());
+
+    FORMS = new Form[Keyword.values().length][];
+    for (Form form : forms) {
+      Form[] alternatives = FORMS[form.keyword.ordinal()];
+      if (alternatives == null) {
+        alternatives = new Form[] {form };
+      } else {
+        alternatives = Arrays.copyOf(alternatives,
+            alternatives.length + 1);
+        alternatives[alternatives.length - 1] = form;
+      }
+      FORMS[form.keyword.ordinal()] = alternatives;
+    }
+  }
+
+  /**
+   * Hide constructor - static methods only.
+   */
+  private Grammar() {
+
+  }
+
+  /**
+   * Parse a statement.
+   *
+   * @param lexemes
+   *          The lexemes making up one statement
+   * @return The parsed statement
+   */
+  public static StatementNode parse(Lexemes lexemes) {
+    Keyword keyword = lexemes.keyword(0);
+    Form[] alternatives = keyword == null ? null : FORMS[keyword.ordinal()];
+    if (alternatives == null) {
+      throw new StatementException("Undefined keyword: " + lexemes.get(0), 0);
+    }
+
+    for (Form form : alternatives) {
+      if (form.fits(lexemes)) {
+        form.check(lexemes);
+        return form.builder.build(lexemes);
+      }
+    }
+
+    Form form = alternatives[alternatives.length - 1];
+    if (form.extra != null && lexemes.size() > form.slots.length + 1) {
+      throw new StatementException(form.extra, form.slots.length + 1);
+    }
+    throw new IllegalStateException(form.usage);
+  }
+
+  /**
+   * Create a statement form.
+   *
+   * @param keyword
+   *          The statement keyword
+   * @param usage
+   *          The error for a statement that has the wrong shape
+   * @param builder
+   *          Creates the node for a matching statement
+   * @param pattern
+   *          The slots after the statement keyword: a Keyword for a required
+   *          keyword, otherwise a Slot
+   * @return The form
+   */
+  private static Form form(Keyword keyword, String usage, Builder builder,
+      Object... pattern) {
+    Slot[] slots = new Slot[pattern.length];
+    Keyword[] keywords = new Keyword[pattern.length];
+    for (int index = 0; index < pattern.length; ++index) {
+      if (pattern[index] instanceof Keyword) {
+        slots[index] = Slot.KEYWORD;
+        keywords[index] = (Keyword) pattern[index];
+      } else {
+        slots[index] = (Slot) pattern[index];
+      }
+    }
+    return new Form(keyword, usage, builder, slots, keywords);
+  }
+
+  /**
+   * Get the variable in a checked slot.
+   *
+   * @param lexemes
+   *          The lexemes of the statement
+   * @param index
+   *          The lexeme index
+   * @return The variable
+   */
+  private static Keyword variable(Lexemes lexemes, int index) {
+    return Operand.classify(lexemes, index).getKeyword();
+  }
+
+  /**
+   * Get the value or memory location in a checked slot.
+   *
+   * @param lexemes
+   *          The lexemes of the statement
+   * @param index
+   *          The lexeme index
+   * @return The value
+   */
+  private static int value(Lexemes lexemes, int index) {
+    return Operand.classify(lexemes, index).getValue();
+  }
+
+  /**
+   * Check whether a checked source slot holds a variable.
+   *
+   * @param lexemes
+   *          The lexemes of the statement
+   * @param index
+   *          The lexeme index
+   * @return True for a variable, false for a literal value
+   */
+  private static boolean isRegister(Lexemes lexemes, int index) {
+    return Operand.classify(lexemes, index).isRegister();
+  }
+
+  /**
+   * Create a BYTES statement.
+   *
+   * @param lexemes
+   *          The lexemes of the statement, already checked
+   * @return The node
+   */
+  private static StatementNode bytes(Lexemes lexemes) {
+    int[] values = new int[lexemes.size() - 1];
+    for (int index = 1; index < lexemes.size(); ++index) {
+      values[index - 1] = value(lexemes, index);
+    }
+    return StatementNode.bytes(values);
+  }
+
+  /**
+   * Check one operand.
+   *
+   * @param slot
+   *          The kind of operand accepted
+   * @param lexemes
+   *          The lexemes of the statement
+   * @param index
+   *          The lexeme index
+   */
+  private static void checkSlot(Slot slot, Lexemes lexemes, int index) {
+    Operand operand;
+    Keyword keyword;
+
+    switch (slot) {
+      case KEYWORD:
+      case NAME:
+        break;
+      case VARIABLE:
+        if (!Operand.classify(lexemes, index).isRegister()) {
+          throw new StatementException("Variable name must be A, B, or X",
+              index);
+        }
+        break;
+      case SOURCE:
+        operand = Operand.classify(lexemes, index);
+        if (!operand.isRegister()) {
+          checkLiteral(operand, lexemes, index);
+        }
+        break;
+      case VALUE:
+        checkLiteral(Operand.classify(lexemes, index), lexemes, index);
+        break;
+      case VALUES:
+        for (int value = index; value < lexemes.size(); ++value) {
+          checkLiteral(Operand.classify(lexemes, value), lexemes, value);
+        }
+        break;
+      case LOCATION:
+        operand = Operand.classify(lexemes, index);
+        if (!operand.isMemoryLocation()) {
+          throw new StatementException(operand.getReason(), index);
+        }
+        break;
+      case TEST:
+        keyword = lexemes.keyword(index);
+        if (keyword != Keyword.NOTZERO && keyword != Keyword.ISZERO
+            && keyword != Keyword.OVERFLOW) {
+          throw new StatementException(
+              "Undefined IF test (expected NOTZERO, ISZERO, or OVERFLOW): "
+                  + lexemes.get(index), index);
+        }
+        break;
+      case SHIFT_VARIABLE:
+        keyword = lexemes.keyword(index);
+        if (keyword != Keyword.A && keyword != Keyword.B) {
+          throw new StatementException("Unsupported variable value ["
+              + lexemes.get(index)
+              + "] in BITSHIFT - only variables A and B are supported", index);
+        }
+        break;
+      case DIRECTION:
+        keyword = lexemes.keyword(index);
+        if (keyword != Keyword.LEFT && keyword != Keyword.RIGHT) {
+          throw new StatementException("Unsupported direction ["
+              + lexemes.get(index) + "] in BITSHIFT - must be LEFT or RIGHT",
+              index);
+        }
+        break;
+      case COUNT:
+        int count = ByteLiteral.parse(lexemes, index);
+        if (count == ByteLiteral.NOT_A_NUMBER) {
+          throw new StatementException("Unsupported bit count ["
+              + lexemes.get(index)
+              + "] in BITSHIFT - must be a number in the range 1 to 4", index);
+        } else if (count < 1 || count > 4) {
+          throw new StatementException("Unsupported bit count ["
+              + lexemes.get(index) + "] in BITSHIFT - limited to 1 to 4 bits",
+              index);
+        }
+        break;
+      default:
+        throw new IllegalStateException("Undefined slot: " + slot);
+    }
+  }
+
+  /**
+   * Check that an operand is a literal byte value.
+   *
+   * @param operand
+   *          The classified operand
+   * @param lexemes
+   *          The lexemes of the statement
+   * @param index
+   *          The lexeme index
+   */
+  private static void checkLiteral(Operand operand, Lexemes lexemes,
+      int index) {
+    if (operand.isLiteral()) {
+      return;
+    } else if (operand.getReason() != null) {
+      throw new StatementException(operand.getReason(), index);
+    } else {
+      throw new StatementException(
+          Operand.NOT_A_NUMBER_REASON + lexemes.get(index) + ")", index);
+    }
+  }
+
+  /**
+   * One form of a statement.
+   */
+  private static final class Form {
+    /**
+     * The statement keyword.
+     */
+    private final Keyword keyword;
+
+    /**
+     * The error for a statement that has the wrong shape.
+     */
+    private final String usage;
+
+    /**
+     * Creates the node for a matching statement.
+     */
+    private final Builder builder;
+
+    /**
+     * The slots after the statement keyword.
+     */
+    private final Slot[] slots;
+
+    /**
+     * The required keyword for each KEYWORD slot.
+     */
+    private final Keyword[] keywords;
+
+    /**
+     * The error for lexemes after the last slot, reported at the first extra
+     * lexeme; null to report the usage message.
+     */
+    private String extra;
+
+    /**
+     * Whether lexemes after the last slot are ignored.
+     */
+    private boolean ignoresExtra;
+
+    /**
+     * Create the form.
+     *
+     * @param keyword
+     *          The statement keyword
+     * @param usage
+     *          The error for a statement that has the wrong shape
+     * @param builder
+     *          Creates the node for a matching statement
+     * @param slots
+     *          The slots after the statement keyword
+     * @param keywords
+     *          The required keyword for each KEYWORD slot
+     */
+    Form(Keyword keyword, String usage, Builder builder, Slot[] slots,
+        Keyword[] keywords) {
+      this.keyword = keyword;
+      this.usage = usage;
+      this.builder = builder;
+      this.slots = slots;
+      this.keywords = keywords;
+    }
+
+    /**
+     * Set the error for lexemes after the last slot.
+     *
+     * @param message
+     *          The error
+     * @return This form
+     */
+    Form withExtra(String message) {
+      extra = message;
+      return this;
+    }
+
+    /**
+     * Ignore lexemes after the last slot.
+     *
+     * @return This form
+     */
+    Form ignoringExtra() {
+      ignoresExtra = true;
+      return this;
+    }
+
+    /**
+     * Check whether a statement has the shape of this form.
+     *
+     * @param lexemes
+     *          The lexemes of the statement
+     * @return True if the number of lexemes and the required keywords match
+     */
+    boolean fits(Lexemes lexemes) {
+      int size = lexemes.size() - 1;
+      boolean repeats = slots.length > 0
+          && slots[slots.length - 1] == Slot.VALUES;
+      if (size < slots.length
+          || size > slots.length && !repeats && !ignoresExtra) {
+        return false;
+      }
+
+      for (int index = 0; index < slots.length; ++index) {
+        if (slots[index] == Slot.KEYWORD
+            && !lexemes.is(index + 1, keywords[index])) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Check the operands of a statement that has the shape of this form.
+     *
+     * @param lexemes
+     *          The lexemes of the statement
+     */
+    void check(Lexemes lexemes) {
+      for (int index = 0; index < slots.length; ++index) {
+        checkSlot(slots[index], lexemes, index + 1);
+      }
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package us.daveread.microkenbak1.compiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The files included by programs, each parsed once per process. A file is
+ * parsed again only when its modification time or length changes, so a batch
+ * of programs including the same library parses it once.
+ *
+ * @author readda
+ *
+ */
+public final class IncludeCache {
+  /**
+   * The parsed files, by canonical file.
+   */
+  private static final ConcurrentMap<File, CompilationUnit> UNITS;
+
+  /**
+   * Set up the cache.
+   */
+  static {
+    UNITS = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Hide constructor - static methods only.
+   */
+  private IncludeCache() {
+
+  }
+
+  /**
+   * Get a parsed file, parsing it if it is not cached or has changed. Callers
+   * asking for the same file at the same time wait for one parse.
+   *
+   * @param file
+   *          The file
+   * @return The unit, holding the error if the file cannot be read or parsed
+   */
+  public static CompilationUnit get(File file) {
+    return UNITS.compute(canonical(file),
+        (key, unit) -> unit != null && unit.isCurrent() ? unit
+            : CompilationUnit.parse(key));
+  }
+
+  /**
+   * Get the number of files cached.
+   *
+   * @return The number of files
+   */
+  public static int size() {
+    return UNITS.size();
+  }
+
+  /**
+   * Remove every file from the cache.
+   */
+  public static void clear() {
+    UNITS.clear();
+  }
+
+  /**
+   * Get the canonical form of a file, so a file reached by different paths is
+   * cached (and included) once.
+   *
+   * @param file
+   *          The file
+   * @return The canonical file, or the absolute file if it cannot be
+   *         determined
+   */
+  static File canonical(File file) {
+    try {
+      return file.getCanonicalFile();
+    } catch (IOException ioe) {
+      return file.getAbsoluteFile();
+    }
+  }
+}
@@ -0,0 +1,464 @@
+package us.daveread.microkenbak1.compiler;
+
+import java.util.Arrays;
+
+/**
+ * The microKENBAK-1 operating codes the compiler generates, as tables built
+ * when the class is loaded. Encoding looks an operating code up by operation,
+ * register and addressing mode (or jump test, or shift); decoding looks up the
+ * number of memory cells, the memory cycles and the name of an operating
+ * code. The encoder, the layout and the HTML listing all read these tables,
+ * so the operating codes are defined in one place.
+ *
+ * An operating code holds its register in the top two bits, its function in
+ * the middle three bits and its addressing mode, or jump test, in the low
+ * three bits.
+ *
+ * @author readda
+ *
+ */
+public final class InstructionSet {
+  /**
+   * How an instruction finds its operand.
+   */
+  public enum Mode {
+    /**
+     * No operand.
+     */
+    IMPLIED(0, 0),
+
+    /**
+     * The operand is the byte after the operating code.
+     */
+    IMMEDIATE(03, 0),
+
+    /**
+     * The operand is in the memory location after the operating code.
+     */
+    MEMORY(04, 1),
+
+    /**
+     * The operand is in the memory location held in the memory location
+     * after the operating code.
+     */
+    INDIRECT(05, 2),
+
+    /**
+     * The operand is in the memory location after the operating code plus X.
+     */
+    INDEXED(06, 2),
+
+    /**
+     * The operand is in the memory location held in the memory location
+     * after the operating code, plus X.
+     */
+    INDEXED_INDIRECT(07, 3);
+
+    /**
+     * The low three bits of the operating code.
+     */
+    private final int bits;
+
+    /**
+     * The memory cells read or written to find and use the operand.
+     */
+    private final int accesses;
+
+    /**
+     * Create an addressing mode.
+     *
+     * @param bits
+     *          The low three bits of the operating code
+     * @param accesses
+     *          The memory cells accessed for the operand
+     */
+    Mode(int bits, int accesses) {
+      this.bits = bits;
+      this.accesses = accesses;
+    }
+  }
+
+  /**
+   * The number of memory cells of a jump: its operating code and destination.
+   */
+  public static final int JUMP_CELLS = 2;
+
+  /**
+   * Operating code of a jump not in the tables.
+   */
+  private static final int NONE = -1;
+
+  /**
+   * The registers: A, B, X, and none for operations without a register.
+   */
+  private static final int REGISTERS = 4;
+
+  /**
+   * The register index of an operation without a register.
+   */
+  private static final int NO_REGISTER = 3;
+
+  /**
+   * The number of memory cells there are operating codes for.
+   */
+  private static final int OP_CODES = 0400;
+
+  /**
+   * The largest number of bits shifted at once.
+   */
+  private static final int MAX_SHIFT = 4;
+
+  /**
+   * The operating code of each operation, register and addressing mode,
+   * {@link #NONE} if the operation does not have that form.
+   */
+  private static final int[] ENCODINGS;
+
+  /**
+   * The operating code of each jump, by register and test.
+   */
+  private static final int[] JUMPS;
+
+  /**
+   * The operating code of each shift, by register, direction and count.
+   */
+  private static final int[] SHIFTS;
+
+  /**
+   * The memory cells of each operating code, 0 if not generated.
+   */
+  private static final byte[] CELLS;
+
+  /**
+   * The memory cycles of each operating code: the bytes fetched plus the
+   * memory cells accessed for the operand.
+   */
+  private static final byte[] CYCLES;
+
+  /**
+   * The name of each operating code, null if not generated.
+   */
+  private static final String[] NAMES;
+
+  /**
+   * Build the tables.
+   */
+  static {
+    ENCODINGS = new int[Operation.values().length * REGISTERS
+        * Mode.values().length];
+    Arrays.fill(ENCODINGS, NONE);
+    JUMPS = new int[REGISTERS * Keyword.values().length];
+    Arrays.fill(JUMPS, NONE);
+    SHIFTS = new int[REGISTERS * 2 * MAX_SHIFT];
+    CELLS = new byte[OP_CODES];
+    CYCLES = new byte[OP_CODES];
+    NAMES = new String[OP_CODES];
+
+    // Functions with an operand, for each variable
+    for (Keyword variable : new Keyword[] {Keyword.A, Keyword.B, Keyword.X }) {
+      for (Mode mode : Mode.values()) {
+        if (mode != Mode.IMPLIED) {
+          define(Operation.ADD, variable, mode, 0);
+          define(Operation.SUBTRACT, variable, mode, 1);
+          define(Operation.LET, variable, mode, 2);
+          define(Operation.MEMCOPY, variable, mode, 3);
+        }
+      }
+    }
+    // Functions with an operand, of A without naming it
+    for (Mode mode : Mode.values()) {
+      if (mode != Mode.IMPLIED) {
+        define(Operation.OR, null, mode, 0);
+        define(Operation.AND, null, mode, 2);
+      }
+    }
+
+    define(Operation.HALT, 0000, "HALT");
+    define(Operation.NOOP, 0300, "NOOP");
+    define(Operation.SYSCALL, 0360, "SYSCALL");
+    define(Operation.GOTO, 0344, "GOTO");
+
+    // Jump if the variable is, or is not, zero
+    for (Keyword variable : new Keyword[] {Keyword.A, Keyword.B, Keyword.X }) {
+      defineJump(variable, Keyword.NOTZERO, 043);
+      defineJump(variable, Keyword.ISZERO, 044);
+    }
+
+    // Skip the next instruction if a bit of a memory location is 0, or 1
+    for (int bit = 0; bit < 8; ++bit) {
+      for (int value = 0; value < 2; ++value) {
+        describe(skip(bit, value), 2, 2 + Mode.MEMORY.accesses,
+            "SKIP IF BIT " + bit + " IS " + value);
+      }
+    }
+
+    // Shift A or B left or right; the count is in bits 3-4, with 0 for 4
+    for (Keyword variable : new Keyword[] {Keyword.A, Keyword.B }) {
+      for (Keyword direction : new Keyword[] {Keyword.LEFT,
+        Keyword.RIGHT }) {
+        for (int count = 1; count <= MAX_SHIFT; ++count) {
+          int opCode = 01 | (count % MAX_SHIFT) << 3;
+          opCode |= variable == Keyword.B ? 040 : 0;
+          opCode |= direction == Keyword.LEFT ? 0200 : 0;
+          SHIFTS[shiftIndex(variable, direction, count)] = opCode;
+          describe(opCode, 1, 1, "BITSHIFT " + variable.getText() + " "
+              + direction.getText() + " " + count);
+        }
+      }
+    }
+  }
+
+  /**
+   * Hide constructor - static methods only.
+   */
+  private InstructionSet() {
+
+  }
+
+  /**
+   * Get the operating code of an operation.
+   *
+   * @param operation
+   *          The operation
+   * @param variable
+   *          A, B, or X; null for an operation without a variable
+   * @param mode
+   *          How the operand is found; {@link Mode#IMPLIED} for an operation
+   *          without an operand
+   * @return The operating code
+   */
+  public static int opCode(Operation operation, Keyword variable, Mode mode) {
+    int opCode = ENCODINGS[index(operation, register(variable), mode)];
+    if (opCode == NONE) {
+      throw new IllegalStateException("Undefined operation: " + operation
+          + (variable == null ? "" : " " + variable.getText()) + " " + mode);
+    }
+    return opCode;
+  }
+
+  /**
+   * Get the operating code of a jump on a test of a variable.
+   *
+   * @param variable
+   *          A, B, or X
+   * @param test
+   *          NOTZERO or ISZERO
+   * @return The operating code
+   */
+  public static int jump(Keyword variable, Keyword test) {
+    if (!variable.isVariable()) {
+      throw new IllegalStateException(
+          "Undefined variable name for IF: " + variable.getText());
+    }
+    int opCode = JUMPS[register(variable) * Keyword.values().length
+        + test.ordinal()];
+    if (opCode == NONE) {
+      throw new IllegalStateException(
+          "Undefined jump test (expected NOTZERO or ISZERO): "
+              + test.getText());
+    }
+    return opCode;
+  }
+
+  /**
+   * Get the operating code that skips the next instruction on a bit of a
+   * memory location.
+   *
+   * @param bit
+   *          The bit (0-7)
+   * @param value
+   *          Skip if the bit is this value (0 or 1)
+   * @return The operating code
+   */
+  public static int skip(int bit, int value) {
+    return 0202 | value << 6 | bit << 3;
+  }
+
+  /**
+   * Get the operating code of a shift.
+   *
+   * @param variable
+   *          A or B
+   * @param direction
+   *          LEFT or RIGHT
+   * @param count
+   *          The number of bits (1-4)
+   * @return The operating code
+   */
+  public static int shift(Keyword variable, Keyword direction, int count) {
+    return SHIFTS[shiftIndex(variable, direction, count)];
+  }
+
+  /**
+   * Get the number of memory cells of an instruction: its operating code and
+   * the bytes after it.
+   *
+   * @param opCode
+   *          The operating code
+   * @return The number of memory cells, 0 for an operating code the compiler
+   *         does not generate
+   */
+  public static int cells(int opCode) {
+    return CELLS[opCode & 0377];
+  }
+
+  /**
+   * Get the memory cycles of an instruction: the bytes fetched plus the
+   * memory cells accessed to find and use its operand, not counting the
+   * register operated on.
+   *
+   * @param opCode
+   *          The operating code
+   * @return The number of memory cycles, 0 for an operating code the
+   *         compiler does not generate
+   */
+  public static int cycles(int opCode) {
+    return CYCLES[opCode & 0377];
+  }
+
+  /**
+   * Get the name of an instruction.
+   *
+   * @param opCode
+   *          The operating code
+   * @return The name, null for an operating code the compiler does not
+   *         generate
+   */
+  public static String name(int opCode) {
+    return NAMES[opCode & 0377];
+  }
+
+  /**
+   * Add an operation with an operand to the tables.
+   *
+   * @param operation
+   *          The operation
+   * @param variable
+   *          The register, null for none
+   * @param mode
+   *          How the operand is found
+   * @param function
+   *          The middle three bits of the operating code
+   */
+  private static void define(Operation operation, Keyword variable, Mode mode,
+      int function) {
+    int register = register(variable);
+    int opCode = register << 6 | function << 3 | mode.bits;
+    ENCODINGS[index(operation, register, mode)] = opCode;
+    describe(opCode, 2, 2 + mode.accesses, operation.getKeyword().getText()
+        + (variable == null ? "" : " " + variable.getText()) + " " + mode);
+  }
+
+  /**
+   * Add an operation without a register or operand to the tables. A jump
+   * has its destination after it.
+   *
+   * @param operation
+   *          The operation
+   * @param opCode
+   *          The operating code
+   * @param name
+   *          The name
+   */
+  private static void define(Operation operation, int opCode, String name) {
+    ENCODINGS[index(operation, NO_REGISTER, Mode.IMPLIED)] = opCode;
+    int cells = operation == Operation.GOTO ? JUMP_CELLS : 1;
+    describe(opCode, cells, cells, name);
+  }
+
+  /**
+   * Add a jump on a test of a variable to the tables.
+   *
+   * @param variable
+   *          A, B, or X
+   * @param test
+   *          NOTZERO or ISZERO
+   * @param opCodeForA
+   *          The operating code when the variable is A
+   */
+  private static void defineJump(Keyword variable, Keyword test,
+      int opCodeForA) {
+    int opCode = register(variable) << 6 | opCodeForA;
+    JUMPS[register(variable) * Keyword.values().length + test.ordinal()] =
+        opCode;
+    describe(opCode, JUMP_CELLS, JUMP_CELLS, "IF " + variable.getText() + " "
+        + test.getText() + " GOTO");
+  }
+
+  /**
+   * Record the size, cost and name of an operating code.
+   *
+   * @param opCode
+   *          The operating code
+   * @param cells
+   *          The number of memory cells
+   * @param cycles
+   *          The number of memory cycles
+   * @param name
+   *          The name
+   */
+  private static void describe(int opCode, int cells, int cycles,
+      String name) {
+    CELLS[opCode] = (byte) cells;
+    CYCLES[opCode] = (byte) cycles;
+    NAMES[opCode] = name;
+  }
+
+  /**
+   * Get the index of an operation form in the encodings.
+   *
+   * @param operation
+   *          The operation
+   * @param register
+   *          The register index
+   * @param mode
+   *          How the operand is found
+   * @return The index
+   */
+  private static int index(Operation operation, int register, Mode mode) {
+    return (operation.ordinal() * REGISTERS + register)
+        * Mode.values().length + mode.ordinal();
+  }
+
+  /**
+   * Get the index of a shift in the shifts.
+   *
+   * @param variable
+   *          A or B
+   * @param direction
+   *          LEFT or RIGHT
+   * @param count
+   *          The number of bits (1-4)
+   * @return The index
+   */
+  private static int shiftIndex(Keyword variable, Keyword direction,
+      int count) {
+    return (register(variable) * 2 + (direction == Keyword.LEFT ? 0 : 1))
+        * MAX_SHIFT + (count - 1) % MAX_SHIFT;
+  }
+
+  /**
+   * Get the register index of a variable; the index is the top two bits of
+   * its operating codes.
+   *
+   * @param variable
+   *          A, B, or X; null for none
+   * @return The register index
+   */
+  private static int register(Keyword variable) {
+    if (variable == null) {
+      return NO_REGISTER;
+    }
+    switch (variable) {
+      case A:
+        return 0;
+      case B:
+        return 1;
+      case X:
+        return 2;
+      default:
+        throw new IllegalStateException(
+            "Undefined variable name: " + variable.getText());
+    }
+  }
+}
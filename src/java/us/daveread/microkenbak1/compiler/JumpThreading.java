@@ -0,0 +1,255 @@
+package us.daveread.microkenbak1.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An optimization pass shortening the paths jumps take:
+ * <ul>
+ * <li>A GOTO or IF jumping to a label followed by a GOTO jumps straight to
+ * where the chain of GOTOs ends.</li>
+ * <li>An IF ISZERO or IF NOTZERO jumping just past the GOTO following it is
+ * inverted to jump to that GOTO's label instead, and the GOTO is removed, so
+ * the other path falls through.</li>
+ * <li>A GOTO or IF jumping to the statement after it is removed.</li>
+ * </ul>
+ * Labels left without jumps are kept; code left unreachable is removed by
+ * {@link DeadCodeElimination}, which runs after this pass.
+ *
+ * IF OVERFLOW is threaded but not inverted, since no statement jumps when the
+ * overflow flag is clear. A program that may jump to a computed address is
+ * left unchanged, since removing a statement moves the code after it.
+ *
+ * @author readda
+ *
+ */
+public final class JumpThreading implements OptimizationPass {
+  @Override
+  public String getName() {
+    return "jump-threading";
+  }
+
+  @Override
+  public List<Statement> run(List<Statement> statements,
+      List<Diagnostic> remarks) {
+    if (new ControlFlowGraph(statements).hasComputedJumps()) {
+      return statements;
+    }
+
+    List<Statement> current = statements;
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      Map<String, Integer> labels = labels(current);
+      List<Statement> next = new ArrayList<>(current.size());
+      for (int index = 0; index < current.size(); ++index) {
+        Statement stmt = current.get(index);
+        StatementNode node = stmt.getNode();
+        if (!is(node, Operation.GOTO) && !is(node, Operation.IF)) {
+          next.add(stmt);
+          continue;
+        }
+
+        String target = destination(current, labels, node.getLabel());
+        if (isLabelledAt(current, index + 1, node.getLabel())
+            || isLabelledAt(current, index + 1, target)) {
+          remarks.add(remark(stmt, "Jump to the next statement removed: "
+              + format(stmt)));
+          changed = true;
+          continue;
+        }
+
+        StatementNode following = index + 1 < current.size()
+            ? current.get(index + 1).getNode() : null;
+        Keyword inverse = inverse(node);
+        if (inverse != null && is(following, Operation.GOTO)
+            && (isLabelledAt(current, index + 2, node.getLabel())
+                || isLabelledAt(current, index + 2, target))) {
+          Statement inverted = statement(StatementNode.ifJump(
+              node.getVariable(), inverse,
+              destination(current, labels, following.getLabel())), stmt);
+          remarks.add(remark(stmt, "Branch inverted: " + format(stmt) + "; "
+              + format(current.get(index + 1)) + " replaced by "
+              + format(inverted)));
+          next.add(inverted);
+          ++index;
+          changed = true;
+          continue;
+        }
+
+        if (target.equals(node.getLabel())) {
+          next.add(stmt);
+          continue;
+        }
+        Statement threaded = statement(is(node, Operation.GOTO)
+            ? StatementNode.jump(target)
+            : StatementNode.ifJump(node.getVariable(), node.getCondition(),
+                target), stmt);
+        remarks.add(remark(stmt, "Jump threaded: " + format(stmt)
+            + " replaced by " + format(threaded)));
+        next.add(threaded);
+        changed = true;
+      }
+      current = next;
+    }
+    return current;
+  }
+
+  /**
+   * Find the statement each label is defined at.
+   *
+   * @param statements
+   *          The statements
+   * @return The index of the LABEL statement, by label name
+   */
+  private static Map<String, Integer> labels(List<Statement> statements) {
+    Map<String, Integer> labels = new HashMap<>();
+    for (int index = 0; index < statements.size(); ++index) {
+      StatementNode node = statements.get(index).getNode();
+      if (is(node, Operation.LABEL)) {
+        labels.putIfAbsent(node.getLabel(), index);
+      }
+    }
+    return labels;
+  }
+
+  /**
+   * Follow a chain of GOTOs from a label.
+   *
+   * @param statements
+   *          The statements
+   * @param labels
+   *          The statement each label is defined at
+   * @param label
+   *          The label jumped to
+   * @return The label the chain ends at; the label itself if it is not
+   *         followed by a GOTO, is not defined, or the chain loops
+   */
+  private static String destination(List<Statement> statements,
+      Map<String, Integer> labels, String label) {
+    Set<String> seen = new HashSet<>();
+    String target = label;
+    while (seen.add(target)) {
+      Integer index = labels.get(target);
+      if (index == null) {
+        return target;
+      }
+      int stmt = index;
+      while (stmt < statements.size()
+          && is(statements.get(stmt).getNode(), Operation.LABEL)) {
+        ++stmt;
+      }
+      if (stmt == statements.size()
+          || !is(statements.get(stmt).getNode(), Operation.GOTO)) {
+        return target;
+      }
+      target = statements.get(stmt).getNode().getLabel();
+    }
+    return label;
+  }
+
+  /**
+   * Check whether a label is defined among the labels starting at a
+   * statement.
+   *
+   * @param statements
+   *          The statements
+   * @param start
+   *          The first statement checked
+   * @param label
+   *          The label
+   * @return True if control reaches the label's definition from the statement
+   *         before the start without passing another statement
+   */
+  private static boolean isLabelledAt(List<Statement> statements, int start,
+      String label) {
+    for (int index = start; index < statements.size(); ++index) {
+      StatementNode node = statements.get(index).getNode();
+      if (!is(node, Operation.LABEL)) {
+        return false;
+      }
+      if (node.getLabel().equals(label)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get the opposite test of an IF statement.
+   *
+   * @param node
+   *          The statement
+   * @return NOTZERO for ISZERO and the reverse, null for other statements
+   */
+  private static Keyword inverse(StatementNode node) {
+    if (!is(node, Operation.IF)) {
+      return null;
+    }
+    switch (node.getCondition()) {
+      case ISZERO:
+        return Keyword.NOTZERO;
+      case NOTZERO:
+        return Keyword.ISZERO;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Create a statement replacing another.
+   *
+   * @param node
+   *          The new statement
+   * @param replaced
+   *          The statement replaced
+   * @return The statement, at the line of the one replaced
+   */
+  private static Statement statement(StatementNode node, Statement replaced) {
+    Statement stmt = new Statement(node);
+    stmt.setLine(replaced.getLine());
+    return stmt;
+  }
+
+  /**
+   * Create a remark about a statement.
+   *
+   * @param stmt
+   *          The statement
+   * @param message
+   *          The remark
+   * @return The remark
+   */
+  private static Diagnostic remark(Statement stmt, String message) {
+    return Diagnostic.of(Diagnostic.Code.OPTIMIZATION_REMARK, stmt, -1,
+        message);
+  }
+
+  /**
+   * Format a statement for a remark.
+   *
+   * @param stmt
+   *          The statement
+   * @return The statement's source
+   */
+  private static String format(Statement stmt) {
+    return stmt.getFormattedStatement().trim();
+  }
+
+  /**
+   * Check a statement's operation.
+   *
+   * @param node
+   *          The statement, null if it did not parse
+   * @param operation
+   *          The operation
+   * @return True if the statement parsed and performs the operation
+   */
+  private static boolean is(StatementNode node, Operation operation) {
+    return node != null && node.getOperation() == operation;
+  }
+}
@@ -0,0 +1,372 @@
+package us.daveread.microkenbak1.compiler;
+
+/**
+ * The reserved words of KBlang: statement keywords, the words used within
+ * statements, the variable names and the mnemonic memory location names.
+ *
+ * Lexemes are classified with a case-insensitive perfect hash, computed when
+ * the class is loaded, so a lookup is a single table probe followed by one
+ * comparison and creates no objects.
+ *
+ * @author readda
+ *
+ */
+public enum Keyword {
+  /**
+   * Statement: LABEL label_name.
+   */
+  LABEL,
+
+  /**
+   * Statement: LET variable = [VALUEIN] value.
+   */
+  LET,
+
+  /**
+   * Statement: GOTO label_name.
+   */
+  GOTO,
+
+  /**
+   * Statement: SYSCALL.
+   */
+  SYSCALL,
+
+  /**
+   * Statement: MEMCOPY variable TO [ADDRESSIN] memory_location.
+   */
+  MEMCOPY,
+
+  /**
+   * Statement: AND value.
+   */
+  AND,
+
+  /**
+   * Statement: OR value.
+   */
+  OR,
+
+  /**
+   * Statement: ADD source TO variable.
+   */
+  ADD,
+
+  /**
+   * Statement: SUBTRACT source FROM variable.
+   */
+  SUBTRACT,
+
+  /**
+   * Statement: IF variable test GOTO label_name.
+   */
+  IF,
+
+  /**
+   * Statement: HALT.
+   */
+  HALT,
+
+  /**
+   * Statement: BITSHIFT variable direction [bit_count].
+   */
+  BITSHIFT,
+
+  /**
+   * Statement: NOOP.
+   */
+  NOOP,
+
+  /**
+   * Statement: BYTES value [value ...].
+   */
+  BYTES,
+
+  /**
+   * Statement: INCLUDE file_name.
+   */
+  INCLUDE,
+
+  /**
+   * Assignment operator in LET.
+   */
+  EQUALS("="),
+
+  /**
+   * Destination in MEMCOPY and ADD.
+   */
+  TO,
+
+  /**
+   * Source in SUBTRACT.
+   */
+  FROM,
+
+  /**
+   * Memory location value in LET.
+   */
+  VALUEIN,
+
+  /**
+   * Memory location indirection in MEMCOPY.
+   */
+  ADDRESSIN,
+
+  /**
+   * IF test for zero.
+   */
+  ISZERO,
+
+  /**
+   * IF test for non-zero.
+   */
+  NOTZERO,
+
+  /**
+   * IF test for the overflow (carry) flag.
+   */
+  OVERFLOW,
+
+  /**
+   * BITSHIFT toward the MSB.
+   */
+  LEFT,
+
+  /**
+   * BITSHIFT toward the LSB.
+   */
+  RIGHT,
+
+  /**
+   * Variable A (memory location 0).
+   */
+  A("A", 0),
+
+  /**
+   * Variable B (memory location 1).
+   */
+  B("B", 01),
+
+  /**
+   * Variable X (memory location 2).
+   */
+  X("X", 02),
+
+  /**
+   * Program counter (memory location 3).
+   */
+  P("P", MemoryImage.PROGRAM_COUNTER_ADDRESS),
+
+  /**
+   * The data LEDs (memory location 0200).
+   */
+  DISPLAY("DISPLAY", MemoryImage.DISPLAY_ADDRESS),
+
+  /**
+   * The data buttons (memory location 0377).
+   */
+  INPUT("INPUT", MemoryImage.INPUT_ADDRESS);
+
+  /**
+   * Bits used to index the hash table.
+   */
+  private static final int TABLE_BITS;
+
+  /**
+   * The hash multiplier giving no collisions between keywords.
+   */
+  private static final int MULTIPLIER;
+
+  /**
+   * The keywords, indexed by their hash.
+   */
+  private static final Keyword[] TABLE;
+
+  /**
+   * The keyword text (upper case).
+   */
+  private final String text;
+
+  /**
+   * The memory location represented by the keyword, -1 if the keyword is not
+   * a variable or mnemonic location name.
+   */
+  private final int memoryLocation;
+
+  /**
+   * Find the smallest table, and a multiplier for it, where every keyword
+   * hashes to its own slot.
+   */
+  static {
+    Keyword[] keywords = values();
+    int bits = 32 - Integer.numberOfLeadingZeros(keywords.length);
+    Keyword[] table = null;
+    int multiplier = 0;
+
+    search: for (;; ++bits) {
+      for (multiplier = 3; multiplier < 1 << 12; multiplier += 2) {
+        table = new Keyword[1 << bits];
+        boolean collision = false;
+        for (Keyword keyword : keywords) {
+          char[] chars = keyword.text.toCharArray();
+          int slot = slot(chars, 0, chars.length, multiplier, bits);
+          if (table[slot] != null) {
+            collision = true;
+            break;
+          }
+          table[slot] = keyword;
+        }
+        if (!collision) {
+          break search;
+        }
+      }
+    }
+
+    TABLE_BITS = bits;
+    MULTIPLIER = multiplier;
+    TABLE = table;
+  }
+
+  /**
+   * Create a keyword whose text is its name.
+   */
+  Keyword() {
+    this(null, -1);
+  }
+
+  /**
+   * Create a keyword with different text than its name.
+   *
+   * @param text
+   *          The keyword text
+   */
+  Keyword(String text) {
+    this(text, -1);
+  }
+
+  /**
+   * Create a keyword representing a memory location.
+   *
+   * @param text
+   *          The keyword text
+   * @param memoryLocation
+   *          The memory location
+   */
+  Keyword(String text, int memoryLocation) {
+    this.text = text == null ? name() : text;
+    this.memoryLocation = memoryLocation;
+  }
+
+  /**
+   * Get the keyword text.
+   *
+   * @return The keyword as written in source (upper case)
+   */
+  public String getText() {
+    return text;
+  }
+
+  /**
+   * Get the memory location a variable or mnemonic location name represents.
+   *
+   * @return The memory location, or -1 if the keyword does not name one
+   */
+  public int getMemoryLocation() {
+    return memoryLocation;
+  }
+
+  /**
+   * Check whether the keyword is one of the variables A, B, or X.
+   *
+   * @return True for A, B, and X
+   */
+  public boolean isVariable() {
+    return this == A || this == B || this == X;
+  }
+
+  /**
+   * Check whether the keyword names a memory location (a variable, P,
+   * DISPLAY, or INPUT).
+   *
+   * @return True if the keyword represents a memory location
+   */
+  public boolean isMemoryLocation() {
+    return memoryLocation >= 0;
+  }
+
+  /**
+   * Find the keyword spelled by characters in a buffer, ignoring case.
+   *
+   * @param buffer
+   *          The characters
+   * @param offset
+   *          The offset of the first character
+   * @param length
+   *          The number of characters
+   * @return The keyword or null if the characters are not a keyword
+   */
+  public static Keyword lookup(char[] buffer, int offset, int length) {
+    Keyword candidate = TABLE[slot(buffer, offset, length, MULTIPLIER,
+        TABLE_BITS)];
+    if (candidate == null || candidate.text.length() != length) {
+      return null;
+    }
+
+    for (int position = 0; position < length; ++position) {
+      if (upperCase(buffer[offset + position]) != candidate.text
+          .charAt(position)) {
+        return null;
+      }
+    }
+
+    return candidate;
+  }
+
+  /**
+   * Find the keyword spelled by a string, ignoring case.
+   *
+   * @param text
+   *          The text
+   * @return The keyword or null if the text is not a keyword
+   */
+  public static Keyword lookup(String text) {
+    return lookup(text.toCharArray(), 0, text.length());
+  }
+
+  /**
+   * Compute the hash table slot for characters, folding ASCII letters to upper
+   * case.
+   *
+   * @param buffer
+   *          The characters
+   * @param offset
+   *          The offset of the first character
+   * @param length
+   *          The number of characters
+   * @param multiplier
+   *          The hash multiplier
+   * @param bits
+   *          The number of bits in the slot index
+   * @return The slot index
+   */
+  private static int slot(char[] buffer, int offset, int length,
+      int multiplier, int bits) {
+    int hash = length;
+    for (int position = 0; position < length; ++position) {
+      hash = hash * multiplier + upperCase(buffer[offset + position]);
+    }
+    return (hash * 0x9E3779B9) >>> (32 - bits);
+  }
+
+  /**
+   * Convert an ASCII letter to upper case. Keywords are ASCII, so other
+   * characters are left as they are.
+   *
+   * @param c
+   *          A character
+   * @return The upper case character
+   */
+  private static char upperCase(char c) {
+    return c >= 'a' && c <= 'z' ? (char) (c - ('a' - 'A')) : c;
+  }
+}
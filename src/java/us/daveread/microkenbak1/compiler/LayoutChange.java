@@ -0,0 +1,111 @@
+package us.daveread.microkenbak1.compiler;
+
+/**
+ * The memory cells whose contents changed when a program was laid out again,
+ * in address order, so an uploaded image can be patched rather than
+ * rebuilt.
+ *
+ * @author readda
+ *
+ */
+public final class LayoutChange {
+  /**
+   * Value of a cell the program no longer uses.
+   */
+  public static final int UNUSED = -1;
+
+  /**
+   * The first address laid out again.
+   */
+  private final int firstAddress;
+
+  /**
+   * The addresses of the changed cells, ascending.
+   */
+  private final int[] addresses;
+
+  /**
+   * The new contents of the changed cells.
+   */
+  private final int[] values;
+
+  /**
+   * Create the change.
+   *
+   * @param firstAddress
+   *          The first address laid out again
+   * @param addresses
+   *          The addresses of the changed cells, ascending
+   * @param values
+   *          The new contents of the changed cells
+   */
+  LayoutChange(int firstAddress, int[] addresses, int[] values) {
+    this.firstAddress = firstAddress;
+    this.addresses = addresses;
+    this.values = values;
+  }
+
+  /**
+   * Get the first address laid out again. Cells below it were not moved,
+   * although jump destinations below it may have changed.
+   *
+   * @return The address
+   */
+  public int getFirstAddress() {
+    return firstAddress;
+  }
+
+  /**
+   * Get the number of changed cells.
+   *
+   * @return The number of cells
+   */
+  public int size() {
+    return addresses.length;
+  }
+
+  /**
+   * Check whether no cells changed.
+   *
+   * @return True if the memory contents are unchanged
+   */
+  public boolean isEmpty() {
+    return addresses.length == 0;
+  }
+
+  /**
+   * Get the address of a changed cell.
+   *
+   * @param index
+   *          The change index
+   * @return The address
+   */
+  public int getAddress(int index) {
+    return addresses[index];
+  }
+
+  /**
+   * Get the new contents of a changed cell.
+   *
+   * @param index
+   *          The change index
+   * @return The byte value, or {@link #UNUSED}
+   */
+  public int getValue(int index) {
+    return values[index];
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder("[");
+    for (int index = 0; index < addresses.length; ++index) {
+      if (index > 0) {
+        text.append(", ");
+      }
+      text.append(String.format("%04o=", addresses[index]));
+      text.append(values[index] == UNUSED ? "unused"
+          : String.format("%04o", values[index]));
+    }
+    return text.append(']').toString();
+  }
+}
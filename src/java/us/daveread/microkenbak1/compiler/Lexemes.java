@@ -0,0 +1,235 @@
+package us.daveread.microkenbak1.compiler;
+
+/**
+ * The lexemes making up one statement, held as offset/length spans over a
+ * single backing character buffer. Each lexeme is classified as a keyword (or
+ * not) once, when the lexemes are created. A String is only created for a
+ * lexeme when a consumer asks for its text.
+ *
+ * @author readda
+ *
+ */
+public class Lexemes {
+  /**
+   * The number of ints recorded per lexeme: offset, length, and keyword
+   * ordinal.
+   */
+  public static final int SPAN_SIZE = 3;
+
+  /**
+   * The keywords, indexed by ordinal.
+   */
+  private static final Keyword[] KEYWORDS = Keyword.values();
+
+  /**
+   * The buffer containing the characters of every lexeme.
+   */
+  private final char[] buffer;
+
+  /**
+   * Offset, length, and keyword ordinal (-1 if not a keyword) triples, one per
+   * lexeme.
+   */
+  private final int[] spans;
+
+  /**
+   * The number of lexemes.
+   */
+  private final int count;
+
+  /**
+   * Lexeme text, created on demand.
+   */
+  private String[] text;
+
+  /**
+   * Create the lexemes from spans over a buffer.
+   *
+   * @param buffer
+   *          The backing character buffer
+   * @param spans
+   *          Offset, length, and keyword ordinal triples, one per lexeme
+   * @param count
+   *          The number of lexemes
+   */
+  public Lexemes(char[] buffer, int[] spans, int count) {
+    this.buffer = buffer;
+    this.spans = spans;
+    this.count = count;
+  }
+
+  /**
+   * Create lexemes from already separated strings. The strings are copied into
+   * a single backing buffer.
+   *
+   * @param lexemes
+   *          The lexemes making up one statement
+   * @return The lexemes
+   */
+  public static Lexemes of(String... lexemes) {
+    int size = 0;
+    for (String lexeme : lexemes) {
+      size += lexeme.length() + 1;
+    }
+
+    char[] buffer = new char[size];
+    int[] spans = new int[lexemes.length * SPAN_SIZE];
+    int offset = 0;
+    for (int index = 0; index < lexemes.length; ++index) {
+      String lexeme = lexemes[index];
+      lexeme.getChars(0, lexeme.length(), buffer, offset);
+      spans[index * SPAN_SIZE] = offset;
+      spans[index * SPAN_SIZE + 1] = lexeme.length();
+      spans[index * SPAN_SIZE + 2] = ordinal(buffer, offset, lexeme.length());
+      offset += lexeme.length();
+      buffer[offset++] = ' ';
+    }
+
+    Lexemes result = new Lexemes(buffer, spans, lexemes.length);
+    result.text = lexemes.clone();
+    return result;
+  }
+
+  /**
+   * Get the number of lexemes.
+   *
+   * @return The number of lexemes
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Get the backing character buffer.
+   *
+   * @return The buffer holding the lexeme characters
+   */
+  public char[] getBuffer() {
+    return buffer;
+  }
+
+  /**
+   * Get the offset of a lexeme within the backing buffer.
+   *
+   * @param index
+   *          The lexeme index
+   * @return The offset of the first character of the lexeme
+   */
+  public int offset(int index) {
+    checkIndex(index);
+    return spans[index * SPAN_SIZE];
+  }
+
+  /**
+   * Get the number of characters in a lexeme.
+   *
+   * @param index
+   *          The lexeme index
+   * @return The lexeme length
+   */
+  public int length(int index) {
+    checkIndex(index);
+    return spans[index * SPAN_SIZE + 1];
+  }
+
+  /**
+   * Get the keyword a lexeme spells.
+   *
+   * @param index
+   *          The lexeme index
+   * @return The keyword, or null if the lexeme is not a keyword
+   */
+  public Keyword keyword(int index) {
+    checkIndex(index);
+    int ordinal = spans[index * SPAN_SIZE + 2];
+    return ordinal < 0 ? null : KEYWORDS[ordinal];
+  }
+
+  /**
+   * Check whether a lexeme is the supplied keyword.
+   *
+   * @param index
+   *          The lexeme index
+   * @param keyword
+   *          The keyword
+   * @return True if the lexeme is the keyword
+   */
+  public boolean is(int index, Keyword keyword) {
+    return keyword(index) == keyword;
+  }
+
+  /**
+   * Get a character from a lexeme.
+   *
+   * @param index
+   *          The lexeme index
+   * @param position
+   *          The character position within the lexeme
+   * @return The character
+   */
+  public char charAt(int index, int position) {
+    return buffer[offset(index) + position];
+  }
+
+  /**
+   * Get the text of a lexeme. The String is created the first time it is
+   * requested.
+   *
+   * @param index
+   *          The lexeme index
+   * @return The lexeme text
+   */
+  public String get(int index) {
+    checkIndex(index);
+    if (text == null) {
+      text = new String[count];
+    }
+    if (text[index] == null) {
+      text[index] = new String(buffer, spans[index * SPAN_SIZE],
+          spans[index * SPAN_SIZE + 1]);
+    }
+    return text[index];
+  }
+
+  /**
+   * Get the text of all the lexemes.
+   *
+   * @return The lexemes as strings
+   */
+  public String[] toArray() {
+    String[] result = new String[count];
+    for (int index = 0; index < count; ++index) {
+      result[index] = get(index);
+    }
+    return result;
+  }
+
+  /**
+   * Get the keyword ordinal to record for a lexeme.
+   *
+   * @param buffer
+   *          The buffer holding the lexeme
+   * @param offset
+   *          The offset of the lexeme
+   * @param length
+   *          The length of the lexeme
+   * @return The keyword ordinal, or -1 if the lexeme is not a keyword
+   */
+  static int ordinal(char[] buffer, int offset, int length) {
+    Keyword keyword = Keyword.lookup(buffer, offset, length);
+    return keyword == null ? -1 : keyword.ordinal();
+  }
+
+  /**
+   * Verify a lexeme index is in range.
+   *
+   * @param index
+   *          The lexeme index
+   */
+  private void checkIndex(int index) {
+    if (index < 0 || index >= count) {
+      throw new IndexOutOfBoundsException(
+          "Lexeme index " + index + " is not in the range 0-" + (count - 1));
+    }
+  }
+}
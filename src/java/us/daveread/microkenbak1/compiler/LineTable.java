@@ -0,0 +1,143 @@
+package us.daveread.microkenbak1.compiler;
+
+import java.util.Arrays;
+
+/**
+ * The source line of each memory cell of a laid out program, run-length
+ * encoded: consecutive cells from the same line share one run. Tools reading
+ * the microKENBAK-1, such as debuggers and profilers, map an address back to
+ * the program's source from this table without compiling the program again.
+ *
+ * Cells outside the program, and cells of the statements added to jump around
+ * the LED display address, have line 0. Statements from an included file have
+ * the line of the INCLUDE statement.
+ *
+ * @author readda
+ *
+ */
+public final class LineTable {
+  /**
+   * The first address of each run.
+   */
+  private final int[] runStarts;
+
+  /**
+   * The source line of each run.
+   */
+  private final int[] runLines;
+
+  /**
+   * The number of runs.
+   */
+  private final int size;
+
+  /**
+   * The address just past the last run.
+   */
+  private final int end;
+
+  /**
+   * Encode the source lines of a program's memory cells.
+   *
+   * @param memory
+   *          The contents of memory, with the statement owning each cell
+   * @param lines
+   *          The source line of each laid out statement
+   * @param end
+   *          The address just past the program
+   */
+  LineTable(MemoryImage memory, int[] lines, int end) {
+    this.end = Math.min(end, MemoryImage.SIZE);
+    int[] starts = new int[8];
+    int[] values = new int[8];
+    int count = 0;
+    for (int address = 0; address < this.end; ++address) {
+      int owner = memory.getOwner(address);
+      int line = owner == MemoryImage.NO_OWNER ? 0 : lines[owner];
+      if (count > 0 && values[count - 1] == line) {
+        continue;
+      }
+      if (count == starts.length) {
+        starts = Arrays.copyOf(starts, count * 2);
+        values = Arrays.copyOf(values, count * 2);
+      }
+      starts[count] = address;
+      values[count++] = line;
+    }
+    runStarts = Arrays.copyOf(starts, count);
+    runLines = Arrays.copyOf(values, count);
+    size = count;
+  }
+
+  /**
+   * Get the source line of a memory cell.
+   *
+   * @param address
+   *          The address
+   * @return The line (1-based), 0 for a cell outside the program or not from
+   *         the source
+   */
+  public int getLine(int address) {
+    if (address < 0 || address >= end) {
+      return 0;
+    }
+    int run = Arrays.binarySearch(runStarts, 0, size, address);
+    return runLines[run >= 0 ? run : -run - 2];
+  }
+
+  /**
+   * Get the number of runs.
+   *
+   * @return The number of runs
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the first address of a run.
+   *
+   * @param run
+   *          The run index
+   * @return The address
+   */
+  public int getRunStart(int run) {
+    return runStarts[run];
+  }
+
+  /**
+   * Get the source line of a run.
+   *
+   * @param run
+   *          The run index
+   * @return The line (1-based), 0 for cells not from the source
+   */
+  public int getRunLine(int run) {
+    return runLines[run];
+  }
+
+  /**
+   * Get the address just past the last run.
+   *
+   * @return The address
+   */
+  public int getEnd() {
+    return end;
+  }
+
+  /**
+   * Format the table as written next to the operating codes: a line for each
+   * run with its first address in octal and its source line, then the end
+   * address.
+   *
+   * @return The formatted table
+   */
+  public String format() {
+    StringBuilder sb = new StringBuilder(size * 10 + 5);
+    for (int run = 0; run < size; ++run) {
+      sb.append(String.format("%04o %d\n", runStarts[run], runLines[run]));
+    }
+    sb.append(String.format("%04o\n", end));
+    return sb.toString();
+  }
+}
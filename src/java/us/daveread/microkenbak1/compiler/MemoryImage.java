@@ -0,0 +1,314 @@
+package us.daveread.microkenbak1.compiler;
+
+import java.util.Arrays;
+
+/**
+ * The 256 bytes of microKENBAK-1 memory as a program lays them out, with a
+ * bitmap of the cells holding program bytes and the layout position of the
+ * statement owning each of them. The cells the hardware uses for
+ * its own purposes are named as reserved {@link Region regions}, so the
+ * layout and the emitters find them by name rather than by address.
+ *
+ * The layout stores each byte as it places it, and the emitters read the
+ * image rather than the statements. Checking a cell, storing it, or finding
+ * its region or owner takes constant time.
+ *
+ * @author readda
+ *
+ */
+public final class MemoryImage {
+  /**
+   * The number of memory cells.
+   */
+  public static final int SIZE = 0400;
+
+  /**
+   * The address of the program counter.
+   */
+  public static final int PROGRAM_COUNTER_ADDRESS = 03;
+
+  /**
+   * The first address of a program, where the program counter starts.
+   */
+  public static final int PROGRAM_START = 04;
+
+  /**
+   * The address of the data LEDs.
+   */
+  public static final int DISPLAY_ADDRESS = 0200;
+
+  /**
+   * The address of the data buttons.
+   */
+  public static final int INPUT_ADDRESS = 0377;
+
+  /**
+   * Owner of a cell that does not hold a statement's byte.
+   */
+  public static final int NO_OWNER = -1;
+
+  /**
+   * A range of cells the hardware reserves.
+   */
+  public enum Region {
+    /**
+     * Variables A, B and X.
+     */
+    REGISTERS(0, PROGRAM_COUNTER_ADDRESS),
+
+    /**
+     * The program counter.
+     */
+    PROGRAM_COUNTER(PROGRAM_COUNTER_ADDRESS, PROGRAM_START),
+
+    /**
+     * The data LEDs.
+     */
+    DISPLAY(DISPLAY_ADDRESS, DISPLAY_ADDRESS + 1),
+
+    /**
+     * The overflow and carry flags of A, B and X.
+     */
+    OVERFLOW_FLAGS(DISPLAY_ADDRESS + 1, DISPLAY_ADDRESS + 4),
+
+    /**
+     * The data buttons.
+     */
+    INPUT(INPUT_ADDRESS, SIZE);
+
+    /**
+     * The region of each cell, null for a cell not reserved.
+     */
+    private static final Region[] BY_ADDRESS;
+
+    /**
+     * The first address.
+     */
+    private final int start;
+
+    /**
+     * The address just past the region.
+     */
+    private final int end;
+
+    /**
+     * Index the regions by address.
+     */
+    static {
+      BY_ADDRESS = new Region[SIZE];
+      for (Region region : values()) {
+        Arrays.fill(BY_ADDRESS, region.start, region.end, region);
+      }
+    }
+
+    /**
+     * Create a region.
+     *
+     * @param start
+     *          The first address
+     * @param end
+     *          The address just past the region
+     */
+    Region(int start, int end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    /**
+     * Get the first address of the region.
+     *
+     * @return The address
+     */
+    public int getStart() {
+      return start;
+    }
+
+    /**
+     * Get the address just past the region.
+     *
+     * @return The address
+     */
+    public int getEnd() {
+      return end;
+    }
+
+    /**
+     * Find the reserved region holding a cell.
+     *
+     * @param address
+     *          The address
+     * @return The region, null if the cell is not reserved or not in memory
+     */
+    public static Region at(int address) {
+      return address >= 0 && address < SIZE ? BY_ADDRESS[address] : null;
+    }
+  }
+
+  /**
+   * The contents of each cell.
+   */
+  private final byte[] cells;
+
+  /**
+   * A bit per cell, set for a cell holding a program byte.
+   */
+  private final long[] occupied;
+
+  /**
+   * The layout position of the statement owning each cell, {@link #NO_OWNER}
+   * for a cell not stored by a statement.
+   */
+  private final int[] owners;
+
+  /**
+   * Create the image of an empty program: the registers are clear and the
+   * program counter is at the start of the program.
+   */
+  public MemoryImage() {
+    cells = new byte[SIZE];
+    occupied = new long[SIZE / Long.SIZE];
+    owners = new int[SIZE];
+    Arrays.fill(owners, NO_OWNER);
+    for (int address = Region.REGISTERS.getStart();
+        address < Region.PROGRAM_COUNTER.getEnd(); ++address) {
+      store(address, 0);
+    }
+    set(PROGRAM_COUNTER_ADDRESS, PROGRAM_START);
+  }
+
+  /**
+   * Create a copy of another image.
+   *
+   * @param other
+   *          The image to copy
+   */
+  private MemoryImage(MemoryImage other) {
+    cells = other.cells.clone();
+    occupied = other.occupied.clone();
+    owners = other.owners.clone();
+  }
+
+  /**
+   * Copy the image, so the copy is unaffected by the program being laid out
+   * again.
+   *
+   * @return The copy
+   */
+  MemoryImage copy() {
+    return new MemoryImage(this);
+  }
+
+  /**
+   * Store a byte in a free cell.
+   *
+   * @param address
+   *          The address
+   * @param value
+   *          The value (0-0377)
+   * @return False, storing nothing, if the cell is not in memory or already
+   *         holds a program byte
+   */
+  boolean store(int address, int value) {
+    return store(address, value, NO_OWNER);
+  }
+
+  /**
+   * Store a statement's byte in a free cell.
+   *
+   * @param address
+   *          The address
+   * @param value
+   *          The value (0-0377)
+   * @param owner
+   *          The layout position of the statement
+   * @return False, storing nothing, if the cell is not in memory or already
+   *         holds a program byte
+   */
+  boolean store(int address, int value, int owner) {
+    if (!inMemory(address) || isOccupied(address)) {
+      return false;
+    }
+    occupied[address >>> 6] |= 1L << address;
+    cells[address] = (byte) value;
+    owners[address] = owner;
+    return true;
+  }
+
+  /**
+   * Change the byte in a cell already stored, such as a jump destination
+   * once it is resolved. A cell not in memory is ignored.
+   *
+   * @param address
+   *          The address
+   * @param value
+   *          The value (0-0377)
+   */
+  void set(int address, int value) {
+    if (inMemory(address)) {
+      cells[address] = (byte) value;
+    }
+  }
+
+  /**
+   * Free the cells in a range of addresses, for a part of the program being
+   * laid out again.
+   *
+   * @param from
+   *          The first address
+   * @param to
+   *          The address just past the range
+   */
+  void clear(int from, int to) {
+    for (int address = Math.max(from, PROGRAM_START);
+        address < Math.min(to, SIZE); ++address) {
+      occupied[address >>> 6] &= ~(1L << address);
+      cells[address] = 0;
+      owners[address] = NO_OWNER;
+    }
+  }
+
+  /**
+   * Check whether a cell holds a program byte.
+   *
+   * @param address
+   *          The address
+   * @return True if the cell is occupied
+   */
+  public boolean isOccupied(int address) {
+    return inMemory(address) && (occupied[address >>> 6] & 1L << address) != 0;
+  }
+
+  /**
+   * Get the contents of a cell.
+   *
+   * @param address
+   *          The address
+   * @return The value (0-0377), 0 for a cell not in memory
+   */
+  public int get(int address) {
+    return inMemory(address) ? cells[address] & 0377 : 0;
+  }
+
+  /**
+   * Get the statement owning a cell.
+   *
+   * @param address
+   *          The address
+   * @return The layout position of the statement, {@link #NO_OWNER} for a
+   *         cell not holding a statement's byte or not in memory
+   */
+  public int getOwner(int address) {
+    return inMemory(address) ? owners[address] : NO_OWNER;
+  }
+
+  /**
+   * Check whether an address is a memory cell.
+   *
+   * @param address
+   *          The address
+   * @return True if it is within the 256 cells
+   */
+  private static boolean inMemory(int address) {
+    return address >= 0 && address < SIZE;
+  }
+}
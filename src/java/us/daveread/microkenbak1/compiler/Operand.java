@@ -0,0 +1,235 @@
+package us.daveread.microkenbak1.compiler;
+
+/**
+ * The classification of an operand lexeme: a variable (A, B, or X), a
+ * mnemonic memory location name, a numeric literal, or invalid. Classifying
+ * never throws, an invalid operand carries the reason it is invalid so the
+ * statement can decide whether that is an error.
+ *
+ * Valid operands are shared instances, so classification only creates an
+ * object for an invalid operand.
+ *
+ * @author readda
+ *
+ */
+public final class Operand {
+  /**
+   * The kinds of operand.
+   */
+  public enum Kind {
+    /**
+     * One of the variables A, B, or X.
+     */
+    REGISTER,
+
+    /**
+     * A mnemonic memory location name (P, DISPLAY, or INPUT).
+     */
+    MNEMONIC,
+
+    /**
+     * A numeric literal in the range 0-255.
+     */
+    LITERAL,
+
+    /**
+     * Not a usable operand.
+     */
+    INVALID
+  }
+
+  /**
+   * Reason given for text that is not a number.
+   */
+  public static final String NOT_A_NUMBER_REASON = "Value must be a decimal, "
+      + "octal (leading 0), or hexadecimal (leading 0x) integer (found: ";
+
+  /**
+   * Reason given for a number outside the range of a byte.
+   */
+  public static final String OUT_OF_RANGE_REASON = "Byte value must be in "
+      + "range 0-255 (decimal), 0-377 (octal), 0xFF (hexadecimal)";
+
+  /**
+   * Shared literal operands, indexed by value.
+   */
+  private static final Operand[] LITERALS;
+
+  /**
+   * Shared variable and mnemonic operands, indexed by keyword ordinal.
+   */
+  private static final Operand[] NAMED;
+
+  /**
+   * The kind of operand.
+   */
+  private final Kind kind;
+
+  /**
+   * The literal value or the memory location named by the operand.
+   */
+  private final int value;
+
+  /**
+   * The variable or mnemonic keyword, null for literals.
+   */
+  private final Keyword keyword;
+
+  /**
+   * Why the operand is invalid, null if valid.
+   */
+  private final String reason;
+
+  /**
+   * Create the shared operands.
+   */
+  static {
+    LITERALS = new Operand[ByteLiteral.MAX_VALUE + 1];
+    for (int value = 0; value < LITERALS.length; ++value) {
+      LITERALS[value] = new Operand(Kind.LITERAL, value, null, null);
+    }
+
+    Keyword[] keywords = Keyword.values();
+    NAMED = new Operand[keywords.length];
+    for (Keyword keyword : keywords) {
+      if (keyword.isMemoryLocation()) {
+        NAMED[keyword.ordinal()] = new Operand(
+            keyword.isVariable() ? Kind.REGISTER : Kind.MNEMONIC,
+            keyword.getMemoryLocation(), keyword, null);
+      }
+    }
+  }
+
+  /**
+   * Create an operand.
+   *
+   * @param kind
+   *          The kind of operand
+   * @param value
+   *          The literal value or memory location
+   * @param keyword
+   *          The variable or mnemonic keyword
+   * @param reason
+   *          Why the operand is invalid
+   */
+  private Operand(Kind kind, int value, Keyword keyword, String reason) {
+    this.kind = kind;
+    this.value = value;
+    this.keyword = keyword;
+    this.reason = reason;
+  }
+
+  /**
+   * Classify an operand lexeme.
+   *
+   * @param lexemes
+   *          The lexemes of a statement
+   * @param index
+   *          The index of the operand
+   * @return The operand
+   */
+  public static Operand classify(Lexemes lexemes, int index) {
+    Keyword named = lexemes.keyword(index);
+    if (named != null) {
+      Operand operand = NAMED[named.ordinal()];
+      return operand != null ? operand
+          : invalid(NOT_A_NUMBER_REASON + lexemes.get(index) + ")");
+    }
+
+    int literal = ByteLiteral.parse(lexemes, index);
+    if (literal >= 0) {
+      return LITERALS[literal];
+    } else if (literal == ByteLiteral.OUT_OF_RANGE) {
+      return invalid(OUT_OF_RANGE_REASON);
+    } else {
+      return invalid(NOT_A_NUMBER_REASON + lexemes.get(index) + ")");
+    }
+  }
+
+  /**
+   * Get the shared operand for a literal value.
+   *
+   * @param value
+   *          A byte value (0-255)
+   * @return The literal operand
+   */
+  public static Operand literal(int value) {
+    return LITERALS[value];
+  }
+
+  /**
+   * Create an invalid operand.
+   *
+   * @param reason
+   *          Why the operand is invalid
+   * @return The invalid operand
+   */
+  public static Operand invalid(String reason) {
+    return new Operand(Kind.INVALID, -1, null, reason);
+  }
+
+  /**
+   * Get the kind of operand.
+   *
+   * @return The operand kind
+   */
+  public Kind getKind() {
+    return kind;
+  }
+
+  /**
+   * Check whether the operand is one of the variables A, B, or X.
+   *
+   * @return True for a variable
+   */
+  public boolean isRegister() {
+    return kind == Kind.REGISTER;
+  }
+
+  /**
+   * Check whether the operand is a numeric literal.
+   *
+   * @return True for a literal
+   */
+  public boolean isLiteral() {
+    return kind == Kind.LITERAL;
+  }
+
+  /**
+   * Check whether the operand can be used as a memory location: a variable, a
+   * mnemonic name, or a literal address.
+   *
+   * @return True if the operand is a memory location
+   */
+  public boolean isMemoryLocation() {
+    return kind != Kind.INVALID;
+  }
+
+  /**
+   * Get the literal value, or the memory location named by a variable or
+   * mnemonic.
+   *
+   * @return The value (0-255), -1 if invalid
+   */
+  public int getValue() {
+    return value;
+  }
+
+  /**
+   * Get the variable or mnemonic keyword.
+   *
+   * @return The keyword, null if the operand is not named
+   */
+  public Keyword getKeyword() {
+    return keyword;
+  }
+
+  /**
+   * Get the reason the operand is invalid.
+   *
+   * @return The reason, null if the operand is valid
+   */
+  public String getReason() {
+    return reason;
+  }
+}
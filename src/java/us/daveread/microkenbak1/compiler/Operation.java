@@ -0,0 +1,108 @@
+package us.daveread.microkenbak1.compiler;
+
+/**
+ * The operation performed by a statement.
+ *
+ * @author readda
+ *
+ */
+public enum Operation {
+  /**
+   * Name a memory location as a jump target.
+   */
+  LABEL(Keyword.LABEL),
+
+  /**
+   * Assign a value, or the value in a memory location, to a variable.
+   */
+  LET(Keyword.LET),
+
+  /**
+   * Unconditional jump.
+   */
+  GOTO(Keyword.GOTO),
+
+  /**
+   * Call the microKENBAK-1 system functions.
+   */
+  SYSCALL(Keyword.SYSCALL),
+
+  /**
+   * Copy a variable to a memory location.
+   */
+  MEMCOPY(Keyword.MEMCOPY),
+
+  /**
+   * Bitwise AND of A with a value.
+   */
+  AND(Keyword.AND),
+
+  /**
+   * Bitwise OR of A with a value.
+   */
+  OR(Keyword.OR),
+
+  /**
+   * Add a value, or another variable, to a variable.
+   */
+  ADD(Keyword.ADD),
+
+  /**
+   * Subtract a value, or another variable, from a variable.
+   */
+  SUBTRACT(Keyword.SUBTRACT),
+
+  /**
+   * Conditional jump.
+   */
+  IF(Keyword.IF),
+
+  /**
+   * Stop execution.
+   */
+  HALT(Keyword.HALT),
+
+  /**
+   * Shift A or B left or right.
+   */
+  BITSHIFT(Keyword.BITSHIFT),
+
+  /**
+   * No operation.
+   */
+  NOOP(Keyword.NOOP),
+
+  /**
+   * Raw byte values placed directly in the program.
+   */
+  BYTES(Keyword.BYTES),
+
+  /**
+   * The statements of another source file spliced into the program.
+   */
+  INCLUDE(Keyword.INCLUDE);
+
+  /**
+   * The keyword beginning the statement.
+   */
+  private final Keyword keyword;
+
+  /**
+   * Create the operation.
+   *
+   * @param keyword
+   *          The keyword beginning the statement
+   */
+  Operation(Keyword keyword) {
+    this.keyword = keyword;
+  }
+
+  /**
+   * Get the keyword beginning the statement.
+   *
+   * @return The statement keyword
+   */
+  public Keyword getKeyword() {
+    return keyword;
+  }
+}
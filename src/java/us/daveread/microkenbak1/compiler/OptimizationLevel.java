@@ -0,0 +1,84 @@
+package us.daveread.microkenbak1.compiler;
+
+/**
+ * How much the compiler optimizes a program, chosen by a command line flag.
+ *
+ * @author readda
+ *
+ */
+public enum OptimizationLevel {
+  /**
+   * No optimization: the program is laid out as written.
+   */
+  O0("-O0", false),
+
+  /**
+   * Optimize for size, packing the program around the LED display address
+   * unless it uses its code or data by address.
+   */
+  OS("-Os", true),
+
+  /**
+   * Optimize for speed: also copy short blocks in place of the GOTOs jumping
+   * to them, and do not pack around the display address, so no jump over the
+   * display is added.
+   */
+  O2("-O2", false);
+
+  /**
+   * The command line flag.
+   */
+  private final String flag;
+
+  /**
+   * Whether the program is packed around the display address.
+   */
+  private final boolean packing;
+
+  /**
+   * Create a level.
+   *
+   * @param flag
+   *          The command line flag
+   * @param packing
+   *          Whether the program is packed around the display address
+   */
+  OptimizationLevel(String flag, boolean packing) {
+    this.flag = flag;
+    this.packing = packing;
+  }
+
+  /**
+   * Get the command line flag of the level.
+   *
+   * @return The flag (e.g. -O2)
+   */
+  public String getFlag() {
+    return flag;
+  }
+
+  /**
+   * Check whether programs are packed around the display address.
+   *
+   * @return True to pack programs
+   */
+  public boolean isPacking() {
+    return packing;
+  }
+
+  /**
+   * Find the level of a command line flag.
+   *
+   * @param flag
+   *          The flag
+   * @return The level, null if the argument is not an optimization flag
+   */
+  public static OptimizationLevel fromFlag(String flag) {
+    for (OptimizationLevel level : values()) {
+      if (level.flag.equals(flag)) {
+        return level;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,32 @@
+package us.daveread.microkenbak1.compiler;
+
+import java.util.List;
+
+/**
+ * A transformation of a program's statements, run by a {@link PassManager}
+ * after the program is parsed and before it is laid out. A pass returns the
+ * statements to use in place of the ones it was given, and explains each
+ * change it makes with an optimization remark.
+ *
+ * @author readda
+ *
+ */
+public interface OptimizationPass {
+  /**
+   * Get the name of the pass, as reported in remarks and timings.
+   *
+   * @return The name
+   */
+  String getName();
+
+  /**
+   * Optimize a program's statements.
+   *
+   * @param statements
+   *          The statements, in program order; the pass may change the list
+   * @param remarks
+   *          Collects a remark for each change made
+   * @return The optimized statements, in program order
+   */
+  List<Statement> run(List<Statement> statements, List<Diagnostic> remarks);
+}
@@ -0,0 +1,542 @@
+package us.daveread.microkenbak1.compiler;
+
+import java.util.Arrays;
+
+import us.daveread.microkenbak1.compiler.instruction.ByteContent;
+import us.daveread.microkenbak1.compiler.instruction.JumpInstruction;
+import us.daveread.microkenbak1.compiler.instruction.JumpType;
+import us.daveread.microkenbak1.compiler.instruction.Label;
+import us.daveread.microkenbak1.compiler.instruction.OperationInstruction;
+
+/**
+ * The operating codes of a laid out program, packed into parallel arrays
+ * rather than an object per program byte. Each entry is an operation (one
+ * byte), a jump (its operating code and destination address, two bytes), or a
+ * label (no bytes). The layout appends the entries of each statement in
+ * program order and resolves the jumps in place, and the instructions are
+ * written straight from the arrays.
+ *
+ * A statement is encoded once into a template: an int per entry holding its
+ * kind and operating code. The {@link ByteContent} classes are only created
+ * as a view of an entry, for callers that still use them.
+ *
+ * @author readda
+ *
+ */
+public final class PackedCode {
+  /**
+   * Kind of an operation entry.
+   */
+  public static final byte OPERATION = 0;
+
+  /**
+   * Kind of a jump entry.
+   */
+  public static final byte JUMP = 1;
+
+  /**
+   * Kind of a label entry.
+   */
+  public static final byte LABEL = 2;
+
+  /**
+   * Template of a statement without operating codes.
+   */
+  static final int[] NO_ENTRIES = new int[0];
+
+  /**
+   * Shift of the kind in a template entry, above the operating code.
+   */
+  private static final int KIND_SHIFT = 8;
+
+  /**
+   * Shift of the operand in a value, above the operating code.
+   */
+  private static final int OPERAND_SHIFT = 8;
+
+  /**
+   * Mask of the operating code in a template entry or value.
+   */
+  private static final int OP_CODE_MASK = 0377;
+
+  /**
+   * The kind of each entry.
+   */
+  private byte[] kinds;
+
+  /**
+   * The operating code of each entry, with the operand above it: the
+   * destination of a jump, or 1 for a label that is jumped to.
+   */
+  private int[] values;
+
+  /**
+   * The address of each entry.
+   */
+  private int[] addresses;
+
+  /**
+   * The label id of each jump or label entry, -1 for operations.
+   */
+  private int[] labelIds;
+
+  /**
+   * The number of entries.
+   */
+  private int size;
+
+  /**
+   * The label names of the program.
+   */
+  private final SymbolTable symbols;
+
+  /**
+   * Create an empty program.
+   *
+   * @param symbols
+   *          The label names of the program
+   */
+  public PackedCode(SymbolTable symbols) {
+    this.symbols = symbols;
+    kinds = new byte[16];
+    values = new int[16];
+    addresses = new int[16];
+    labelIds = new int[16];
+  }
+
+  /**
+   * Create a copy of another program's code.
+   *
+   * @param other
+   *          The code to copy
+   */
+  private PackedCode(PackedCode other) {
+    symbols = other.symbols.copy();
+    kinds = Arrays.copyOf(other.kinds, other.size);
+    values = Arrays.copyOf(other.values, other.size);
+    addresses = Arrays.copyOf(other.addresses, other.size);
+    labelIds = Arrays.copyOf(other.labelIds, other.size);
+    size = other.size;
+  }
+
+  /**
+   * Encode a statement into its template.
+   *
+   * @param node
+   *          The parsed statement, null for a placeholder
+   * @return An entry per operating code: the kind above the operating code
+   */
+  static int[] encode(StatementNode node) {
+    if (node == null) {
+      return NO_ENTRIES;
+    }
+
+    switch (node.getOperation()) {
+      case LABEL:
+        return new int[] {entry(LABEL, 0) };
+      case LET:
+      case ADD:
+      case SUBTRACT:
+        return instruction(InstructionSet.opCode(node.getOperation(),
+            node.getVariable(), node.isIndirect() ? InstructionSet.Mode.MEMORY
+                : InstructionSet.Mode.IMMEDIATE), node.getOperand());
+      case GOTO:
+        return new int[] {entry(JUMP, InstructionSet.opCode(Operation.GOTO,
+            null, InstructionSet.Mode.IMPLIED)) };
+      case MEMCOPY:
+        return instruction(InstructionSet.opCode(Operation.MEMCOPY,
+            node.getVariable(), node.isIndirect()
+                ? InstructionSet.Mode.INDIRECT : InstructionSet.Mode.MEMORY),
+            node.getOperand());
+      case AND:
+      case OR:
+        return instruction(InstructionSet.opCode(node.getOperation(), null,
+            InstructionSet.Mode.IMMEDIATE), node.getOperand());
+      case IF:
+        if (node.getCondition() == Keyword.OVERFLOW) {
+          // Skip the jump if no overflow (e.g. carry flag is 0)
+          JumpType flag = overflowFlag(node.getVariable());
+          return new int[] {entry(OPERATION, InstructionSet.skip(1, 0)),
+            entry(OPERATION, flag.getOpCode()),
+            entry(JUMP, InstructionSet.opCode(Operation.GOTO, null,
+                InstructionSet.Mode.IMPLIED)) };
+        }
+        return new int[] {entry(JUMP,
+            InstructionSet.jump(node.getVariable(), node.getCondition())) };
+      case SYSCALL:
+      case HALT:
+      case NOOP:
+        return instruction(InstructionSet.opCode(node.getOperation(), null,
+            InstructionSet.Mode.IMPLIED));
+      case BITSHIFT:
+        return instruction(InstructionSet.shift(node.getVariable(),
+            node.getCondition(), node.getCount()));
+      case BYTES:
+        int[] template = new int[node.getValueCount()];
+        for (int index = 0; index < template.length; ++index) {
+          template[index] = entry(OPERATION, node.getValue(index));
+        }
+        return template;
+      case INCLUDE:
+        // The included statements generate the OpCodes
+        return NO_ENTRIES;
+      default:
+        throw new IllegalStateException(
+            "Undefined operation: " + node.getOperation());
+    }
+  }
+
+  /**
+   * Get the kind of a template entry.
+   *
+   * @param entry
+   *          The template entry
+   * @return {@link #OPERATION}, {@link #JUMP}, or {@link #LABEL}
+   */
+  static byte kind(int entry) {
+    return (byte) (entry >>> KIND_SHIFT);
+  }
+
+  /**
+   * Get the number of memory cells a template entry occupies.
+   *
+   * @param entry
+   *          The template entry
+   * @return The number of memory cells
+   */
+  static int cells(int entry) {
+    return cellsOf(kind(entry));
+  }
+
+  /**
+   * Get the number of memory cells a template occupies.
+   *
+   * @param template
+   *          The template
+   * @return The number of memory cells
+   */
+  static int cells(int[] template) {
+    int cells = 0;
+    for (int entry : template) {
+      cells += cells(entry);
+    }
+    return cells;
+  }
+
+  /**
+   * Get a view of a template entry that has not been laid out.
+   *
+   * @param entry
+   *          The template entry
+   * @param name
+   *          The label name of the statement, null if none
+   * @return The operating code, at memory location 0
+   */
+  static ByteContent view(int entry, String name) {
+    int opCode = entry & OP_CODE_MASK;
+    switch (kind(entry)) {
+      case JUMP:
+        return new JumpInstruction(jumpType(opCode), name);
+      case LABEL:
+        return new Label(name);
+      default:
+        return new OperationInstruction(opCode);
+    }
+  }
+
+  /**
+   * Add the entries of a statement.
+   *
+   * @param template
+   *          The statement's template
+   * @param labelId
+   *          The id of the statement's label name, -1 if none
+   * @param address
+   *          The address of the first entry
+   * @return The address just past the statement
+   */
+  int append(int[] template, int labelId, int address) {
+    if (size + template.length > kinds.length) {
+      int capacity = Math.max(size + template.length, kinds.length * 2);
+      kinds = Arrays.copyOf(kinds, capacity);
+      values = Arrays.copyOf(values, capacity);
+      addresses = Arrays.copyOf(addresses, capacity);
+      labelIds = Arrays.copyOf(labelIds, capacity);
+    }
+
+    for (int entry : template) {
+      byte kind = kind(entry);
+      kinds[size] = kind;
+      values[size] = entry & OP_CODE_MASK;
+      addresses[size] = address;
+      labelIds[size] = kind == OPERATION ? -1 : labelId;
+      address += cellsOf(kind);
+      ++size;
+    }
+    return address;
+  }
+
+  /**
+   * Remove the entries from an index onward.
+   *
+   * @param newSize
+   *          The number of entries kept
+   */
+  void truncate(int newSize) {
+    size = Math.min(size, newSize);
+  }
+
+  /**
+   * Copy the entries and label names, so the copy is unaffected by the
+   * program being laid out again.
+   *
+   * @return The copy
+   */
+  PackedCode copy() {
+    return new PackedCode(this);
+  }
+
+  /**
+   * Get the number of entries.
+   *
+   * @return The number of entries
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the kind of an entry.
+   *
+   * @param index
+   *          The entry index
+   * @return {@link #OPERATION}, {@link #JUMP}, or {@link #LABEL}
+   */
+  public byte getKind(int index) {
+    return kinds[index];
+  }
+
+  /**
+   * Get the operating code of an operation or jump.
+   *
+   * @param index
+   *          The entry index
+   * @return The operating code
+   */
+  public int getOpCode(int index) {
+    return values[index] & OP_CODE_MASK;
+  }
+
+  /**
+   * Get the destination address of a jump.
+   *
+   * @param index
+   *          The entry index
+   * @return The destination address, 0 until resolved
+   */
+  public int getDestination(int index) {
+    return values[index] >>> OPERAND_SHIFT;
+  }
+
+  /**
+   * Set the destination address of a jump.
+   *
+   * @param index
+   *          The entry index
+   * @param destination
+   *          The destination address
+   */
+  void setDestination(int index, int destination) {
+    values[index] = getOpCode(index) | destination << OPERAND_SHIFT;
+  }
+
+  /**
+   * Check whether a label is jumped to.
+   *
+   * @param index
+   *          The entry index
+   * @return True if the label is used
+   */
+  public boolean isUsed(int index) {
+    return values[index] >>> OPERAND_SHIFT != 0;
+  }
+
+  /**
+   * Record whether a label is jumped to.
+   *
+   * @param index
+   *          The entry index
+   * @param used
+   *          True if the label is used
+   */
+  void setUsed(int index, boolean used) {
+    values[index] = used ? 1 << OPERAND_SHIFT : 0;
+  }
+
+  /**
+   * Get the address of an entry.
+   *
+   * @param index
+   *          The entry index
+   * @return The address
+   */
+  public int getAddress(int index) {
+    return addresses[index];
+  }
+
+  /**
+   * Get the number of memory cells an entry occupies.
+   *
+   * @param index
+   *          The entry index
+   * @return The number of memory cells
+   */
+  public int getCells(int index) {
+    return cellsOf(kinds[index]);
+  }
+
+  /**
+   * Get the label name of a jump or label.
+   *
+   * @param index
+   *          The entry index
+   * @return The name, null for an operation
+   */
+  public String getName(int index) {
+    return labelIds[index] < 0 ? null : symbols.getName(labelIds[index]);
+  }
+
+  /**
+   * Get the label id of a jump or label.
+   *
+   * @param index
+   *          The entry index
+   * @return The id in the program's symbol table, -1 for an operation
+   */
+  public int getLabelId(int index) {
+    return labelIds[index];
+  }
+
+  /**
+   * Get the label names of the program.
+   *
+   * @return The symbol table
+   */
+  public SymbolTable getSymbols() {
+    return symbols;
+  }
+
+  /**
+   * Get a view of an entry as laid out.
+   *
+   * @param index
+   *          The entry index
+   * @return A new operating code with the entry's address, and destination
+   *         or use
+   */
+  public ByteContent view(int index) {
+    ByteContent opCode;
+    switch (kinds[index]) {
+      case JUMP:
+        JumpInstruction jump = new JumpInstruction(
+            jumpType(getOpCode(index)), getName(index));
+        jump.setDestinationAddress(getDestination(index));
+        opCode = jump;
+        break;
+      case LABEL:
+        Label label = new Label(getName(index));
+        label.setUsed(isUsed(index));
+        opCode = label;
+        break;
+      default:
+        opCode = new OperationInstruction(getOpCode(index));
+        break;
+    }
+    opCode.setLocation(addresses[index]);
+    return opCode;
+  }
+
+  /**
+   * Get the number of memory cells an entry of a kind occupies.
+   *
+   * @param kind
+   *          The entry kind
+   * @return The number of memory cells
+   */
+  private static int cellsOf(byte kind) {
+    return kind == JUMP ? InstructionSet.JUMP_CELLS : kind == LABEL ? 0 : 1;
+  }
+
+  /**
+   * Create a template entry.
+   *
+   * @param kind
+   *          The entry kind
+   * @param opCode
+   *          The operating code
+   * @return The entry
+   */
+  private static int entry(byte kind, int opCode) {
+    return kind << KIND_SHIFT | opCode;
+  }
+
+  /**
+   * Create the template of an instruction: its operating code, followed by
+   * the bytes after it.
+   *
+   * @param opCode
+   *          The operating code
+   * @param operands
+   *          The bytes after the operating code
+   * @return The template
+   */
+  private static int[] instruction(int opCode, int... operands) {
+    int[] template = new int[InstructionSet.cells(opCode)];
+    if (template.length != operands.length + 1) {
+      throw new IllegalStateException("Incorrect number of operands for "
+          + InstructionSet.name(opCode) + ": " + operands.length);
+    }
+    template[0] = entry(OPERATION, opCode);
+    for (int index = 0; index < operands.length; ++index) {
+      template[index + 1] = entry(OPERATION, operands[index]);
+    }
+    return template;
+  }
+
+  /**
+   * Get the jump type with an operating code.
+   *
+   * @param opCode
+   *          The operating code
+   * @return The jump type
+   */
+  private static JumpType jumpType(int opCode) {
+    for (JumpType type : JumpType.values()) {
+      if (type.getOpCode() == opCode) {
+        return type;
+      }
+    }
+    throw new IllegalStateException("Undefined jump: " + opCode);
+  }
+
+  /**
+   * Get the overflow flag of a variable, tested by an IF.
+   *
+   * @param variable
+   *          A, B, or X
+   * @return The jump type, whose value is the address of the flag
+   */
+  private static JumpType overflowFlag(Keyword variable) {
+    switch (variable) {
+      case A:
+        return JumpType.A_OVERFLOW;
+      case B:
+        return JumpType.B_OVERFLOW;
+      case X:
+        return JumpType.X_OVERFLOW;
+      default:
+        throw new IllegalStateException(
+            "Undefined variable name for IF: " + variable.getText());
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package us.daveread.microkenbak1.compiler;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Creates the statements for every line of a source on a fork/join pool.
+ * Statements are independent of one another, so the lines are split into
+ * chunks that are tokenized and parsed in parallel, each chunk with its own
+ * tokenizer. The statements are returned indexed by line so they can be added
+ * to a program in source order; memory layout and label resolution remain
+ * sequential.
+ *
+ * A statement that cannot be parsed is returned as a placeholder carrying its
+ * error, so the caller decides whether to stop at the first error or recover.
+ *
+ * @author readda
+ *
+ */
+public class ParallelParser {
+  /**
+   * The default number of lines parsed by one task.
+   */
+  public static final int DEFAULT_CHUNK_LINES = 2048;
+
+  /**
+   * The pool the chunks are parsed on.
+   */
+  private final ForkJoinPool pool;
+
+  /**
+   * The most lines parsed by one task.
+   */
+  private final int chunkLines;
+
+  /**
+   * Create a parser using the common pool and the default chunk size.
+   */
+  public ParallelParser() {
+    this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_LINES);
+  }
+
+  /**
+   * Create a parser.
+   *
+   * @param pool
+   *          The pool the chunks are parsed on
+   * @param chunkLines
+   *          The most lines parsed by one task
+   */
+  public ParallelParser(ForkJoinPool pool, int chunkLines) {
+    if (chunkLines < 1) {
+      throw new IllegalArgumentException(
+          "Chunk size must be at least one line (found: " + chunkLines + ")");
+    }
+    this.pool = pool;
+    this.chunkLines = chunkLines;
+  }
+
+  /**
+   * Create the statement for every line of a source.
+   *
+   * @param source
+   *          The source code
+   * @return The statements indexed by line (0-based), null for lines without
+   *         a statement, placeholders for statements that cannot be parsed
+   */
+  public Statement[] parse(SourceText source) {
+    Statement[] statements = new Statement[source.getLineCount()];
+    pool.invoke(new Chunk(source, statements, 0, statements.length));
+    return statements;
+  }
+
+  /**
+   * Parses a range of lines, splitting it in two while it is larger than a
+   * chunk.
+   */
+  private final class Chunk extends RecursiveAction {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The source code.
+     */
+    private final SourceText source;
+
+    /**
+     * The statements, indexed by line.
+     */
+    private final Statement[] statements;
+
+    /**
+     * The first line of the range.
+     */
+    private final int from;
+
+    /**
+     * The line just past the range.
+     */
+    private final int to;
+
+    /**
+     * Create the task.
+     *
+     * @param source
+     *          The source code
+     * @param statements
+     *          The statements, indexed by line
+     * @param from
+     *          The first line of the range
+     * @param to
+     *          The line just past the range
+     */
+    Chunk(SourceText source, Statement[] statements, int from, int to) {
+      this.source = source;
+      this.statements = statements;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > chunkLines) {
+        int middle = (from + to) >>> 1;
+        invokeAll(new Chunk(source, statements, from, middle),
+            new Chunk(source, statements, middle, to));
+        return;
+      }
+
+      Tokenizer tokenizer = new Tokenizer();
+      char[] buffer = source.getBuffer();
+      for (int line = from; line < to; ++line) {
+        int start = source.lineStart(line);
+        Lexemes lexemes = tokenizer.tokenize(buffer, start,
+            source.lineEnd(line));
+        if (lexemes != null) {
+          statements[line] = Parser.makeStatementOrPlaceholder(lexemes,
+              line + 1, start);
+        }
+      }
+    }
+  }
+}
@@ -1,7 +1,6 @@
 package us.daveread.microkenbak1.compiler;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.File;
 
 /**
  * Parse a program for the KENBAK-1 and output file for serial upload.
@@ -33,11 +32,17 @@ public class Parser {
    */
   private Program program;
 
+  /**
+   * Splits each source line into lexemes.
+   */
+  private Tokenizer tokenizer;
+
   /**
    * Initialize an empty program.
    */
   public Parser() {
     program = new Program();
+    tokenizer = new Tokenizer();
   }
 
   /**
@@ -47,29 +52,91 @@ public class Parser {
    *          A single statement (source code line)
    */
   public void parse(String statement) {
-    statement = statement.trim();
-    String[] splitStatement = statement.split(" ");
-
-    // Remove any empty lexemes
-    List<String> packedStatement = new ArrayList<>();
-
-    // Remove blank lexemes
-    for (String s : splitStatement) {
-      // Comments start with # (can be anywhere on the statement line
-      if (s.trim().startsWith("#")) {
-        break;
-      }
-
-      if (s.trim().length() > 0) {
-        packedStatement.add(s);
-      }
+    char[] buffer = statement.toCharArray();
+    parse(buffer, 0, buffer.length);
+  }
+
+  /**
+   * Parse a statement held in a larger buffer and add it to the end of the
+   * program. The statement refers to the buffer, which must not be changed
+   * afterward.
+   * 
+   * @param buffer
+   *          The buffer holding the source code
+   * @param start
+   *          The offset of the first character of the line
+   * @param end
+   *          The offset just past the last character of the line
+   */
+  public void parse(char[] buffer, int start, int end) {
+    parse(buffer, start, end, 0);
+  }
+
+  /**
+   * Parse a statement held in a larger buffer and add it to the end of the
+   * program, recording the source line it came from. When recovering, a
+   * statement that cannot be parsed is recorded as a diagnostic and replaced
+   * by a placeholder; otherwise the IllegalStateException is thrown.
+   * 
+   * @param buffer
+   *          The buffer holding the source code
+   * @param start
+   *          The offset of the first character of the line
+   * @param end
+   *          The offset just past the last character of the line
+   * @param line
+   *          The source line (1-based), 0 if unknown
+   */
+  public void parse(char[] buffer, int start, int end, int line) {
+    Lexemes lexemes = tokenizer.tokenize(buffer, start, end);
+
+    if (lexemes == null) {
+      return;
     }
 
-    if (packedStatement.size() > 0) {
-      Statement stmt = makeStatement(
-          packedStatement.toArray(new String[packedStatement.size()]));
-      program.addStatement(stmt);
+    Statement stmt;
+    if (program.isRecovering()) {
+      stmt = makeStatementOrPlaceholder(lexemes, line, start);
+    } else {
+      stmt = makeStatement(lexemes);
+      stmt.setSource(line, start);
     }
+
+    add(stmt);
+  }
+
+  /**
+   * Add a statement that has already been created to the end of the program.
+   * The error of a placeholder is reported by the program's diagnostics. An
+   * INCLUDE statement is followed by the statements of the file it includes.
+   * 
+   * @param stmt
+   *          The statement
+   */
+  public void add(Statement stmt) {
+    program.addStatement(stmt);
+  }
+
+  /**
+   * Set whether statements that cannot be parsed, and errors found laying out
+   * the program, are recorded as diagnostics with parsing continuing.
+   * 
+   * @param recovering
+   *          True to record errors and continue
+   */
+  public void setRecovering(boolean recovering) {
+    program.setRecovering(recovering);
+  }
+
+  /**
+   * Set the file the program is read from, which INCLUDE statements are
+   * relative to.
+   * 
+   * @param sourceFile
+   *          The source file
+   */
+  public void setSourceFile(File sourceFile) {
+    program.setSourceFile(sourceFile);
   }
 
   /**
@@ -80,10 +147,46 @@ public class Parser {
    * @return The statement
    */
   public Statement makeStatement(String[] lexemes) {
+    return makeStatement(Lexemes.of(lexemes));
+  }
+
+  /**
+   * Create a statement from the lexemes found in the input line.
+   * 
+   * @param lexemes
+   *          The lexemes taken from the input statement
+   * @return The statement
+   */
+  public Statement makeStatement(Lexemes lexemes) {
     Statement stmt = new Statement(lexemes);
     return stmt;
   }
 
+  /**
+   * Create a statement from the lexemes found in an input line, or a
+   * placeholder if the statement cannot be parsed. This does not use the
+   * parser's state, so it may be called from any thread.
+   * 
+   * @param lexemes
+   *          The lexemes taken from the input statement
+   * @param line
+   *          The source line (1-based), 0 if unknown
+   * @param lineStart
+   *          The offset of the start of the line within the lexeme buffer
+   * @return The statement or placeholder
+   */
+  static Statement makeStatementOrPlaceholder(Lexemes lexemes, int line,
+      int lineStart) {
+    Statement stmt;
+    try {
+      stmt = new Statement(lexemes);
+      stmt.setSource(line, lineStart);
+    } catch (IllegalStateException ise) {
+      stmt = Statement.placeholder(lexemes, line, lineStart, ise);
+    }
+    return stmt;
+  }
+
   /**
    * Get the program created from the parsed input.
    * 
@@ -0,0 +1,223 @@
+package us.daveread.microkenbak1.compiler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs an ordered list of {@link OptimizationPass optimization passes} over a
+ * program between parsing and layout. The time each pass takes and the bytes
+ * it saves are recorded, and its remarks, with a summary of what it saved, are
+ * added to the program's diagnostics so they appear in the HTML listing.
+ *
+ * @author readda
+ *
+ */
+public final class PassManager {
+  /**
+   * The logger.
+   */
+  private static final Logger LOG;
+
+  /**
+   * Set up the logger instance.
+   */
+  static {
+    LOG = Logger.getLogger(PassManager.class);
+  }
+
+  /**
+   * The passes, in the order they run.
+   */
+  private final List<OptimizationPass> passes;
+
+  /**
+   * Whether the optimized program is packed around the display address.
+   */
+  private final boolean packing;
+
+  /**
+   * What each pass did in the last run.
+   */
+  private final List<Result> results;
+
+  /**
+   * What a pass did to a program.
+   */
+  public static final class Result {
+    /**
+     * The name of the pass.
+     */
+    private final String name;
+
+    /**
+     * The wall time the pass took, in nanoseconds.
+     */
+    private final long nanos;
+
+    /**
+     * The number of bytes saved.
+     */
+    private final int savedBytes;
+
+    /**
+     * Record what a pass did.
+     *
+     * @param name
+     *          The name of the pass
+     * @param nanos
+     *          The wall time the pass took, in nanoseconds
+     * @param savedBytes
+     *          The number of bytes saved
+     */
+    Result(String name, long nanos, int savedBytes) {
+      this.name = name;
+      this.nanos = nanos;
+      this.savedBytes = savedBytes;
+    }
+
+    /**
+     * Get the name of the pass.
+     *
+     * @return The name
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Get the wall time the pass took.
+     *
+     * @return The time in nanoseconds
+     */
+    public long getNanos() {
+      return nanos;
+    }
+
+    /**
+     * Get the number of bytes the pass saved.
+     *
+     * @return The bytes saved, negative if the program grew
+     */
+    public int getSavedBytes() {
+      return savedBytes;
+    }
+  }
+
+  /**
+   * Create a pass manager.
+   *
+   * @param passes
+   *          The passes, in the order they run
+   * @param packing
+   *          Whether the optimized program is packed around the display
+   *          address
+   */
+  public PassManager(List<OptimizationPass> passes, boolean packing) {
+    this.passes = new ArrayList<>(passes);
+    this.packing = packing;
+    results = new ArrayList<>();
+  }
+
+  /**
+   * Create the pass manager for an optimization level. -Os packs the program
+   * around the display address; -O2 does not pack, and copies short blocks
+   * in place of the GOTOs jumping to them, so fewer jumps are taken.
+   *
+   * @param level
+   *          The optimization level
+   * @return The pass manager
+   */
+  public static PassManager forLevel(OptimizationLevel level) {
+    List<OptimizationPass> passes = new ArrayList<>();
+    if (level != OptimizationLevel.O0) {
+      passes.add(new JumpThreading());
+      if (level == OptimizationLevel.O2) {
+        passes.add(new TailDuplication());
+      }
+      passes.add(new DeadCodeElimination());
+      passes.add(new PeepholeOptimizer());
+    }
+    return new PassManager(passes, level.isPacking());
+  }
+
+  /**
+   * Get the passes.
+   *
+   * @return The passes in the order they run, which cannot be changed
+   */
+  public List<OptimizationPass> getPasses() {
+    return Collections.unmodifiableList(passes);
+  }
+
+  /**
+   * Optimize a program. Its statements are replaced by the optimized ones,
+   * and it is laid out again when next used. A program that uses its code or
+   * data by address is left as written, with a warning, since the passes and
+   * packing move code.
+   *
+   * @param program
+   *          The program
+   */
+  public void run(Program program) {
+    results.clear();
+    List<Statement> statements = program.getProgramStatements();
+    int dependence = BlockPacker.findAddressDependence(statements);
+    if (dependence >= 0) {
+      program.addDiagnostic(Diagnostic.of(Diagnostic.Code.ADDRESS_DEPENDENT,
+          statements.get(dependence), -1, "Statement uses code or data by "
+              + "address, so the program is not optimized"));
+      LOG.info("Program not optimized: it uses code or data by address");
+      return;
+    }
+    for (OptimizationPass pass : passes) {
+      List<Diagnostic> remarks = new ArrayList<>();
+      int before = cells(statements);
+      long start = System.nanoTime();
+      statements = pass.run(statements, remarks);
+      long nanos = System.nanoTime() - start;
+      int saved = before - cells(statements);
+
+      results.add(new Result(pass.getName(), nanos, saved));
+      LOG.info("Optimization pass " + pass.getName() + " saved " + saved
+          + " bytes in " + nanos / 1000 + " microseconds");
+      for (Diagnostic remark : remarks) {
+        program.addDiagnostic(remark);
+      }
+      program.addDiagnostic(new Diagnostic(
+          Diagnostic.Code.OPTIMIZATION_REMARK, 0, 0, 0, "Pass "
+              + pass.getName() + " saved " + saved + " bytes"));
+    }
+    program.replaceStatements(statements);
+    if (packing) {
+      program.setPacking(true);
+    }
+  }
+
+  /**
+   * Get what each pass did in the last run.
+   *
+   * @return A result per pass, in the order they ran
+   */
+  public List<Result> getResults() {
+    return Collections.unmodifiableList(results);
+  }
+
+  /**
+   * Count the memory cells of statements, without the jump around the
+   * display address.
+   *
+   * @param statements
+   *          The statements
+   * @return The number of memory cells
+   */
+  private static int cells(List<Statement> statements) {
+    int cells = 0;
+    for (Statement stmt : statements) {
+      cells += stmt.getMemoryCells();
+    }
+    return cells;
+  }
+}
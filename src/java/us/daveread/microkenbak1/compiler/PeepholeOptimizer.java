@@ -0,0 +1,339 @@
+package us.daveread.microkenbak1.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An optimization pass rewriting short runs of adjacent statements into
+ * shorter equivalents, driven by a table of rules. A window slides over the
+ * statements, and the first rule matching the window replaces it; sweeps are
+ * repeated until no rule matches. Labels match no rule, so a window never
+ * spans a place control can jump to.
+ *
+ * Some rules drop the overflow flag an ADD or SUBTRACT would set, and only
+ * match where liveness shows the flag is not read before it is next set.
+ * Once one of these has matched, the liveness of the sweep is out of date,
+ * so they wait for the next sweep.
+ *
+ * A program that may jump to a computed address is left unchanged, since
+ * shortening a statement moves the code after it.
+ *
+ * @author readda
+ *
+ */
+public final class PeepholeOptimizer implements OptimizationPass {
+  /**
+   * The most a value can be shifted by one BITSHIFT.
+   */
+  private static final int MAX_SHIFT = 4;
+
+  /**
+   * The largest byte value.
+   */
+  private static final int BYTE_MASK = 0377;
+
+  /**
+   * Rewrites a window of statements.
+   */
+  @FunctionalInterface
+  interface Rewrite {
+    /**
+     * Rewrite the window, if the rule matches it.
+     *
+     * @param window
+     *          The statements in the window
+     * @param live
+     *          The variables live after the window, a bit per variable
+     * @return The statements replacing the window, null if the rule does not
+     *         match
+     */
+    StatementNode[] rewrite(StatementNode[] window, int live);
+  }
+
+  /**
+   * A peephole rule.
+   */
+  private static final class Rule {
+    /**
+     * The name of the rule, as reported in remarks.
+     */
+    private final String name;
+
+    /**
+     * The number of statements in the window.
+     */
+    private final int width;
+
+    /**
+     * Whether the rule reads the liveness of the variables.
+     */
+    private final boolean liveness;
+
+    /**
+     * The rewrite.
+     */
+    private final Rewrite rewrite;
+
+    /**
+     * Create a rule.
+     *
+     * @param name
+     *          The name of the rule
+     * @param width
+     *          The number of statements in the window
+     * @param liveness
+     *          Whether the rule reads the liveness of the variables
+     * @param rewrite
+     *          The rewrite
+     */
+    Rule(String name, int width, boolean liveness, Rewrite rewrite) {
+      this.name = name;
+      this.width = width;
+      this.liveness = liveness;
+      this.rewrite = rewrite;
+    }
+  }
+
+  /**
+   * The rules, in the order they are tried.
+   */
+  private static final List<Rule> RULES;
+
+  /**
+   * Build the table.
+   */
+  static {
+    RULES = new ArrayList<>();
+
+    RULES.add(new Rule("noop", 1, false,
+        (w, live) -> is(w[0], Operation.NOOP) ? none() : null));
+    RULES.add(new Rule("and-all", 1, false,
+        (w, live) -> isImmediate(w[0], Operation.AND)
+            && w[0].getOperand() == BYTE_MASK ? none() : null));
+    RULES.add(new Rule("or-zero", 1, false,
+        (w, live) -> isImmediate(w[0], Operation.OR)
+            && w[0].getOperand() == 0 ? none() : null));
+    RULES.add(new Rule("add-zero", 1, true,
+        (w, live) -> (isImmediate(w[0], Operation.ADD)
+            || isImmediate(w[0], Operation.SUBTRACT))
+            && w[0].getOperand() == 0 && isFlagDead(w[0], live) ? none()
+                : null));
+
+    RULES.add(new Rule("let-add", 2, true, (w, live) -> {
+      if (!isImmediate(w[0], Operation.LET) || w[1] == null
+          || w[1].getVariable() != w[0].getVariable()
+          || !isFlagDead(w[1], live)) {
+        return null;
+      }
+      int value;
+      if (isImmediate(w[1], Operation.ADD)) {
+        value = w[0].getOperand() + w[1].getOperand();
+      } else if (isImmediate(w[1], Operation.SUBTRACT)) {
+        value = w[0].getOperand() - w[1].getOperand();
+      } else {
+        return null;
+      }
+      return new StatementNode[] {
+        StatementNode.let(w[0].getVariable(), value & BYTE_MASK, false) };
+    }));
+    RULES.add(new Rule("let-let", 2, false,
+        (w, live) -> is(w[0], Operation.LET) && is(w[1], Operation.LET)
+            && w[1].getVariable() == w[0].getVariable()
+            && (Dataflow.uses(w[1])
+                & 1 << w[0].getVariable().getMemoryLocation()) == 0
+                    ? new StatementNode[] {w[1] } : null));
+    RULES.add(new Rule("memcopy-repeat", 2, false,
+        (w, live) -> is(w[0], Operation.MEMCOPY) && !w[0].isIndirect()
+            && w[0].getOperand() != MemoryImage.PROGRAM_COUNTER_ADDRESS
+            && w[0].equals(w[1]) ? new StatementNode[] {w[0] } : null));
+    RULES.add(new Rule("shift-merge", 2, false,
+        (w, live) -> is(w[0], Operation.BITSHIFT) && is(w[1],
+            Operation.BITSHIFT) && w[1].getVariable() == w[0].getVariable()
+            && w[1].getCondition() == w[0].getCondition()
+            && w[0].getCount() + w[1].getCount() <= MAX_SHIFT
+                ? new StatementNode[] {StatementNode.bitshift(
+                    w[0].getVariable(), w[0].getCondition(),
+                    w[0].getCount() + w[1].getCount()) } : null));
+  }
+
+  @Override
+  public String getName() {
+    return "peephole";
+  }
+
+  @Override
+  public List<Statement> run(List<Statement> statements,
+      List<Diagnostic> remarks) {
+    if (new ControlFlowGraph(statements).hasComputedJumps()) {
+      return statements;
+    }
+
+    List<Statement> current = statements;
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      int[] live = Dataflow.liveAfter(new ControlFlowGraph(current));
+      boolean liveValid = true;
+      List<Statement> next = new ArrayList<>(current.size());
+      int index = 0;
+      while (index < current.size()) {
+        Rule matched = null;
+        StatementNode[] replacement = null;
+        for (Rule rule : RULES) {
+          if (index + rule.width > current.size()
+              || rule.liveness && !liveValid) {
+            continue;
+          }
+          replacement = rule.rewrite.rewrite(
+              window(current, index, rule.width),
+              live[index + rule.width - 1]);
+          if (replacement != null) {
+            matched = rule;
+            break;
+          }
+        }
+        if (matched == null) {
+          next.add(current.get(index++));
+          continue;
+        }
+
+        List<Statement> replaced = current.subList(index,
+            index + matched.width);
+        remarks.add(remark(matched, replaced, replacement));
+        for (StatementNode node : replacement) {
+          next.add(statement(node, replaced));
+        }
+        index += matched.width;
+        liveValid &= !matched.liveness;
+        changed = true;
+      }
+      current = next;
+    }
+    return current;
+  }
+
+  /**
+   * Get the nodes of a window of statements.
+   *
+   * @param statements
+   *          The statements
+   * @param start
+   *          The first statement of the window
+   * @param width
+   *          The number of statements in the window
+   * @return The nodes, null for a statement that did not parse
+   */
+  private static StatementNode[] window(List<Statement> statements,
+      int start, int width) {
+    StatementNode[] window = new StatementNode[width];
+    for (int index = 0; index < width; ++index) {
+      window[index] = statements.get(start + index).getNode();
+    }
+    return window;
+  }
+
+  /**
+   * Get the statement for a node of a replacement: the statement replaced if
+   * the rule kept it, otherwise a new statement at the line of the first
+   * statement replaced.
+   *
+   * @param node
+   *          The node
+   * @param replaced
+   *          The statements replaced
+   * @return The statement
+   */
+  private static Statement statement(StatementNode node,
+      List<Statement> replaced) {
+    for (Statement stmt : replaced) {
+      if (stmt.getNode() == node) {
+        return stmt;
+      }
+    }
+    Statement stmt = new Statement(node);
+    stmt.setLine(replaced.get(0).getLine());
+    return stmt;
+  }
+
+  /**
+   * Explain a rewrite.
+   *
+   * @param rule
+   *          The rule matched
+   * @param replaced
+   *          The statements replaced
+   * @param replacement
+   *          The statements replacing them
+   * @return The remark, at the first statement replaced
+   */
+  private static Diagnostic remark(Rule rule, List<Statement> replaced,
+      StatementNode[] replacement) {
+    StringBuilder message = new StringBuilder("Peephole rule ")
+        .append(rule.name).append(": ");
+    for (int index = 0; index < replaced.size(); ++index) {
+      message.append(index == 0 ? "" : "; ")
+          .append(replaced.get(index).getFormattedStatement().trim());
+    }
+    if (replacement.length == 0) {
+      message.append(" removed");
+    } else {
+      message.append(" replaced by ");
+      for (int index = 0; index < replacement.length; ++index) {
+        message.append(index == 0 ? "" : "; ").append(replacement[index]);
+      }
+    }
+    return Diagnostic.of(Diagnostic.Code.OPTIMIZATION_REMARK, replaced.get(0),
+        -1, message.toString());
+  }
+
+  /**
+   * Check a statement's operation.
+   *
+   * @param node
+   *          The statement, null if it did not parse
+   * @param operation
+   *          The operation
+   * @return True if the statement parsed and performs the operation
+   */
+  private static boolean is(StatementNode node, Operation operation) {
+    return node != null && node.getOperation() == operation;
+  }
+
+  /**
+   * Check that a statement performs an operation on a literal value.
+   *
+   * @param node
+   *          The statement, null if it did not parse
+   * @param operation
+   *          The operation
+   * @return True if the statement performs the operation, and its operand is
+   *         a value rather than a memory location
+   */
+  private static boolean isImmediate(StatementNode node, Operation operation) {
+    return is(node, operation) && !node.isIndirect();
+  }
+
+  /**
+   * Check that the overflow flag of a statement's variable is not read before
+   * it is next set.
+   *
+   * @param node
+   *          The ADD or SUBTRACT statement
+   * @param live
+   *          The variables live after the statement, a bit per variable
+   * @return True if the flag is dead
+   */
+  private static boolean isFlagDead(StatementNode node, int live) {
+    int flag = Dataflow.FIRST_FLAG + node.getVariable().getMemoryLocation();
+    return (live & 1 << flag) == 0;
+  }
+
+  /**
+   * Get an empty replacement, removing the window.
+   *
+   * @return No statements
+   */
+  private static StatementNode[] none() {
+    return new StatementNode[0];
+  }
+}
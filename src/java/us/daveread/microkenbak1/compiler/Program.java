@@ -1,19 +1,36 @@
 package us.daveread.microkenbak1.compiler;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 
-import us.daveread.microkenbak1.compiler.instruction.JumpInstruction;
-import us.daveread.microkenbak1.compiler.instruction.Label;
-import us.daveread.microkenbak1.compiler.instruction.ByteContent;
-
 /**
  * Contains all the statements making up the program.
  * 
+ * The memory layout is kept up to date incrementally: after statements are
+ * added or edited, only the statements from the first change onward are given
+ * new addresses, and only the jumps to labels defined or referenced in that
+ * part of the program are resolved again. The operating codes are laid out
+ * into a {@link PackedCode}, in layout order.
+ * 
+ * An INCLUDE statement is followed in the program by the statements of the
+ * file it includes, created from the file's cached {@link CompilationUnit}. A
+ * file is included at most once: later INCLUDE statements for it, including
+ * cyclic ones, add nothing. An edit adding or removing an INCLUDE expands the
+ * INCLUDE statements after it again, so each file follows its first INCLUDE.
+ * 
+ * The emitters read the program through a {@link ProgramSnapshot}, taken once
+ * each time the program changes and shared until it changes again.
+ * 
  * @author readda
  *
  */
@@ -24,15 +41,191 @@ public class Program {
   private final static Logger LOG;
 
   /**
-   * The statements (parsed) making up the program.
+   * The label added after the LED display address when a program must jump
+   * around it.
+   */
+  private static final String SKIP_DISPLAY_LABEL = "_SKIP_DISPLAY_ADDRESS_";
+
+  /**
+   * The error for a program that needs to jump around the display address but
+   * has no room to do so.
+   */
+  private static final String LAYOUT_MESSAGE = "Program is over 124 operating codes, but cannot find the instruction just before the display address";
+
+  /**
+   * The error for a program that runs into the data buttons address.
+   */
+  private static final String MEMORY_MESSAGE = "Program does not fit in memory before the data buttons address (0377)";
+
+  /**
+   * The first memory location used by the program, after A, B, X and the
+   * program counter.
+   */
+  private static final int FIRST_ADDRESS = MemoryImage.PROGRAM_START;
+
+  /**
+   * The LED display address.
+   */
+  private static final int DISPLAY_ADDRESS = MemoryImage.Region.DISPLAY
+      .getStart();
+
+  /**
+   * The first address past the display and the overflow flags (0200-0203).
+   */
+  private static final int PAST_DISPLAY_ADDRESS = MemoryImage.Region
+      .OVERFLOW_FLAGS.getEnd();
+
+  /**
+   * A statement must start an operating code below this address to leave room
+   * (minimum 0176-0177) for a jump past the display address.
+   */
+  private static final int JUMP_ROOM_ADDRESS = DISPLAY_ADDRESS
+      - InstructionSet.JUMP_CELLS;
+
+  /**
+   * The statements (parsed) making up the program, in source order.
    */
   private List<Statement> statements;
 
   /**
-   * Whether the memory locations have been calculated from the current
-   * collection of statements.
+   * The statements as laid out in memory: the program statements plus the
+   * statements added to jump around the LED display address.
+   */
+  private List<Statement> layout;
+
+  /**
+   * The first address of each statement in the layout.
    */
-  private boolean memoryLocationsSet;
+  private int[] layoutStarts;
+
+  /**
+   * The index of the first code entry of each statement in the layout.
+   */
+  private int[] layoutCode;
+
+  /**
+   * The operating codes of the layout.
+   */
+  private PackedCode code;
+
+  /**
+   * The memory cells the layout has stored.
+   */
+  private MemoryImage memory;
+
+  /**
+   * The address just past the program.
+   */
+  private int end;
+
+  /**
+   * The index of the first program statement whose layout is out of date, -1
+   * when the layout is current.
+   */
+  private int invalidFrom;
+
+  /**
+   * The index of the last program statement before which the jump around the
+   * display address can be placed, -1 if there is none.
+   */
+  private int gapAfter;
+
+  /**
+   * Whether the layout jumps around the display address.
+   */
+  private boolean gapPresent;
+
+  /**
+   * The number of statements added to jump around the display address.
+   */
+  private int gapSize;
+
+  /**
+   * How far the statements after the jump around the display address are
+   * moved.
+   */
+  private int gapShift;
+
+  /**
+   * Whether the program needs to jump around the display address but has no
+   * room to do so.
+   */
+  private boolean layoutError;
+
+  /**
+   * Whether the program runs into the data buttons address.
+   */
+  private boolean memoryError;
+
+  /**
+   * Whether a program that does not fit below the display address is packed
+   * into the free memory around it.
+   */
+  private boolean packing;
+
+  /**
+   * Whether the current layout is packed.
+   */
+  private boolean packed;
+
+  /**
+   * The statement using code or data by address that kept the program from
+   * being packed, null if none.
+   */
+  private Statement unpackable;
+
+  /**
+   * The number of bytes the packed layout saves over the contiguous layout.
+   */
+  private int savedBytes;
+
+  /**
+   * The label names of the program, interned as statements are added, with
+   * the definition and jump sites of each in the layout.
+   */
+  private SymbolTable symbols;
+
+  /**
+   * The id of the label added after the LED display address.
+   */
+  private int skipDisplayId;
+
+  /**
+   * The code entries of labels defined more than once, in layout order.
+   */
+  private List<Integer> duplicates;
+
+  /**
+   * Whether errors found while laying out the program are recorded and
+   * compilation continues, rather than thrown.
+   */
+  private boolean recovering;
+
+  /**
+   * Diagnostics recorded by callers.
+   */
+  private List<Diagnostic> addedDiagnostics;
+
+  /**
+   * The directory included files are found in, null for the current
+   * directory.
+   */
+  private File directory;
+
+  /**
+   * The files included in the program, and the program's own source file.
+   */
+  private Set<File> includedFiles;
+
+  /**
+   * The file included by each INCLUDE statement that added statements.
+   */
+  private Map<Statement, File> includes;
+
+  /**
+   * The snapshot of the current layout, null until taken after a change.
+   */
+  private ProgramSnapshot snapshot;
 
   /**
    * Set up the logger instance.
@@ -46,7 +239,167 @@ public class Program {
    */
   public Program() {
     statements = new ArrayList<>();
-    memoryLocationsSet = false;
+    layout = new ArrayList<>();
+    layoutStarts = new int[16];
+    layoutCode = new int[16];
+    symbols = new SymbolTable();
+    skipDisplayId = symbols.intern(SKIP_DISPLAY_LABEL);
+    code = new PackedCode(symbols);
+    memory = new MemoryImage();
+    end = FIRST_ADDRESS;
+    invalidFrom = 0;
+    gapAfter = -1;
+    duplicates = new ArrayList<>();
+    addedDiagnostics = new ArrayList<>();
+    includedFiles = new HashSet<>();
+    includes = new IdentityHashMap<>();
+  }
+
+  /**
+   * Set the file the program is read from. Included files are found relative
+   * to its directory, and it is never included in itself.
+   * 
+   * @param sourceFile
+   *          The source file
+   */
+  public void setSourceFile(File sourceFile) {
+    File file = IncludeCache.canonical(sourceFile);
+    directory = file.getParentFile();
+    includedFiles.add(file);
+  }
+
+  /**
+   * Set whether errors found while laying out the program are recorded as
+   * diagnostics, with compilation continuing, rather than thrown as an
+   * IllegalStateException.
+   * 
+   * @param recovering
+   *          True to record errors and continue
+   */
+  public void setRecovering(boolean recovering) {
+    this.recovering = recovering;
+    invalidate(0);
+  }
+
+  /**
+   * Set whether a program that does not fit below the LED display address is
+   * packed into the free memory on both sides of it by a
+   * {@link BlockPacker}, rather than laid out contiguously with a jump
+   * around the display. A packed program is laid out again in full after
+   * each edit. A program that uses its code or data by address is laid out
+   * contiguously, with a warning.
+   * 
+   * @param packing
+   *          True to pack the program
+   */
+  public void setPacking(boolean packing) {
+    this.packing = packing;
+    invalidate(0);
+  }
+
+  /**
+   * Check whether the program is packed when it does not fit below the
+   * display address.
+   * 
+   * @return True if packing is enabled
+   */
+  public boolean isPacking() {
+    return packing;
+  }
+
+  /**
+   * Get the number of bytes saved by packing the program, compared with
+   * laying it out contiguously. The program is laid out first if needed.
+   * 
+   * @return The bytes saved, 0 if the program is not packed
+   */
+  public int getSavedBytes() {
+    ensureLaidOut();
+    return savedBytes;
+  }
+
+  /**
+   * Check whether errors are recorded rather than thrown.
+   * 
+   * @return True if errors are recorded and compilation continues
+   */
+  public boolean isRecovering() {
+    return recovering;
+  }
+
+  /**
+   * Record an error found while compiling the program.
+   * 
+   * @param diagnostic
+   *          The error
+   */
+  public void addDiagnostic(Diagnostic diagnostic) {
+    addedDiagnostics.add(diagnostic);
+    snapshot = null;
+  }
+
+  /**
+   * Get the errors and warnings for the program, ordered by source line. The
+   * program is laid out first if needed.
+   * 
+   * @return The diagnostics
+   */
+  public List<Diagnostic> getDiagnostics() {
+    ensureLaidOut();
+
+    List<Diagnostic> diagnostics = new ArrayList<>(addedDiagnostics);
+    for (Statement stmt : statements) {
+      if (stmt.isPlaceholder()) {
+        diagnostics.add(stmt.getError());
+      }
+    }
+    for (int label : duplicates) {
+      diagnostics.add(Diagnostic.of(Diagnostic.Code.DUPLICATE_LABEL,
+          owner(label), 1, duplicateMessage(code.getName(label))));
+    }
+    if (unpackable != null) {
+      diagnostics.add(Diagnostic.of(Diagnostic.Code.ADDRESS_DEPENDENT,
+          unpackable, -1, "Statement uses code or data by address, so the "
+              + "program is not packed around the display address"));
+    }
+    if (layoutError) {
+      diagnostics.add(new Diagnostic(Diagnostic.Code.LAYOUT_ERROR, 0, 0, 0,
+          LAYOUT_MESSAGE));
+    } else if (memoryError) {
+      diagnostics.add(new Diagnostic(Diagnostic.Code.LAYOUT_ERROR, 0, 0, 0,
+          MEMORY_MESSAGE));
+    }
+    for (int id = symbols.nextUndefined(0); id >= 0;
+        id = symbols.nextUndefined(id + 1)) {
+      for (int index = 0; index < symbols.getFixupCount(id); ++index) {
+        Statement stmt = owner(symbols.getFixup(id, index));
+        diagnostics.add(Diagnostic.of(Diagnostic.Code.UNDEFINED_LABEL, stmt,
+            stmt.getNode().getOperation() == Operation.IF ? 4 : 1,
+            undefinedMessage(symbols.getName(id))));
+      }
+    }
+    for (int id = symbols.nextUnused(0); id >= 0;
+        id = symbols.nextUnused(id + 1)) {
+      diagnostics.add(Diagnostic.of(Diagnostic.Code.UNUSED_LABEL,
+          owner(symbols.getDefinition(id)), 1,
+          "Label " + symbols.getName(id) + " is never used"));
+    }
+    Collections.sort(diagnostics);
+    return diagnostics;
+  }
+
+  /**
+   * Check whether any errors were found in the program.
+   * 
+   * @return True if there is at least one error
+   */
+  public boolean hasErrors() {
+    for (Diagnostic diagnostic : getDiagnostics()) {
+      if (diagnostic.isError()) {
+        return true;
+      }
+    }
+    return false;
   }
 
   /**
@@ -56,8 +409,36 @@ public class Program {
    *          A statement
    */
   public void addStatement(Statement stmt) {
-    statements.add(stmt);
-    memoryLocationsSet = false;
+    int index = statements.size();
+    addWithIncludes(loadIncludes(stmt), statements);
+    invalidate(index);
+  }
+
+  /**
+   * Get the program statements, in program order, for the optimization
+   * passes.
+   * 
+   * @return A copy of the statements, without the statements added to jump
+   *         around the display address
+   */
+  List<Statement> getProgramStatements() {
+    return new ArrayList<>(statements);
+  }
+
+  /**
+   * Replace the program statements with optimized ones. The program is laid
+   * out again in full when next used; later edits are not optimized.
+   * 
+   * @param optimized
+   *          The statements, in program order
+   */
+  void replaceStatements(List<Statement> optimized) {
+    statements = new ArrayList<>(optimized);
+    // Statements a pass created have not been interned yet
+    for (Statement stmt : statements) {
+      intern(stmt);
+    }
+    invalidate(0);
   }
 
   /**
@@ -66,10 +447,84 @@ public class Program {
    * @return The program statements
    */
   public Statement[] getStatements() {
-    if (!memoryLocationsSet) {
-      addMemoryLocations();
+    ensureLaidOut();
+    return layout.toArray(new Statement[layout.size()]);
+  }
+
+  /**
+   * Get the packed operating codes of the program, as laid out in memory.
+   * 
+   * @return The code, which changes as the program is edited
+   */
+  public PackedCode getCode() {
+    ensureLaidOut();
+    return code;
+  }
+
+  /**
+   * Find the statement whose operating codes hold a memory cell.
+   * 
+   * @param address
+   *          The address
+   * @return The laid out statement, null if no statement holds the cell
+   */
+  public Statement getStatementAt(int address) {
+    ensureLaidOut();
+    int owner = memory.getOwner(address);
+    return owner == MemoryImage.NO_OWNER ? null : layout.get(owner);
+  }
+
+  /**
+   * Find the offset of a memory cell in the statement holding it.
+   * 
+   * @param address
+   *          The address
+   * @return The number of bytes the cell is past the statement's first
+   *         address, -1 if no statement holds the cell
+   */
+  public int getOffsetAt(int address) {
+    ensureLaidOut();
+    int owner = memory.getOwner(address);
+    return owner == MemoryImage.NO_OWNER ? -1
+        : address - layoutStarts[owner];
+  }
+
+  /**
+   * Find the statements that jump to a label.
+   * 
+   * @param label
+   *          The label name
+   * @return The laid out statements, in layout order; empty if the label is
+   *         not jumped to
+   */
+  public List<Statement> getReferrers(String label) {
+    ensureLaidOut();
+    List<Statement> referrers = new ArrayList<>();
+    int id = symbols.find(label);
+    for (int index = 0; id >= 0 && index < symbols.getFixupCount(id);
+        ++index) {
+      // A jump past the end of memory is found from its code entry instead
+      int jump = symbols.getFixup(id, index);
+      int owner = memory.getOwner(code.getAddress(jump));
+      referrers.add(owner == MemoryImage.NO_OWNER ? owner(jump)
+          : layout.get(owner));
+    }
+    return referrers;
+  }
+
+  /**
+   * Get an immutable snapshot of the program as laid out. The same snapshot
+   * is returned until the program is changed.
+   * 
+   * @return The snapshot, unaffected by later edits
+   */
+  public ProgramSnapshot freeze() {
+    ensureLaidOut();
+    if (snapshot == null) {
+      snapshot = new ProgramSnapshot(layout, layoutStarts, layoutCode, code,
+          memory, end, getDiagnostics());
     }
-    return statements.toArray(new Statement[statements.size()]);
+    return snapshot;
   }
 
   /**
@@ -80,162 +535,901 @@ public class Program {
    *          This serves as a signal when uploading to the microKenbek-1 that
    *          the entire program has been loaded.
    * 
-   * @see #addMemoryLocations()
-   * 
    * @return A string containing all the instructions, ready for upload to the
    *         microKENBAK-1
    */
   public String getInstructions(boolean includeEof) {
-    if (!memoryLocationsSet) {
-      addMemoryLocations();
-    }
-    StringBuffer sb = new StringBuffer();
+    return freeze().getInstructions(includeEof);
+  }
 
-    // Account for values in memory locations 0 through 3 (A, B, X, and Program
-    // Counter)
-    sb.append("0000\n");
-    sb.append("0000\n");
-    sb.append("0000\n");
-    sb.append("0004\n");
+  /**
+   * Apply edits to the program source. Only the statements for the edited
+   * lines are parsed, and the program is laid out again from the first
+   * statement affected. The edits are applied in order, each against the line
+   * numbers left by the edits before it.
+   * 
+   * Without recovery, a statement that cannot be parsed leaves the program
+   * unchanged and its error is thrown; errors found while laying out the
+   * edited program are thrown after the edits are applied.
+   * 
+   * @param edits
+   *          The edits
+   * @return The memory cells whose contents changed
+   */
+  public LayoutChange edit(SourceEdit... edits) {
+    // Parse every edit before changing anything
+    List<List<Statement>> replacements = new ArrayList<>(edits.length);
+    for (SourceEdit edit : edits) {
+      replacements.add(parseEdit(edit));
+    }
 
-    for (Statement stmt : statements) {
-      ByteContent[] insts = stmt.getOpCodes();
-      for (ByteContent inst : insts) {
-        String op;
-        if ((op = inst.getFormattedByte()) != null) {
-          sb.append(op);
-          sb.append('\n');
+    // A layout that is out of date, or that found an error the edit may fix,
+    // is laid out with the edit
+    int first = invalidFrom >= 0 ? invalidFrom : statements.size();
+    for (int index = 0; index < edits.length; ++index) {
+      SourceEdit edit = edits[index];
+      List<Statement> replacement = replacements.get(index);
+      int from = firstStatementAtOrAfter(edit.getStartLine());
+      int to = firstStatementAtOrAfter(edit.getEndLine());
+      int delta = lineCount(edit.getText())
+          - (edit.getEndLine() - edit.getStartLine());
+      if (delta != 0) {
+        for (int later = to; later < statements.size(); ++later) {
+          Statement stmt = statements.get(later);
+          stmt.setLine(stmt.getLine() + delta);
+        }
+      }
+      List<Statement> removed = statements.subList(from, to);
+      boolean reinclude = hasInclude(removed) || hasInclude(replacement);
+      for (Statement stmt : removed) {
+        File file = includes.remove(stmt);
+        if (file != null) {
+          includedFiles.remove(file);
         }
       }
+      removed.clear();
+      List<Statement> added = new ArrayList<>(replacement.size());
+      for (Statement stmt : replacement) {
+        addWithIncludes(stmt, added);
+      }
+      statements.addAll(from, added);
+      if (reinclude) {
+        reinclude(from);
+      }
+      first = Math.min(first, from);
     }
 
-    if (includeEof) {
-      sb.append("s\n");
+    invalidate(first);
+    return relayout(invalidFrom);
+  }
+
+  /**
+   * Parse the replacement lines of an edit.
+   * 
+   * @param edit
+   *          The edit
+   * @return The statements, numbered from the first line of the edit
+   */
+  private List<Statement> parseEdit(SourceEdit edit) {
+    SourceText text = SourceText.fromString("edit", edit.getText());
+    Tokenizer tokenizer = new Tokenizer();
+    char[] buffer = text.getBuffer();
+    List<Statement> parsed = new ArrayList<>();
+    for (int line = 0; line < text.getLineCount(); ++line) {
+      int start = text.lineStart(line);
+      Lexemes lexemes = tokenizer.tokenize(buffer, start, text.lineEnd(line));
+      if (lexemes == null) {
+        continue;
+      }
+      int sourceLine = edit.getStartLine() + line;
+      Statement stmt;
+      if (recovering) {
+        stmt = Parser.makeStatementOrPlaceholder(lexemes, sourceLine, start);
+      } else {
+        stmt = new Statement(lexemes);
+        stmt.setSource(sourceLine, start);
+      }
+      parsed.add(loadIncludes(stmt));
     }
-    return sb.toString();
+    return parsed;
   }
 
   /**
-   * This method accounts for the memory locations of each instruction. This
-   * must be called prior to using getInstructions() so that the locations of
-   * any jumps can be determined.
+   * Load the files an INCLUDE statement includes, directly or through other
+   * files, checking they can all be parsed.
    * 
-   * @see #getInstructions(boolean)
+   * @param stmt
+   *          The statement
+   * @return The statement, or a placeholder for it if recovering from an
+   *         error in the included files
    */
-  private void addMemoryLocations() {
-    Map<String, Label> labelCache = new HashMap<>();
+  private Statement loadIncludes(Statement stmt) {
+    if (!isInclude(stmt)) {
+      return stmt;
+    }
 
-    int memLocation = 4;
-    Statement stmtJustBeforeDisplayAddress = null;
-    for (Statement stmt : statements) {
-      ByteContent[] insts = stmt.getOpCodes();
-      for (ByteContent inst : insts) {
-        inst.setLocation(memLocation);
+    try {
+      checkIncludes(resolve(directory, stmt), new HashSet<>());
+    } catch (IllegalStateException ise) {
+      if (!recovering) {
+        throw ise;
+      }
+      return stmt.toPlaceholder(ise);
+    }
+    return stmt;
+  }
 
-        if (inst instanceof Label) {
-          Label label = (Label) inst;
+  /**
+   * Check that a file, and the files it includes, can be parsed.
+   * 
+   * @param file
+   *          The file
+   * @param checked
+   *          The files already checked
+   */
+  private void checkIncludes(File file, Set<File> checked) {
+    if (!checked.add(file)) {
+      return;
+    }
 
-          // Detect duplicate label name
-          if (labelCache.get(label.getName()) != null) {
-            throw new IllegalStateException(
-                "A label may only be defined once in a program. The label name "
-                    + label.getName() + " is repeated");
-          }
+    CompilationUnit unit = IncludeCache.get(file);
+    if (unit.getError() != null) {
+      throw new StatementException(unit.getError(), 1);
+    }
+    for (StatementNode node : unit.getNodes()) {
+      if (node.getOperation() == Operation.INCLUDE) {
+        checkIncludes(resolve(unit.getFile().getParentFile(), node), checked);
+      }
+    }
+  }
 
-          labelCache.put(label.getName(), label);
-        }
+  /**
+   * Expand the INCLUDE statements again from a program statement onward, as
+   * when an edit adds or removes an INCLUDE and so changes which INCLUDE of a
+   * file comes first. The included statements are recognized by having the
+   * line of the statement before them.
+   * 
+   * @param from
+   *          The index of the first program statement, which is not one
+   *          included
+   */
+  private void reinclude(int from) {
+    List<Statement> tail = statements.subList(from, statements.size());
+    List<Statement> source = new ArrayList<>(tail.size());
+    int line = -1;
+    for (Statement stmt : tail) {
+      File file = includes.remove(stmt);
+      if (file != null) {
+        includedFiles.remove(file);
+      }
+      if (source.isEmpty() || stmt.getLine() != line) {
+        source.add(stmt);
+      }
+      line = stmt.getLine();
+    }
+    tail.clear();
+    for (Statement stmt : source) {
+      addWithIncludes(stmt, statements);
+    }
+  }
+
+  /**
+   * Add a statement to a list, followed by the statements it includes if it
+   * is the first INCLUDE of a file.
+   * 
+   * @param stmt
+   *          The statement, with its included files loaded
+   * @param into
+   *          The list
+   */
+  private void addWithIncludes(Statement stmt, List<Statement> into) {
+    intern(stmt);
+    into.add(stmt);
+    if (isInclude(stmt)) {
+      include(stmt, resolve(directory, stmt), stmt.getLine(), into);
+    }
+  }
+
+  /**
+   * Add the statements of an included file to a list, unless the file has
+   * already been included. The statements are given the line of the INCLUDE
+   * in the program's source, so editing that line replaces them.
+   * 
+   * @param stmt
+   *          The INCLUDE statement
+   * @param file
+   *          The file it includes
+   * @param line
+   *          The source line of the INCLUDE in the program
+   * @param into
+   *          The list
+   */
+  private void include(Statement stmt, File file, int line,
+      List<Statement> into) {
+    if (!includedFiles.add(file)) {
+      return;
+    }
+    includes.put(stmt, file);
+
+    CompilationUnit unit = IncludeCache.get(file);
+    if (unit.getError() != null) {
+      // The file changed after it was checked
+      throw new StatementException(unit.getError(), 1);
+    }
+    for (StatementNode node : unit.getNodes()) {
+      Statement included = new Statement(node);
+      included.setSource(line, 0);
+      intern(included);
+      into.add(included);
+      if (node.getOperation() == Operation.INCLUDE) {
+        include(included, resolve(unit.getFile().getParentFile(), node), line,
+            into);
+      }
+    }
+  }
+
+  /**
+   * Intern the label name a statement defines or jumps to.
+   * 
+   * @param stmt
+   *          The statement
+   */
+  private void intern(Statement stmt) {
+    for (int entry : stmt.getEncoding()) {
+      if (PackedCode.kind(entry) != PackedCode.OPERATION) {
+        stmt.setLabelId(symbols.intern(stmt.getNode().getLabel()));
+        return;
+      }
+    }
+  }
 
-        memLocation += inst.numMemoryCells();
+  /**
+   * Check whether a statement includes a file.
+   * 
+   * @param stmt
+   *          The statement
+   * @return True for an INCLUDE statement
+   */
+  private static boolean isInclude(Statement stmt) {
+    return stmt.getNode() != null
+        && stmt.getNode().getOperation() == Operation.INCLUDE;
+  }
+
+  /**
+   * Check whether any of a list of statements includes a file.
+   * 
+   * @param stmts
+   *          The statements
+   * @return True if there is an INCLUDE statement
+   */
+  private static boolean hasInclude(List<Statement> stmts) {
+    for (Statement stmt : stmts) {
+      if (isInclude(stmt)) {
+        return true;
+      }
+    }
+    return false;
+  }
 
-        // Need room (minimum 0176-0177) to add a jump past display address
-        // (0200)
-        if (memLocation < 0176) {
-          stmtJustBeforeDisplayAddress = stmt;
+  /**
+   * Find the file included by an INCLUDE statement.
+   * 
+   * @param directory
+   *          The directory of the including file, null for the current
+   *          directory
+   * @param stmt
+   *          The statement
+   * @return The canonical file
+   */
+  private static File resolve(File directory, Statement stmt) {
+    return resolve(directory, stmt.getNode());
+  }
+
+  /**
+   * Find the file included by an INCLUDE statement.
+   * 
+   * @param directory
+   *          The directory of the including file, null for the current
+   *          directory
+   * @param node
+   *          The parsed statement
+   * @return The canonical file
+   */
+  private static File resolve(File directory, StatementNode node) {
+    File file = new File(node.getLabel());
+    if (!file.isAbsolute()) {
+      file = new File(directory, node.getLabel());
+    }
+    return IncludeCache.canonical(file);
+  }
+
+  /**
+   * Count the lines of replacement text.
+   * 
+   * @param text
+   *          The text
+   * @return The number of lines
+   */
+  private static int lineCount(String text) {
+    return SourceText.fromString("edit", text).getLineCount();
+  }
+
+  /**
+   * Find the first program statement on or after a source line.
+   * 
+   * @param line
+   *          The source line (1-based)
+   * @return The statement index, the number of statements if there is none
+   */
+  private int firstStatementAtOrAfter(int line) {
+    int low = 0;
+    int high = statements.size();
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (statements.get(middle).getLine() < line) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Mark the layout out of date from a program statement onward.
+   * 
+   * @param index
+   *          The index of the first statement changed
+   */
+  private void invalidate(int index) {
+    snapshot = null;
+    if (invalidFrom < 0 || index < invalidFrom) {
+      invalidFrom = index;
+    }
+  }
+
+  /**
+   * Lay the program out if it has changed since it was last laid out.
+   */
+  private void ensureLaidOut() {
+    if (invalidFrom >= 0) {
+      relayout(invalidFrom);
+    }
+  }
+
+  /**
+   * Account for the memory locations of each instruction from a program
+   * statement onward, keeping the layout of the statements before it, and
+   * resolve the jumps to the labels that moved or whose jumps moved.
+   * 
+   * @param changed
+   *          The index of the first program statement changed
+   * @return The memory cells whose contents changed
+   */
+  private LayoutChange relayout(int changed) {
+    invalidFrom = -1;
+    unpackable = null;
+    if (packing) {
+      BlockPacker packer = new BlockPacker(statements);
+      if (packer.isPacked()) {
+        int dependence = BlockPacker.findAddressDependence(statements);
+        if (dependence < 0) {
+          return relayoutPacked(packer);
         }
+        unpackable = statements.get(dependence);
       }
     }
+    savedBytes = 0;
+    int count = statements.size();
+    // A packed layout is not in program order, so none of it is kept
+    int first = packed ? 0 : Math.min(changed, count);
+    packed = false;
+    boolean oldGapPresent = gapPresent;
+    int oldGapAfter = gapAfter;
+    int oldEnd = end;
 
+    // Find where the jump around the display goes and whether it is needed,
+    // using the addresses the statements would have without it
+    int address = first == 0 ? FIRST_ADDRESS
+        : rawStart(first - 1) + statements.get(first - 1).getMemoryCells();
+    int candidate;
+    if (address < JUMP_ROOM_ADDRESS) {
+      candidate = -1;
+      for (int index = first - 1; index >= 0 && candidate < 0; --index) {
+        if (fitsBeforeDisplay(statements.get(index), rawStart(index))) {
+          candidate = index;
+        }
+      }
+    } else {
+      candidate = gapAfter;
+    }
+    for (int index = first; index < count; ++index) {
+      Statement stmt = statements.get(index);
+      if (fitsBeforeDisplay(stmt, address)) {
+        candidate = index;
+      }
+      address += stmt.getMemoryCells();
+    }
     LOG.info("Total number of memory locations used for program op codes: "
-        + memLocation);
-
-    // Deal with program needing to jump past LED display address (0200) of more
-    // than 123 op codes. Skip past display and overflow flags (0200-0203)
-    if (memLocation >= 0200) {
-      LOG.info("Adding jump around LED display address (0200)");
-      int lastLocBeforeJump = statements.indexOf(stmtJustBeforeDisplayAddress);
-      if (lastLocBeforeJump < 0) {
-        throw new IllegalStateException(
-            "Program is over 124 operating codes, but cannot find the instruction just before the display address");
-      }
-      ByteContent[] opCodes = statements.get(lastLocBeforeJump).getOpCodes();
-      int lastUsedAddressBeforeDisplay = opCodes[opCodes.length - 1]
-          .getMemoryLocation();
-      if (opCodes[opCodes.length - 1] instanceof Label) {
-        lastUsedAddressBeforeDisplay--;
-      }
-      memLocation = lastUsedAddressBeforeDisplay;
-      int insertLocation = lastLocBeforeJump + 1;
-      statements.add(insertLocation,
-          new Statement("GOTO _SKIP_DISPLAY_ADDRESS_".split(" ")));
-      lastUsedAddressBeforeDisplay += 2;
-      // Fill memory locations in gap through overflow flag for X (0203) with
-      // NOOP
-      while (lastUsedAddressBeforeDisplay < 0203) {
-        ++insertLocation;
-        statements.add(insertLocation, new Statement("NOOP".split(" ")));
-        ++lastUsedAddressBeforeDisplay;
-      }
-      ++insertLocation;
-      statements.add(insertLocation,
-          new Statement("LABEL _SKIP_DISPLAY_ADDRESS_".split(" ")));
-      Label labelPastDisplay = (Label) statements.get(insertLocation)
-          .getOpCodes()[0];
-      labelCache.put(labelPastDisplay.getName(), labelPastDisplay);
-
-      // Renumber memory locations
-      memLocation++;
-      for (int stmtLoc = lastLocBeforeJump + 1; stmtLoc < statements
-          .size(); ++stmtLoc) {
-        opCodes = statements.get(stmtLoc).getOpCodes();
-        for (ByteContent opCode : opCodes) {
-          opCode.setLocation(memLocation);
-          memLocation += opCode.numMemoryCells();
+        + address);
+    boolean present = address >= DISPLAY_ADDRESS && candidate >= 0;
+    layoutError = address >= DISPLAY_ADDRESS && candidate < 0;
+
+    // A jump around the display that moved is laid out again with the
+    // statements after it
+    int start = first;
+    if (present != oldGapPresent || present && candidate != oldGapAfter) {
+      if (oldGapPresent) {
+        start = Math.min(start, oldGapAfter + 1);
+      }
+      if (present) {
+        start = Math.min(start, candidate + 1);
+      }
+    }
+    // The jump around the display is kept only if it is before the start
+    int position = oldGapPresent && oldGapAfter + 1 < start ? start + gapSize
+        : start;
+    int firstAddress = position < layout.size() ? layoutStarts[position]
+        : oldEnd;
+    int[] oldCells = cells(position, firstAddress, oldEnd);
+
+    BitSet affected = new BitSet();
+    truncateLayout(position, firstAddress, oldEnd, affected);
+
+    address = firstAddress;
+    for (int index = start; index <= count; ++index) {
+      if (present && index == candidate + 1) {
+        address = placeDisplayJump(address, affected);
+      }
+      if (index < count) {
+        address = place(statements.get(index), address, affected);
+      }
+    }
+    end = address;
+    gapAfter = candidate;
+    gapPresent = present;
+    memoryError = end > MemoryImage.Region.INPUT.getStart();
+
+    List<int[]> kept = resolve(affected, firstAddress);
+    if (!recovering) {
+      checkLayout();
+    }
+    return changes(firstAddress, kept, oldCells,
+        cells(position, firstAddress, end));
+  }
+
+  /**
+   * Lay the whole program out in the order the packer placed it.
+   * 
+   * @param packer
+   *          The placement of the program's statements
+   * @return The memory cells whose contents changed
+   */
+  private LayoutChange relayoutPacked(BlockPacker packer) {
+    int oldEnd = end;
+    int[] oldCells = cells(0, FIRST_ADDRESS, oldEnd);
+    BitSet affected = new BitSet();
+    truncateLayout(0, FIRST_ADDRESS, oldEnd, affected);
+
+    for (int index = 0; index < packer.size(); ++index) {
+      int stmt = packer.getStatement(index);
+      if (stmt == BlockPacker.STITCH_JUMP) {
+        place(skipDisplayStatement(StatementNode.jump(SKIP_DISPLAY_LABEL)),
+            packer.getAddress(index), affected);
+      } else if (stmt == BlockPacker.STITCH_LABEL) {
+        place(skipDisplayStatement(StatementNode.label(SKIP_DISPLAY_LABEL)),
+            packer.getAddress(index), affected);
+      } else {
+        place(statements.get(stmt), packer.getAddress(index), affected);
+      }
+    }
+    end = packer.getEnd();
+    packed = true;
+    savedBytes = packer.getSavedBytes();
+    LOG.info("Packing the program around the LED display address saved "
+        + savedBytes + " bytes");
+    gapAfter = -1;
+    gapPresent = false;
+    gapSize = 0;
+    gapShift = 0;
+    layoutError = false;
+    memoryError = end > MemoryImage.Region.INPUT.getStart();
+
+    List<int[]> kept = resolve(affected, FIRST_ADDRESS);
+    if (!recovering) {
+      checkLayout();
+    }
+    return changes(FIRST_ADDRESS, kept, oldCells,
+        cells(0, FIRST_ADDRESS, end));
+  }
+
+  /**
+   * Remove the statements from a layout position onward, with their labels,
+   * jumps and memory cells.
+   * 
+   * @param position
+   *          The first layout position removed
+   * @param firstAddress
+   *          The address of the first statement removed
+   * @param oldEnd
+   *          The address just past the program
+   * @param affected
+   *          Collects the ids of the labels whose jumps must be resolved
+   */
+  private void truncateLayout(int position, int firstAddress, int oldEnd,
+      BitSet affected) {
+    if (position == 0) {
+      for (Statement stmt : layout) {
+        stmt.setCode(null, 0);
+      }
+      symbols.clearLayout();
+      duplicates.clear();
+    } else {
+      for (int index = layout.size() - 1; index >= position; --index) {
+        unregister(index, affected);
+      }
+    }
+    if (position < layout.size()) {
+      code.truncate(layoutCode[position]);
+    }
+    memory.clear(firstAddress, oldEnd);
+    layout.subList(position, layout.size()).clear();
+  }
+
+  /**
+   * Resolve the jumps to the labels that moved or whose jumps moved.
+   * 
+   * @param affected
+   *          The ids of the labels
+   * @param firstAddress
+   *          The first address laid out again
+   * @return The destinations that changed in the statements kept before the
+   *         first address, as (address, value) pairs
+   */
+  private List<int[]> resolve(BitSet affected, int firstAddress) {
+    List<int[]> kept = new ArrayList<>();
+    for (int id = affected.nextSetBit(0); id >= 0;
+        id = affected.nextSetBit(id + 1)) {
+      int label = symbols.getDefinition(id);
+      int jumps = symbols.getFixupCount(id);
+      if (label >= 0) {
+        code.setUsed(label, jumps > 0);
+      }
+      int destination = label < 0 ? 0 : code.getAddress(label);
+      for (int index = 0; index < jumps; ++index) {
+        int jump = symbols.getFixup(id, index);
+        if (code.getAddress(jump) + 1 < firstAddress
+            && code.getDestination(jump) != destination) {
+          kept.add(new int[] {code.getAddress(jump) + 1, destination });
         }
+        code.setDestination(jump, destination);
+        memory.set(code.getAddress(jump) + 1, destination);
       }
     }
+    return kept;
+  }
 
-    // Use cache to update jump instructions
-    for (Statement stmt : statements) {
-      ByteContent[] insts = stmt.getOpCodes();
-      for (ByteContent inst : insts) {
-        if (inst instanceof JumpInstruction) {
-          JumpInstruction jump = (JumpInstruction) inst;
-          String labelName = jump.getName();
-          Label target = labelCache.get(labelName);
-          if (target == null) {
-            throw new IllegalStateException(
-                "Label " + labelName + " is not defined");
-          }
-          jump.setDestinationAddress(target.getMemoryLocation());
-          target.setUsed(true);
+  /**
+   * Throw the first error found while laying out the program.
+   */
+  private void checkLayout() {
+    String message = null;
+    if (!duplicates.isEmpty()) {
+      message = duplicateMessage(code.getName(duplicates.get(0)));
+    } else if (layoutError) {
+      message = LAYOUT_MESSAGE;
+    } else if (memoryError) {
+      message = MEMORY_MESSAGE;
+    } else {
+      // Report the undefined label jumped to first
+      int first = -1;
+      for (int id = symbols.nextUndefined(0); id >= 0;
+          id = symbols.nextUndefined(id + 1)) {
+        if (first < 0
+            || symbols.getFixup(id, 0) < symbols.getFixup(first, 0)) {
+          first = id;
         }
       }
+      if (first >= 0) {
+        message = undefinedMessage(symbols.getName(first));
+      }
+    }
+    if (message != null) {
+      // Lay everything out again once the error is fixed
+      invalidate(0);
+      throw new IllegalStateException(message);
     }
+  }
 
-    // Check for unused labels - generate warning messages
-    for (Statement stmt : statements) {
-      ByteContent[] insts = stmt.getOpCodes();
-      for (ByteContent inst : insts) {
-        if (inst instanceof Label) {
-          Label label = (Label) inst;
-          if (!label.isUsed()) {
-            System.out.println(
-                "WARNING: Label " + label.getName() + " is never used");
-          }
+  /**
+   * Check whether the jump around the display address can follow a statement.
+   * 
+   * @param stmt
+   *          The statement
+   * @param start
+   *          The statement's address without the jump around the display
+   * @return True if an operating code of the statement ends below the jump
+   *         room address
+   */
+  static boolean fitsBeforeDisplay(Statement stmt, int start) {
+    int[] encoding = stmt.getEncoding();
+    return encoding.length > 0
+        && start + PackedCode.cells(encoding[0]) < JUMP_ROOM_ADDRESS;
+  }
+
+  /**
+   * Get the position in the current layout of a program statement.
+   * 
+   * @param index
+   *          The program statement index
+   * @return The layout position
+   */
+  private int layoutPosition(int index) {
+    return gapPresent && index > gapAfter ? index + gapSize : index;
+  }
+
+  /**
+   * Get the address a laid out program statement would have without the jump
+   * around the display address.
+   * 
+   * @param index
+   *          The program statement index
+   * @return The address
+   */
+  private int rawStart(int index) {
+    int start = layoutStarts[layoutPosition(index)];
+    return gapPresent && index > gapAfter ? start - gapShift : start;
+  }
+
+  /**
+   * Add the statements that jump around the display address and the overflow
+   * flags (0200-0203).
+   * 
+   * @param address
+   *          The address just past the program statement the jump follows
+   * @param affected
+   *          Collects the ids of the labels whose jumps must be resolved
+   * @return The address just past the display
+   */
+  private int placeDisplayJump(int address, BitSet affected) {
+    LOG.info("Adding jump around LED display address (0200)");
+    int added = layout.size();
+    int location = place(
+        skipDisplayStatement(StatementNode.jump(SKIP_DISPLAY_LABEL)), address,
+        affected);
+    // Fill memory locations in gap through overflow flag for X (0203) with
+    // NOOP
+    while (location < PAST_DISPLAY_ADDRESS) {
+      location = place(new Statement(StatementNode.noOp()), location,
+          affected);
+    }
+    place(skipDisplayStatement(StatementNode.label(SKIP_DISPLAY_LABEL)),
+        PAST_DISPLAY_ADDRESS, affected);
+    gapSize = layout.size() - added;
+    gapShift = PAST_DISPLAY_ADDRESS - address;
+    return PAST_DISPLAY_ADDRESS;
+  }
+
+  /**
+   * Create a statement added to jump around the display address.
+   * 
+   * @param node
+   *          The jump to, or the definition of, the label after the display
+   * @return The statement, with its label id
+   */
+  private Statement skipDisplayStatement(StatementNode node) {
+    Statement stmt = new Statement(node);
+    stmt.setLabelId(skipDisplayId);
+    return stmt;
+  }
+
+  /**
+   * Add a statement to the end of the layout.
+   * 
+   * @param stmt
+   *          The statement
+   * @param address
+   *          The statement's first address
+   * @param affected
+   *          Collects the ids of the labels whose jumps must be resolved
+   * @return The address just past the statement
+   */
+  private int place(Statement stmt, int address, BitSet affected) {
+    int position = layout.size();
+    if (position == layoutStarts.length) {
+      layoutStarts = Arrays.copyOf(layoutStarts, position * 2);
+      layoutCode = Arrays.copyOf(layoutCode, position * 2);
+    }
+    layout.add(stmt);
+    layoutStarts[position] = address;
+    int first = code.size();
+    layoutCode[position] = first;
+    stmt.setCode(code, first);
+
+    address = code.append(stmt.getEncoding(), stmt.getLabelId(), address);
+    for (int index = first; index < code.size(); ++index) {
+      // The layout is contiguous, so a store only fails past the end of
+      // memory, which is reported as a memory error
+      if (code.getKind(index) != PackedCode.LABEL) {
+        memory.store(code.getAddress(index), code.getOpCode(index), position);
+      }
+      if (code.getKind(index) == PackedCode.JUMP) {
+        memory.store(code.getAddress(index) + 1, code.getDestination(index),
+            position);
+      }
+      int id = code.getLabelId(index);
+      if (code.getKind(index) == PackedCode.LABEL) {
+        if (symbols.getDefinition(id) >= 0) {
+          duplicates.add(index);
+        } else {
+          symbols.define(id, index);
+        }
+        affected.set(id);
+      } else if (code.getKind(index) == PackedCode.JUMP) {
+        symbols.addFixup(id, index);
+        affected.set(id);
+      }
+    }
+    return address;
+  }
+
+  /**
+   * Remove the labels and jumps of a statement being laid out again. The
+   * statements after it have already been removed.
+   * 
+   * @param position
+   *          The layout position of the statement
+   * @param affected
+   *          Collects the ids of the labels whose jumps must be resolved
+   */
+  private void unregister(int position, BitSet affected) {
+    layout.get(position).setCode(null, 0);
+    int first = layoutCode[position];
+    int last = position + 1 < layout.size() ? layoutCode[position + 1]
+        : code.size();
+    for (int index = last - 1; index >= first; --index) {
+      int id = code.getLabelId(index);
+      if (code.getKind(index) == PackedCode.LABEL) {
+        if (symbols.getDefinition(id) == index) {
+          symbols.undefine(id);
+        } else {
+          duplicates.remove(duplicates.size() - 1);
         }
+        affected.set(id);
+      } else if (code.getKind(index) == PackedCode.JUMP) {
+        symbols.removeLastFixup(id);
+        affected.set(id);
+      }
+    }
+  }
+
+  /**
+   * Get the statement a code entry belongs to.
+   * 
+   * @param index
+   *          The entry index
+   * @return The laid out statement
+   */
+  private Statement owner(int index) {
+    // The last statement starting at or before the entry; statements without
+    // entries start at the same entry as the statement after them
+    int low = 0;
+    int high = layout.size() - 1;
+    while (low < high) {
+      int middle = (low + high + 1) >>> 1;
+      if (layoutCode[middle] <= index) {
+        low = middle;
+      } else {
+        high = middle - 1;
       }
     }
+    return layout.get(low);
+  }
 
-    memoryLocationsSet = true;
+  /**
+   * Get the memory contents of part of the layout.
+   * 
+   * @param position
+   *          The first layout position
+   * @param from
+   *          The first address
+   * @param to
+   *          The address just past the cells
+   * @return The cell values from the first address, {@link LayoutChange#UNUSED}
+   *         for cells without an operating code
+   */
+  private int[] cells(int position, int from, int to) {
+    int[] cells = new int[Math.max(0, to - from)];
+    Arrays.fill(cells, LayoutChange.UNUSED);
+    int first = position < layout.size() ? layoutCode[position] : code.size();
+    for (int index = first; index < code.size(); ++index) {
+      int cell = code.getAddress(index) - from;
+      if (code.getKind(index) == PackedCode.OPERATION) {
+        setCell(cells, cell, code.getOpCode(index));
+      } else if (code.getKind(index) == PackedCode.JUMP) {
+        setCell(cells, cell, code.getOpCode(index));
+        setCell(cells, cell + 1, code.getDestination(index));
+      }
+    }
+    return cells;
+  }
+
+  /**
+   * Set a cell value if it is in range.
+   * 
+   * @param cells
+   *          The cell values
+   * @param cell
+   *          The cell index
+   * @param value
+   *          The value
+   */
+  private static void setCell(int[] cells, int cell, int value) {
+    if (cell >= 0 && cell < cells.length) {
+      cells[cell] = value;
+    }
+  }
+
+  /**
+   * Combine the changed jump destinations kept from the earlier layout with
+   * the cells that differ in the part laid out again.
+   * 
+   * @param firstAddress
+   *          The first address laid out again
+   * @param kept
+   *          The changed destinations before the first address, as (address,
+   *          value) pairs
+   * @param oldCells
+   *          The cell values from the first address before the layout
+   * @param newCells
+   *          The cell values from the first address after the layout
+   * @return The changes, in address order
+   */
+  private static LayoutChange changes(int firstAddress, List<int[]> kept,
+      int[] oldCells, int[] newCells) {
+    kept.sort((left, right) -> Integer.compare(left[0], right[0]));
+    int length = Math.max(oldCells.length, newCells.length);
+    int[] addresses = new int[kept.size() + length];
+    int[] values = new int[addresses.length];
+    int size = 0;
+    for (int[] change : kept) {
+      addresses[size] = change[0];
+      values[size++] = change[1];
+    }
+    for (int cell = 0; cell < length; ++cell) {
+      int oldValue = cell < oldCells.length ? oldCells[cell]
+          : LayoutChange.UNUSED;
+      int newValue = cell < newCells.length ? newCells[cell]
+          : LayoutChange.UNUSED;
+      if (oldValue != newValue) {
+        addresses[size] = firstAddress + cell;
+        values[size++] = newValue;
+      }
+    }
+    return new LayoutChange(firstAddress, Arrays.copyOf(addresses, size),
+        Arrays.copyOf(values, size));
+  }
+
+  /**
+   * Get the error for a label defined more than once.
+   * 
+   * @param name
+   *          The label name
+   * @return The message
+   */
+  private static String duplicateMessage(String name) {
+    return "A label may only be defined once in a program. The label name "
+        + name + " is repeated";
+  }
+
+  /**
+   * Get the error for a jump to a label that is not defined.
+   * 
+   * @param name
+   *          The label name
+   * @return The message
+   */
+  private static String undefinedMessage(String name) {
+    return "Label " + name + " is not defined";
   }
 }
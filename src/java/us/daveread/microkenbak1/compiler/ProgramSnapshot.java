@@ -0,0 +1,341 @@
+package us.daveread.microkenbak1.compiler;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import us.daveread.microkenbak1.compiler.instruction.ByteContent;
+
+/**
+ * An immutable copy of a laid out {@link Program}, with the views derived from
+ * it computed once: the statements as laid out with their addresses and
+ * formatted source, the packed operating codes, the memory image, the
+ * instructions to upload and the source line of each address. Editing the
+ * program afterwards does not change the snapshot, so any number of emitters
+ * and threads can read it without copying or laying the program out again.
+ *
+ * The statement holding each memory cell, and the statements jumping to each
+ * label, are looked up in the tables the layout keeps, without searching.
+ *
+ * @author readda
+ *
+ */
+public final class ProgramSnapshot {
+  /**
+   * The statements as laid out.
+   */
+  private final List<Statement> statements;
+
+  /**
+   * The first address of each statement.
+   */
+  private final int[] starts;
+
+  /**
+   * The index of each statement's first code entry.
+   */
+  private final int[] codeStarts;
+
+  /**
+   * The source line of each statement.
+   */
+  private final int[] lines;
+
+  /**
+   * The formatted source of each statement.
+   */
+  private final String[] formatted;
+
+  /**
+   * The operating codes, as laid out.
+   */
+  private final PackedCode code;
+
+  /**
+   * The contents of memory.
+   */
+  private final MemoryImage memory;
+
+  /**
+   * The address just past the program.
+   */
+  private final int end;
+
+  /**
+   * The instructions to upload, without the end of file marker.
+   */
+  private final String instructions;
+
+  /**
+   * The source line of each memory cell.
+   */
+  private final LineTable lineTable;
+
+  /**
+   * The errors and warnings, ordered by source line.
+   */
+  private final List<Diagnostic> diagnostics;
+
+  /**
+   * Copy a program's layout.
+   *
+   * @param layout
+   *          The statements as laid out
+   * @param starts
+   *          The first address of each statement
+   * @param codeStarts
+   *          The index of each statement's first code entry
+   * @param code
+   *          The operating codes, as laid out
+   * @param memory
+   *          The contents of memory
+   * @param end
+   *          The address just past the program
+   * @param diagnostics
+   *          The errors and warnings
+   */
+  ProgramSnapshot(List<Statement> layout, int[] starts, int[] codeStarts,
+      PackedCode code, MemoryImage memory, int end,
+      List<Diagnostic> diagnostics) {
+    int count = layout.size();
+    this.starts = Arrays.copyOf(starts, count);
+    this.codeStarts = Arrays.copyOf(codeStarts, count);
+    this.code = code.copy();
+    Statement[] copies = new Statement[count];
+    lines = new int[count];
+    formatted = new String[count];
+    for (int index = 0; index < count; ++index) {
+      Statement stmt = layout.get(index);
+      copies[index] = stmt.detach(this.code, this.codeStarts[index]);
+      lines[index] = stmt.getLine();
+      formatted[index] = stmt.getFormattedStatement();
+    }
+    statements = Collections.unmodifiableList(Arrays.asList(copies));
+    this.diagnostics = Collections.unmodifiableList(diagnostics);
+
+    this.memory = memory.copy();
+    this.end = end;
+
+    // The registers and program counter, then the program; a program that
+    // does not fit in memory is cut off at its end
+    int last = Math.min(end, MemoryImage.SIZE);
+    StringBuilder sb = new StringBuilder(last * 5);
+    for (int address = 0; address < last; ++address) {
+      sb.append(String.format("%04o", this.memory.get(address)));
+      sb.append('\n');
+    }
+    instructions = sb.toString();
+    lineTable = new LineTable(this.memory, lines, end);
+  }
+
+  /**
+   * Get the statements as laid out in memory: the program statements plus the
+   * statements added to jump around the LED display address. The statements
+   * are copies reading their OpCodes from the snapshot, so they do not change
+   * when the program is edited.
+   *
+   * @return The statements, which cannot be changed
+   */
+  public List<Statement> getStatements() {
+    return statements;
+  }
+
+  /**
+   * Get the first address of a statement.
+   *
+   * @param index
+   *          The statement index
+   * @return The address
+   */
+  public int getAddress(int index) {
+    return starts[index];
+  }
+
+  /**
+   * Get the source line of a statement.
+   *
+   * @param index
+   *          The statement index
+   * @return The line (1-based) when the snapshot was taken
+   */
+  public int getLine(int index) {
+    return lines[index];
+  }
+
+  /**
+   * Get the formatted source of a statement.
+   *
+   * @param index
+   *          The statement index
+   * @return The formatted statement
+   */
+  public String getFormattedStatement(int index) {
+    return formatted[index];
+  }
+
+  /**
+   * Get the index of a statement's first code entry.
+   *
+   * @param index
+   *          The statement index
+   * @return The entry index
+   */
+  public int getCodeStart(int index) {
+    return codeStarts[index];
+  }
+
+  /**
+   * Get the index just past a statement's code entries.
+   *
+   * @param index
+   *          The statement index
+   * @return The entry index
+   */
+  public int getCodeEnd(int index) {
+    return index + 1 < codeStarts.length ? codeStarts[index + 1]
+        : code.size();
+  }
+
+  /**
+   * Get the operating codes of a statement, as laid out.
+   *
+   * @param index
+   *          The statement index
+   * @return New operating codes; changing them does not change the snapshot
+   */
+  public ByteContent[] getOpCodes(int index) {
+    ByteContent[] opCodes = new ByteContent[getCodeEnd(index)
+        - codeStarts[index]];
+    for (int entry = 0; entry < opCodes.length; ++entry) {
+      opCodes[entry] = code.view(codeStarts[index] + entry);
+    }
+    return opCodes;
+  }
+
+  /**
+   * Get the packed operating codes.
+   *
+   * @return The code; its package-private mutators are never called
+   */
+  public PackedCode getCode() {
+    return code;
+  }
+
+  /**
+   * Get the contents of memory.
+   *
+   * @return The image; its package-private mutators are never called
+   */
+  public MemoryImage getMemory() {
+    return memory;
+  }
+
+  /**
+   * Get the address just past the program.
+   *
+   * @return The address
+   */
+  public int getEnd() {
+    return end;
+  }
+
+  /**
+   * Find the statement whose operating codes hold a memory cell.
+   *
+   * @param address
+   *          The address
+   * @return The statement index, -1 if no statement holds the cell
+   */
+  public int getStatementAt(int address) {
+    return memory.getOwner(address);
+  }
+
+  /**
+   * Find the offset of a memory cell in the statement holding it.
+   *
+   * @param address
+   *          The address
+   * @return The number of bytes the cell is past the statement's first
+   *         address, -1 if no statement holds the cell
+   */
+  public int getOffsetAt(int address) {
+    int owner = memory.getOwner(address);
+    return owner == MemoryImage.NO_OWNER ? -1 : address - starts[owner];
+  }
+
+  /**
+   * Find the statements that jump to a label.
+   *
+   * @param label
+   *          The label name
+   * @return The statement indexes, in layout order; empty if the label is not
+   *         jumped to
+   */
+  public int[] getReferrers(String label) {
+    SymbolTable symbols = code.getSymbols();
+    int id = symbols.find(label);
+    if (id < 0) {
+      return new int[0];
+    }
+    int[] referrers = new int[symbols.getFixupCount(id)];
+    for (int index = 0; index < referrers.length; ++index) {
+      int jump = symbols.getFixup(id, index);
+      int owner = memory.getOwner(code.getAddress(jump));
+      referrers[index] = owner == MemoryImage.NO_OWNER ? owner(jump) : owner;
+    }
+    return referrers;
+  }
+
+  /**
+   * Get the operating codes (bytes) to upload to the microKenbek-1.
+   *
+   * @param includeEof
+   *          Whether an "s" should be added as the last line of the output
+   * @return A string containing all the instructions
+   */
+  public String getInstructions(boolean includeEof) {
+    return includeEof ? instructions + "s\n" : instructions;
+  }
+
+  /**
+   * Get the source line of each memory cell, to map addresses on the
+   * microKENBAK-1 back to the source.
+   *
+   * @return The line table
+   */
+  public LineTable getLineTable() {
+    return lineTable;
+  }
+
+  /**
+   * Get the errors and warnings for the program, ordered by source line.
+   *
+   * @return The diagnostics, which cannot be changed
+   */
+  public List<Diagnostic> getDiagnostics() {
+    return diagnostics;
+  }
+
+  /**
+   * Get the statement a code entry belongs to, for an entry past the end of
+   * memory.
+   *
+   * @param entry
+   *          The entry index
+   * @return The statement index
+   */
+  private int owner(int entry) {
+    // The last statement starting at or before the entry
+    int low = 0;
+    int high = codeStarts.length - 1;
+    while (low < high) {
+      int middle = (low + high + 1) >>> 1;
+      if (codeStarts[middle] <= entry) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return low;
+  }
+}
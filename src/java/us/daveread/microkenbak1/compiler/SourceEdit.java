@@ -0,0 +1,86 @@
+package us.daveread.microkenbak1.compiler;
+
+/**
+ * A change to the source of a program: a range of whole lines replaced by new
+ * text. An empty range inserts lines, empty text deletes them.
+ *
+ * @author readda
+ *
+ */
+public final class SourceEdit {
+  /**
+   * The first line replaced (1-based).
+   */
+  private final int startLine;
+
+  /**
+   * The line just past the lines replaced (1-based).
+   */
+  private final int endLine;
+
+  /**
+   * The replacement lines.
+   */
+  private final String text;
+
+  /**
+   * Create an edit.
+   *
+   * @param startLine
+   *          The first line replaced (1-based)
+   * @param endLine
+   *          The line just past the lines replaced, equal to startLine to
+   *          insert before startLine
+   * @param text
+   *          The replacement lines, empty to delete the lines
+   */
+  public SourceEdit(int startLine, int endLine, String text) {
+    if (startLine < 1 || endLine < startLine) {
+      throw new IllegalArgumentException("Invalid line range " + startLine
+          + "-" + endLine + " (lines start at 1 and the end is exclusive)");
+    }
+    this.startLine = startLine;
+    this.endLine = endLine;
+    this.text = text;
+  }
+
+  /**
+   * Create an edit replacing a single line.
+   *
+   * @param line
+   *          The line replaced (1-based)
+   * @param text
+   *          The replacement lines, empty to delete the line
+   * @return The edit
+   */
+  public static SourceEdit replaceLine(int line, String text) {
+    return new SourceEdit(line, line + 1, text);
+  }
+
+  /**
+   * Get the first line replaced.
+   *
+   * @return The line (1-based)
+   */
+  public int getStartLine() {
+    return startLine;
+  }
+
+  /**
+   * Get the line just past the lines replaced.
+   *
+   * @return The line (1-based)
+   */
+  public int getEndLine() {
+    return endLine;
+  }
+
+  /**
+   * Get the replacement lines.
+   *
+   * @return The text
+   */
+  public String getText() {
+    return text;
+  }
+}
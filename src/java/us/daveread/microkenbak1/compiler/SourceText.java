@@ -0,0 +1,363 @@
+package us.daveread.microkenbak1.compiler;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The complete text of a source program, read in one operation, along with an
+ * index of where each line starts. Source is decoded as UTF-8 (ASCII being the
+ * common, fast case).
+ *
+ * @author readda
+ *
+ */
+public class SourceText {
+  /**
+   * Files at least this large are memory mapped rather than read.
+   */
+  public static final int MAP_THRESHOLD = 256 * 1024;
+
+  /**
+   * The name of the source (e.g., the file name).
+   */
+  private final String name;
+
+  /**
+   * The source characters. Only the first length characters are used.
+   */
+  private final char[] text;
+
+  /**
+   * The number of source characters.
+   */
+  private final int length;
+
+  /**
+   * Offset of the first character of each line. An extra entry holds the
+   * offset just past the end of the text.
+   */
+  private final int[] lineStarts;
+
+  /**
+   * The number of lines.
+   */
+  private final int lineCount;
+
+  /**
+   * Create the source text and index its lines.
+   *
+   * @param name
+   *          The name of the source
+   * @param text
+   *          The source characters
+   * @param length
+   *          The number of source characters in the buffer
+   */
+  public SourceText(String name, char[] text, int length) {
+    this.name = name;
+    this.text = text;
+
+    // Skip a byte order mark, it is not part of the program
+    int start = length > 0 && text[0] == '\uFEFF' ? 1 : 0;
+
+    int[] starts = new int[16];
+    int count = 0;
+    int position = start;
+    while (position < length) {
+      if (count + 1 >= starts.length) {
+        starts = Arrays.copyOf(starts, starts.length * 2);
+      }
+      starts[count++] = position;
+
+      while (position < length && text[position] != '\n'
+          && text[position] != '\r') {
+        ++position;
+      }
+      if (position < length && text[position] == '\r') {
+        ++position;
+      }
+      if (position < length && text[position] == '\n') {
+        ++position;
+      }
+    }
+    starts[count] = length;
+
+    this.length = length;
+    this.lineStarts = starts;
+    this.lineCount = count;
+  }
+
+  /**
+   * Read a source file. Small files are read with a single read, large files
+   * are memory mapped.
+   *
+   * @param filename
+   *          The source file
+   * @return The source text
+   * @throws IOException
+   *           If the file cannot be read
+   */
+  public static SourceText fromFile(String filename) throws IOException {
+    try (FileInputStream in = new FileInputStream(filename);
+        FileChannel channel = in.getChannel()) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Source file is too large: " + filename);
+      }
+
+      ByteBuffer bytes;
+      if (size >= MAP_THRESHOLD) {
+        bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      } else {
+        bytes = ByteBuffer.allocate((int) size);
+        while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+          // Normally completes in one read
+        }
+        bytes.flip();
+      }
+
+      return decode(filename, bytes);
+    }
+  }
+
+  /**
+   * Read source from a stream. The stream is read to its end but not closed.
+   *
+   * @param name
+   *          The name of the source
+   * @param in
+   *          The stream
+   * @return The source text
+   * @throws IOException
+   *           If the stream cannot be read
+   */
+  public static SourceText fromStream(String name, InputStream in)
+      throws IOException {
+    return fromBytes(name, in.readAllBytes());
+  }
+
+  /**
+   * Read source from a reader. The reader is read to its end but not closed.
+   *
+   * @param name
+   *          The name of the source
+   * @param reader
+   *          The reader
+   * @return The source text
+   * @throws IOException
+   *           If the reader cannot be read
+   */
+  public static SourceText fromReader(String name, Reader reader)
+      throws IOException {
+    char[] chars = new char[8192];
+    int count = 0;
+    int read;
+    while ((read = reader.read(chars, count, chars.length - count)) >= 0) {
+      count += read;
+      if (count == chars.length) {
+        chars = Arrays.copyOf(chars, chars.length * 2);
+      }
+    }
+    return new SourceText(name, chars, count);
+  }
+
+  /**
+   * Create source from UTF-8 encoded bytes.
+   *
+   * @param name
+   *          The name of the source
+   * @param bytes
+   *          The encoded source
+   * @return The source text
+   */
+  public static SourceText fromBytes(String name, byte[] bytes) {
+    return decode(name, ByteBuffer.wrap(bytes));
+  }
+
+  /**
+   * Create source from a string.
+   *
+   * @param name
+   *          The name of the source
+   * @param source
+   *          The source
+   * @return The source text
+   */
+  public static SourceText fromString(String name, String source) {
+    return new SourceText(name, source.toCharArray(), source.length());
+  }
+
+  /**
+   * Decode UTF-8 bytes. Pure ASCII content is widened directly, anything else
+   * goes through the UTF-8 decoder.
+   *
+   * @param name
+   *          The name of the source
+   * @param bytes
+   *          The encoded source, from position to limit
+   * @return The source text
+   */
+  private static SourceText decode(String name, ByteBuffer bytes) {
+    int start = bytes.position();
+    int size = bytes.remaining();
+    char[] chars = new char[size];
+
+    for (int index = 0; index < size; ++index) {
+      byte b = bytes.get(start + index);
+      if (b < 0) {
+        return decodeUtf8(name, bytes);
+      }
+      chars[index] = (char) b;
+    }
+
+    return new SourceText(name, chars, size);
+  }
+
+  /**
+   * Decode UTF-8 bytes that are not pure ASCII. Malformed input is replaced
+   * rather than rejected, it can only appear in comments or be reported as a
+   * syntax error.
+   *
+   * @param name
+   *          The name of the source
+   * @param bytes
+   *          The encoded source, from position to limit
+   * @return The source text
+   */
+  private static SourceText decodeUtf8(String name, ByteBuffer bytes) {
+    CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    try {
+      CharBuffer chars = decoder.decode(bytes.duplicate());
+      char[] text = new char[chars.remaining()];
+      chars.get(text);
+      return new SourceText(name, text, text.length);
+    } catch (IOException ioe) {
+      // Not reachable when errors are replaced
+      throw new IllegalStateException("Unable to decode " + name, ioe);
+    }
+  }
+
+  /**
+   * Get the name of the source.
+   *
+   * @return The source name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Get the buffer holding the source characters. Only the first
+   * {@link #length()} characters are source.
+   *
+   * @return The source characters
+   */
+  public char[] getBuffer() {
+    return text;
+  }
+
+  /**
+   * Get the number of source characters.
+   *
+   * @return The source length
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Get the number of lines.
+   *
+   * @return The number of lines
+   */
+  public int getLineCount() {
+    return lineCount;
+  }
+
+  /**
+   * Get the offset of the first character of a line.
+   *
+   * @param line
+   *          The line index (0 based)
+   * @return The offset of the line
+   */
+  public int lineStart(int line) {
+    checkLine(line);
+    return lineStarts[line];
+  }
+
+  /**
+   * Get the offset just past the last character of a line, not including the
+   * line terminator.
+   *
+   * @param line
+   *          The line index (0 based)
+   * @return The offset of the end of the line
+   */
+  public int lineEnd(int line) {
+    checkLine(line);
+    int end = lineStarts[line + 1];
+    if (end > lineStarts[line] && text[end - 1] == '\n') {
+      --end;
+    }
+    if (end > lineStarts[line] && text[end - 1] == '\r') {
+      --end;
+    }
+    return end;
+  }
+
+  /**
+   * Get the text of a line, not including the line terminator.
+   *
+   * @param line
+   *          The line index (0 based)
+   * @return The line text
+   */
+  public String getLine(int line) {
+    int start = lineStart(line);
+    return new String(text, start, lineEnd(line) - start);
+  }
+
+  /**
+   * Find the line containing a character offset.
+   *
+   * @param offset
+   *          A character offset
+   * @return The line index (0 based)
+   */
+  public int lineOf(int offset) {
+    if (offset < 0 || offset > length) {
+      throw new IndexOutOfBoundsException(
+          "Offset " + offset + " is not in the range 0-" + length);
+    }
+    int line = Arrays.binarySearch(lineStarts, 0, lineCount, offset);
+    if (line < 0) {
+      line = -line - 2;
+    }
+    return Math.max(line, 0);
+  }
+
+  /**
+   * Verify a line index is in range.
+   *
+   * @param line
+   *          The line index
+   */
+  private void checkLine(int line) {
+    if (line < 0 || line >= lineCount) {
+      throw new IndexOutOfBoundsException(
+          "Line " + line + " is not in the range 0-" + (lineCount - 1));
+    }
+  }
+}
@@ -1,46 +1,79 @@
 package us.daveread.microkenbak1.compiler;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-
-import org.apache.log4j.Logger;
-
-import us.daveread.microkenbak1.compiler.instruction.JumpInstruction;
-import us.daveread.microkenbak1.compiler.instruction.JumpType;
-import us.daveread.microkenbak1.compiler.instruction.Label;
 import us.daveread.microkenbak1.compiler.instruction.ByteContent;
-import us.daveread.microkenbak1.compiler.instruction.OperationInstruction;
 
 /**
  * Statements represent programmatic steps Each statement is converted to one or
  * more OpCodes.
  * 
+ * The lexemes are parsed once into an immutable {@link StatementNode}, and the
+ * OpCodes are generated from the node rather than from the lexemes. They are
+ * kept packed, as a template of ints, and laid out into the program's
+ * {@link PackedCode}. The node and template are shared by every equal
+ * statement, through the {@link EncodingCache}.
+ * 
  * @author readda
  *
  */
 public class Statement {
   /**
-   * The logger.
+   * The original lexemes for the statment, null if the statement was created
+   * from a node.
    */
-  private final static Logger LOG;
+  private Lexemes originalLexemes;
 
   /**
-   * The original lexemes for the statment.
+   * The parsed statement.
    */
-  private String[] originalLexemes;
+  private StatementNode node;
 
   /**
-   * The bytes representing the operations on the microKenbak-1
+   * The bytes representing the operations on the microKenbak-1, encoded as a
+   * {@link PackedCode} template.
    */
-  private List<ByteContent> programBytes;
+  private int[] encoding;
 
   /**
-   * Set up the logger instance.
+   * The number of memory cells the operations occupy.
    */
-  static {
-    LOG = Logger.getLogger(Statement.class);
-  }
+  private int memoryCells;
+
+  /**
+   * The program code the statement is laid out in, null if not laid out.
+   */
+  private PackedCode code;
+
+  /**
+   * The index of the statement's first entry in the program code.
+   */
+  private int codeStart;
+
+  /**
+   * The id of the label name in the program's symbol table, -1 if none or not
+   * in a program.
+   */
+  private int labelId = -1;
+
+  /**
+   * The source line (1-based) of the statement, 0 if unknown.
+   */
+  private int line;
+
+  /**
+   * The offset of the start of the source line within the lexeme buffer.
+   */
+  private int lineStart;
+
+  /**
+   * Why the statement could not be parsed, null unless a placeholder.
+   */
+  private String errorMessage;
+
+  /**
+   * The index of the lexeme at fault in a placeholder, -1 for the whole
+   * statement.
+   */
+  private int errorLexeme;
 
   /**
    * create a statement, parsing the supplied array of lexemes (parsed text line
@@ -50,709 +83,399 @@ public class Statement {
    *          The lexemes making up one statement
    */
   public Statement(String[] lexemes) {
-    originalLexemes = lexemes;
-
-    programBytes = new ArrayList<>();
-
-    convertToInstructions(lexemes);
+    this(Lexemes.of(lexemes));
   }
 
   /**
-   * Identify the type of statement and create OpCodes as appropriate.
+   * create a statement, parsing the supplied lexeme spans (tokenized text line
+   * from source code).
    * 
    * @param lexemes
    *          The lexemes making up one statement
    */
-  public void convertToInstructions(String[] lexemes) {
-    switch (lexemes[0].toUpperCase()) {
-      case "LABEL":
-        handleLabel(lexemes);
-        break;
-      case "LET":
-        handleAssignment(lexemes);
-        break;
-      case "GOTO":
-        handleJump(lexemes);
-        break;
-      case "SYSCALL":
-        handleSysCall();
-        break;
-      case "MEMCOPY":
-        handleMemCopy(lexemes);
-        break;
-      case "AND": // fall through to OR
-      case "OR":
-        handleLogical(lexemes);
-        break;
-      case "ADD":
-        handleAdd(lexemes);
-        break;
-      case "SUBTRACT":
-        handleSubtract(lexemes);
-        break;
-      case "IF":
-        handleIf(lexemes);
-        break;
-      case "HALT":
-        handleHalt();
-        break;
-      case "BITSHIFT":
-        handleBitshift(lexemes);
-        break;
-      case "NOOP":
-        handleNoOp();
-        break;
-      case "BYTES":
-        handleRawByteValue(lexemes);
-        break;
-      default:
-        throw new IllegalStateException("Undefined keyword: " + lexemes[0]);
-    }
+  public Statement(Lexemes lexemes) {
+    originalLexemes = lexemes;
+
+    node = convertToNode(lexemes);
+    convertToInstructions(node);
   }
 
   /**
-   * Generate OpCodes for a label.
+   * create a statement from an already parsed node.
    * 
-   * @param lexemes
-   *          The parameters for the label statement
+   * @param node
+   *          The parsed statement
    */
-  public void handleLabel(String[] lexemes) {
-    if (lexemes.length == 1) {
-      throw new IllegalStateException("LABEL requires a label name");
-    } else if (lexemes.length > 2) {
-      throw new IllegalStateException("Label names may not contain spaces");
-    }
-
-    Label label = new Label(lexemes[1]);
-
-    add(label);
+  public Statement(StatementNode node) {
+    this(null, node);
   }
 
   /**
-   * Generate OpCodes for an assignment.
+   * create a statement from lexemes and their parsed node, without parsing.
    * 
    * @param lexemes
-   *          The parameters of the assignment operation
+   *          The lexemes making up one statement, null if none
+   * @param node
+   *          The parsed statement, null for a placeholder
    */
-  public void handleAssignment(String[] lexemes) {
-    if (lexemes.length != 4 && lexemes.length != 5) {
-      throw new IllegalStateException(
-          "LET requires variable, =, optional VALUEIN, and value");
-    }
-
-    if (!lexemes[2].equals("=")) {
-      throw new IllegalStateException(
-          "LET requires variable, =, optional VALUEIN, and value");
-    }
-
-    boolean isValueIn = false;
-    int valuePosition = 3;
-    String value;
-
-    if (lexemes.length == 5) {
-      isValueIn = true;
-      valuePosition = 4;
-    }
-
-    if (isValueIn && !lexemes[3].toUpperCase().equals("VALUEIN")) {
-      throw new IllegalStateException(
-          "LET requires variable, =, optional VALUEIN, and value");
-    }
-
-    verifyVariableName(lexemes[1]);
-
-    value = lexemes[valuePosition];
+  private Statement(Lexemes lexemes, StatementNode node) {
+    originalLexemes = lexemes;
+    this.node = node;
 
-    if (isValueIn) {
-      value = translateMemLocationName(value);
-    }
+    convertToInstructions(node);
+  }
 
-    verifyByteValue(value);
-
-    int opCode;
-
-    switch (lexemes[1].toUpperCase()) {
-      case "A":
-        opCode = 023;
-        break;
-      case "B":
-        opCode = 0123;
-        break;
-      case "X":
-        opCode = 0223;
-        break;
-      default:
-        throw new IllegalStateException(
-            "Undefined variable name: " + lexemes[1]);
-    }
+  /**
+   * Create a placeholder for a statement that could not be parsed. The
+   * placeholder keeps the lexemes for listings but generates no OpCodes.
+   * 
+   * @param lexemes
+   *          The lexemes of the statement in error
+   * @param line
+   *          The source line (1-based), 0 if unknown
+   * @param lineStart
+   *          The offset of the start of the line within the lexeme buffer
+   * @param cause
+   *          The error found parsing the statement
+   * @return The placeholder statement
+   */
+  public static Statement placeholder(Lexemes lexemes, int line,
+      int lineStart, IllegalStateException cause) {
+    Statement stmt = new Statement(lexemes, null);
+    stmt.setSource(line, lineStart);
 
-    if (isValueIn) {
-      opCode += 1;
-    }
+    stmt.errorLexeme = cause instanceof StatementException
+        ? ((StatementException) cause).getLexeme() : -1;
+    stmt.errorMessage = cause.getMessage();
 
-    ByteContent inst = new OperationInstruction(opCode);
-    add(inst);
+    return stmt;
+  }
 
-    inst = new OperationInstruction(Integer.decode(value));
-    add(inst);
+  /**
+   * Create a placeholder for this statement, for an error found after it was
+   * parsed.
+   * 
+   * @param cause
+   *          The error
+   * @return The placeholder statement
+   */
+  Statement toPlaceholder(IllegalStateException cause) {
+    return placeholder(originalLexemes, line, lineStart, cause);
   }
 
   /**
-   * Generate OpCodes for an unconditional jump (goto).
+   * Identify the type of statement and parse its operands.
    * 
    * @param lexemes
-   *          The parameters of the unconditional jump operation
+   *          The lexemes making up one statement
+   * @return The parsed statement, shared with equal statements
    */
-  public void handleJump(String[] lexemes) {
-    if (lexemes.length == 1) {
-      throw new IllegalStateException("GOTO requires a label name");
-    } else if (lexemes.length > 2) {
-      throw new IllegalStateException("Label names may not contain spaces");
-    }
-
-    JumpInstruction jump = new JumpInstruction(JumpType.UNCONDITIONAL,
-        lexemes[1]);
-    add(jump);
+  public StatementNode convertToNode(Lexemes lexemes) {
+    return EncodingCache.parse(lexemes);
   }
 
   /**
-   * Generate OpCodes for a system call.
+   * Generate OpCodes for a parsed statement.
+   * 
+   * @param node
+   *          The parsed statement, null for a placeholder
    */
-  public void handleSysCall() {
-    add(new OperationInstruction(0360));
+  private void convertToInstructions(StatementNode node) {
+    encoding = EncodingCache.encode(node);
+    memoryCells = PackedCode.cells(encoding);
   }
 
   /**
-   * Generate OpCodes for a copying a variable's value to a memory location.
+   * Verify that a string contains a legal octal byte value ("0" through "0377")
    * 
-   * @param lexemes
-   *          The parameters of the memcopy operation
+   * @param value
    */
-  public void handleMemCopy(String[] lexemes) {
-    boolean hasMemoryIndirection;
-    int memoryLocationIndex;
+  public void verifyByteValue(String value) {
+    int intValue = ByteLiteral.parse(value);
 
-    if (lexemes.length < 4 || lexemes.length > 5) {
+    if (intValue == ByteLiteral.NOT_A_NUMBER) {
       throw new IllegalStateException(
-          "MEMCOPY requires variable, TO, optional ADDRESSIN, and memory_location");
-    } else if (lexemes.length == 4 && !lexemes[2].equalsIgnoreCase("to")) {
-      throw new IllegalStateException(
-          "MEMCOPY requires variable, TO, optional ADDRESSIN, and memory_location");
-    } else if (lexemes.length == 5 && (!lexemes[2].equalsIgnoreCase("to")
-        || !lexemes[3].equalsIgnoreCase("addressin"))) {
-      throw new IllegalStateException(
-          "MEMCOPY requires variable, TO, optional ADDRESSIN, and memory_location");
-    } else {
-      memoryLocationIndex = lexemes.length - 1;
-      hasMemoryIndirection = lexemes.length == 5;
+          Operand.NOT_A_NUMBER_REASON + value + ")");
+    } else if (intValue == ByteLiteral.OUT_OF_RANGE) {
+      throw new IllegalStateException(Operand.OUT_OF_RANGE_REASON);
     }
-
-    lexemes[memoryLocationIndex] = translateMemLocationName(
-        lexemes[memoryLocationIndex]);
-
-    verifyVariableName(lexemes[1]);
-    verifyByteValue(lexemes[memoryLocationIndex]);
-
-    int opCode;
-
-    switch (lexemes[1].toUpperCase()) {
-      case "A":
-        opCode = 034;
-        break;
-      case "B":
-        opCode = 0134;
-        break;
-      case "X":
-        opCode = 0234;
-        break;
-      default:
-        throw new IllegalStateException(
-            "Undefined variable name for MEMCOPY: " + lexemes[1]);
-    }
-
-    if (hasMemoryIndirection) {
-      opCode |= 1;
-    }
-
-    ByteContent inst = new OperationInstruction(opCode);
-    add(inst);
-
-    inst = new OperationInstruction(
-        Integer.decode(lexemes[memoryLocationIndex]));
-    add(inst);
   }
 
   /**
-   * Generate OpCodes for bitwise AND and OR.
+   * Check that a variable name is A, B, or X (the Kenbek-1 "registers")
    * 
-   * @param lexemes
-   *          The parameters of the logic operation
+   * @param name
+   *          A variable name
    */
-  public void handleLogical(String[] lexemes) {
-    if (lexemes.length != 2) {
-      throw new IllegalStateException(
-          lexemes[0].toUpperCase() + " requires a value");
-    }
-
-    verifyByteValue(lexemes[1]);
-
-    int opCode;
+  public void verifyVariableName(String name) {
+    Keyword keyword = Keyword.lookup(name);
 
-    switch (lexemes[0].toUpperCase()) {
-      case "AND":
-        opCode = 0323;
-        break;
-      case "OR":
-        opCode = 0303;
-        break;
-      default:
-        throw new IllegalStateException(
-            "Undefined logical operator: " + lexemes[0]);
+    if (keyword == null || !keyword.isVariable()) {
+      throw new IllegalStateException("Variable name must be A, B, or X");
     }
-
-    add(new OperationInstruction(opCode));
-    add(new OperationInstruction(Integer.decode(lexemes[1])));
   }
 
   /**
-   * Generate OpCodes for addition.
+   * Translates convenience names to memory locations. The value is returned
+   * unchanged if it does not match a predefined memory location name.
    * 
-   * @param lexemes
-   *          The parameters of the addition operation
+   * Supports A, B, X, P (program counter, 04), DISPLAY (0200), and
+   * INPUT (0377)
+   * 
+   * @param memLocation
+   *          A memory location of convenience name
+   * @return A memory location
    */
-  public void handleAdd(String[] lexemes) {
-    if (lexemes.length != 4 || !lexemes[2].equalsIgnoreCase("TO")) {
-      throw new IllegalStateException("ADD requires source, TO, and variable");
-    }
-
-    boolean hasMemoryIndirection = false;
-    int memoryLocation = 0;
-
-    try {
-      verifyVariableName(lexemes[1]);
-      hasMemoryIndirection = true;
-    } catch (IllegalStateException ise) {
-      LOG.debug(
-          "Expected exception in ADD, not a variable, now expecting literal");
-    }
-
-    if (hasMemoryIndirection) {
-      switch (lexemes[1].toUpperCase()) {
-        case "A":
-          memoryLocation = 0;
-          break;
-        case "B":
-          memoryLocation = 1;
-          break;
-        case "X":
-          memoryLocation = 2;
-          break;
-        default:
-          throw new IllegalStateException(
-              "Unknown variable name in ADD: " + lexemes[1]);
-      }
-    } else {
-      verifyByteValue(lexemes[1]);
-    }
-
-    verifyVariableName(lexemes[3]);
-
-    int opCode;
-
-    switch (lexemes[3].toUpperCase()) {
-      case "A":
-        opCode = 03;
-        break;
-      case "B":
-        opCode = 0103;
-        break;
-      case "X":
-        opCode = 0203;
-        break;
-      default:
-        throw new IllegalStateException(
-            "Undefined variable name for ADD: " + lexemes[1]);
-    }
+  public String translateMemLocationName(String memLocation) {
+    Keyword keyword = Keyword.lookup(memLocation);
 
-    if (hasMemoryIndirection) {
-      opCode += 1;
+    if (keyword == null || !keyword.isMemoryLocation()) {
+      return memLocation;
     }
 
-    ByteContent inst = new OperationInstruction(opCode);
-    add(inst);
-
-    if (hasMemoryIndirection) {
-      inst = new OperationInstruction(memoryLocation);
-    } else {
-      inst = new OperationInstruction(Integer.decode(lexemes[1]));
-    }
-    add(inst);
+    return String.format("%04o", keyword.getMemoryLocation());
   }
 
   /**
-   * Generate OpCodes for subtraction.
+   * Get the microKenbek-1 operating codes for this statement, as laid out in
+   * its program. The operating codes are new objects, changing them does not
+   * change the statement.
    * 
-   * @param lexemes
-   *          The parameters of the subtraction operation
+   * @return The operating codes for the statement
    */
-  public void handleSubtract(String[] lexemes) {
-    if (lexemes.length != 4 || !lexemes[2].equalsIgnoreCase("FROM")) {
-      throw new IllegalStateException(
-          "SUBTRACT requires value, FROM, and variable");
-    }
-
-    boolean hasMemoryIndirection = false;
-    int memoryLocation = 0;
-
-    try {
-      verifyVariableName(lexemes[1]);
-      hasMemoryIndirection = true;
-    } catch (IllegalStateException ise) {
-      LOG.debug(
-          "Expected exception in SUBTRACT, not a variable, now expecting literal");
-    }
-
-    if (hasMemoryIndirection) {
-      switch (lexemes[1].toUpperCase()) {
-        case "A":
-          memoryLocation = 0;
-          break;
-        case "B":
-          memoryLocation = 1;
-          break;
-        case "X":
-          memoryLocation = 2;
-          break;
-        default:
-          throw new IllegalStateException(
-              "Unknown variable name in SUBTRACT: " + lexemes[1]);
-      }
-    } else {
-      verifyByteValue(lexemes[1]);
-    }
-
-    verifyVariableName(lexemes[3]);
-
-    int opCode;
-
-    switch (lexemes[3].toUpperCase()) {
-      case "A":
-        opCode = 013;
-        break;
-      case "B":
-        opCode = 0113;
-        break;
-      case "X":
-        opCode = 0213;
-        break;
-      default:
-        throw new IllegalStateException(
-            "Undefined variable name for SUBTRACT: " + lexemes[1]);
-    }
-
-    if (hasMemoryIndirection) {
-      opCode += 1;
-    }
-
-    ByteContent inst = new OperationInstruction(opCode);
-    add(inst);
-
-    if (hasMemoryIndirection) {
-      inst = new OperationInstruction(memoryLocation);
-    } else {
-      inst = new OperationInstruction(Integer.decode(lexemes[1]));
+  public ByteContent[] getOpCodes() {
+    ByteContent[] opCodes = new ByteContent[encoding.length];
+    for (int index = 0; index < opCodes.length; ++index) {
+      opCodes[index] = getOpCode(index);
     }
-    add(inst);
+    return opCodes;
   }
 
   /**
-   * Generate OpCodes for a decision.
+   * Get the number of operating codes, without copying them.
    * 
-   * @param lexemes
-   *          The parameters of the if statement
+   * @return The number of operating codes for the statement
    */
-  public void handleIf(String[] lexemes) {
-    if (lexemes.length != 5 || !lexemes[3].equalsIgnoreCase("GOTO")) {
-      throw new IllegalStateException(
-          "IF requires test, variable, GOTO, and label");
-    }
-
-    boolean isOverflowJump = lexemes[2].toUpperCase().equals("OVERFLOW");
-
-    verifyVariableName(lexemes[1]);
-
-    JumpType jumpType;
-
-    switch (lexemes[2].toUpperCase()) {
-      case "NOTZERO":
-        switch (lexemes[1].toUpperCase()) {
-          case "A":
-            jumpType = JumpType.A_NON_0;
-            break;
-          case "B":
-            jumpType = JumpType.B_NON_0;
-            break;
-          case "X":
-            jumpType = JumpType.X_NON_0;
-            break;
-          default:
-            throw new IllegalStateException(
-                "Undefined variable name for IF: " + lexemes[2]);
-        }
-        break;
-      case "ISZERO":
-        switch (lexemes[1].toUpperCase()) {
-          case "A":
-            jumpType = JumpType.A_0;
-            break;
-          case "B":
-            jumpType = JumpType.B_0;
-            break;
-          case "X":
-            jumpType = JumpType.X_0;
-            break;
-          default:
-            throw new IllegalStateException(
-                "Undefined variable name for IF: " + lexemes[2]);
-        }
-        break;
-      case "OVERFLOW":
-        switch (lexemes[1].toUpperCase()) {
-          case "A":
-            jumpType = JumpType.A_OVERFLOW;
-            break;
-          case "B":
-            jumpType = JumpType.B_OVERFLOW;
-            break;
-          case "X":
-            jumpType = JumpType.X_OVERFLOW;
-            break;
-          default:
-            throw new IllegalStateException(
-                "Undefined variable name for IF: " + lexemes[2]);
-        }
-        break;
-      default:
-        throw new IllegalStateException(
-            "Undefined IF test (expected NOTZERO ir ISZERO): " + lexemes[1]);
-    }
+  public int getOpCodeCount() {
+    return encoding.length;
+  }
 
-    if (isOverflowJump) {
-      // Skip the jump if no overflow (e.g. carry flag is 0)
-      add(new OperationInstruction(0212));
-      add(new OperationInstruction(jumpType.getOpCode()));
-      add(new JumpInstruction(JumpType.UNCONDITIONAL, lexemes[4]));
-    } else {
-      JumpInstruction jump = new JumpInstruction(jumpType, lexemes[4]);
-      add(jump);
+  /**
+   * Get one operating code, without creating the others.
+   * 
+   * @param index
+   *          The index of the operating code
+   * @return The operating code, at memory location 0 if the statement is not
+   *         laid out
+   */
+  public ByteContent getOpCode(int index) {
+    if (index < 0 || index >= encoding.length) {
+      throw new IndexOutOfBoundsException("OpCode " + index + " of "
+          + encoding.length);
     }
+    return code == null ? PackedCode.view(encoding[index], node.getLabel())
+        : code.view(codeStart + index);
   }
 
   /**
-   * Generate OpCodes for a halt.
+   * Get the number of memory cells the statement's operating codes occupy.
+   * 
+   * @return The number of memory cells
    */
-  public void handleHalt() {
-    add(new OperationInstruction(0000));
+  public int getMemoryCells() {
+    return memoryCells;
   }
 
   /**
-   * Generate OpCodes for bitshifting.
+   * Get the statement's operating codes as a {@link PackedCode} template.
    * 
-   * @param lexemes
-   *          The parameters for the bitshift operation
+   * @return An entry per operating code; not to be changed
    */
-  public void handleBitshift(String[] lexemes) {
-    int bitCount = 1;
-    String variable;
-    String direction;
-
-    if (lexemes.length < 3 || lexemes.length > 4) {
-      throw new IllegalStateException(
-          "BITSHIFT requires variable, direction, and optional bit_count (1 is the default)");
-    }
-
-    variable = lexemes[1].toUpperCase();
-    direction = lexemes[2].toUpperCase();
-
-    if (variable.length() != 1 || "AB".indexOf(variable) == -1) {
-      throw new IllegalStateException(
-          "Unsupported variable value [" + lexemes[1]
-              + "] in BITSHIFT - only variables A and B are supported");
-    }
-
-    if (!direction.equals("LEFT") && !direction.equals("RIGHT")) {
-      throw new IllegalStateException(
-          "Unsupported direction [" + lexemes[2]
-              + "] in BITSHIFT - must be LEFT or RIGHT");
-    }
-
-    if (lexemes.length == 4) {
-      try {
-        bitCount = Integer.decode(lexemes[3]);
-        if (bitCount < 1 || bitCount > 4) {
-          throw new IllegalStateException("Unsupported bit count [ " + bitCount
-              + "] in BITSHIFT - limited to 1 to 4 bits");
-        }
-      } catch (NumberFormatException nfe) {
-        throw new IllegalStateException(
-            "Unsupported bit count [" + lexemes[3]
-                + "] in BITSHIFT - must be a number in the range 1 to 4",
-            nfe);
-      }
-    }
-
-    int opCode = 1;
-
-    if (direction.equals("LEFT")) {
-      opCode += 0200;
-    }
-
-    if (variable.equals("B")) {
-      opCode += 040;
-    }
-
-    if (bitCount < 4) {
-      opCode += bitCount * 010;
-    }
+  int[] getEncoding() {
+    return encoding;
+  }
 
-    add(new OperationInstruction(opCode));
+  /**
+   * Record where the statement is laid out.
+   * 
+   * @param code
+   *          The program code, null if the statement is no longer laid out
+   * @param codeStart
+   *          The index of the statement's first entry
+   */
+  void setCode(PackedCode code, int codeStart) {
+    this.code = code;
+    this.codeStart = codeStart;
   }
 
   /**
-   * Generate OpCodes for No Operation
+   * Copy the statement, laid out in other code. The copy does not change when
+   * the statement is moved or edited.
+   *
+   * @param copiedCode
+   *          The code the copy reads its OpCodes from
+   * @param copiedStart
+   *          The index of the copy's first entry
+   * @return The copy
    */
-  public void handleNoOp() {
-    add(new OperationInstruction(0300));
+  Statement detach(PackedCode copiedCode, int copiedStart) {
+    Statement copy = new Statement(originalLexemes, node);
+    copy.setCode(copiedCode, copiedStart);
+    copy.labelId = labelId;
+    copy.setSource(line, lineStart);
+    copy.errorMessage = errorMessage;
+    copy.errorLexeme = errorLexeme;
+    return copy;
   }
 
   /**
-   * Place supplied byte value(s) directly in the program. More than one value may be supplied, they will be added to the program in the supplied order.
+   * Record the id of the label name jumped to or defined.
    * 
-   * @param lexemes
-   *          The byte value to insert
+   * @param labelId
+   *          The id in the program's symbol table
    */
-  public void handleRawByteValue(String[] lexemes) {
-    if (lexemes.length < 2) {
-      throw new IllegalStateException("BYTE requires at least one numeric value (0-255)");
-    }
-
-    for (int i = 1;i < lexemes.length;i++) {
-      verifyByteValue(lexemes[i]);
-
-      add(new OperationInstruction(Integer.decode(lexemes[i])));
-    }
+  void setLabelId(int labelId) {
+    this.labelId = labelId;
   }
 
   /**
-   * Verify that a string contains a legal octal byte value ("0" through "0377")
+   * Get the id of the label name jumped to or defined.
    * 
-   * @param value
+   * @return The id in the program's symbol table, -1 if none
    */
-  public void verifyByteValue(String value) {
-    int intValue;
+  int getLabelId() {
+    return labelId;
+  }
 
-    try {
-      intValue = Integer.decode(value);
-    } catch (NumberFormatException nfe) {
-      throw new IllegalStateException(
-          "Value must be a decimal, octal (leading 0), or hexadecimal (leading 0x) integer (found: "
-              + value + ")",
-          nfe);
-    }
+  /**
+   * Get the parsed statement.
+   * 
+   * @return The statement node the OpCodes were generated from, null for a
+   *         placeholder
+   */
+  public StatementNode getNode() {
+    return node;
+  }
 
-    if (intValue < 0 || intValue > 255) {
-      throw new IllegalStateException(
-          "Byte value must be in range 0-255 (decimal), 0-377 (octal), 0xFF (hexadecimal)");
-    }
+  /**
+   * Check whether the statement is a placeholder for one that could not be
+   * parsed.
+   * 
+   * @return True for a placeholder
+   */
+  public boolean isPlaceholder() {
+    return node == null;
   }
 
   /**
-   * Check that a variable name is A, B, or X (the Kenbek-1 "registers")
+   * Get the reason a placeholder statement could not be parsed, located at
+   * the statement's current source line.
    * 
-   * @param name
-   *          A variable name
+   * @return The error, null if the statement is not a placeholder
    */
-  public void verifyVariableName(String name) {
-    if (name.length() != 1) {
-      throw new IllegalStateException("Variable name must be A, B, or X");
+  public Diagnostic getError() {
+    if (errorMessage == null) {
+      return null;
     }
+    return Diagnostic.of(Diagnostic.Code.SYNTAX_ERROR, this, errorLexeme,
+        errorMessage);
+  }
 
-    String ucName = name.toUpperCase();
-
-    if ("ABX".indexOf(ucName) == -1) {
-      throw new IllegalStateException("Variable name must be A, B, or X");
-    }
+  /**
+   * Record where the statement appears in the source.
+   * 
+   * @param line
+   *          The source line (1-based)
+   * @param lineStart
+   *          The offset of the start of the line within the lexeme buffer
+   */
+  public void setSource(int line, int lineStart) {
+    this.line = line;
+    this.lineStart = lineStart;
   }
 
   /**
-   * Translates convenience names to memory locations. The value is returned
-   * unchanged if it does not match a predefined memory location name.
+   * Move the statement to another source line, as when lines are inserted or
+   * removed above it.
    * 
-   * Supports A, B, X, P (program counter, 04), DISPLAY (0200), and
-   * INPUT (0377)
+   * @param line
+   *          The source line (1-based)
+   */
+  public void setLine(int line) {
+    this.line = line;
+  }
+
+  /**
+   * Get the source line of the statement.
    * 
-   * @param memLocation
-   *          A memory location of convenience name
-   * @return A memory location
+   * @return The line (1-based), 0 if unknown
    */
-  public String translateMemLocationName(String memLocation) {
-    switch (memLocation.toUpperCase()) {
-      case "A":
-        return "0000";
-      case "B":
-        return "0001";
-      case "X":
-        return "0002";
-      case "P":
-        return "0003";
-      case "DISPLAY":
-        return "0200";
-      case "INPUT":
-        return "0377";
-      default:
-        return memLocation;
-    }
+  public int getLine() {
+    return line;
   }
 
   /**
-   * Add one or more OpCodes to the statement.
+   * Get the first column of a lexeme, or of the whole statement.
    * 
-   * @param opCodes
-   *          microKenbek-1 operating codes (bytes)
+   * @param lexeme
+   *          The lexeme index, -1 for the whole statement
+   * @return The column (1-based), 0 if unknown
    */
-  public void add(ByteContent... opCodes) {
-    programBytes.addAll(Arrays.asList(opCodes));
+  public int getStartColumn(int lexeme) {
+    if (originalLexemes == null) {
+      return 0;
+    }
+    int index = lexeme < 0 || lexeme >= originalLexemes.size() ? 0 : lexeme;
+    return originalLexemes.offset(index) - lineStart + 1;
   }
 
   /**
-   * Get the microKenbek-1 operating codes for this statement
+   * Get the column just past the end of a lexeme, or of the whole statement.
    * 
-   * @return The operating codes for the statement
+   * @param lexeme
+   *          The lexeme index, -1 for the whole statement
+   * @return The column, 0 if unknown
    */
-  public ByteContent[] getOpCodes() {
-    return programBytes.toArray(new ByteContent[programBytes.size()]);
+  public int getEndColumn(int lexeme) {
+    if (originalLexemes == null) {
+      return 0;
+    }
+    int index = lexeme < 0 || lexeme >= originalLexemes.size()
+        ? originalLexemes.size() - 1 : lexeme;
+    return originalLexemes.offset(index) + originalLexemes.length(index)
+        - lineStart + 1;
   }
 
   /**
    * Get the lexemes for the statement.
    * 
-   * @return The lexemes used to create the statement
+   * @return The lexemes used to create the statement, or the lexemes of the
+   *         canonical statement text if created from a node
    */
   public String[] getLexemes() {
-    return originalLexemes;
+    if (originalLexemes == null) {
+      return node.toString().split(" ");
+    }
+    return originalLexemes.toArray();
   }
 
   /**
    * Get the statement based on the original lexemes. This may differ from the
-   * original source code due to removal of whitespace.
+   * original source code due to removal of whitespace. A statement created
+   * from a node is formatted in canonical form.
    * 
    * @return The formatted source statement
    */
   public String getFormattedStatement() {
+    if (originalLexemes == null) {
+      return node.toString();
+    }
+
     StringBuffer statement = new StringBuffer();
 
-    for (String lexeme : originalLexemes) {
-      statement.append(lexeme);
+    for (int index = 0; index < originalLexemes.size(); ++index) {
+      statement.append(originalLexemes.getBuffer(),
+          originalLexemes.offset(index), originalLexemes.length(index));
       statement.append(" ");
     }
 
@@ -0,0 +1,42 @@
+package us.daveread.microkenbak1.compiler;
+
+/**
+ * A statement that cannot be parsed, identifying the lexeme at fault when
+ * there is one.
+ *
+ * @author readda
+ *
+ */
+public class StatementException extends IllegalStateException {
+  /**
+   * Serialization version.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The index of the lexeme at fault, -1 for the whole statement.
+   */
+  private final int lexeme;
+
+  /**
+   * Create the exception.
+   *
+   * @param message
+   *          The description of the problem
+   * @param lexeme
+   *          The index of the lexeme at fault, -1 for the whole statement
+   */
+  public StatementException(String message, int lexeme) {
+    super(message);
+    this.lexeme = lexeme;
+  }
+
+  /**
+   * Get the index of the lexeme at fault.
+   *
+   * @return The lexeme index, -1 for the whole statement
+   */
+  public int getLexeme() {
+    return lexeme;
+  }
+}
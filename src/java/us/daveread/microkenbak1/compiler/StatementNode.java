@@ -0,0 +1,517 @@
+package us.daveread.microkenbak1.compiler;
+
+import java.util.Arrays;
+
+/**
+ * The typed, immutable form of one statement. Operands are decoded once, when
+ * the node is created: variables are keywords, literals and memory locations
+ * are ints, and jump targets are label names to be resolved at layout.
+ *
+ * Nodes are created through the factory methods, one per statement kind, which
+ * expect already validated operands.
+ *
+ * @author readda
+ *
+ */
+public final class StatementNode {
+  /**
+   * Value of the operand for statements without one.
+   */
+  public static final int NO_OPERAND = -1;
+
+  /**
+   * Shared nodes for statements without operands, indexed by operation
+   * ordinal.
+   */
+  private static final StatementNode[] SIMPLE;
+
+  /**
+   * The operation performed by the statement.
+   */
+  private final Operation operation;
+
+  /**
+   * The variable the statement acts on (A, B, or X), null if none.
+   */
+  private final Keyword variable;
+
+  /**
+   * The literal value, memory location, or source variable location, or
+   * {@link #NO_OPERAND}.
+   */
+  private final int operand;
+
+  /**
+   * Whether the operand is a memory location rather than a value: VALUEIN,
+   * ADDRESSIN, or a variable source for ADD and SUBTRACT.
+   */
+  private final boolean indirect;
+
+  /**
+   * The IF test or the BITSHIFT direction, null if none.
+   */
+  private final Keyword condition;
+
+  /**
+   * The number of bits shifted by BITSHIFT, 0 for other statements.
+   */
+  private final int count;
+
+  /**
+   * The values of a BYTES statement, null for other statements.
+   */
+  private final int[] values;
+
+  /**
+   * The label defined or jumped to, or the file included, null if none.
+   */
+  private final String label;
+
+  /**
+   * Create the shared nodes.
+   */
+  static {
+    SIMPLE = new StatementNode[Operation.values().length];
+    for (Operation operation : new Operation[] { Operation.SYSCALL,
+        Operation.HALT, Operation.NOOP }) {
+      SIMPLE[operation.ordinal()] = new StatementNode(operation, null,
+          NO_OPERAND, false, null, 0, null, null);
+    }
+  }
+
+  /**
+   * Create a node.
+   *
+   * @param operation
+   *          The operation
+   * @param variable
+   *          The variable acted on
+   * @param operand
+   *          The operand value or location
+   * @param indirect
+   *          Whether the operand is a memory location
+   * @param condition
+   *          The IF test or BITSHIFT direction
+   * @param count
+   *          The BITSHIFT bit count
+   * @param values
+   *          The BYTES values
+   * @param label
+   *          The label name
+   */
+  private StatementNode(Operation operation, Keyword variable, int operand,
+      boolean indirect, Keyword condition, int count, int[] values,
+      String label) {
+    this.operation = operation;
+    this.variable = variable;
+    this.operand = operand;
+    this.indirect = indirect;
+    this.condition = condition;
+    this.count = count;
+    this.values = values;
+    this.label = label;
+  }
+
+  /**
+   * Create a LABEL statement.
+   *
+   * @param name
+   *          The label name
+   * @return The node
+   */
+  public static StatementNode label(String name) {
+    return new StatementNode(Operation.LABEL, null, NO_OPERAND, false, null, 0,
+        null, name);
+  }
+
+  /**
+   * Create a LET statement.
+   *
+   * @param variable
+   *          The variable assigned
+   * @param value
+   *          The value, or the memory location holding it
+   * @param valueIn
+   *          True if the value is the memory location holding the value
+   * @return The node
+   */
+  public static StatementNode let(Keyword variable, int value,
+      boolean valueIn) {
+    return new StatementNode(Operation.LET, variable, value, valueIn, null, 0,
+        null, null);
+  }
+
+  /**
+   * Create a GOTO statement.
+   *
+   * @param name
+   *          The label jumped to
+   * @return The node
+   */
+  public static StatementNode jump(String name) {
+    return new StatementNode(Operation.GOTO, null, NO_OPERAND, false, null, 0,
+        null, name);
+  }
+
+  /**
+   * Get the SYSCALL statement.
+   *
+   * @return The node
+   */
+  public static StatementNode sysCall() {
+    return SIMPLE[Operation.SYSCALL.ordinal()];
+  }
+
+  /**
+   * Create a MEMCOPY statement.
+   *
+   * @param variable
+   *          The variable copied
+   * @param memoryLocation
+   *          The destination memory location
+   * @param addressIn
+   *          True if the memory location holds the destination address
+   * @return The node
+   */
+  public static StatementNode memCopy(Keyword variable, int memoryLocation,
+      boolean addressIn) {
+    return new StatementNode(Operation.MEMCOPY, variable, memoryLocation,
+        addressIn, null, 0, null, null);
+  }
+
+  /**
+   * Create an AND or OR statement.
+   *
+   * @param operation
+   *          {@link Operation#AND} or {@link Operation#OR}
+   * @param value
+   *          The value combined with A
+   * @return The node
+   */
+  public static StatementNode logical(Operation operation, int value) {
+    if (operation != Operation.AND && operation != Operation.OR) {
+      throw new IllegalStateException(
+          "Undefined logical operator: " + operation);
+    }
+
+    return new StatementNode(operation, Keyword.A, value, false, null, 0, null,
+        null);
+  }
+
+  /**
+   * Create an ADD statement.
+   *
+   * @param source
+   *          The value, or the memory location of the variable, added
+   * @param variableSource
+   *          True if the source is a variable
+   * @param variable
+   *          The variable added to
+   * @return The node
+   */
+  public static StatementNode add(int source, boolean variableSource,
+      Keyword variable) {
+    return new StatementNode(Operation.ADD, variable, source, variableSource,
+        null, 0, null, null);
+  }
+
+  /**
+   * Create a SUBTRACT statement.
+   *
+   * @param source
+   *          The value, or the memory location of the variable, subtracted
+   * @param variableSource
+   *          True if the source is a variable
+   * @param variable
+   *          The variable subtracted from
+   * @return The node
+   */
+  public static StatementNode subtract(int source, boolean variableSource,
+      Keyword variable) {
+    return new StatementNode(Operation.SUBTRACT, variable, source,
+        variableSource, null, 0, null, null);
+  }
+
+  /**
+   * Create an IF statement.
+   *
+   * @param variable
+   *          The variable tested
+   * @param test
+   *          ISZERO, NOTZERO, or OVERFLOW
+   * @param name
+   *          The label jumped to
+   * @return The node
+   */
+  public static StatementNode ifJump(Keyword variable, Keyword test,
+      String name) {
+    return new StatementNode(Operation.IF, variable, NO_OPERAND, false, test,
+        0, null, name);
+  }
+
+  /**
+   * Get the HALT statement.
+   *
+   * @return The node
+   */
+  public static StatementNode halt() {
+    return SIMPLE[Operation.HALT.ordinal()];
+  }
+
+  /**
+   * Create a BITSHIFT statement.
+   *
+   * @param variable
+   *          The variable shifted (A or B)
+   * @param direction
+   *          LEFT or RIGHT
+   * @param bitCount
+   *          The number of bits shifted (1-4)
+   * @return The node
+   */
+  public static StatementNode bitshift(Keyword variable, Keyword direction,
+      int bitCount) {
+    return new StatementNode(Operation.BITSHIFT, variable, NO_OPERAND, false,
+        direction, bitCount, null, null);
+  }
+
+  /**
+   * Get the NOOP statement.
+   *
+   * @return The node
+   */
+  public static StatementNode noOp() {
+    return SIMPLE[Operation.NOOP.ordinal()];
+  }
+
+  /**
+   * Create a BYTES statement.
+   *
+   * @param values
+   *          The byte values, in program order
+   * @return The node
+   */
+  public static StatementNode bytes(int... values) {
+    return new StatementNode(Operation.BYTES, null, NO_OPERAND, false, null, 0,
+        values.clone(), null);
+  }
+
+  /**
+   * Create an INCLUDE statement.
+   *
+   * @param fileName
+   *          The file included, relative to the including file
+   * @return The node
+   */
+  public static StatementNode include(String fileName) {
+    return new StatementNode(Operation.INCLUDE, null, NO_OPERAND, false, null,
+        0, null, fileName);
+  }
+
+  /**
+   * Get the operation performed by the statement.
+   *
+   * @return The operation
+   */
+  public Operation getOperation() {
+    return operation;
+  }
+
+  /**
+   * Get the variable the statement acts on.
+   *
+   * @return A, B, or X, or null if the statement has no variable
+   */
+  public Keyword getVariable() {
+    return variable;
+  }
+
+  /**
+   * Get the literal value, memory location, or source variable location.
+   *
+   * @return The operand, or {@link #NO_OPERAND}
+   */
+  public int getOperand() {
+    return operand;
+  }
+
+  /**
+   * Check whether the operand is a memory location rather than a value.
+   *
+   * @return True for VALUEIN, ADDRESSIN, or a variable ADD/SUBTRACT source
+   */
+  public boolean isIndirect() {
+    return indirect;
+  }
+
+  /**
+   * Get the IF test or the BITSHIFT direction.
+   *
+   * @return The condition, or null if the statement has none
+   */
+  public Keyword getCondition() {
+    return condition;
+  }
+
+  /**
+   * Get the number of bits shifted by a BITSHIFT.
+   *
+   * @return The bit count, 0 for other statements
+   */
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * Get the number of values in a BYTES statement.
+   *
+   * @return The number of values, 0 for other statements
+   */
+  public int getValueCount() {
+    return values == null ? 0 : values.length;
+  }
+
+  /**
+   * Get a value of a BYTES statement.
+   *
+   * @param index
+   *          The value index
+   * @return The byte value
+   */
+  public int getValue(int index) {
+    return values[index];
+  }
+
+  /**
+   * Get the label defined or jumped to, or the file included.
+   *
+   * @return The label or file name, or null if the statement has neither
+   */
+  public String getLabel() {
+    return label;
+  }
+
+  /**
+   * Get the source text of the statement in canonical form: upper case
+   * keywords and octal values.
+   *
+   * @return The statement
+   */
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder(operation.getKeyword().getText());
+
+    switch (operation) {
+      case LABEL:
+      case GOTO:
+      case INCLUDE:
+        text.append(' ').append(label);
+        break;
+      case LET:
+        text.append(' ').append(variable.getText()).append(" =");
+        if (indirect) {
+          text.append(" VALUEIN");
+        }
+        appendOctal(text, operand);
+        break;
+      case MEMCOPY:
+        text.append(' ').append(variable.getText()).append(" TO");
+        if (indirect) {
+          text.append(" ADDRESSIN");
+        }
+        appendOctal(text, operand);
+        break;
+      case AND:
+      case OR:
+        appendOctal(text, operand);
+        break;
+      case ADD:
+      case SUBTRACT:
+        if (indirect) {
+          text.append(' ').append(variableAt(operand).getText());
+        } else {
+          appendOctal(text, operand);
+        }
+        text.append(operation == Operation.ADD ? " TO " : " FROM ")
+            .append(variable.getText());
+        break;
+      case IF:
+        text.append(' ').append(variable.getText()).append(' ')
+            .append(condition.getText()).append(" GOTO ").append(label);
+        break;
+      case BITSHIFT:
+        text.append(' ').append(variable.getText()).append(' ')
+            .append(condition.getText()).append(' ').append(count);
+        break;
+      case BYTES:
+        for (int value : values) {
+          appendOctal(text, value);
+        }
+        break;
+      default:
+        break;
+    }
+
+    return text.toString();
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof StatementNode)) {
+      return false;
+    }
+
+    StatementNode node = (StatementNode) other;
+    return operation == node.operation && variable == node.variable
+        && operand == node.operand && indirect == node.indirect
+        && condition == node.condition && count == node.count
+        && Arrays.equals(values, node.values)
+        && (label == null ? node.label == null : label.equals(node.label));
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = operation.hashCode();
+    hash = hash * 31 + (variable == null ? 0 : variable.hashCode());
+    hash = hash * 31 + operand;
+    hash = hash * 31 + (indirect ? 1 : 0);
+    hash = hash * 31 + (condition == null ? 0 : condition.hashCode());
+    hash = hash * 31 + count;
+    hash = hash * 31 + Arrays.hashCode(values);
+    hash = hash * 31 + (label == null ? 0 : label.hashCode());
+    return hash;
+  }
+
+  /**
+   * Append a value in octal with a leading 0, as KBlang reads it.
+   *
+   * @param text
+   *          The statement text
+   * @param value
+   *          The value
+   */
+  private static void appendOctal(StringBuilder text, int value) {
+    text.append(' ').append(String.format("%04o", value));
+  }
+
+  /**
+   * Get the variable held at a memory location.
+   *
+   * @param memoryLocation
+   *          0, 1, or 2
+   * @return A, B, or X
+   */
+  private static Keyword variableAt(int memoryLocation) {
+    switch (memoryLocation) {
+      case 0:
+        return Keyword.A;
+      case 1:
+        return Keyword.B;
+      default:
+        return Keyword.X;
+    }
+  }
+}
@@ -0,0 +1,328 @@
+package us.daveread.microkenbak1.compiler;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The label names of a program, interned to dense ids when statements are
+ * added to it, with the layout's definition and jump sites (fixups) for each
+ * label. Names are found in an open-addressing hash table, so the layout only
+ * works with ids: resolving a label touches only its own jump sites, and the
+ * undefined and unused labels are found from bitsets.
+ *
+ * @author readda
+ *
+ */
+public final class SymbolTable {
+  /**
+   * Value of a hash slot, or of a definition, that is empty.
+   */
+  private static final int NONE = -1;
+
+  /**
+   * The id in each hash slot, {@link #NONE} for an empty slot. The number of
+   * slots is a power of two, at least twice the number of names.
+   */
+  private int[] slots;
+
+  /**
+   * The name of each id.
+   */
+  private String[] names;
+
+  /**
+   * The number of names.
+   */
+  private int size;
+
+  /**
+   * The code entry defining each label, {@link #NONE} if not defined.
+   */
+  private int[] definitions;
+
+  /**
+   * The code entries of the jumps to each label, in layout order.
+   */
+  private int[][] fixups;
+
+  /**
+   * The number of jumps to each label.
+   */
+  private int[] fixupCounts;
+
+  /**
+   * The ids of the defined labels.
+   */
+  private BitSet defined;
+
+  /**
+   * The ids of the labels jumped to.
+   */
+  private BitSet referenced;
+
+  /**
+   * Create an empty table.
+   */
+  public SymbolTable() {
+    slots = new int[16];
+    Arrays.fill(slots, NONE);
+    names = new String[8];
+    definitions = new int[8];
+    fixups = new int[8][];
+    fixupCounts = new int[8];
+    defined = new BitSet();
+    referenced = new BitSet();
+  }
+
+  /**
+   * Create a copy of another table.
+   *
+   * @param other
+   *          The table to copy
+   */
+  private SymbolTable(SymbolTable other) {
+    slots = other.slots.clone();
+    names = other.names.clone();
+    size = other.size;
+    definitions = other.definitions.clone();
+    fixups = new int[other.fixups.length][];
+    for (int id = 0; id < size; ++id) {
+      if (other.fixupCounts[id] > 0) {
+        fixups[id] = Arrays.copyOf(other.fixups[id], other.fixupCounts[id]);
+      }
+    }
+    fixupCounts = other.fixupCounts.clone();
+    defined = (BitSet) other.defined.clone();
+    referenced = (BitSet) other.referenced.clone();
+  }
+
+  /**
+   * Get the id of a label name, adding the name if it is new.
+   *
+   * @param name
+   *          The label name
+   * @return The id
+   */
+  public int intern(String name) {
+    int slot = slot(name);
+    if (slots[slot] != NONE) {
+      return slots[slot];
+    }
+
+    if (size == names.length) {
+      int capacity = size * 2;
+      names = Arrays.copyOf(names, capacity);
+      definitions = Arrays.copyOf(definitions, capacity);
+      fixups = Arrays.copyOf(fixups, capacity);
+      fixupCounts = Arrays.copyOf(fixupCounts, capacity);
+    }
+    int id = size++;
+    names[id] = name;
+    definitions[id] = NONE;
+    slots[slot] = id;
+    if (size * 2 > slots.length) {
+      rehash();
+    }
+    return id;
+  }
+
+  /**
+   * Copy the names, definitions and jump sites.
+   *
+   * @return The copy
+   */
+  SymbolTable copy() {
+    return new SymbolTable(this);
+  }
+
+  /**
+   * Find the id of a label name.
+   *
+   * @param name
+   *          The label name
+   * @return The id, -1 if the name has not been interned
+   */
+  public int find(String name) {
+    return slots[slot(name)];
+  }
+
+  /**
+   * Get the name of an id.
+   *
+   * @param id
+   *          The id
+   * @return The label name
+   */
+  public String getName(int id) {
+    return names[id];
+  }
+
+  /**
+   * Get the number of names interned.
+   *
+   * @return The number of ids
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the code entry defining a label.
+   *
+   * @param id
+   *          The id
+   * @return The entry, -1 if the label is not defined
+   */
+  public int getDefinition(int id) {
+    return definitions[id];
+  }
+
+  /**
+   * Record the code entry defining a label.
+   *
+   * @param id
+   *          The id
+   * @param entry
+   *          The code entry
+   */
+  void define(int id, int entry) {
+    definitions[id] = entry;
+    defined.set(id);
+  }
+
+  /**
+   * Remove the definition of a label.
+   *
+   * @param id
+   *          The id
+   */
+  void undefine(int id) {
+    definitions[id] = NONE;
+    defined.clear(id);
+  }
+
+  /**
+   * Add a jump site to the end of a label's fixups.
+   *
+   * @param id
+   *          The id
+   * @param entry
+   *          The code entry of the jump
+   */
+  void addFixup(int id, int entry) {
+    int count = fixupCounts[id];
+    if (fixups[id] == null) {
+      fixups[id] = new int[2];
+    } else if (count == fixups[id].length) {
+      fixups[id] = Arrays.copyOf(fixups[id], count * 2);
+    }
+    fixups[id][count] = entry;
+    fixupCounts[id] = count + 1;
+    referenced.set(id);
+  }
+
+  /**
+   * Remove the last jump site of a label's fixups.
+   *
+   * @param id
+   *          The id
+   */
+  void removeLastFixup(int id) {
+    if (--fixupCounts[id] == 0) {
+      referenced.clear(id);
+    }
+  }
+
+  /**
+   * Get the number of jumps to a label.
+   *
+   * @param id
+   *          The id
+   * @return The number of jump sites
+   */
+  public int getFixupCount(int id) {
+    return fixupCounts[id];
+  }
+
+  /**
+   * Get a jump site of a label.
+   *
+   * @param id
+   *          The id
+   * @param index
+   *          The index of the site, in layout order
+   * @return The code entry of the jump
+   */
+  public int getFixup(int id, int index) {
+    return fixups[id][index];
+  }
+
+  /**
+   * Find the next label jumped to that is not defined.
+   *
+   * @param from
+   *          The first id to check
+   * @return The id, -1 if there is none
+   */
+  public int nextUndefined(int from) {
+    int id = referenced.nextSetBit(from);
+    while (id >= 0 && defined.get(id)) {
+      id = referenced.nextSetBit(id + 1);
+    }
+    return id;
+  }
+
+  /**
+   * Find the next label defined that is not jumped to.
+   *
+   * @param from
+   *          The first id to check
+   * @return The id, -1 if there is none
+   */
+  public int nextUnused(int from) {
+    int id = defined.nextSetBit(from);
+    while (id >= 0 && referenced.get(id)) {
+      id = defined.nextSetBit(id + 1);
+    }
+    return id;
+  }
+
+  /**
+   * Remove every definition and jump site, keeping the names and their ids.
+   */
+  void clearLayout() {
+    Arrays.fill(definitions, 0, size, NONE);
+    Arrays.fill(fixupCounts, 0, size, 0);
+    defined.clear();
+    referenced.clear();
+  }
+
+  /**
+   * Find the hash slot of a name: the slot holding its id, or the empty slot
+   * where it would be added.
+   *
+   * @param name
+   *          The label name
+   * @return The slot
+   */
+  private int slot(String name) {
+    int mask = slots.length - 1;
+    int hash = name.hashCode();
+    int slot = (hash ^ hash >>> 16) & mask;
+    while (slots[slot] != NONE && !names[slots[slot]].equals(name)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  /**
+   * Double the number of hash slots.
+   */
+  private void rehash() {
+    slots = new int[slots.length * 2];
+    Arrays.fill(slots, NONE);
+    for (int id = 0; id < size; ++id) {
+      slots[slot(names[id])] = id;
+    }
+  }
+}
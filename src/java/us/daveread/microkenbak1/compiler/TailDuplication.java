@@ -0,0 +1,200 @@
+package us.daveread.microkenbak1.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An optimization pass trading bytes for speed: a GOTO jumping to a short
+ * block of statements that itself ends with a GOTO is replaced by a copy of
+ * the block, so the jump is not taken. Each GOTO is replaced at most once, so
+ * the copies are not copied again. A label followed by a GOTO alone is left
+ * to {@link JumpThreading}, which runs before this pass.
+ *
+ * A block ending with a HALT is not copied, since running on from the copied
+ * HALT would continue after the copy rather than after the original, nor is
+ * one holding a label, an IF, BYTES, or a statement that did not parse.
+ * Copies are only made while the program still fits below the LED display
+ * address, and a label whose jumps were all replaced by copies is removed,
+ * so it is not reported as unused.
+ *
+ * A program that may jump to a computed address is left unchanged, since
+ * copying a block moves the code after it.
+ *
+ * @author readda
+ *
+ */
+public final class TailDuplication implements OptimizationPass {
+  /**
+   * The most statements copied in place of a GOTO, including the GOTO ending
+   * the block.
+   */
+  private static final int MAX_STATEMENTS = 4;
+
+  /**
+   * The memory cells a program may use without reaching the display address.
+   */
+  private static final int ROOM = MemoryImage.Region.DISPLAY.getStart()
+      - MemoryImage.PROGRAM_START;
+
+  @Override
+  public String getName() {
+    return "tail-duplication";
+  }
+
+  @Override
+  public List<Statement> run(List<Statement> statements,
+      List<Diagnostic> remarks) {
+    if (new ControlFlowGraph(statements).hasComputedJumps()) {
+      return statements;
+    }
+
+    Map<String, Integer> labels = new HashMap<>();
+    int cells = 0;
+    for (int index = 0; index < statements.size(); ++index) {
+      StatementNode node = statements.get(index).getNode();
+      if (is(node, Operation.LABEL)) {
+        labels.putIfAbsent(node.getLabel(), index);
+      }
+      cells += statements.get(index).getMemoryCells();
+    }
+
+    List<Statement> duplicated = new ArrayList<>(statements.size());
+    Set<String> replaced = new HashSet<>();
+    for (Statement stmt : statements) {
+      StatementNode node = stmt.getNode();
+      List<Statement> block = is(node, Operation.GOTO)
+          ? block(statements, labels.get(node.getLabel())) : null;
+      int growth = block == null ? 0
+          : cells(block) - stmt.getMemoryCells();
+      if (block == null || block.contains(stmt) || cells + growth > ROOM) {
+        duplicated.add(stmt);
+        continue;
+      }
+
+      StringBuilder copy = new StringBuilder();
+      for (Statement original : block) {
+        Statement copied = new Statement(original.getNode());
+        copied.setLine(stmt.getLine());
+        duplicated.add(copied);
+        copy.append(copy.length() == 0 ? "" : "; ").append(format(original));
+      }
+      remarks.add(Diagnostic.of(Diagnostic.Code.OPTIMIZATION_REMARK, stmt,
+          -1, "Tail duplicated: " + format(stmt) + " replaced by " + copy));
+      replaced.add(node.getLabel());
+      cells += growth;
+    }
+
+    return removeUnjumped(duplicated, replaced);
+  }
+
+  /**
+   * Find the block of statements following a label, if it can be copied.
+   *
+   * @param statements
+   *          The statements
+   * @param label
+   *          The index of the LABEL statement, null if the label is not
+   *          defined
+   * @return The statements from the first after the labels to the GOTO ending
+   *         the block, null if the block cannot be copied
+   */
+  private static List<Statement> block(List<Statement> statements,
+      Integer label) {
+    if (label == null) {
+      return null;
+    }
+    int start = label;
+    while (start < statements.size()
+        && is(statements.get(start).getNode(), Operation.LABEL)) {
+      ++start;
+    }
+    for (int index = start; index < statements.size()
+        && index - start < MAX_STATEMENTS; ++index) {
+      StatementNode node = statements.get(index).getNode();
+      if (is(node, Operation.GOTO)) {
+        return index == start ? null : statements.subList(start, index + 1);
+      }
+      if (node == null || node.getOperation() == Operation.LABEL
+          || node.getOperation() == Operation.IF
+          || node.getOperation() == Operation.HALT
+          || node.getOperation() == Operation.BYTES) {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Remove the LABEL statements no longer jumped to because their jumps were
+   * replaced by copies.
+   *
+   * @param statements
+   *          The statements
+   * @param replaced
+   *          The labels whose jumps were replaced
+   * @return The statements, without those labels
+   */
+  private static List<Statement> removeUnjumped(List<Statement> statements,
+      Set<String> replaced) {
+    Set<String> jumped = new HashSet<>();
+    for (Statement stmt : statements) {
+      StatementNode node = stmt.getNode();
+      if (is(node, Operation.GOTO) || is(node, Operation.IF)) {
+        jumped.add(node.getLabel());
+      }
+    }
+
+    List<Statement> kept = new ArrayList<>(statements.size());
+    for (Statement stmt : statements) {
+      StatementNode node = stmt.getNode();
+      if (!is(node, Operation.LABEL) || !replaced.contains(node.getLabel())
+          || jumped.contains(node.getLabel())) {
+        kept.add(stmt);
+      }
+    }
+    return kept;
+  }
+
+  /**
+   * Count the memory cells of statements.
+   *
+   * @param statements
+   *          The statements
+   * @return The number of memory cells
+   */
+  private static int cells(List<Statement> statements) {
+    int cells = 0;
+    for (Statement stmt : statements) {
+      cells += stmt.getMemoryCells();
+    }
+    return cells;
+  }
+
+  /**
+   * Format a statement for a remark.
+   *
+   * @param stmt
+   *          The statement
+   * @return The statement's source
+   */
+  private static String format(Statement stmt) {
+    return stmt.getFormattedStatement().trim();
+  }
+
+  /**
+   * Check a statement's operation.
+   *
+   * @param node
+   *          The statement, null if it did not parse
+   * @param operation
+   *          The operation
+   * @return True if the statement parsed and performs the operation
+   */
+  private static boolean is(StatementNode node, Operation operation) {
+    return node != null && node.getOperation() == operation;
+  }
+}
@@ -0,0 +1,110 @@
+package us.daveread.microkenbak1.compiler;
+
+/**
+ * Splits a source line into lexemes in a single pass. Any whitespace separates
+ * lexemes and a # begins a comment that runs to the end of the line. The
+ * lexemes are returned as spans over the scanned buffer, classified as
+ * keywords as they are found. No Strings are created.
+ *
+ * A tokenizer reuses its working storage and is not thread safe.
+ *
+ * @author readda
+ *
+ */
+public class Tokenizer {
+  /**
+   * The character beginning a comment.
+   */
+  public static final char COMMENT = '#';
+
+  /**
+   * Working storage for the spans found on the current line.
+   */
+  private int[] spans;
+
+  /**
+   * Create a tokenizer.
+   */
+  public Tokenizer() {
+    spans = new int[Lexemes.SPAN_SIZE * 8];
+  }
+
+  /**
+   * Tokenize a complete line.
+   *
+   * @param line
+   *          A single statement (source code line)
+   * @return The lexemes, or null if the line contains no lexemes
+   */
+  public Lexemes tokenize(String line) {
+    char[] buffer = line.toCharArray();
+    return tokenize(buffer, 0, buffer.length);
+  }
+
+  /**
+   * Tokenize the characters of one line held in a larger buffer. The returned
+   * lexemes refer directly to the supplied buffer, which must not be changed
+   * afterward.
+   *
+   * @param buffer
+   *          The buffer holding the line
+   * @param start
+   *          The offset of the first character of the line
+   * @param end
+   *          The offset just past the last character of the line
+   * @return The lexemes, or null if the line contains no lexemes
+   */
+  public Lexemes tokenize(char[] buffer, int start, int end) {
+    int count = 0;
+    int position = start;
+
+    while (position < end) {
+      char c = buffer[position];
+      if (isWhitespace(c)) {
+        ++position;
+        continue;
+      }
+
+      if (c == COMMENT) {
+        break;
+      }
+
+      int tokenStart = position;
+      while (position < end && !isWhitespace(buffer[position])
+          && buffer[position] != COMMENT) {
+        ++position;
+      }
+
+      if (count * Lexemes.SPAN_SIZE == spans.length) {
+        int[] larger = new int[spans.length * 2];
+        System.arraycopy(spans, 0, larger, 0, spans.length);
+        spans = larger;
+      }
+      int span = count * Lexemes.SPAN_SIZE;
+      spans[span] = tokenStart;
+      spans[span + 1] = position - tokenStart;
+      spans[span + 2] = Lexemes.ordinal(buffer, tokenStart,
+          position - tokenStart);
+      ++count;
+    }
+
+    if (count == 0) {
+      return null;
+    }
+
+    int[] statementSpans = new int[count * Lexemes.SPAN_SIZE];
+    System.arraycopy(spans, 0, statementSpans, 0, statementSpans.length);
+    return new Lexemes(buffer, statementSpans, count);
+  }
+
+  /**
+   * Check whether a character separates lexemes.
+   *
+   * @param c
+   *          The character
+   * @return True if the character is whitespace
+   */
+  static boolean isWhitespace(char c) {
+    return c <= ' ' || Character.isWhitespace(c);
+  }
+}